@@ -18,4 +18,10 @@
 
 # If you keep the line number information, uncomment this to
 # hide the original source file name.
-#-renamesourcefileattribute SourceFile
\ No newline at end of file
+#-renamesourcefileattribute SourceFile
+
+# Remove verbose and debug logging calls of AppLog, including their arguments, when minified
+-assumenosideeffects class com.example.t4.logging.AppLog {
+    public static void v(...);
+    public static void d(...);
+}
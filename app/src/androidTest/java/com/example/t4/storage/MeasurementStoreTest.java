@@ -0,0 +1,171 @@
+package com.example.t4.storage;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.t4.bluetooth.BluetoothUtils;
+import com.example.t4.measurement.MeasurementBus;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs on a device: the store needs SQLite
+ */
+@RunWith(AndroidJUnit4.class)
+public class MeasurementStoreTest {
+
+    private static final String ADDRESS = "00:11:22:AA:BB:CC";
+
+    private Context context;
+    private MeasurementStore store;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        deleteFiles();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (store != null) {
+            store.close();
+            assertTrue(store.awaitClosed(5000));
+        }
+        deleteFiles();
+    }
+
+    @Test
+    public void getMeasurements_returnsBufferedMeasurementsNewestFirst() throws InterruptedException {
+        store = new MeasurementStore(context);
+        long now = SystemClock.elapsedRealtime();
+        store.onMeasurement(ADDRESS, MeasurementBus.TYPE_DISTANCE, 1, 1.5f, now - 2);
+        store.onMeasurement(ADDRESS, MeasurementBus.TYPE_DISTANCE, 1, 2.5f, now - 1);
+
+        List<Measurement> measurements = store.getMeasurements(ADDRESS, 0, Long.MAX_VALUE, 10);
+
+        assertEquals(2, measurements.size());
+        assertEquals(2.5f, measurements.get(0).getValue(), 0);
+        assertTrue(measurements.get(0).getSequence() > measurements.get(1).getSequence());
+        assertEquals(MeasurementStore.UNIT_METER, measurements.get(0).getUnit());
+    }
+
+    @Test
+    public void getMeasurements_readsLogTailWithoutCompaction() throws InterruptedException {
+        store = new MeasurementStore(context);
+        long now = SystemClock.elapsedRealtime();
+        store.onMeasurement(ADDRESS, MeasurementBus.TYPE_DISTANCE, 1, 1.5f, now);
+
+        List<Measurement> measurements = store.getMeasurements(ADDRESS, 0, Long.MAX_VALUE, 10);
+
+        assertEquals(1, measurements.size());
+        assertEquals(ADDRESS, measurements.get(0).getDeviceAddress());
+        assertEquals(MeasurementLog.RECORD_SIZE, new File(context.getFilesDir(), "measurements.log").length()); // still in the log
+        assertEquals(ADDRESS, store.getDevices().get(0).getMacAddress());
+    }
+
+    @Test
+    public void open_recoversLogOfLastRunOnWriterThread() throws IOException, InterruptedException {
+        MeasurementLog log = new MeasurementLog(new File(context.getFilesDir(), "measurements.log"));
+        ByteBuffer buffer = ByteBuffer.allocate(2 * MeasurementLog.RECORD_SIZE);
+        long address = BluetoothUtils.addressToLong(ADDRESS);
+        MeasurementLog.encode(buffer, new CRC32(), 41, 1_000, address, MeasurementBus.TYPE_DISTANCE, 1, MeasurementStore.UNIT_METER, 1f);
+        MeasurementLog.encode(buffer, new CRC32(), 42, 2_000, address, MeasurementBus.TYPE_DISTANCE, 1, MeasurementStore.UNIT_METER, 2f);
+        buffer.flip();
+        log.append(buffer);
+        log.close();
+
+        store = new MeasurementStore(context); // returns before the recovery
+        store.onMeasurement(ADDRESS, MeasurementBus.TYPE_DISTANCE, 1, 3f, SystemClock.elapsedRealtime());
+
+        List<Measurement> measurements = store.getMeasurements(ADDRESS, 0, Long.MAX_VALUE, 10);
+        assertEquals(3, measurements.size());
+        assertEquals(3f, measurements.get(0).getValue(), 0);
+        assertEquals(43, measurements.get(0).getSequence()); // numbered after the recovered records
+        assertEquals(41, measurements.get(2).getSequence());
+    }
+
+    @Test
+    public void close_writesRemainingMeasurementsOnWriterThread() throws InterruptedException {
+        store = new MeasurementStore(context);
+        store.onMeasurement(ADDRESS, MeasurementBus.TYPE_DISTANCE, 1, 4.2f, SystemClock.elapsedRealtime());
+        store.close();
+        assertTrue(store.awaitClosed(5000));
+        store.onMeasurement(ADDRESS, MeasurementBus.TYPE_DISTANCE, 1, 9f, SystemClock.elapsedRealtime()); // dropped
+
+        store = new MeasurementStore(context);
+        List<Measurement> measurements = store.getMeasurements(ADDRESS, 0, Long.MAX_VALUE, 10);
+        assertEquals(1, measurements.size());
+        assertEquals(4.2f, measurements.get(0).getValue(), 0);
+    }
+
+    @Test
+    public void updateDevice_storesDeviceWithoutMeasurements() throws InterruptedException {
+        store = new MeasurementStore(context);
+        store.updateDevice(ADDRESS, "Bosch GLM 120 C");
+
+        assertEquals(1, store.getDevices().size());
+        assertEquals("Bosch GLM 120 C", store.getDevices().get(0).getName());
+    }
+
+    @Test
+    public void importHistory_storesRecordsWithDeviceTimestampApartFromMeasurements() throws InterruptedException {
+        store = new MeasurementStore(context);
+        assertTrue(store.importHistory(ADDRESS, Arrays.asList(
+                new HistoryRecord(1, 5_000, MeasurementBus.TYPE_DISTANCE, 1, MeasurementStore.UNIT_METER, 1.25f),
+                new HistoryRecord(2, 6_000, MeasurementBus.TYPE_DISTANCE, 1, MeasurementStore.UNIT_METER, 2.5f)), 7));
+
+        List<HistoryRecord> records = store.getHistoryRecords(ADDRESS, 10);
+
+        assertEquals(2, records.size());
+        assertEquals(6_000, records.get(0).getDeviceTimestamp());
+        assertEquals(2.5f, records.get(0).getValue(), 0);
+        assertTrue(store.getMeasurements(ADDRESS, 0, Long.MAX_VALUE, 10).isEmpty());
+    }
+
+    @Test
+    public void readHistoryCheckpoint_seesPagesBufferedBefore() throws Exception {
+        store = new MeasurementStore(context);
+        assertEquals(0, store.readHistoryCheckpoint(ADDRESS).get(5, TimeUnit.SECONDS).getNextIndex());
+        store.importHistory(ADDRESS, Collections.singletonList(
+                new HistoryRecord(1, 5_000, MeasurementBus.TYPE_DISTANCE, 1, MeasurementStore.UNIT_METER, 1.25f)), 7);
+        store.importHistory(ADDRESS, Collections.singletonList(
+                new HistoryRecord(2, 6_000, MeasurementBus.TYPE_DISTANCE, 1, MeasurementStore.UNIT_METER, 2.5f)), 14);
+
+        HistoryCheckpoint checkpoint = store.readHistoryCheckpoint(ADDRESS).get(5, TimeUnit.SECONDS);
+
+        assertEquals(14, checkpoint.getNextIndex());
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), checkpoint.getKeys());
+    }
+
+    @Test
+    public void readHistoryCheckpoint_failsAfterClose() {
+        store = new MeasurementStore(context);
+        store.close();
+
+        assertTrue(store.readHistoryCheckpoint(ADDRESS).isCompletedExceptionally());
+    }
+
+    private void deleteFiles() {
+        context.deleteDatabase("measurements.db");
+        new File(context.getFilesDir(), "measurements.log").delete();
+        new File(context.getFilesDir(), "measurements.log.compacting").delete();
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.t4;
+
+import com.example.t4.measurement.BurstResult;
+import com.example.t4.measurement.RunningStatistics;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Samples of one running burst, completed with the {@link BurstResult} when all samples are received
+ *
+ * Thread safe: samples arrive on the protocol threads, failures on the watchdog as well.
+ */
+final class BurstMeasurement {
+
+    private final String deviceAddress;
+    private final String family;
+    private final long startedAt;
+    private final float[] values;
+    private final long[] timestamps;
+    private final boolean[] outliers;
+    private final RunningStatistics statistics;
+    private final CompletableFuture<BurstResult> future = new CompletableFuture<>();
+    private int received;
+    private ScheduledFuture<?> sampleTimeout;
+
+    /**
+     * @param count samples to collect
+     * @param statistics statistics, with the outlier rejection to apply
+     * @param startedAt start of the burst in ms, SystemClock.elapsedRealtime() base
+     */
+    BurstMeasurement(String deviceAddress, String family, int count, RunningStatistics statistics, long startedAt) {
+        this.deviceAddress = deviceAddress;
+        this.family = family;
+        this.values = new float[count];
+        this.timestamps = new long[count];
+        this.outliers = new boolean[count];
+        this.statistics = statistics;
+        this.startedAt = startedAt;
+    }
+
+    /**
+     * @param value measured distance
+     * @param timestamp time of reception, SystemClock.elapsedRealtime() base
+     * @return true if more samples are expected
+     */
+    boolean add(float value, long timestamp) {
+        BurstResult result;
+        synchronized (this) {
+            if (future.isDone() || received == values.length) {
+                return false;
+            }
+            values[received] = value;
+            timestamps[received] = timestamp;
+            outliers[received] = !statistics.add(value);
+            received++;
+            if (received < values.length) {
+                return true;
+            }
+            result = new BurstResult(deviceAddress, family, values, timestamps, outliers, statistics, timestamp - startedAt);
+        }
+        future.complete(result);
+        return false;
+    }
+
+    synchronized int getReceived() {
+        return received;
+    }
+
+    /**
+     * @param timeout fails the burst if the next sample does not arrive; replaces the timeout of the previous sample
+     */
+    synchronized void setSampleTimeout(ScheduledFuture<?> timeout) {
+        cancelSampleTimeout();
+        if (future.isDone()) {
+            timeout.cancel(false);
+        } else {
+            sampleTimeout = timeout;
+        }
+    }
+
+    void fail(Throwable error) {
+        future.completeExceptionally(error);
+    }
+
+    /**
+     * @return completed with the result; cancelled or failed, if the burst did not finish
+     */
+    CompletableFuture<BurstResult> getFuture() {
+        return future;
+    }
+
+    synchronized void cancelSampleTimeout() {
+        if (sampleTimeout != null) {
+            sampleTimeout.cancel(false);
+            sampleTimeout = null;
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package com.example.t4;
+
+import com.bosch.mtprotocol.MtMessage;
+import com.bosch.mtprotocol.MtProtocol;
+import com.bosch.mtprotocol.MtProtocol.MTProtocolEvent;
+import com.bosch.mtprotocol.glm100C.event.MtProtocolFatalErrorEvent;
+import com.bosch.mtprotocol.glm100C.event.MtProtocolReceiveMessageEvent;
+import com.bosch.mtprotocol.glm100C.event.MtProtocolRequestTimeoutEvent;
+import com.bosch.mtprotocol.glm100C.message.SimpleMessage;
+import com.example.t4.exc.MtProtocolException;
+import com.example.t4.logging.AppLog;
+import com.example.t4.metrics.ConnectionMetrics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/**
+ * Queue of outgoing MT commands on top of an {@link MtProtocol}, with responses correlated to requests
+ *
+ * The protocol exchanges one frame at a time and reports every received message as an event, answers
+ * as well as messages the device sends on its own. Commands are handed to the protocol in order, up to
+ * {@link #DEFAULT_MAX_IN_FLIGHT} at once, so the next request is already queued in the protocol while
+ * the current one is answered. The answers arrive in the same order: an event completes the oldest
+ * command in flight if its {@link ResponseMatcher} accepts the message. A request timeout of the
+ * protocol, a fatal protocol error or the watchdog fail the command.
+ *
+ * A caller may cancel a command or give it a deadline. A command not yet sent is dropped from the
+ * queue; a command in flight stays there until its response arrives, so later answers are still
+ * matched to the right commands, and only its future is completed early.
+ *
+ * Thread safe: commands may be submitted from any thread, events arrive on the protocol threads.
+ * Futures are completed outside the lock, except for a send rejected by the protocol.
+ */
+final class CommandScheduler {
+
+    private static final String TAG = "CommandScheduler";
+
+    static final int DEFAULT_MAX_IN_FLIGHT = 2;
+
+    // a command dropped inside the protocol gets no timeout event: failed after the protocol timeout plus this margin
+    static final long WATCHDOG_MARGIN_IN_MS = 1000;
+
+    /**
+     * Recognizes the response of a command among the received messages
+     */
+    interface ResponseMatcher {
+        boolean matches(MtMessage message);
+    }
+
+    private final MtProtocol protocol;
+    private final long timeoutInMs;
+    private final ConnectionMetrics metrics;
+    private final ScheduledExecutorService watchdog;
+
+    private final ArrayDeque<Command> pending = new ArrayDeque<>();
+    // handed to the protocol, oldest first; the first one is being exchanged
+    private final ArrayDeque<Command> inFlight = new ArrayDeque<>();
+    private ScheduledFuture<?> watchdogTask;
+    private boolean closed;
+
+    /**
+     * @param protocol initialized protocol
+     * @param timeoutInMs request timeout of the protocol
+     * @param metrics metrics to record round trips and timeouts
+     */
+    CommandScheduler(MtProtocol protocol, long timeoutInMs, ConnectionMetrics metrics) {
+        this(protocol, timeoutInMs, metrics, SharedWatchdog.INSTANCE);
+    }
+
+    /**
+     * @param watchdog executor of the watchdog; null to rely on the timeout events of the protocol only
+     */
+    CommandScheduler(MtProtocol protocol, long timeoutInMs, ConnectionMetrics metrics, ScheduledExecutorService watchdog) {
+        this.protocol = protocol;
+        this.timeoutInMs = timeoutInMs;
+        this.metrics = metrics;
+        this.watchdog = watchdog;
+    }
+
+    /**
+     * @param type class of the response message
+     * @return matcher accepting messages of the type
+     */
+    static ResponseMatcher responseOfType(final Class<? extends MtMessage> type) {
+        return new ResponseMatcher() {
+            @Override
+            public boolean matches(MtMessage message) {
+                return type.isInstance(message);
+            }
+        };
+    }
+
+    /**
+     * Commands without a message factory of their own (e.g. laser on/off) are answered with a
+     * SimpleMessage of the same command
+     *
+     * @param request request of the command
+     * @return matcher accepting the SimpleMessage of the request's command
+     */
+    static ResponseMatcher sameCommand(SimpleMessage request) {
+        return simpleResponse(request.getCommand());
+    }
+
+    /**
+     * For requests that are no SimpleMessage themselves, e.g. EDCDoRemoteTriggerButtonMessage
+     *
+     * @param command command number of the request
+     * @return matcher accepting a SimpleMessage of the command
+     */
+    static ResponseMatcher simpleResponse(final byte command) {
+        return new ResponseMatcher() {
+            @Override
+            public boolean matches(MtMessage message) {
+                return message instanceof SimpleMessage && ((SimpleMessage) message).getCommand() == command;
+            }
+        };
+    }
+
+    /**
+     * @return executor of the watchdogs of all connections, for deadlines outside the scheduler
+     */
+    static ScheduledExecutorService sharedWatchdog() {
+        return SharedWatchdog.INSTANCE;
+    }
+
+    /**
+     * Queues the request; it is sent as soon as fewer than {@link #DEFAULT_MAX_IN_FLIGHT} commands are in flight
+     *
+     * @param request message to send
+     * @param matcher recognizes the response
+     * @return completed with the response; failed with a TimeoutException, an MtProtocolException
+     * or cancelled, if the scheduler is closed
+     */
+    CompletableFuture<MtMessage> submit(MtMessage request, ResponseMatcher matcher) {
+        return submit(request, matcher, 0);
+    }
+
+    /**
+     * @param deadlineInMs time from now until the future fails with a TimeoutException, including the
+     * time in the queue; 0 for the request timeout of the protocol only
+     */
+    CompletableFuture<MtMessage> submit(MtMessage request, ResponseMatcher matcher, long deadlineInMs) {
+        final Command command = new Command(request, matcher);
+        List<Command> rejected;
+        synchronized (this) {
+            if (closed) {
+                command.future.cancel(false);
+                return command.future;
+            }
+            pending.addLast(command);
+            command.future.whenComplete(new BiConsumer<MtMessage, Throwable>() {
+                @Override
+                public void accept(MtMessage response, Throwable error) {
+                    onCompleted(command);
+                }
+            });
+            if (deadlineInMs > 0 && watchdog != null) {
+                command.deadline = watchdog.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        command.future.completeExceptionally(new TimeoutException("Command deadline expired"));
+                    }
+                }, deadlineInMs, TimeUnit.MILLISECONDS);
+            }
+            rejected = sendPending();
+        }
+        completeAll(rejected);
+        return command.future;
+    }
+
+    /**
+     * Completes the command the event answers
+     *
+     * @param event event of the protocol
+     * @return true if the event was the response of a command and is handled through its future;
+     * timeouts and errors are reported to the caller as well
+     */
+    boolean onEvent(MTProtocolEvent event) {
+        if (event instanceof MtProtocolFatalErrorEvent) {
+            onFatalError();
+            return false;
+        }
+        Command finished;
+        List<Command> rejected;
+        synchronized (this) {
+            finished = inFlight.peekFirst();
+            if (finished == null) {
+                return false;
+            }
+            if (event instanceof MtProtocolReceiveMessageEvent) {
+                MtMessage message = ((MtProtocolReceiveMessageEvent) event).getMessage();
+                if (!finished.matcher.matches(message)) {
+                    return false; // sent by the device on its own, e.g. a measurement in auto sync mode
+                }
+                metrics.recordRoundTrip(finished.startedAt);
+                finished.response = message;
+            } else if (event instanceof MtProtocolRequestTimeoutEvent) {
+                metrics.recordProtocolTimeout();
+                finished.error = new TimeoutException("No response within " + timeoutInMs + " ms");
+            } else {
+                return false;
+            }
+            rejected = advance();
+        }
+        finished.complete();
+        completeAll(rejected);
+        return finished.response != null;
+    }
+
+    /**
+     * Cancels all queued commands and commands in flight; later submits are cancelled at once
+     */
+    void close() {
+        List<Command> cancelled;
+        synchronized (this) {
+            closed = true;
+            cancelWatchdog();
+            cancelled = new ArrayList<>(inFlight);
+            cancelled.addAll(pending);
+            inFlight.clear();
+            pending.clear();
+        }
+        for (Command command : cancelled) {
+            command.future.cancel(false);
+        }
+    }
+
+    synchronized int getPendingCount() {
+        return pending.size() + inFlight.size();
+    }
+
+    // ##### Helper & private methods #####
+
+    /**
+     * Cancelled or timed out by the caller: dropped if not sent yet
+     */
+    private void onCompleted(Command command) {
+        if (command.deadline != null) {
+            command.deadline.cancel(false);
+        }
+        synchronized (this) {
+            pending.removeFirstOccurrence(command);
+        }
+    }
+
+    /**
+     * The protocol is reset, commands in flight are lost: failed, the queued ones are sent afterwards
+     */
+    private void onFatalError() {
+        List<Command> failed;
+        synchronized (this) {
+            cancelWatchdog();
+            failed = new ArrayList<>(inFlight);
+            inFlight.clear();
+            for (Command command : failed) {
+                command.error = new MtProtocolException("Fatal protocol error");
+            }
+            protocol.reset();
+            failed.addAll(sendPending());
+        }
+        completeAll(failed);
+    }
+
+    /**
+     * Removes the oldest command in flight, starts the exchange of the next one and fills up
+     * @return commands the protocol did not accept, to be completed after leaving the lock
+     */
+    private List<Command> advance() {
+        inFlight.pollFirst();
+        cancelWatchdog();
+        Command next = inFlight.peekFirst();
+        if (next != null) {
+            startExchange(next);
+        }
+        return sendPending();
+    }
+
+    /**
+     * Sends queued commands until the window of commands in flight is full
+     * @return commands the protocol did not accept, to be completed after leaving the lock: their
+     * callbacks may lock the caller, which in turn submits to this scheduler
+     */
+    private List<Command> sendPending() {
+        List<Command> rejected = Collections.emptyList();
+        while (!closed && inFlight.size() < DEFAULT_MAX_IN_FLIGHT && !pending.isEmpty()) {
+            Command command = pending.pollFirst();
+            inFlight.addLast(command);
+            if (inFlight.size() == 1) {
+                startExchange(command);
+            }
+            try {
+                protocol.sendMessage(command.request);
+            } catch (RuntimeException e) { // outgoing queue of the protocol full; rare
+                AppLog.w(TAG, "Command %s not sent: %s", command.request, e.getMessage());
+                inFlight.removeLastOccurrence(command);
+                if (inFlight.isEmpty()) {
+                    cancelWatchdog();
+                }
+                command.error = e;
+                if (rejected.isEmpty()) {
+                    rejected = new ArrayList<>();
+                }
+                rejected.add(command);
+            }
+        }
+        return rejected;
+    }
+
+    private static void completeAll(List<Command> commands) {
+        for (Command command : commands) {
+            command.complete();
+        }
+    }
+
+    private void startExchange(final Command command) {
+        command.startedAt = System.nanoTime();
+        if (watchdog == null) {
+            return;
+        }
+        watchdogTask = watchdog.schedule(new Runnable() {
+            @Override
+            public void run() {
+                onWatchdogExpired(command);
+            }
+        }, timeoutInMs + WATCHDOG_MARGIN_IN_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void onWatchdogExpired(Command command) {
+        List<Command> rejected;
+        synchronized (this) {
+            if (inFlight.peekFirst() != command) {
+                return; // completed in the meantime
+            }
+            AppLog.w(TAG, "No response and no timeout for %s -> failed", command.request);
+            metrics.recordProtocolTimeout();
+            command.error = new TimeoutException("Dropped by the protocol, no response within " + timeoutInMs + " ms");
+            rejected = advance();
+        }
+        command.complete();
+        completeAll(rejected);
+    }
+
+    private void cancelWatchdog() {
+        if (watchdogTask != null) {
+            watchdogTask.cancel(false);
+            watchdogTask = null;
+        }
+    }
+
+    private static final class Command {
+        final MtMessage request;
+        final ResponseMatcher matcher;
+        final CompletableFuture<MtMessage> future = new CompletableFuture<>();
+        long startedAt;
+        ScheduledFuture<?> deadline;
+        MtMessage response;
+        Throwable error;
+
+        Command(MtMessage request, ResponseMatcher matcher) {
+            this.request = request;
+            this.matcher = matcher;
+        }
+
+        void complete() {
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(response);
+            }
+        }
+    }
+
+    /**
+     * One watchdog thread for all connections, created on first use
+     */
+    private static final class SharedWatchdog {
+        static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG + " watchdog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
@@ -11,6 +11,10 @@ public class GLMDevice implements Serializable {
 	private String name;
 	private String macAddress;
 	private Date birthDate;
+	private String family;
+	private Date lastConnected;
+	private int mtu;
+	private boolean writeWithoutResponse;
 
 	/**
 	 * @return the id
@@ -60,13 +64,62 @@ public class GLMDevice implements Serializable {
 	public void setBirthDate(Date birthDate) {
 		this.birthDate = birthDate;
 	}
+	/**
+	 * @return the name of the DeviceFamily; null if never connected
+	 */
+	public String getFamily() {
+		return family;
+	}
+	/**
+	 * @param family the name of the DeviceFamily to set
+	 */
+	public void setFamily(String family) {
+		this.family = family;
+	}
+	/**
+	 * @return the time of the last connect; null if never connected
+	 */
+	public Date getLastConnected() {
+		return lastConnected;
+	}
+	/**
+	 * @param lastConnected the time of the last connect to set
+	 */
+	public void setLastConnected(Date lastConnected) {
+		this.lastConnected = lastConnected;
+	}
+	/**
+	 * @return the ATT MTU negotiated on the last BLE connect; 0 if not known
+	 */
+	public int getMtu() {
+		return mtu;
+	}
+	/**
+	 * @param mtu the negotiated ATT MTU to set
+	 */
+	public void setMtu(int mtu) {
+		this.mtu = mtu;
+	}
+	/**
+	 * @return true if the MT characteristic is written without response
+	 */
+	public boolean isWriteWithoutResponse() {
+		return writeWithoutResponse;
+	}
+	/**
+	 * @param writeWithoutResponse true if the MT characteristic is written without response
+	 */
+	public void setWriteWithoutResponse(boolean writeWithoutResponse) {
+		this.writeWithoutResponse = writeWithoutResponse;
+	}
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
 	@Override
 	public String toString() {
 		return "GLMDevice [id=" + id + ", name=" + name + ", macAddress="
-				+ macAddress + ", birthDate=" + birthDate + "]";
+				+ macAddress + ", birthDate=" + birthDate + ", family=" + family
+				+ ", lastConnected=" + lastConnected + ", mtu=" + mtu + "]";
 	}
 
 }
@@ -1,5 +1,6 @@
 package com.example.t4;
 
+import java.util.Comparator;
 import java.util.List;
 import android.annotation.SuppressLint;
 import android.content.Context;
@@ -12,11 +13,24 @@ import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 
+import com.bosch.mtprotocol.glm100C.connection.MtAsyncConnection;
 import com.example.t4.bluetooth.BLEService;
+import com.example.t4.bluetooth.DeviceListDiff;
 import com.example.t4.bluetooth.MTBluetoothDevice;
 
 
 public class GLMDeviceArrayAdapter extends ArrayAdapter<MTBluetoothDevice> {
+
+	/**
+	 * Order of the device list
+	 */
+	public static final Comparator<MTBluetoothDevice> BY_DISPLAY_NAME = new Comparator<MTBluetoothDevice>() {
+
+		@Override
+		public int compare(MTBluetoothDevice lhs, MTBluetoothDevice rhs) {
+			return lhs.getDisplayName().compareToIgnoreCase(rhs.getDisplayName());
+		}
+	};
 	
 	private MainActivity main;
 	
@@ -57,14 +71,13 @@ public class GLMDeviceArrayAdapter extends ArrayAdapter<MTBluetoothDevice> {
 		BLEService btService = main.getBluetoothService();
 		
 		if(btService != null) {
-			MTBluetoothDevice currentDevice = btService.getCurrentDevice();
-
-			if(currentDevice != null && currentDevice.getDevice().getAddress().equals(item.getDevice().getAddress())){
-				if(btService.isConnected()){
-					holder.checkbox.setImageResource(R.drawable.ic_check_active);
-				}else{
-					holder.checkbox.setImageResource(R.drawable.ic_check_disabled);
-				}
+			int connectionState = btService.getConnectionState(item);
+
+			if(connectionState == MtAsyncConnection.STATE_CONNECTED){
+				holder.checkbox.setImageResource(R.drawable.ic_check_active);
+				return convertView;
+			} else if(connectionState == MtAsyncConnection.STATE_CONNECTING){
+				holder.checkbox.setImageResource(R.drawable.ic_check_disabled);
 				return convertView;
 			}
 		}
@@ -73,6 +86,45 @@ public class GLMDeviceArrayAdapter extends ArrayAdapter<MTBluetoothDevice> {
 		return convertView;
 	}
 
+	/**
+	 * Applies the changes of the device list, keeping the list sorted by display name.
+	 * Only the changed devices are moved, the list view is notified once.
+	 *
+	 * @param diff changes since the last update
+	 */
+	public void applyDiff(DeviceListDiff diff) {
+		setNotifyOnChange(false);
+		for (MTBluetoothDevice device : diff.getRemoved()) {
+			remove(device);
+		}
+		for (MTBluetoothDevice device : diff.getChanged()) {
+			remove(device); // display name may have changed -> sort in again
+			insert(device, insertionPoint(device));
+		}
+		for (MTBluetoothDevice device : diff.getAdded()) {
+			remove(device); // may already be shown after a full refresh of the list
+			insert(device, insertionPoint(device));
+		}
+		notifyDataSetChanged();
+	}
+
+	/**
+	 * Binary search for the position of the device in the sorted list
+	 */
+	private int insertionPoint(MTBluetoothDevice device) {
+		int low = 0;
+		int high = getCount();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (BY_DISPLAY_NAME.compare(getItem(mid), device) <= 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
 	private static class ViewHolder {
 
 		public ImageView checkbox;
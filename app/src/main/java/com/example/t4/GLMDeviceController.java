@@ -5,27 +5,57 @@ import com.bosch.mtprotocol.MtMessage;
 import com.bosch.mtprotocol.MtProtocol;
 import com.bosch.mtprotocol.MtProtocol.MTProtocolEvent;
 import com.bosch.mtprotocol.MtProtocol.MTProtocolEventObserver;
+import com.bosch.mtprotocol.general.message.dev_info.DevInfoMessage;
+import com.bosch.mtprotocol.general.message.dev_info.GetDeviceInfo;
 import com.bosch.mtprotocol.glm100C.MtProtocolBLEImpl;
 import com.bosch.mtprotocol.glm100C.MtProtocolImpl;
+import com.bosch.mtprotocol.glm100C.connection.MtAsyncBLEConnection;
 import com.bosch.mtprotocol.glm100C.event.MtProtocolFatalErrorEvent;
 import com.bosch.mtprotocol.glm100C.event.MtProtocolReceiveMessageEvent;
 import com.bosch.mtprotocol.glm100C.event.MtProtocolRequestTimeoutEvent;
+import com.bosch.mtprotocol.glm100C.message.SimpleMessage;
+import com.bosch.mtprotocol.glm100C.message.edc.EDCDoRemoteTriggerButtonMessage;
 import com.bosch.mtprotocol.glm100C.message.edc.EDCInputMessage;
 import com.bosch.mtprotocol.glm100C.message.edc.EDCOutputMessage;
 import com.bosch.mtprotocol.glm100C.message.laser.LaserOffMessage;
 import com.bosch.mtprotocol.glm100C.message.laser.LaserOnMessage;
+import com.bosch.mtprotocol.glm100C.message.settings.GetSettingsMessage;
+import com.bosch.mtprotocol.glm100C.message.settings.SettingsMessage;
+import com.bosch.mtprotocol.glm100C.message.single.SingleDistInputMessage;
+import com.bosch.mtprotocol.glm100C.message.single.SingleDistOutputMessage;
 import com.bosch.mtprotocol.glm100C.message.sync.SyncInputMessage;
 import com.bosch.mtprotocol.glm100C.message.sync.SyncOutputMessage;
 import com.bosch.mtprotocol.thermo.message.edct.EDCTInputMessage;
 import com.bosch.mtprotocol.thermo.message.edct.EDCTOutputMessage;
 import com.example.t4.bluetooth.BLEConnection;
-import com.example.t4.bluetooth.BluetoothUtils;
+import com.example.t4.bluetooth.DeviceFamily;
 import com.example.t4.bluetooth.MTBluetoothDevice;
+import com.example.t4.logging.AppLog;
+import com.example.t4.measurement.BurstResult;
+import com.example.t4.measurement.ContinuousDistanceListener;
+import com.example.t4.measurement.ContinuousDistanceStream;
+import com.example.t4.measurement.HistoryResult;
+import com.example.t4.measurement.MeasurementBus;
+import com.example.t4.measurement.MeasurementResult;
+import com.example.t4.measurement.RunningStatistics;
+import com.example.t4.metrics.ConnectionMetrics;
+import com.example.t4.metrics.MetricsRegistry;
+import com.example.t4.storage.MeasurementStore;
 
 import android.content.Context;
 import android.content.Intent;
-import android.util.Log;
-
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 public class GLMDeviceController implements MTProtocolEventObserver {
 	private static final String TAG = "GLMDeviceController";
@@ -38,87 +68,331 @@ public class GLMDeviceController implements MTProtocolEventObserver {
 
 	static final String EXTRA_MEASUREMENT = "MEASUREMENT";
 
+	private static final int PROTOCOL_TIMEOUT_IN_MS = 5000;
+
+	// command of EDCDoRemoteTriggerButtonMessage, confirmed with a SimpleMessage
+	private static final byte REMOTE_TRIGGER_COMMAND = 86;
+
+	// a burst sample is rejected further than 3 standard deviations and 2 mm (device accuracy) from the mean of the previous ones
+	private static final double BURST_OUTLIER_THRESHOLD = 3;
+	private static final int BURST_MIN_SAMPLES_FOR_REJECTION = 5;
+	private static final double BURST_OUTLIER_TOLERANCE_IN_M = 0.002;
+
 	private Context context;
 
 	private MtProtocol protocol;
 
+	// connection of a MirX based device, null for a classic or simulated connection
+	private BLEConnection bleConnection;
+
+	// outgoing commands, answered through futures
+	private volatile CommandScheduler scheduler;
+
 	private MTBluetoothDevice bluetoothDevice;
 
-	private boolean initSyncRequest;
+	private String deviceAddress;
+
+	private final MeasurementBus measurementBus;
+
+	// measurements are sent as system broadcast only for external consumers
+	private boolean broadcastMeasurements = false;
+
+	private ConnectionMetrics metrics;
+
+	// deadline of the commands of the async API; 0 for the protocol timeout only
+	private volatile long commandTimeoutInMs = 0;
 
-	private boolean ready;
+	// remote triggered burst of an EDC device, waiting for the measurements the device sends
+	private final AtomicReference<BurstMeasurement> activeBurst = new AtomicReference<>();
+
+	// bursts and history downloads running, the connection stays in bulk transfer until the last one finished
+	private final AtomicInteger bulkTransfers = new AtomicInteger();
 
 	public GLMDeviceController(Context context) {
+		this(context, MeasurementBus.getDefault());
+	}
+
+	/**
+	 * @param context current context
+	 * @param measurementBus bus to publish the received measurements on
+	 */
+	public GLMDeviceController(Context context, MeasurementBus measurementBus) {
 		super();
 		this.context = context;
+		this.measurementBus = measurementBus;
+	}
+
+	/**
+	 * Enables the legacy system broadcasts {@value #ACTION_SYNC_CONTAINER_RECEIVED} and
+	 * {@value #ACTION_THERMAL_CONTAINER_RECEIVED} in addition to the {@link MeasurementBus}.
+	 * Use only if measurements must leave the app process
+	 * @param enable true to send broadcasts
+	 */
+	public void setBroadcastMeasurements(boolean enable) {
+		this.broadcastMeasurements = enable;
+	}
+
+	/**
+	 * Creates a stream of the continuous distance measurements of this device.
+	 * Start it with {@link ContinuousDistanceStream#start()} and stop it when the consumer goes away
+	 * @param delivery one of ContinuousDistanceStream.DELIVERY_*
+	 * @param windowInMs window length for DELIVERY_DECIMATED, ignored otherwise
+	 * @param listener listener to be called
+	 * @param looper looper of the thread to deliver on, e.g. Looper.getMainLooper()
+	 * @return stream, not yet started
+	 */
+	public ContinuousDistanceStream createContinuousDistanceStream(int delivery, long windowInMs, ContinuousDistanceListener listener, Looper looper) {
+		if (deviceAddress == null) {
+			throw new IllegalStateException("Controller not initialized with a device");
+		}
+		switch (delivery) {
+			case ContinuousDistanceStream.DELIVERY_LATEST:
+				return ContinuousDistanceStream.latest(measurementBus, deviceAddress, listener, looper);
+			case ContinuousDistanceStream.DELIVERY_EVERY_SAMPLE:
+				return ContinuousDistanceStream.everySample(measurementBus, deviceAddress, ContinuousDistanceStream.DEFAULT_CAPACITY, listener, looper);
+			case ContinuousDistanceStream.DELIVERY_DECIMATED:
+				return ContinuousDistanceStream.decimated(measurementBus, deviceAddress, windowInMs, listener, looper);
+			default:
+				throw new IllegalArgumentException("Unknown delivery " + delivery);
+		}
+	}
+
+	/**
+	 * Deadline of the commands of the async API, from the call until the future fails with a
+	 * TimeoutException. Queued commands count from the call, not from sending. Also the time an EDC
+	 * device gets for every remote triggered burst sample
+	 * @param timeoutInMs deadline in ms; 0 to fail on the request timeout of the protocol only
+	 */
+	public void setCommandTimeout(long timeoutInMs) {
+		this.commandTimeoutInMs = timeoutInMs;
+	}
+
+	/**
+	 * Triggers a single distance measurement. GLM 100 C is asked for the distance, EDC devices are
+	 * triggered remotely like a burst of one. Commands are queued, calls may follow back to back.
+	 * The result is published on the {@link MeasurementBus} as well
+	 * @return completed with the measured distance; failed on a device without distance measurement;
+	 * cancel to drop the request if not sent yet
+	 */
+	public CompletableFuture<MeasurementResult> measureOnce() {
+		if (bluetoothDevice == null || scheduler == null) {
+			return failedCommand(new IllegalStateException("Controller not initialized"));
+		}
+		DeviceFamily family = bluetoothDevice.getFamily();
+		switch (family.getProtocol()) {
+		case SYNC:
+			return requestSingleDistance();
+		case EDC:
+			return map(measureBurst(1), new Function<BurstResult, MeasurementResult>() {
+				@Override
+				public MeasurementResult apply(BurstResult burst) {
+					// already published as sample of the burst
+					return new MeasurementResult(deviceAddress, MeasurementBus.TYPE_DISTANCE,
+							EDCInputMessage.MODE_SINGLE_DISTANCE, burst.getValue(0), burst.getTimestamp(0));
+				}
+			});
+		default:
+			return failedCommand(new UnsupportedOperationException("No distance measurement on " + family));
+		}
+	}
+
+	/**
+	 * Asks a GLM 100 C for a single distance measurement
+	 */
+	private CompletableFuture<MeasurementResult> requestSingleDistance() {
+		SingleDistOutputMessage request = new SingleDistOutputMessage();
+		return map(sendCommand(request, CommandScheduler.responseOfType(SingleDistInputMessage.class)), new Function<MtMessage, MeasurementResult>() {
+			@Override
+			public MeasurementResult apply(MtMessage response) {
+				float distance = ((SingleDistInputMessage) response).getDistanceInMeter();
+				MeasurementResult result = new MeasurementResult(deviceAddress, MeasurementBus.TYPE_DISTANCE,
+						SyncInputMessage.MEAS_MODE_SINGLE, distance, SystemClock.elapsedRealtime());
+				publishMeasurement(result.getType(), result.getMode(), result.getValue());
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Triggers count distance measurements back to back and collects them with their time of reception.
+	 * GLM 100 C gets all requests at once and answers one after the other; EDC devices are triggered
+	 * remotely, the next one as soon as the device sent the previous measurement. A measurement
+	 * triggered on the device during an EDC burst counts as a sample. Every sample is published on
+	 * the {@link MeasurementBus} as well. A BLE connection runs at high connection priority during the burst
+	 * @param count number of measurements
+	 * @return completed with the samples, their statistics without outliers and the samples per second;
+	 * failed if one measurement fails; cancel to stop the burst
+	 */
+	public CompletableFuture<BurstResult> measureBurst(int count) {
+		if (count < 1) {
+			throw new IllegalArgumentException("Invalid burst count " + count);
+		}
+		if (bluetoothDevice == null || scheduler == null) {
+			return failedCommand(new IllegalStateException("Controller not initialized"));
+		}
+		final DeviceFamily family = bluetoothDevice.getFamily();
+		final BurstMeasurement burst = new BurstMeasurement(deviceAddress, family.name(), count,
+				new RunningStatistics(BURST_OUTLIER_THRESHOLD, BURST_MIN_SAMPLES_FOR_REJECTION, BURST_OUTLIER_TOLERANCE_IN_M),
+				SystemClock.elapsedRealtime());
+		switch (family.getProtocol()) {
+		case SYNC:
+			requestBurstSamples(burst, count);
+			break;
+		case EDC:
+			if (!activeBurst.compareAndSet(null, burst)) {
+				return failedCommand(new IllegalStateException("Burst already running on " + deviceAddress));
+			}
+			triggerBurstSample(burst);
+			break;
+		default:
+			return failedCommand(new UnsupportedOperationException("No distance measurement on " + family));
+		}
+		if (count > 1) {
+			runAsBulkTransfer(burst.getFuture());
+		}
+		burst.getFuture().whenComplete(new BiConsumer<BurstResult, Throwable>() {
+			@Override
+			public void accept(BurstResult result, Throwable error) {
+				burst.cancelSampleTimeout();
+				activeBurst.compareAndSet(burst, null);
+				if (result != null) {
+					metrics.recordBurst(result.getSamplesPerSecond());
+					AppLog.i(TAG, "Burst of %d on %s: %.1f samples/s, %s", result.getCount(), family,
+							result.getSamplesPerSecond(), result.getStatistics());
+				}
+			}
+		});
+		return burst.getFuture();
+	}
+
+	/**
+	 * Downloads the measurement list stored on the device into the store, GLM 100 C only. A download
+	 * interrupted e.g. by a lost connection resumes where it stopped; measurements imported by an
+	 * earlier download are skipped. Returns at once, the store reads the checkpoint on its writer thread.
+	 * A BLE connection runs at high connection priority during the download
+	 * @param store store to import the measurements into
+	 * @return completed with the number of received and imported measurements; cancel to stop the download
+	 */
+	public CompletableFuture<HistoryResult> downloadHistory(MeasurementStore store) {
+		CommandScheduler scheduler = this.scheduler;
+		if (bluetoothDevice == null || scheduler == null) {
+			return failedCommand(new IllegalStateException("Controller not initialized"));
+		}
+		DeviceFamily family = bluetoothDevice.getFamily();
+		if (family.getProtocol() != DeviceFamily.Protocol.SYNC) {
+			return failedCommand(new UnsupportedOperationException("No measurement list on " + family));
+		}
+		CompletableFuture<HistoryResult> download = new HistoryDownload(scheduler, store, deviceAddress, commandTimeoutInMs).start();
+		runAsBulkTransfer(download);
+		return download;
+	}
+
+	/**
+	 * @param on true to turn the laser on, false to turn it off
+	 * @return completed when the device confirmed the command
+	 */
+	public CompletableFuture<Void> laser(boolean on) {
+		return map(sendCommand(on ? new LaserOnMessage() : new LaserOffMessage()), new Function<MtMessage, Void>() {
+			@Override
+			public Void apply(MtMessage response) {
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * @return completed with the settings of the device (units, backlight, speaker, ...)
+	 */
+	public CompletableFuture<SettingsMessage> getSettings() {
+		return map(sendCommand(new GetSettingsMessage(), CommandScheduler.responseOfType(SettingsMessage.class)), new Function<MtMessage, SettingsMessage>() {
+			@Override
+			public SettingsMessage apply(MtMessage response) {
+				return (SettingsMessage) response;
+			}
+		});
+	}
+
+	/**
+	 * @return completed with serial number, part number and software and hardware versions of the device
+	 */
+	public CompletableFuture<DevInfoMessage> getDeviceInfo() {
+		return map(sendCommand(new GetDeviceInfo(), CommandScheduler.responseOfType(DevInfoMessage.class)), new Function<MtMessage, DevInfoMessage>() {
+			@Override
+			public DevInfoMessage apply(MtMessage response) {
+				return (DevInfoMessage) response;
+			}
+		});
 	}
 
 	/**
 	 * Test utility:
 	 * Use this method to turn the laser of connected GLM device on
+	 * @return completed when the device confirmed the command
 	 */
-	public void turnLaserOn(){
-		if(isReady()){
-			ready = false;
-			protocol.sendMessage(new LaserOnMessage());
-		}
+	public CompletableFuture<Void> turnLaserOn(){
+		return laser(true);
 	}
 
 	/**
 	 * Test utility:
 	 * Use this method to turn the laser of connected GLM device off
+	 * @return completed when the device confirmed the command
 	 */
-	public void turnLaserOff(){
-		if(isReady()){
-			ready = false;
-			protocol.sendMessage(new LaserOffMessage());
-		}
+	public CompletableFuture<Void> turnLaserOff(){
+		return laser(false);
 	}
 
 	/**
 	 * Starts sync mode between app and GLM device
 	 * When sync mode is started the GLM device will send every event to the app
+	 * @return completed with the first sync message, the answer to the request
 	 */
-	private void turnAutoSyncOn() {
-		if (this.isReady()) {
-			this.ready = false;
-			if(bluetoothDevice!=null) {
-				if (BluetoothUtils.validateGLM100Name(bluetoothDevice)) {
-					// GLM 100 device
-					final SyncOutputMessage requestDoSync = new SyncOutputMessage();
-					requestDoSync.setSyncControl(SyncOutputMessage.MODE_AUTOSYNC_CONTROL_ON);
-					this.protocol.sendMessage(requestDoSync);
-					Log.d(TAG, "Sync started GLM 100...");
-				} else if (BluetoothUtils.validateEDCDevice(bluetoothDevice)) {
-					// Exchange Data Container (EDC) based device
-					final EDCOutputMessage requestEDCSync = new EDCOutputMessage();
-					requestEDCSync.setSyncControl(EDCOutputMessage.MODE_AUTOSYNC_CONTROL_ON);
-					requestEDCSync.setDevMode(EDCOutputMessage.READ_ONLY_MODE);
-					this.protocol.sendMessage(requestEDCSync);
-					Log.d(TAG, "Sync started EDC device...");
-				} else if (BluetoothUtils.validateGISName(bluetoothDevice)) {
-					// GIS device
-					final EDCTOutputMessage requestEDCTSync = new EDCTOutputMessage();
-					requestEDCTSync.setSyncControl(EDCTOutputMessage.MODE_AUTOSYNC_CONTROL_ON);
-					requestEDCTSync.setRemoteMode(EDCTOutputMessage.REMOTE_SET_PING_CYCLE);
-					requestEDCTSync.setRemoteCtrlData(20);
-					this.protocol.sendMessage(requestEDCTSync);
-					Log.d(TAG, "Sync started GIS device...");
-				}
+	private CompletableFuture<MtMessage> turnAutoSyncOn() {
+		if(bluetoothDevice!=null) {
+			switch (bluetoothDevice.getFamily().getProtocol()) {
+			case SYNC: {
+				// GLM 100 device
+				final SyncOutputMessage requestDoSync = new SyncOutputMessage();
+				requestDoSync.setSyncControl(SyncOutputMessage.MODE_AUTOSYNC_CONTROL_ON);
+				AppLog.d(TAG, "Sync started GLM 100...");
+				return sendCommand(requestDoSync, CommandScheduler.responseOfType(SyncInputMessage.class));
+			}
+			case EDC: {
+				// Exchange Data Container (EDC) based device
+				final EDCOutputMessage requestEDCSync = new EDCOutputMessage();
+				requestEDCSync.setSyncControl(EDCOutputMessage.MODE_AUTOSYNC_CONTROL_ON);
+				requestEDCSync.setDevMode(EDCOutputMessage.READ_ONLY_MODE);
+				AppLog.d(TAG, "Sync started EDC device...");
+				return sendCommand(requestEDCSync, CommandScheduler.responseOfType(EDCInputMessage.class));
+			}
+			case EDCT: {
+				// GIS device
+				final EDCTOutputMessage requestEDCTSync = new EDCTOutputMessage();
+				requestEDCTSync.setSyncControl(EDCTOutputMessage.MODE_AUTOSYNC_CONTROL_ON);
+				requestEDCTSync.setRemoteMode(EDCTOutputMessage.REMOTE_SET_PING_CYCLE);
+				requestEDCTSync.setRemoteCtrlData(20);
+				AppLog.d(TAG, "Sync started GIS device...");
+				return sendCommand(requestEDCTSync, CommandScheduler.responseOfType(EDCTInputMessage.class));
+			}
+			default:
+				break;
 			}
 		}
+		return failedCommand(new IllegalStateException("No sync command for " + bluetoothDevice));
 	}
 
 	@Override
 	public void onEvent(MTProtocolEvent event) {
 
-		ready = true;
+		CommandScheduler scheduler = this.scheduler;
+		if (scheduler != null && scheduler.onEvent(event)) {
+			return; // response of a command, handled through its future
+		}
 
 		if(event instanceof MtProtocolFatalErrorEvent){
 
-			// fatal error
-			Log.d(TAG, "Received MtProtocolFatalErrorEvent");
-			protocol.reset();
+			// fatal error, protocol reset by the scheduler
+			AppLog.d(TAG, "Received MtProtocolFatalErrorEvent");
 			context.sendBroadcast(new Intent(ACTION_ERROR));
 
 		} else if(event instanceof MtProtocolReceiveMessageEvent) {
@@ -128,64 +402,196 @@ public class GLMDeviceController implements MTProtocolEventObserver {
 			if(message instanceof SyncInputMessage) { // Sync Message Type used by GLM 100 C
 				SyncInputMessage syncMessage = (SyncInputMessage) message;
 
-				if(initSyncRequest) { // Ignore first response
-					initSyncRequest = false;
-					return;
+				if (AppLog.DEBUG_ENABLED) {
+					AppLog.d(TAG, "SyncInputMessageReceived: %s", syncMessage);
 				}
-				Log.d(TAG, "SyncInputMessageReceived: " + syncMessage.toString());
 				if(syncMessage.getMode() == SyncInputMessage.MEAS_MODE_SINGLE && syncMessage.getLaserOn() == 0) {
 					// Handle only distance measurements
-					broadcastMeasurement(ACTION_SYNC_CONTAINER_RECEIVED, syncMessage.getResult());
+					publishMeasurement(MeasurementBus.TYPE_DISTANCE, syncMessage.getMode(), syncMessage.getResult());
 				}
 			} else if(message instanceof EDCInputMessage) { // Exchange Data Container (EDC) Message Type used by all other connected GLM devices
 
-				if(initSyncRequest) { // Ignore first response
-					initSyncRequest = false;
-					return;
-				}
-				Log.d(TAG, "Received EDC: " + message.toString());
 				EDCInputMessage edcMessage = (EDCInputMessage) message;
-				Log.d(TAG, "EDCInputMessageReceived: " + edcMessage.toString());
+				if (AppLog.DEBUG_ENABLED) {
+					AppLog.d(TAG, "EDCInputMessageReceived: %s", edcMessage);
+				}
 				if(edcMessage.getDevMode() == EDCInputMessage.MODE_SINGLE_DISTANCE || edcMessage.getDevMode() == EDCInputMessage.MODE_CONTINUOUS_DISTANCE) {
 					// Handle only distance measurements
-					broadcastMeasurement(ACTION_SYNC_CONTAINER_RECEIVED, edcMessage.getResult());
+					publishMeasurement(MeasurementBus.TYPE_DISTANCE, edcMessage.getDevMode(), edcMessage.getResult());
+				}
+				if(edcMessage.getDevMode() == EDCInputMessage.MODE_SINGLE_DISTANCE) {
+					onBurstSample(edcMessage.getResult());
 				}
 			} else if (message instanceof EDCTInputMessage) { // Exchange Data Container for Thermal device (EDCT) message type used by GIS 1000 C
 
-				if(initSyncRequest) { // Ignore first response
-					initSyncRequest = false;
-					return;
+				if (AppLog.DEBUG_ENABLED) {
+					AppLog.d(TAG, "EDCT message received from %s", bluetoothDevice.getDisplayName());
 				}
-				Log.d(TAG, "EDCT message received from " + bluetoothDevice.getDisplayName());
 				handleEDCTMessage((EDCTInputMessage) message);
 			} else {
 
-				Log.d(TAG, "Received other message");
+				AppLog.d(TAG, "Received other message");
 			}
 		} else if(event instanceof MtProtocolRequestTimeoutEvent){
 
 			// protocol timeout
-			Log.d(TAG, "Received MtProtocolRequestTimeoutEvent");
+			AppLog.d(TAG, "Received MtProtocolRequestTimeoutEvent");
 			context.sendBroadcast(new Intent(ACTION_ERROR));
 		} else {
-			Log.e(TAG, "Received unknown event");
+			AppLog.e(TAG, "Received unknown event");
 		}
-		initSyncRequest = false;
 	}
 
-	private void broadcastMeasurement(String action, float value)
-	{
-		Intent i = new Intent(action);
-		i.putExtra(EXTRA_MEASUREMENT, value);
-		context.sendBroadcast(i);
+	/**
+	 * Queues the command; commands sent back to back are all sent, one after the other
+	 * @param request message to send
+	 * @param matcher recognizes the response of the device
+	 * @return completed with the response; failed on timeout or protocol error
+	 */
+	CompletableFuture<MtMessage> sendCommand(MtMessage request, CommandScheduler.ResponseMatcher matcher) {
+		CommandScheduler scheduler = this.scheduler;
+		if (scheduler == null) {
+			return failedCommand(new IllegalStateException("Controller not initialized"));
+		}
+		return scheduler.submit(request, matcher, commandTimeoutInMs);
+	}
+
+	private CompletableFuture<MtMessage> sendCommand(SimpleMessage request) {
+		return sendCommand(request, CommandScheduler.sameCommand(request));
+	}
+
+	private static <T> CompletableFuture<T> failedCommand(Throwable error) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		future.completeExceptionally(error);
+		return future;
+	}
+
+	/**
+	 * Converts the response of a command; cancelling the returned future cancels the command
+	 */
+	private static <S, T> CompletableFuture<T> map(final CompletableFuture<S> command, final Function<S, T> converter) {
+		final CompletableFuture<T> result = new CompletableFuture<>();
+		command.whenComplete(new BiConsumer<S, Throwable>() {
+			@Override
+			public void accept(S response, Throwable error) {
+				if (error != null) {
+					result.completeExceptionally(error);
+					return;
+				}
+				try {
+					result.complete(converter.apply(response));
+				} catch (RuntimeException e) {
+					result.completeExceptionally(e);
+				}
+			}
+		});
+		result.whenComplete(new BiConsumer<T, Throwable>() {
+			@Override
+			public void accept(T value, Throwable error) {
+				if (result.isCancelled()) {
+					command.cancel(false);
+				}
+			}
+		});
+		return result;
 	}
 
 	/**
-	 * Delivers information if MT Protocol is ready for communication
-	 * @return TRUE, if protocol is ready and FALSE otherwise
+	 * Requests all samples of a GLM 100 C burst at once; the scheduler keeps the next request queued
+	 * in the protocol while the current one is measured
 	 */
-	private boolean isReady(){
-		return protocol != null && ready;
+	private void requestBurstSamples(final BurstMeasurement burst, int count) {
+		final List<CompletableFuture<MeasurementResult>> samples = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			CompletableFuture<MeasurementResult> sample = requestSingleDistance();
+			samples.add(sample);
+			sample.whenComplete(new BiConsumer<MeasurementResult, Throwable>() {
+				@Override
+				public void accept(MeasurementResult result, Throwable error) {
+					if (error != null) {
+						burst.fail(error);
+					} else {
+						burst.add(result.getValue(), result.getTimestamp());
+					}
+				}
+			});
+		}
+		burst.getFuture().whenComplete(new BiConsumer<BurstResult, Throwable>() {
+			@Override
+			public void accept(BurstResult result, Throwable error) {
+				if (error != null) {
+					// failed or cancelled: drop the requests not sent yet
+					for (CompletableFuture<MeasurementResult> sample : samples) {
+						sample.cancel(false);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Presses the measure button of an EDC device remotely; the measurement arrives as EDCInputMessage
+	 */
+	private void triggerBurstSample(final BurstMeasurement burst) {
+		final int expected = burst.getReceived() + 1;
+		EDCDoRemoteTriggerButtonMessage trigger = new EDCDoRemoteTriggerButtonMessage();
+		trigger.setButtonNumber(EDCDoRemoteTriggerButtonMessage.EN_BUTTON_MEASURE);
+		sendCommand(trigger, CommandScheduler.simpleResponse(REMOTE_TRIGGER_COMMAND)).whenComplete(new BiConsumer<MtMessage, Throwable>() {
+			@Override
+			public void accept(MtMessage response, Throwable error) {
+				if (error != null) {
+					burst.fail(error);
+				}
+			}
+		});
+		final long timeoutInMs = commandTimeoutInMs > 0 ? commandTimeoutInMs : PROTOCOL_TIMEOUT_IN_MS;
+		burst.setSampleTimeout(CommandScheduler.sharedWatchdog().schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (burst.getReceived() < expected) {
+					burst.fail(new TimeoutException("No measurement " + expected + " within " + timeoutInMs + " ms"));
+				}
+			}
+		}, timeoutInMs, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Keeps the BLE connection at high connection priority until the transfer is completed
+	 */
+	private void runAsBulkTransfer(CompletableFuture<?> transfer) {
+		final BLEConnection connection = bleConnection;
+		if (connection == null) {
+			return;
+		}
+		if (bulkTransfers.getAndIncrement() == 0) {
+			connection.beginBulkTransfer();
+		}
+		transfer.whenComplete(new BiConsumer<Object, Throwable>() {
+			@Override
+			public void accept(Object result, Throwable error) {
+				if (bulkTransfers.decrementAndGet() == 0) {
+					connection.endBulkTransfer();
+				}
+			}
+		});
+	}
+
+	private void onBurstSample(float distance) {
+		BurstMeasurement burst = activeBurst.get();
+		if (burst != null && burst.add(distance, SystemClock.elapsedRealtime())) {
+			triggerBurstSample(burst);
+		}
+	}
+
+	private void publishMeasurement(int type, int mode, float value)
+	{
+		measurementBus.publish(deviceAddress, type, mode, value, SystemClock.elapsedRealtime());
+
+		if (broadcastMeasurements) {
+			Intent i = new Intent(type == MeasurementBus.TYPE_TEMPERATURE ? ACTION_THERMAL_CONTAINER_RECEIVED : ACTION_SYNC_CONTAINER_RECEIVED);
+			i.putExtra(EXTRA_MEASUREMENT, value);
+			context.sendBroadcast(i);
+		}
 	}
 
 	/**
@@ -194,25 +600,34 @@ public class GLMDeviceController implements MTProtocolEventObserver {
 	 * @param btDevice connected device
 	 */
 	void init(MtConnection connection, MTBluetoothDevice btDevice){
+		if (connection instanceof MtAsyncBLEConnection) {
+			// MirX based device (BLEConnection or a simulated device)
+			init(new MtProtocolBLEImpl(), connection, btDevice);
+		} else {
+			// PAN 1026 based device
+			init(new MtProtocolImpl(), connection, btDevice);
+		}
+	}
+
+	/**
+	 * @param protocol protocol of the connection, initialized with it here
+	 */
+	void init(MtProtocol protocol, MtConnection connection, MTBluetoothDevice btDevice){
 
 		destroy();
 
 		this.bluetoothDevice = btDevice;
+		this.deviceAddress = btDevice != null && btDevice.getDevice() != null ? btDevice.getDevice().getAddress() : null;
+		this.metrics = MetricsRegistry.getDefault().getConnectionMetrics(deviceAddress);
 
-		if (connection instanceof BLEConnection) {
-			// MirX based device
-			protocol = new MtProtocolBLEImpl();
-		} else {
-			// PAN 1026 based device
-			protocol = new MtProtocolImpl();
-		}
+		this.protocol = protocol;
+		this.bleConnection = connection instanceof BLEConnection ? (BLEConnection) connection : null;
+		scheduler = new CommandScheduler(protocol, PROTOCOL_TIMEOUT_IN_MS, metrics);
 		protocol.addObserver(this);
-		protocol.setTimeout(5000);
+		protocol.setTimeout(PROTOCOL_TIMEOUT_IN_MS);
 		protocol.initialize(connection);
 
-		ready = true;
-
-		initSyncRequest = true;
+		// the answer to the request is consumed by its future, only later sync messages are published
 		turnAutoSyncOn();
 	}
 
@@ -221,6 +636,14 @@ public class GLMDeviceController implements MTProtocolEventObserver {
 	 */
 	void destroy(){
 
+		BurstMeasurement burst = activeBurst.get();
+		if (burst != null) {
+			burst.getFuture().cancel(false);
+		}
+		if (scheduler != null) {
+			scheduler.close();
+			scheduler = null;
+		}
 		if(protocol != null){
 			protocol.removeObserver(this);
 			protocol.destroy();
@@ -243,10 +666,12 @@ public class GLMDeviceController implements MTProtocolEventObserver {
 	 */
 	private void handleEDCTMessage(final EDCTInputMessage edctMessage) {
 		final int packNum = edctMessage.getPacketNum();
-		Log.d(TAG, "EDCT Message Packet Number: " + packNum);
+		if (AppLog.DEBUG_ENABLED) {
+			AppLog.d(TAG, "EDCT Message Packet Number: %d", packNum);
+		}
 		if (packNum == EDCTInputMessage.PACKET_NUM_1) {
 			// handle packet 1 only for this example
-			broadcastMeasurement(ACTION_THERMAL_CONTAINER_RECEIVED, edctMessage.getResult());
+			publishMeasurement(MeasurementBus.TYPE_TEMPERATURE, edctMessage.getDevMode(), edctMessage.getResult());
 		}
 	}
 }
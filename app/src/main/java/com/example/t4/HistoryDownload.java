@@ -0,0 +1,221 @@
+package com.example.t4;
+
+import com.bosch.mtprotocol.MtMessage;
+import com.bosch.mtprotocol.glm100C.message.sync.SyncInputMessage;
+import com.bosch.mtprotocol.glm100C.message.sync.list.SyncListInputMessage;
+import com.bosch.mtprotocol.glm100C.message.sync.list.SyncListOutputMessage;
+import com.example.t4.exc.MtProtocolException;
+import com.example.t4.logging.AppLog;
+import com.example.t4.measurement.HistoryResult;
+import com.example.t4.measurement.MeasurementBus;
+import com.example.t4.storage.HistoryCheckpoint;
+import com.example.t4.storage.HistoryRecord;
+import com.example.t4.storage.HistoryStorage;
+import com.example.t4.storage.MeasurementStore;
+
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * Download of the measurement list stored on a GLM 100 C into the {@link MeasurementStore}
+ *
+ * The list is requested in pages of {@value #PAGE_SIZE} records, as many as fit into one SyncList
+ * response frame, up to {@value #PIPELINED_PAGES} pages ahead: the next page is on its way while
+ * the current one is stored. Every page is handed to the store with the index to resume at, so an
+ * interrupted download continues after the last stored page. Records imported before are skipped
+ * by their key. The download ends with the first page the device does not fill.
+ *
+ * Thread safe: the checkpoint arrives on the writer thread of the store, pages on the protocol
+ * threads, deadlines on the watchdog.
+ */
+final class HistoryDownload {
+
+    private static final String TAG = "HistoryDownload";
+
+    // 7 sync containers of 33 bytes and the index range fill the 255 bytes payload of a response frame
+    static final int PAGE_SIZE = 7;
+
+    static final int PIPELINED_PAGES = 4;
+
+    // list indexes are transferred as uint8
+    static final int MAX_INDEX = 255;
+
+    private final CommandScheduler scheduler;
+    private final HistoryStorage store;
+    private final String deviceAddress;
+    private final long deadlineInMs;
+
+    private final CompletableFuture<HistoryResult> future = new CompletableFuture<>();
+    private final ArrayDeque<CompletableFuture<MtMessage>> requested = new ArrayDeque<>();
+    private Set<Long> importedKeys;
+    private int startIndex;
+    private int nextIndex;
+    private int received;
+    private int imported;
+    private long startedAt;
+    // set with the lock held by the last or a failed page, the future is completed after leaving it
+    private boolean finished;
+
+    /**
+     * @param deadlineInMs deadline of every page request, see CommandScheduler.submit(); 0 for the protocol timeout only
+     */
+    HistoryDownload(CommandScheduler scheduler, HistoryStorage store, String deviceAddress, long deadlineInMs) {
+        this.scheduler = scheduler;
+        this.store = store;
+        this.deviceAddress = deviceAddress;
+        this.deadlineInMs = deadlineInMs;
+    }
+
+    /**
+     * Requests the first pages once the store read the checkpoint of the device. Returns at once
+     *
+     * @return completed when the list is stored; failed if a page fails, cancel to stop the download
+     */
+    CompletableFuture<HistoryResult> start() {
+        final long startedAt = SystemClock.elapsedRealtime();
+        store.readHistoryCheckpoint(deviceAddress).whenComplete(new BiConsumer<HistoryCheckpoint, Throwable>() {
+            @Override
+            public void accept(HistoryCheckpoint checkpoint, Throwable error) {
+                if (error != null) {
+                    future.completeExceptionally(error);
+                    return;
+                }
+                synchronized (HistoryDownload.this) {
+                    importedKeys = checkpoint.getKeys();
+                    startIndex = checkpoint.getNextIndex();
+                    nextIndex = checkpoint.getNextIndex();
+                    HistoryDownload.this.startedAt = startedAt;
+                    requestPages();
+                }
+            }
+        });
+        future.whenComplete(new BiConsumer<HistoryResult, Throwable>() {
+            @Override
+            public void accept(HistoryResult result, Throwable error) {
+                cancelPages();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Identifies a record of the device: its timestamp and value do not change, when the list grows
+     */
+    static long keyOf(SyncInputMessage container) {
+        return ((long) container.getTimestamp() << 32) | (Float.floatToRawIntBits(container.getResult()) & 0xffffffffL);
+    }
+
+    // ##### Helper & private methods #####
+
+    /**
+     * Fills the pipeline; called with the lock held
+     */
+    private void requestPages() {
+        while (!finished && !future.isDone() && requested.size() < PIPELINED_PAGES && nextIndex <= MAX_INDEX) {
+            final int from = nextIndex;
+            final int to = Math.min(from + PAGE_SIZE - 1, MAX_INDEX);
+            nextIndex = to + 1;
+            SyncListOutputMessage request = new SyncListOutputMessage();
+            request.setIndexFrom(from);
+            request.setIndexTo(to);
+            CompletableFuture<MtMessage> page = scheduler.submit(request, CommandScheduler.responseOfType(SyncListInputMessage.class), deadlineInMs);
+            requested.addLast(page);
+            page.whenComplete(new BiConsumer<MtMessage, Throwable>() {
+                @Override
+                public void accept(MtMessage response, Throwable error) {
+                    onPage(from, to, response, error);
+                }
+            });
+        }
+    }
+
+    /**
+     * Pages are answered in order of the requests: stores the page and requests the next one.
+     * The future is completed after leaving the lock, its callbacks may submit commands in turn
+     */
+    private void onPage(int from, int to, MtMessage response, Throwable error) {
+        HistoryResult result = null;
+        synchronized (this) {
+            requested.pollFirst();
+            if (finished || future.isDone()) {
+                return;
+            }
+            if (error == null) {
+                SyncListInputMessage page = (SyncListInputMessage) response;
+                // a page the device does not fill ends before to
+                if (page.getIndexFrom() != from || page.getIndexTo() > to) {
+                    error = new MtProtocolException("Page " + from + "-" + to + " answered with " + page.getIndexFrom()
+                            + "-" + page.getIndexTo() + ", resume at " + from);
+                } else if (!storePage(from, to, page.getSyncContainers())) {
+                    error = new IOException("Page " + from + "-" + to + " not stored, resume at " + from);
+                } else if (isLastPage(from, to, page.getSyncContainers().size())) {
+                    finished = true;
+                    result = new HistoryResult(deviceAddress, startIndex, received, imported, SystemClock.elapsedRealtime() - startedAt);
+                } else {
+                    requestPages();
+                }
+            }
+            if (error != null) {
+                AppLog.w(TAG, "Page %d-%d of %s failed, resume at %d: %s", from, to, deviceAddress, from, error);
+                finished = true;
+            }
+        }
+        if (error != null) {
+            future.completeExceptionally(error);
+        } else if (result != null) {
+            AppLog.i(TAG, "Downloaded %d records (%d new) from %s in %d ms", result.getReceived(), result.getImported(),
+                    deviceAddress, result.getDurationInMs());
+            future.complete(result);
+        }
+    }
+
+    /**
+     * Hands the new records of the page to the store with the index to resume at; called with the lock held
+     * @return false if the store did not take the page
+     */
+    private boolean storePage(int from, int to, List<SyncInputMessage> containers) {
+        List<HistoryRecord> records = new ArrayList<>(containers.size());
+        for (SyncInputMessage container : containers) {
+            // distance measurements only, like the measurements synced during the connection
+            if (container.getMode() == SyncInputMessage.MEAS_MODE_SINGLE && importedKeys.add(keyOf(container))) {
+                records.add(new HistoryRecord(keyOf(container), container.getTimestamp(), MeasurementBus.TYPE_DISTANCE,
+                        container.getMode(), MeasurementStore.UNIT_METER, container.getResult()));
+            }
+        }
+        // the next download starts from the beginning after a complete one
+        int resumeIndex = isLastPage(from, to, containers.size()) ? 0 : to + 1;
+        if (!store.importHistory(deviceAddress, records, resumeIndex)) {
+            return false;
+        }
+        received += containers.size();
+        imported += records.size();
+        return true;
+    }
+
+    /**
+     * The download ends with the first page the device does not fill, or at the end of the index range
+     */
+    private static boolean isLastPage(int from, int to, int size) {
+        return size < to - from + 1 || to == MAX_INDEX;
+    }
+
+    /**
+     * Drops the pages not sent yet; the ones in flight are answered and ignored
+     */
+    private void cancelPages() {
+        List<CompletableFuture<MtMessage>> pages;
+        synchronized (this) {
+            pages = new ArrayList<>(requested);
+        }
+        for (CompletableFuture<MtMessage> page : pages) {
+            page.cancel(false);
+        }
+    }
+}
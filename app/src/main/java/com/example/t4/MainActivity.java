@@ -16,6 +16,7 @@ import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.IBinder;
+import android.os.Looper;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -28,14 +29,17 @@ import android.widget.Toast;
 
 import com.bosch.mtprotocol.glm100C.connection.MtAsyncConnection;
 import com.example.t4.bluetooth.BLEService;
+import com.example.t4.bluetooth.DeviceListDiff;
 import com.example.t4.bluetooth.MTBluetoothDevice;
 import com.example.t4.exc.BluetoothNotSupportedException;
+import com.example.t4.measurement.MeasurementBus;
+import com.example.t4.measurement.MeasurementListener;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
 
 public class MainActivity extends Activity implements OnItemClickListener
 
@@ -49,7 +53,8 @@ public class MainActivity extends Activity implements OnItemClickListener
     private GLMDeviceArrayAdapter deviceArrayAdapter;
     private List<MTBluetoothDevice> devices = new ArrayList<>();
     private BLEService btService;
-    private GLMDeviceController deviceController;
+    // one controller per connected device, keyed by Bluetooth address
+    private final Map<String, GLMDeviceController> deviceControllers = new HashMap<>();
     private TextView measTextView;
     private TextView devTextView;
 
@@ -76,27 +81,26 @@ public class MainActivity extends Activity implements OnItemClickListener
     @Override
     public void onItemClick(AdapterView<?> adapter, View v, int position, long id) {
 
-        // If app is connecting - do nothing
-        if(btService.getConnectionState() == MtAsyncConnection.STATE_CONNECTING) {
-            Log.w(TAG, "App is connecting, no connection started");
-            return;
-        }
-
         try {
             MTBluetoothDevice device = deviceArrayAdapter.getItem(position);
             assert device != null;
             Log.d(TAG, "Selected device " + device.getDisplayName() + "; MAC = " + device.getDevice().getAddress());
 
+            // If app is connecting to the selected device - do nothing
+            if(btService.getConnectionState(device) == MtAsyncConnection.STATE_CONNECTING) {
+                Log.w(TAG, "App is connecting, no connection started");
+                return;
+            }
+
             // If already connected to selected device -> disconnect
-            if(btService.getConnectionState() == MtAsyncConnection.STATE_CONNECTED && btService.getCurrentDevice().getDevice().getAddress() != null
-                    && device.getDevice().getAddress().equals(btService.getCurrentDevice().getDevice().getAddress())) {
-                btService.disconnect();
-                refreshDeviceList();
+            if(btService.isConnected(device)) {
+                btService.disconnect(device);
+                deviceArrayAdapter.notifyDataSetChanged();
                 Log.d(TAG, "App already connected to " + device.getDisplayName() + " so only disconnect");
                 return;
             }
 
-            // If not connected or selected device is not the connected device -> start connection
+            // If not connected -> start connection, other connected devices stay connected
             btService.connect(device);
 
         } catch (BluetoothNotSupportedException e) {
@@ -119,33 +123,63 @@ public class MainActivity extends Activity implements OnItemClickListener
         public void onServiceConnected(ComponentName name, IBinder service) {
             BLEService.BLELocalBinder mLocalBinder = (BLEService.BLELocalBinder) service;
             btService = mLocalBinder.getService();
+            btService.addOnDeviceListChangedHandler(deviceListHandler);
+            refreshDeviceList();
         }
     };
 
     /**
-     * Initializes the GLMDeviceController class, that will handle messages from and to GLM device
+     * Applies the coalesced device list changes of the BLE service to the shown list
      */
-    private void setupDeviceController(){
-        if (btService.isConnected()){
-            if (deviceController == null){
-                deviceController = new GLMDeviceController(btService);
-                deviceController.init(btService.getConnection(), btService.getCurrentDevice());
-            } else {
-                destroyDeviceController();
-                setupDeviceController();
+    private final BLEService.OnDeviceListChangedHandler deviceListHandler = new BLEService.OnDeviceListChangedHandler() {
+        @Override
+        public void onDeviceListChanged(DeviceListDiff diff) {
+            deviceArrayAdapter.applyDiff(diff);
+        }
+    };
+
+    /**
+     * Initializes a GLMDeviceController for the connected device, that will handle messages from and to the GLM device
+     * @param address Bluetooth address of the connected device
+     */
+    private void setupDeviceController(String address){
+        destroyDeviceController(address);
+        for (MTBluetoothDevice device : btService.getConnectedDevices()) {
+            if (device.getDevice().getAddress().equals(address)) {
+                GLMDeviceController deviceController = new GLMDeviceController(btService);
+                deviceController.init(btService.getConnection(device), device);
+                deviceControllers.put(address, deviceController);
+                return;
             }
-        } else {
-            destroyDeviceController();
         }
     }
 
     /**
-     * Destroys the GLMDeviceController, when it is not needed anymore
+     * Destroys the GLMDeviceController of the device, when it is not needed anymore
+     * @param address Bluetooth address of the device
      */
-    private void destroyDeviceController(){
+    private void destroyDeviceController(String address){
+        GLMDeviceController deviceController = deviceControllers.remove(address);
         if(deviceController != null){
             deviceController.destroy();
-            deviceController = null;
+        }
+    }
+
+    /**
+     * Shows the names of all connected devices
+     */
+    private void showConnectedDevices() {
+        StringBuilder names = new StringBuilder();
+        for (GLMDeviceController deviceController : deviceControllers.values()) {
+            if (names.length() > 0) {
+                names.append(", ");
+            }
+            names.append(deviceController.getBTDevice().getDisplayName());
+        }
+        if (names.length() > 0) {
+            devTextView.setText(getResources().getString(R.string.connected_to) + names);
+        } else {
+            devTextView.setText(getResources().getString(R.string.no_device_connected));
         }
     }
 
@@ -155,6 +189,10 @@ public class MainActivity extends Activity implements OnItemClickListener
         super.onPause();
 
         unregisterReceiver(mReceiver);
+        MeasurementBus.getDefault().unsubscribe(measurementListener);
+        if (btService != null) {
+            btService.removeOnDeviceListChangedHandler(deviceListHandler);
+        }
 
         // stop Bluetooth scan
         Log.w(TAG, "Device activity on pause: cancel discovery");
@@ -173,17 +211,16 @@ public class MainActivity extends Activity implements OnItemClickListener
 
         setTitle(R.string.app_name);
 
+        // full list once, then only the changes
         refreshDeviceList();
+        if (btService != null) {
+            btService.addOnDeviceListChangedHandler(deviceListHandler);
+        }
 
         // register receivers
-        IntentFilter filter = new IntentFilter(BLEService.ACTION_DEVICE_LIST_UPDATED);
-        this.registerReceiver(mReceiver, filter);
-        filter = new IntentFilter(BLEService.ACTION_CONNECTION_STATUS_UPDATE);
-        this.registerReceiver(mReceiver, filter);
-        filter = new IntentFilter(GLMDeviceController.ACTION_SYNC_CONTAINER_RECEIVED);
-        this.registerReceiver(mReceiver, filter);
-        filter = new IntentFilter(GLMDeviceController.ACTION_THERMAL_CONTAINER_RECEIVED);
+        IntentFilter filter = new IntentFilter(BLEService.ACTION_CONNECTION_STATUS_UPDATE);
         this.registerReceiver(mReceiver, filter);
+        MeasurementBus.getDefault().subscribe(measurementListener, Looper.getMainLooper());
 
         // check if location permission available and request, if not
         if (Build.VERSION.SDK_INT >= 23) {
@@ -260,7 +297,25 @@ public class MainActivity extends Activity implements OnItemClickListener
     }
 
     /**
-     *  The BroadcastReceiver that handles notifications for discovered devices and new measurements
+     * Shows the measurements received from the connected device
+     */
+    private final MeasurementListener measurementListener = new MeasurementListener() {
+        @SuppressLint("SetTextI18n")
+        @Override
+        public void onMeasurement(String deviceAddress, int type, int mode, float value, long timestamp) {
+            String unit = getResources().getString(type == MeasurementBus.TYPE_TEMPERATURE ? R.string.degree : R.string.meter);
+            GLMDeviceController deviceController = deviceControllers.get(deviceAddress);
+            if (deviceControllers.size() > 1 && deviceController != null) {
+                // several devices connected -> show the source
+                measTextView.setText(deviceController.getBTDevice().getDisplayName() + ": " + value + unit);
+            } else {
+                measTextView.setText(Float.toString(value) + unit);
+            }
+        }
+    };
+
+    /**
+     *  The BroadcastReceiver that handles notifications for connection status changes
      */
     private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
         @SuppressLint("SetTextI18n")
@@ -269,42 +324,19 @@ public class MainActivity extends Activity implements OnItemClickListener
 
             if(intent != null && BLEService.ACTION_CONNECTION_STATUS_UPDATE.equals(intent.getAction())) {
 
-                // Device was connected or disconnected - handle device list accordingly
-                refreshDeviceList();
+                // Device was connected or disconnected - update the check marks
                 if(deviceArrayAdapter != null){
                     deviceArrayAdapter.notifyDataSetChanged();
                 }
                 // If device was connected -> start GLMDeviceController to handle communication
                 int connectionStatus = intent.getIntExtra(BLEService.EXTRA_CONNECTION_STATUS, MtAsyncConnection.STATE_NONE);
+                String address = intent.getStringExtra(BLEService.EXTRA_DEVICE_ADDRESS);
                 if(connectionStatus == MtAsyncConnection.STATE_CONNECTED ){
-                    setupDeviceController();
-                    String deviceName = intent.getStringExtra(BLEService.EXTRA_DEVICE);
-                    devTextView.setText(getResources().getString(R.string.connected_to) + deviceName);
+                    setupDeviceController(address);
                 } else {
-                    destroyDeviceController();
-                    devTextView.setText(getResources().getString(R.string.no_device_connected));
-                }
-
-            } else if(intent != null && BLEService.ACTION_DEVICE_LIST_UPDATED.equals(intent.getAction())) {
-
-                // Device list updated
-                refreshDeviceList();
-
-            } else if(intent != null && GLMDeviceController.ACTION_SYNC_CONTAINER_RECEIVED.equals(intent.getAction())) {
-
-                // Measurement received
-                if(!Objects.requireNonNull(intent.getExtras()).isEmpty()) {
-                    float measurement = intent.getFloatExtra(GLMDeviceController.EXTRA_MEASUREMENT, 0);
-                    measTextView.setText(Float.toString(measurement) + getResources().getString(R.string.meter));
-                }
-
-            } else if(intent != null && GLMDeviceController.ACTION_THERMAL_CONTAINER_RECEIVED.equals(intent.getAction())) {
-
-                // Measurement received
-                if(!Objects.requireNonNull(intent.getExtras()).isEmpty()) {
-                    float measurement = intent.getFloatExtra(GLMDeviceController.EXTRA_MEASUREMENT, 0);
-                    measTextView.setText(Float.toString(measurement) + getResources().getString(R.string.degree));
+                    destroyDeviceController(address);
                 }
+                showConnectedDevices();
 
             } else {
 
@@ -339,13 +371,7 @@ public class MainActivity extends Activity implements OnItemClickListener
             devices.addAll(btService.getVisibleDevices());
         }
 
-        Collections.sort(devices, new Comparator<MTBluetoothDevice>() {
-
-            @Override
-            public int compare(MTBluetoothDevice lhs, MTBluetoothDevice rhs) {
-                return lhs.getDisplayName().compareToIgnoreCase(rhs.getDisplayName());
-            }
-        });
+        Collections.sort(devices, GLMDeviceArrayAdapter.BY_DISPLAY_NAME);
 
         deviceArrayAdapter.notifyDataSetChanged();
     }
@@ -1,5 +1,6 @@
 package com.example.t4.bluetooth;
 
+import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
@@ -10,16 +11,22 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
 import android.os.Handler;
-import android.os.Looper;
-import android.util.Log;
-
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
 
 import com.bosch.mtprotocol.glm100C.connection.MtAsyncBLEConnection;
+import com.example.t4.logging.AppLog;
+import com.example.t4.logging.SampledLog;
+import com.example.t4.metrics.ConnectionMetrics;
+import com.example.t4.metrics.MetricsRegistry;
+import com.example.t4.metrics.RateMeter;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.PrintWriter;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class BLEConnection implements MtAsyncBLEConnection {
 	private static final String TAG = "BLEConnection";
@@ -27,10 +34,17 @@ public class BLEConnection implements MtAsyncBLEConnection {
 	private static final UUID DESCRIPTOR_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
 
 	// Service and characteristic UUIDs
-	private static final UUID MIRX_SERVICE_UUID_GENERIC = UUID.fromString("02A6C0D0-0451-4000-B000-FB3210111989");
+	static final UUID MIRX_SERVICE_UUID_GENERIC = UUID.fromString("02A6C0D0-0451-4000-B000-FB3210111989");
 	private static final UUID MIRX_CHAR_UUID_LEGACY = UUID.fromString("02A6C0D1-0451-4000-B000-FB3210111989");
 
 	private static final int CONNECTING_TIMEOUT_PERIOD = 7000;
+
+	// ATT MTU: default of BLE 4.0 and largest value accepted by Android
+	private static final int DEFAULT_MTU = 23;
+	private static final int MAX_MTU = 517;
+
+	// drop back to balanced connection priority, if a bulk transfer is idle for this period
+	private static final long BULK_IDLE_TIMEOUT_IN_MS = 2000;
 	
 	private final static String ACTION_DATA_NOTIFY = "com.bosch.glm100c.easy_connect.ACTION_DATA_NOTIFY";
 	private final static String ACTION_DATA_WRITE = "com.bosch.glm100c.easy_connect.ACTION_DATA_WRITE";
@@ -38,18 +52,95 @@ public class BLEConnection implements MtAsyncBLEConnection {
 	private final static String EXTRA_UUID = "com.bosch.glm100c.easy_connect.EXTRA_UUID";
 	private final static String EXTRA_STATUS = "com.bosch.glm100c.easy_connect.EXTRA_STATUS";
 
-	private int connectionState = STATE_NONE;
+	private volatile int connectionState = STATE_NONE;
 	private MTBluetoothDevice bluetoothDevice;
-	private BluetoothGatt bluetoothGatt;
+	private volatile BluetoothGatt bluetoothGatt;
 
 	private BluetoothGattService genericService = null;
 	
-	private BluetoothGattCharacteristic genericChar = null;
+	private volatile BluetoothGattCharacteristic genericChar = null;
 
 	private Context context;
 
-	private List<MTAsyncConnectionObserver> observers = new ArrayList<>();
-	private List<MTAsyncBLEConnectionCallbackRecipient> callbackRecipients = new ArrayList<>();
+	// GATT notifications and writes are sent as system broadcast only for external consumers
+	private boolean broadcastGattUpdates = false;
+
+	// all GATT calls, GATT callbacks, protocol dispatch and timers of the connection run on its own thread
+	private final HandlerThread ioThread;
+	private final Handler ioHandler;
+
+	// one GATT operation at a time: writes, reads and descriptor writes are queued
+	private final GattOperationQueue gattQueue;
+
+	// high throughput mode: large MTU, write without response, high connection priority during bulk transfers
+	private boolean highThroughputMode = false;
+	private volatile int mtu = DEFAULT_MTU;
+	private boolean bulkTransfer = false;
+	private long lastTrafficTime;
+
+	private final RateMeter rxThroughput = new RateMeter(RateMeter.DEFAULT_WINDOW_IN_MS);
+	private final RateMeter txThroughput = new RateMeter(RateMeter.DEFAULT_WINDOW_IN_MS);
+
+	private final ConnectionMetrics metrics;
+
+	// notifications arrive up to every connection interval: trace only one per second
+	private final SampledLog notificationTrace = new SampledLog(TAG, AppLog.VERBOSE, SampledLog.DEFAULT_INTERVAL_IN_MS);
+	private final SampledLog writeTrace = new SampledLog(TAG, AppLog.VERBOSE, SampledLog.DEFAULT_INTERVAL_IN_MS);
+	private long serviceDiscoveryStartedAt;
+
+	// reconnect of a lost link on the same GATT client, reusing the resolved characteristic
+	private boolean fastReconnect = true;
+	private long reconnectStartedAt;
+	// MTU negotiated on the last connect to the device; 0 if not known
+	private int rememberedMtu;
+
+	// one timeout per connect attempt, removed when the attempt ends
+	private final Runnable connectingTimeout = new Runnable() {
+		@Override
+		public void run() {
+			AppLog.w(TAG, "STATE_CONNECTING timeout expired: check connection state");
+			if (getState() == STATE_CONNECTING) {
+				AppLog.w(TAG, "Too long in STATE_CONNECTING state -> disconnect");
+				retryConnection();
+			}
+		}
+	};
+
+	private final Runnable closeGatt = new Runnable() {
+		@Override
+		public void run() {
+			bulkTransfer = false;
+			ioHandler.removeCallbacks(bulkIdleCheck);
+			int dropped = gattQueue.clear();
+			AppLog.d(TAG, "Dropped %d GATT operations; %s", dropped, gattQueue);
+			if (bluetoothGatt != null) {
+				AppLog.d(TAG, "Closing Bluetooth Gatt...");
+				bluetoothGatt.disconnect();
+				bluetoothGatt.close();
+				//bluetoothGatt = null;
+			}
+		}
+	};
+
+	private final Runnable bulkIdleCheck = new Runnable() {
+		@Override
+		public void run() {
+			if (!bulkTransfer) {
+				return;
+			}
+			long idle = SystemClock.elapsedRealtime() - lastTrafficTime;
+			if (idle >= BULK_IDLE_TIMEOUT_IN_MS) {
+				AppLog.d(TAG, "Bulk transfer idle -> balanced connection priority");
+				endBulkTransfer();
+			} else {
+				ioHandler.postDelayed(this, BULK_IDLE_TIMEOUT_IN_MS - idle);
+			}
+		}
+	};
+
+	// observers and recipients may remove themselves while being notified
+	private List<MTAsyncConnectionObserver> observers = new CopyOnWriteArrayList<>();
+	private List<MTAsyncBLEConnectionCallbackRecipient> callbackRecipients = new CopyOnWriteArrayList<>();
 
 	/**
 	 * @param bluetoothDevice The device to connect to
@@ -59,6 +150,11 @@ public class BLEConnection implements MtAsyncBLEConnection {
 		super();
 		this.bluetoothDevice = bluetoothDevice;
 		this.context = context;
+		this.ioThread = new HandlerThread(TAG + " " + bluetoothDevice.getDevice().getAddress(), Process.THREAD_PRIORITY_FOREGROUND);
+		this.ioThread.start();
+		this.ioHandler = new Handler(ioThread.getLooper());
+		this.gattQueue = new GattOperationQueue(ioHandler);
+		this.metrics = MetricsRegistry.getDefault().getConnectionMetrics(bluetoothDevice.getDevice().getAddress());
 	}
 
 	/* (non-Javadoc)
@@ -71,8 +167,11 @@ public class BLEConnection implements MtAsyncBLEConnection {
 
 	private synchronized void setState(int connectionState) {
 		if(this.connectionState != connectionState){
-			Log.d(TAG, "setState() " + this.connectionState + " -> " + connectionState);
+			AppLog.d(TAG, "setState() %d -> %d", this.connectionState, connectionState);
 			this.connectionState = connectionState;
+			if (connectionState != STATE_CONNECTING) {
+				ioHandler.removeCallbacks(connectingTimeout);
+			}
 			notifyObservers();
 		}
 	}
@@ -100,36 +199,28 @@ public class BLEConnection implements MtAsyncBLEConnection {
 	 */
 	@Override
 	public void openConnection() {
-		Log.d(TAG, "Open ble connection to: " + bluetoothDevice.getDisplayName());
+		AppLog.d(TAG, "Open ble connection to: %s", bluetoothDevice.getDisplayName());
 
 		setState(STATE_CONNECTING);
-
-		Handler connectingTimeout = new Handler(Looper.getMainLooper());
-		connectingTimeout.postDelayed (new Runnable() {
-		    @Override
-		    public void run() {
-				Log.w(TAG, "STATE_CONNECTING timeout expired: check connection state");
-				if (getState() == STATE_CONNECTING) {
-					Log.w(TAG, "Too long in STATE_CONNECTING state -> disconnect");
-					retryConnection();
-				}
-		    }
-		}, CONNECTING_TIMEOUT_PERIOD);
+		scheduleConnectingTimeout();
 
 		// Try to connect
 		if (bluetoothGatt == null) {
-			Handler connectionHandler = new Handler(Looper.getMainLooper());
-			connectionHandler.post(new Runnable() {
+			ioHandler.post(new Runnable() {
 				@Override
 				public void run() {
-					Log.i(TAG, "GATT == NULL");
+					AppLog.i(TAG, "GATT == NULL");
 					boolean autoConnect = true;
 					if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
 						autoConnect = false;
 					}
-					//bluetoothGatt = bluetoothDevice.getDevice().connectGatt(context, true, bleGattCallback);
-					bluetoothGatt = bluetoothDevice.getDevice().connectGatt(context, autoConnect, bleGattCallback);
-					Log.i(TAG, "GATT is " + (bluetoothGatt == null ? "NULL" : "existing") + "; autoConnect = " + (autoConnect ? "TRUE" : "FALSE"));
+					if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) { // callbacks delivered on the I/O thread
+						bluetoothGatt = bluetoothDevice.getDevice().connectGatt(context, autoConnect, bleGattCallback,
+								BluetoothDevice.TRANSPORT_LE, BluetoothDevice.PHY_LE_1M_MASK, ioHandler);
+					} else {
+						bluetoothGatt = bluetoothDevice.getDevice().connectGatt(context, autoConnect, binderGattCallback, BluetoothDevice.TRANSPORT_LE);
+					}
+					AppLog.i(TAG, "GATT is %s; autoConnect = %b", bluetoothGatt == null ? "NULL" : "existing", autoConnect);
 				}
 			});
 		}
@@ -150,11 +241,9 @@ public class BLEConnection implements MtAsyncBLEConnection {
 	public void closeConnection() {
 
 		setState(STATE_NONE);
-		if (bluetoothGatt != null) {
-			Log.d(TAG, "Closing Bluetooth Gatt...");
-			bluetoothGatt.disconnect();
-			bluetoothGatt.close();
-			//bluetoothGatt = null;
+		// observers are informed at once, the GATT client is closed on the I/O thread, which ends afterwards
+		if (ioHandler.post(closeGatt)) {
+			ioThread.quitSafely();
 		}
 	}
 
@@ -172,10 +261,22 @@ public class BLEConnection implements MtAsyncBLEConnection {
 	 */
 	@Override
 	public void write(final byte[] data) throws IOException { // Legacy version
-		Log.i(TAG, "Write operation started for data with length " + data.length + " Bytes and content: " + MTDeviceParserImpl.bytesToHex(data));
-		boolean success = this.writeCharacteristic(genericChar, data);
-		if (!success) {
-			throw new IOException();
+		if (AppLog.VERBOSE_ENABLED && writeTrace.sample()) {
+			writeTrace.log("Write operation started for data with length " + data.length + " Bytes and content: " + MTDeviceParserImpl.bytesToHex(data));
+		}
+		final BluetoothGattCharacteristic characteristic = genericChar;
+		if (bluetoothGatt == null || characteristic == null) {
+			throw new IOException("Not connected");
+		}
+		final byte[] copy = data.clone(); // caller may reuse the buffer while the write is queued
+		boolean posted = ioHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				writeCharacteristic(characteristic, copy);
+			}
+		});
+		if (!posted) {
+			throw new IOException("Connection closed");
 		}
 	}
 
@@ -195,6 +296,130 @@ public class BLEConnection implements MtAsyncBLEConnection {
 		observers.remove(observer);
 	}
 	
+	/**
+	 * Enables the high throughput mode. Set before {@link #openConnection()}:
+	 * the largest MTU is negotiated after service discovery and the MT characteristic is written
+	 * without response, if the device supports it. Use {@link #beginBulkTransfer()} to request
+	 * high connection priority for large exchanges (e.g. measurement list download)
+	 * @param enable true to enable
+	 */
+	public void setHighThroughputMode(boolean enable) {
+		this.highThroughputMode = enable;
+	}
+
+	/**
+	 * Enables the reconnect of a lost link on the same GATT client, set before {@link #openConnection()}.
+	 * Service discovery is skipped, the characteristic resolved on the first connect is reused.
+	 * If the reconnect does not succeed within the connecting timeout, STATE_TIMEOUT is reported.
+	 * Enabled by default
+	 * @param enable false to report a lost link as STATE_NONE
+	 */
+	public void setFastReconnect(boolean enable) {
+		this.fastReconnect = enable;
+	}
+
+	/**
+	 * Link parameters remembered from the last connect to the device. In high throughput mode the
+	 * remembered MTU is reported until the device answers the MTU request, which is sent on every connect
+	 * @param mtu ATT MTU negotiated on the last connect; 0 if not known
+	 */
+	public void setRememberedMtu(int mtu) {
+		this.rememberedMtu = mtu;
+	}
+
+	/**
+	 * @return true if the MT characteristic is written without response
+	 */
+	public boolean isWriteWithoutResponse() {
+		BluetoothGattCharacteristic characteristic = genericChar;
+		return characteristic != null && characteristic.getWriteType() == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE;
+	}
+
+	public boolean isHighThroughputMode() {
+		return highThroughputMode;
+	}
+
+	/**
+	 * @return negotiated ATT MTU; {@value #DEFAULT_MTU} if not negotiated
+	 */
+	public int getMtu() {
+		return mtu;
+	}
+
+	/**
+	 * Requests high connection priority until {@link #endBulkTransfer()} is called or no data was
+	 * transferred for {@value #BULK_IDLE_TIMEOUT_IN_MS} ms. Only effective in high throughput mode
+	 */
+	public void beginBulkTransfer() {
+		ioHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (!highThroughputMode || bulkTransfer || bluetoothGatt == null || !isOpen()) {
+					return;
+				}
+				bulkTransfer = true;
+				lastTrafficTime = SystemClock.elapsedRealtime();
+				boolean success = bluetoothGatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH);
+				AppLog.d(TAG, "Bulk transfer started; high connection priority %s", success ? "requested" : "NOT requested");
+				ioHandler.postDelayed(bulkIdleCheck, BULK_IDLE_TIMEOUT_IN_MS);
+			}
+		});
+	}
+
+	/**
+	 * Drops back to balanced connection priority after a bulk transfer
+	 */
+	public void endBulkTransfer() {
+		ioHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (!bulkTransfer) {
+					return;
+				}
+				bulkTransfer = false;
+				ioHandler.removeCallbacks(bulkIdleCheck);
+				if (bluetoothGatt != null && isOpen()) {
+					bluetoothGatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_BALANCED);
+				}
+				AppLog.d(TAG, "Bulk transfer finished; rx %d B/s, tx %d B/s", getRxBytesPerSecond(), getTxBytesPerSecond());
+			}
+		});
+	}
+
+	/**
+	 * @return received payload bytes per second, averaged over the last {@value RateMeter#DEFAULT_WINDOW_IN_MS} ms
+	 */
+	public long getRxBytesPerSecond() {
+		return (long) rxThroughput.getRatePerSecond(SystemClock.elapsedRealtime());
+	}
+
+	/**
+	 * @return confirmed written payload bytes per second, averaged over the last {@value RateMeter#DEFAULT_WINDOW_IN_MS} ms
+	 */
+	public long getTxBytesPerSecond() {
+		return (long) txThroughput.getRatePerSecond(SystemClock.elapsedRealtime());
+	}
+
+	/**
+	 * Enables system broadcasts for every GATT notification and write. The data is forwarded to the
+	 * callback recipients in any case; use only if the raw data must leave the app process
+	 * @param enable true to send broadcasts
+	 */
+	public void setBroadcastGattUpdates(boolean enable) {
+		this.broadcastGattUpdates = enable;
+	}
+
+	/**
+	 * Prints MTU, throughput and GATT queue statistics
+	 * @param writer writer to print to
+	 * @param prefix prefix of every line, e.g. indentation
+	 */
+	void dump(PrintWriter writer, String prefix) {
+		writer.println(prefix + "mtu=" + mtu + ", highThroughput=" + highThroughputMode + ", bulkTransfer=" + bulkTransfer
+				+ ", rx=" + getRxBytesPerSecond() + " B/s, tx=" + getTxBytesPerSecond() + " B/s");
+		writer.println(prefix + gattQueue);
+	}
+
 	@Override
 	public void addCallbackRecipient(MTAsyncBLEConnectionCallbackRecipient recipient) {
 		callbackRecipients.add(recipient);
@@ -207,47 +432,58 @@ public class BLEConnection implements MtAsyncBLEConnection {
 
 	private final BluetoothGattCallback bleGattCallback = new BluetoothGattCallback() {
 
+		@Override
+		public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, byte[] value) {
+			// API 33: value of this notification, the characteristic may already hold the next one
+			onNotification(characteristic, value);
+		}
+
 		@Override
 		public void onCharacteristicChanged(BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic) {
 			// this will get called anytime you perform a read or write characteristic operation
-			byte[] data = characteristic.getValue();
-			Log.i(TAG, "On characteristic changed for " + characteristic.getUuid().toString() + "; value: " + MTDeviceParserImpl.bytesToHex(data));
-			
-			if (characteristic.getUuid().equals(MIRX_CHAR_UUID_LEGACY)) {
-				Log.i(TAG, "Start callback to MTProtocol");
-				forwardBLECallback(data);
-			}
-			
-			broadcastUpdate(ACTION_DATA_NOTIFY, characteristic, BluetoothGatt.GATT_SUCCESS);
+			onNotification(characteristic, characteristic.getValue());
 		}
 
 		@Override
 		public void onConnectionStateChange(final BluetoothGatt gatt, final int status, final int newState) { 
+			if (newState == BluetoothProfile.STATE_DISCONNECTED && connectionState == STATE_CONNECTED
+					&& fastReconnect && genericChar != null) {
+				AppLog.w(TAG, "Link lost with status %d -> fast reconnect", status);
+				reconnect(gatt);
+				return;
+			}
 			// Handle connect and disconnect
 			if (status == BluetoothGatt.GATT_SUCCESS) {
 				switch (newState) {
 				case BluetoothProfile.STATE_CONNECTED:
 					if (connectionState == STATE_CONNECTED) {
-						Log.w(TAG, "Already connected - no need to discover services.");
+						AppLog.w(TAG, "Already connected - no need to discover services.");
+						return;
+					}
+					if (genericChar != null) { // reconnected, handles of the last connect still valid
+						AppLog.i(TAG, "RECONNECTED; REUSE CHARACTERISTIC");
+						onCharacteristicResolved(gatt);
 						return;
 					}
-					Log.i(TAG, "CONNECTING; DISCOVER SERVICES");
+					AppLog.i(TAG, "CONNECTING; DISCOVER SERVICES");
+					serviceDiscoveryStartedAt = System.nanoTime();
 					boolean success = gatt.discoverServices();
 					if (!success) {
 						retryConnection();
 					}
 					break;
 				case BluetoothProfile.STATE_DISCONNECTED:
-					Log.e(TAG, "STATE_DISCONNECTED");
+					AppLog.e(TAG, "STATE_DISCONNECTED");
 					setState(STATE_NONE);
 					break;
 				default:
-					Log.e(TAG, "STATE_UNKNOWN");
+					AppLog.e(TAG, "STATE_UNKNOWN");
 					setState(STATE_NONE);
 				}
 			} else {
-				Log.e(TAG, "onConnectionStateChange error with status: " + status);
+				AppLog.e(TAG, "onConnectionStateChange error with status: %d", status);
 				if (status == 133) {
+					metrics.recordRetry133();
 					retryConnection();
 				} else {
 					closeConnection();
@@ -259,89 +495,312 @@ public class BLEConnection implements MtAsyncBLEConnection {
 		@Override
 		public void onServicesDiscovered(final BluetoothGatt gatt, final int status) {
 			if (connectionState == STATE_CONNECTED) {
-				Log.w(TAG, "All services discovered and connection running - no need to discover additional services");
+				AppLog.w(TAG, "All services discovered and connection running - no need to discover additional services");
 				return;
 			}
-			// Find necessary services
-			List<BluetoothGattService> services = gatt.getServices();
-			Log.i("onServicesDiscovered", services.toString());
-			//Log.i(TAG, "Miraculix UUID: " + BLEService.MIRACULIX_SERVICE_UUID.toString());
-			String uuids = "Detected UUIDs:\n";
-			for (int i = 0; i < services.size(); i++) {
-				Log.i(TAG, "Service discovered: " + services.get(i).getUuid().toString());
-				String uuidName = services.get(i).getUuid().toString();
-				uuids += uuidName + ";\n";
-				if (uuidName.equals(MIRX_SERVICE_UUID_GENERIC.toString())) {
-					Log.i(TAG, "Found generic service with UUID " + services.get(i).getUuid().toString());
-					genericService = services.get(i);
-				}
+			if (serviceDiscoveryStartedAt != 0) {
+				metrics.recordServicesDiscovered(serviceDiscoveryStartedAt);
+				serviceDiscoveryStartedAt = 0;
 			}
-			Log.d(TAG, uuids);
-			
-			if (genericService != null) { // Generic service found
-				Log.i(TAG, "Resolving generic characteristics...");
-				for (int i = 0; i < genericService.getCharacteristics().size(); i++) {
-					Log.i(TAG, "Char discovered: " + genericService.getCharacteristics().get(i).getUuid().toString());
-					// Get notifications for generic characteristic
-					if (genericService.getCharacteristics().get(i).getUuid().equals(MIRX_CHAR_UUID_LEGACY)) {
-						genericChar = genericService.getCharacteristics().get(i);
-						boolean success = setCharacteristicIndication(genericChar, true);
-						if (success) {
-							Log.i(TAG, "STATE_CONNECTED");
-							setState(STATE_CONNECTED);
-						} else {
-							retryConnection();
-						}
-						//gatt.readCharacteristic(genericChar);
-					}	
-				}
+			// Find necessary service and characteristic by UUID, no walk over all services
+			genericService = gatt.getService(MIRX_SERVICE_UUID_GENERIC);
+			if (genericService == null) {
+				AppLog.w(TAG, "Generic service not found in %d services", gatt.getServices().size());
+				return;
+			}
+			AppLog.i(TAG, "Found generic service with UUID %s", MIRX_SERVICE_UUID_GENERIC);
+			genericChar = genericService.getCharacteristic(MIRX_CHAR_UUID_LEGACY);
+			if (genericChar != null) {
+				onCharacteristicResolved(gatt);
 			}
 		}
 
 		@Override
 		public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-			Log.i(TAG, "On characteristic read for " + characteristic.getUuid().toString());
+			AppLog.d(TAG, "On characteristic read for %s", characteristic.getUuid());
+			gattQueue.complete(GattOperationQueue.TYPE_READ, status);
 		}
 		
 		@Override
 		public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-			forwardWriteFinished(status);
-			Log.i(TAG, "On characteristic write for " + characteristic.getUuid().toString());
-			broadcastUpdate(ACTION_DATA_WRITE, characteristic, status);
+			if (AppLog.VERBOSE_ENABLED && writeTrace.sample()) {
+				writeTrace.log("On characteristic write for " + characteristic.getUuid() + "; status: " + status);
+			}
+			broadcastUpdate(ACTION_DATA_WRITE, characteristic, characteristic.getValue(), status);
+			gattQueue.complete(GattOperationQueue.TYPE_WRITE, status);
+		}
+
+		@Override
+		public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+			AppLog.i(TAG, "On MTU changed: %d; status: %d", mtu, status);
+			// the remembered MTU is replaced by the one of this connect, the default if the request failed
+			BLEConnection.this.mtu = status == BluetoothGatt.GATT_SUCCESS ? mtu : DEFAULT_MTU;
+			gattQueue.complete(GattOperationQueue.TYPE_REQUEST_MTU, status);
+		}
+
+		@Override
+		public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+			AppLog.d(TAG, "On descriptor write for %s; status: %d", descriptor.getUuid(), status);
+			gattQueue.complete(GattOperationQueue.TYPE_WRITE_DESCRIPTOR, status);
+		}
+	};
+
+	/**
+	 * Below Android O the GATT callbacks arrive on binder threads: posted to the I/O thread in order.
+	 * The value of a notification is taken at once, the characteristic is reused for the next one
+	 */
+	private final BluetoothGattCallback binderGattCallback = new BluetoothGattCallback() {
+
+		@Override
+		public void onCharacteristicChanged(BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic) {
+			final byte[] data = characteristic.getValue();
+			ioHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					onNotification(characteristic, data);
+				}
+			});
+		}
+
+		@Override
+		public void onConnectionStateChange(final BluetoothGatt gatt, final int status, final int newState) {
+			ioHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					bleGattCallback.onConnectionStateChange(gatt, status, newState);
+				}
+			});
+		}
+
+		@Override
+		public void onServicesDiscovered(final BluetoothGatt gatt, final int status) {
+			ioHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					bleGattCallback.onServicesDiscovered(gatt, status);
+				}
+			});
+		}
+
+		@Override
+		public void onCharacteristicRead(final BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic, final int status) {
+			ioHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					bleGattCallback.onCharacteristicRead(gatt, characteristic, status);
+				}
+			});
+		}
+
+		@Override
+		public void onCharacteristicWrite(final BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic, final int status) {
+			ioHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					bleGattCallback.onCharacteristicWrite(gatt, characteristic, status);
+				}
+			});
+		}
+
+		@Override
+		public void onMtuChanged(final BluetoothGatt gatt, final int mtu, final int status) {
+			ioHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					bleGattCallback.onMtuChanged(gatt, mtu, status);
+				}
+			});
+		}
+
+		@Override
+		public void onDescriptorWrite(final BluetoothGatt gatt, final BluetoothGattDescriptor descriptor, final int status) {
+			ioHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					bleGattCallback.onDescriptorWrite(gatt, descriptor, status);
+				}
+			});
 		}
 	};
+
+	/**
+	 * The array of the Bluetooth stack is handed to the MT protocol as is, it appends the bytes to
+	 * its frame reader. No copy on the default path: the hex dump is sampled trace output and
+	 * broadcasts are disabled unless requested
+	 */
+	private void onNotification(BluetoothGattCharacteristic characteristic, byte[] data) {
+		if (data == null) {
+			return;
+		}
+		recordTraffic(rxThroughput, data);
+		metrics.recordNotification(data.length);
+		if (AppLog.VERBOSE_ENABLED && notificationTrace.sample()) {
+			notificationTrace.log("On characteristic changed for " + characteristic.getUuid() + "; value: " + MTDeviceParserImpl.bytesToHex(data));
+			metrics.recordNotificationCopy(data.length);
+		}
+		
+		if (characteristic.getUuid().equals(MIRX_CHAR_UUID_LEGACY)) {
+			forwardBLECallback(data);
+		}
+		
+		if (broadcastUpdate(ACTION_DATA_NOTIFY, characteristic, data, BluetoothGatt.GATT_SUCCESS)) {
+			metrics.recordNotificationCopy(data.length);
+		}
+	}
 	
-	private boolean setCharacteristicIndication(BluetoothGattCharacteristic characteristic, boolean enable) {
+	/**
+	 * Enables the indication locally and queues the write of the client configuration descriptor.
+	 * The connection is established, when the descriptor write is confirmed
+	 * @return false if the descriptor is missing
+	 */
+	private boolean setCharacteristicIndication(final BluetoothGattCharacteristic characteristic, final boolean enable) {
 		if (bluetoothGatt != null) {
 			boolean success;
 			success = bluetoothGatt.setCharacteristicNotification(characteristic, enable);
-			Log.i(TAG, "Setting indication " + characteristic.getUuid().toString() + (success ? " success!" : " NO"));
-			success = false;
-			BluetoothGattDescriptor descriptor = characteristic.getDescriptor(DESCRIPTOR_UUID);
-			if (descriptor != null) {
-				descriptor.setValue(BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
-				success = bluetoothGatt.writeDescriptor(descriptor);
+			AppLog.d(TAG, "Setting indication %s%s", characteristic.getUuid(), success ? " success!" : " NO");
+			final BluetoothGattDescriptor descriptor = characteristic.getDescriptor(DESCRIPTOR_UUID);
+			if (descriptor == null) {
+				AppLog.w(TAG, "Setting indication descriptor %s NO", characteristic.getUuid());
+				return false;
 			}
-			Log.i(TAG, "Setting indication descriptor " + characteristic.getUuid().toString() + (success ? " success!" : " NO"));
-			return success;
+			gattQueue.enqueue(new GattOperationQueue.Operation(GattOperationQueue.TYPE_WRITE_DESCRIPTOR, GattOperationQueue.DEFAULT_TIMEOUT_IN_MS) {
+				@Override
+				boolean execute() {
+					descriptor.setValue(BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
+					return bluetoothGatt.writeDescriptor(descriptor);
+				}
+
+				@Override
+				void onCompleted(int status) {
+					boolean success = status == BluetoothGatt.GATT_SUCCESS;
+					AppLog.d(TAG, "Setting indication descriptor %s%s", characteristic.getUuid(), success ? " success!" : " NO (" + status + ")");
+					if (success) {
+						AppLog.i(TAG, "STATE_CONNECTED");
+						if (reconnectStartedAt != 0) {
+							metrics.recordReconnected(reconnectStartedAt);
+							reconnectStartedAt = 0;
+						}
+						setState(STATE_CONNECTED);
+					} else {
+						retryConnection();
+					}
+				}
+			});
+			return true;
 		}
 		return false;
 	}
 	
-	private boolean writeCharacteristic(BluetoothGattCharacteristic characteristic, byte[] data) {
-		characteristic.setValue(data);
-		return bluetoothGatt.writeCharacteristic(characteristic);
+	/**
+	 * Enables notifications of the MT characteristic, after service discovery or on a fast reconnect
+	 */
+	private void onCharacteristicResolved(BluetoothGatt gatt) {
+		if (highThroughputMode) {
+			enableHighThroughput(gatt, genericChar);
+		}
+		// STATE_CONNECTED is set, when the descriptor write is confirmed
+		boolean success = setCharacteristicIndication(genericChar, true);
+		if (!success) {
+			retryConnection();
+		}
+	}
+
+	/**
+	 * Connects the lost link again on the same GATT client; the device is connected as soon as it is in range
+	 */
+	private void reconnect(BluetoothGatt gatt) {
+		reconnectStartedAt = System.nanoTime();
+		bulkTransfer = false;
+		ioHandler.removeCallbacks(bulkIdleCheck);
+		gattQueue.clear();
+		mtu = DEFAULT_MTU;
+		setState(STATE_CONNECTING);
+		scheduleConnectingTimeout();
+		if (!gatt.connect()) {
+			reconnectStartedAt = 0;
+			retryConnection();
+		}
+	}
+
+	private void scheduleConnectingTimeout() {
+		ioHandler.removeCallbacks(connectingTimeout);
+		ioHandler.postDelayed(connectingTimeout, CONNECTING_TIMEOUT_PERIOD);
+	}
+
+	/**
+	 * Queues the write. The MT protocol is informed by onBLEWriteFinished, when the write is
+	 * confirmed, timed out or rejected
+	 */
+	private void writeCharacteristic(final BluetoothGattCharacteristic characteristic, final byte[] data) {
+		gattQueue.enqueue(new GattOperationQueue.Operation(GattOperationQueue.TYPE_WRITE, GattOperationQueue.DEFAULT_TIMEOUT_IN_MS) {
+			@Override
+			boolean execute() {
+				characteristic.setValue(data);
+				return bluetoothGatt.writeCharacteristic(characteristic);
+			}
+
+			@Override
+			void onCompleted(int status) {
+				if (status == BluetoothGatt.GATT_SUCCESS) {
+					recordTraffic(txThroughput, data);
+				}
+				if (status < 0) {
+					AppLog.w(TAG, "Write not confirmed: %s", status == GattOperationQueue.STATUS_TIMEOUT ? "timeout" : "rejected");
+					status = BluetoothGatt.GATT_FAILURE;
+				}
+				forwardWriteFinished(status);
+			}
+		});
 	}
 	
-	private void broadcastUpdate(final String action, final BluetoothGattCharacteristic characteristic, final int status) {
+	/**
+	 * Queues the MTU request (before the descriptor write) and switches to write without response, if supported.
+	 * The largest MTU is requested on every connect: a device may accept it after a firmware update or on another phone
+	 */
+	private void enableHighThroughput(final BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+		if (rememberedMtu > 0) {
+			mtu = rememberedMtu;
+		}
+		gattQueue.enqueue(new GattOperationQueue.Operation(GattOperationQueue.TYPE_REQUEST_MTU, GattOperationQueue.DEFAULT_TIMEOUT_IN_MS) {
+			@Override
+			boolean execute() {
+				return gatt.requestMtu(MAX_MTU);
+			}
+		});
+		if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0) {
+			characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+			AppLog.i(TAG, "Write without response enabled");
+		}
+	}
+
+	private void recordTraffic(RateMeter meter, byte[] data) {
+		if (data != null) {
+			long now = SystemClock.elapsedRealtime();
+			meter.record(data.length, now);
+			lastTrafficTime = now;
+		}
+	}
+
+	/**
+	 * @param data value of the characteristic, passed along: the characteristic itself may already hold the next value
+	 * @return true if the broadcast was sent, with a copy of the data
+	 */
+	private boolean broadcastUpdate(final String action, final BluetoothGattCharacteristic characteristic, final byte[] data, final int status) {
+		if (!broadcastGattUpdates) {
+			return false;
+		}
 		final Intent intent = new Intent(action);
 		intent.putExtra(EXTRA_UUID, characteristic.getUuid().toString());
-		intent.putExtra(EXTRA_DATA, characteristic.getValue());
+		intent.putExtra(EXTRA_DATA, data);
 		intent.putExtra(EXTRA_STATUS, status);
 		context.sendBroadcast(intent);
+		return true;
 	}
 
 	private void retryConnection() {
+		if (connectionState == STATE_TIMEOUT) {
+			return; // attempt already given up, e.g. GATT error after the connecting timeout
+		}
 		closeConnection();
 		setState(STATE_TIMEOUT);
 	}
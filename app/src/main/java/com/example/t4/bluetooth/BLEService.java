@@ -14,29 +14,46 @@ import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
-import android.util.Log;
+import android.os.Looper;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
+import android.util.SparseArray;
 
 import com.bosch.mtprotocol.MtConnection;
+import com.example.t4.GLMDevice;
 import com.example.t4.bluetooth.ble_utils.BleDeviceScanner18;
 import com.example.t4.bluetooth.ble_utils.BleDeviceScanner21;
 import com.example.t4.exc.BluetoothNotSupportedException;
+import com.example.t4.logging.AppLog;
+import com.example.t4.measurement.MeasurementBus;
+import com.example.t4.metrics.ConnectionMetrics;
+import com.example.t4.metrics.LatencyHistogram;
+import com.example.t4.metrics.MetricsRegistry;
+import com.example.t4.storage.MeasurementStore;
 import com.bosch.mtprotocol.glm100C.connection.MtAsyncConnection;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
-
-import static com.bosch.mtprotocol.glm100C.connection.MtAsyncConnection.STATE_CONNECTING;
+import java.util.concurrent.ConcurrentHashMap;
 
 import androidx.core.app.NotificationCompat;
 
-public class BLEService extends Service implements MtAsyncConnection.MTAsyncConnectionObserver, IBleDeviceScanner.OnDeviceDiscoveredHandler {
+public class BLEService extends Service implements IBleDeviceScanner.OnDeviceDiscoveredHandler,
+        IBleDeviceScanner.OnDevicesDiscoveredHandler {
 
     public static final String ACTION_DEVICE_LIST_UPDATED = "DEVICE_LIST_UPDATED";
     public static final String ACTION_CONNECTION_STATUS_UPDATE = "CONNECTION_STATUS_UPDATE";
 
     public static final String EXTRA_DEVICE = "DEVICE";
+    public static final String EXTRA_DEVICE_ADDRESS = "DEVICE_ADDRESS";
     public static final String EXTRA_CONNECTION_STATUS = "CONNECTION_STATUS";
 
     public static final int REQUEST_ENABLE_BT = 3;
@@ -45,21 +62,116 @@ public class BLEService extends Service implements MtAsyncConnection.MTAsyncConn
 
     private static final long PERIOD_TO_SCAN_IN_MS = 5000;
 
+    private static final long DISCOVERY_CACHE_SWEEP_PERIOD_IN_MS = 1000;
+
     private final IBinder mBinder = new BLELocalBinder();
 
     private Handler mHandler;
     private BluetoothAdapter btAdapter;
     private ScanSettings scanSettingsForDiscovery;
     private List<ScanFilter> scanFiltersForDiscovery;
+    private List<ScanFilter> scanFiltersForMtDevices;
     private IBleDeviceScanner mBleDeviceScanner;
 
-    private MtAsyncConnection connection;
+    // last device selected for connection
     private MTBluetoothDevice currentDevice;
 
     private boolean isScanning = false;
 
+    // duty cycles the discovery scan; created with the scanner
+    private ScanScheduler scanScheduler;
+    private final SparseArray<ScanSettings> scanSettingsByMode = new SparseArray<>();
+    private boolean hybridScanFiltering = true;
+
+    // batched scan results of the balanced and low power windows; 0 to report every result immediately
+    private long scanReportDelayInMs = 0;
+    // addresses of the batch in process, to check only the newest advertisement of every device
+    private final Set<String> batchAddresses = new HashSet<>();
+    private long scanBatches;
+    private long scanBatchResults;
+
+    private boolean highThroughputMode = false;
+
+    // concurrent connections to all selected devices
+    private final ConnectionManager connectionManager = new ConnectionManager(new Handler(Looper.getMainLooper()), new ConnectionManager.ConnectionFactory() {
+        @Override
+        public MtAsyncConnection createConnection(MTBluetoothDevice device) {
+            if (device.getFamily().isBleOnly()) { // GLM 120 C family device or GLM 50-2 family device - BLE only
+                AppLog.d(TAG, "Trying BLE connection to %s", device.getDisplayName());
+                BLEConnection bleConnection = new BLEConnection(device, BLEService.this);
+                bleConnection.setHighThroughputMode(highThroughputMode);
+                GLMDevice remembered = rememberedDevices.get(device.getDevice().getAddress());
+                if (remembered != null) {
+                    bleConnection.setRememberedMtu(remembered.getMtu());
+                }
+                return bleConnection;
+            } else { // GLM 50 C, GLM 100 C or PLR device
+                AppLog.d(TAG, "Trying Classic connection to %s", device.getDisplayName());
+                return new BluetoothConnection(device.getDevice());
+            }
+        }
+    }, new ConnectionManager.Listener() {
+        @Override
+        public void onConnectionStateChanged(MTBluetoothDevice device, MtAsyncConnection connection) {
+            Intent intent = new Intent(ACTION_CONNECTION_STATUS_UPDATE);
+            intent.putExtra(EXTRA_CONNECTION_STATUS, connection.getState());
+            intent.putExtra(EXTRA_DEVICE, device.getDisplayName());
+            intent.putExtra(EXTRA_DEVICE_ADDRESS, device.getDevice().getAddress());
+            sendBroadcast(intent);
+
+            if (connection.getState() == MtAsyncConnection.STATE_CONNECTED) {
+                rememberDevice(device, connection);
+            }
+        }
+
+        @Override
+        public void onReconnectGivenUp(MTBluetoothDevice device) {
+            Intent intent = new Intent(ACTION_CONNECTION_STATUS_UPDATE);
+            intent.putExtra(EXTRA_CONNECTION_STATUS, MtAsyncConnection.STATE_NONE);
+            intent.putExtra(EXTRA_DEVICE, device.getDisplayName());
+            intent.putExtra(EXTRA_DEVICE_ADDRESS, device.getDevice().getAddress());
+            sendBroadcast(intent);
+        }
+    });
+
+    // devices connected before, by address: link parameters for the next connect
+    private final Map<String, GLMDevice> rememberedDevices = new ConcurrentHashMap<>();
+
+    // persists all published measurements; null if the storage could not be opened
+    private MeasurementStore measurementStore;
+
     private Set<MTBluetoothDevice> visibleDevices = new HashSet<>();
 
+    // reused for every scan result
+    private final MTScanRecordParser scanRecordParser = new MTScanRecordParser();
+
+    // remembers the last scan record of every device to skip repeated advertisements
+    private final DiscoveryCache discoveryCache = new DiscoveryCache(DiscoveryCache.DEFAULT_TTL_IN_MS);
+    private long lastDiscoveryCacheSweep;
+
+    // merges device list changes into one update per frame
+    private final DeviceListUpdateCoalescer deviceListUpdates = new DeviceListUpdateCoalescer(DeviceListUpdateCoalescer.DEFAULT_WINDOW_IN_MS);
+    private final OnDeviceListChangedHandler deviceListBroadcaster = new OnDeviceListChangedHandler() {
+        @Override
+        public void onDeviceListChanged(DeviceListDiff diff) {
+            // keep broadcast receivers informed, once per update
+            sendBroadcast(new Intent(ACTION_DEVICE_LIST_UPDATED));
+        }
+    };
+
+    /**
+     * Handler for coalesced changes of the visible device list
+     */
+    public interface OnDeviceListChangedHandler {
+
+        /**
+         * Called on the main thread at most once per update window
+         *
+         * @param diff devices added, removed or changed since the last call
+         */
+        void onDeviceListChanged(DeviceListDiff diff);
+    }
+
     private static final String CHANNEL_ID = "BluetoothServiceChannel";
     /**
      * Start Bluetooth scan
@@ -73,17 +185,18 @@ public class BLEService extends Service implements MtAsyncConnection.MTAsyncConn
             initializeDeviceScanner();
         }
 
-        if (isScanning) {
-            Log.w(TAG, " ## DISCOVERY ONGOING: NO NEED TO START ## ");
+        if (isScanning || scanScheduler.isRunning()) {
+            AppLog.w(TAG, " ## DISCOVERY ONGOING: NO NEED TO START ## ");
             return;
         }
 
-        Log.w(TAG, "START BLE SCANNER...");
+        AppLog.w(TAG, "START BLE SCANNER...");
 
         mBleDeviceScanner.setScanSettings(scanSettingsForDiscovery);
         mBleDeviceScanner.setSystemFilter(scanFiltersForDiscovery);
 
-        scanLeDevice(true);
+        clearVisibleDevices();
+        scanScheduler.start();
     }
 
     /**
@@ -96,65 +209,107 @@ public class BLEService extends Service implements MtAsyncConnection.MTAsyncConn
             }
         } catch (BluetoothNotSupportedException be) {
             be.printStackTrace();
-            Log.e(TAG, "Bluetooth not Supported!");
+            AppLog.e(TAG, "Bluetooth not Supported!");
         }
 
-        Log.w(TAG, " ## CANCEL DISCOVERY ## ");
-        scanLeDevice(false);
+        AppLog.w(TAG, " ## CANCEL DISCOVERY ## ");
+        if (scanScheduler != null) {
+            scanScheduler.stop();
+        }
+        if (isScanning) {
+            scanLeDevice(false);
+        }
     }
 
     /**
-     * Open connection to MTBluetoothDevice mtDevice
+     * Open connection to MTBluetoothDevice mtDevice, in addition to the devices already connected
      * BluetoothConnection (classic connection) is opened if the connected mtDevice supports dual mode
      * BLEConnection (BLE connection) is opened, if the connected mtDevice supports only BLE
-     * @return true if successful, false otherwise
+     * The connect may wait, if already {@link #setMaxConcurrentConnects(int) enough} connects are running
+     * @return true if successful, false otherwise (e.g. already connected)
      * @throws BluetoothNotSupportedException if Bluetooth not supported
      */
     public boolean connect(final MTBluetoothDevice mtDevice) throws BluetoothNotSupportedException {
-        if (connection != null && connection.isOpen()) {
-            disconnect();
-        }
-
-        if (connection != null && connection.getState() == STATE_CONNECTING) {
-            Log.w(TAG, "Trying connection: Ignore");
-            return false;
-        }
-
         cancelDiscovery();
         this.currentDevice = mtDevice;
 
-        if (BluetoothUtils.validateGLM120Name(mtDevice) || BluetoothUtils.validateGLM50_2Name(mtDevice)) { // GLM 120 C family device or GLM 50-2 family device - BLE only
-            Log.d(TAG, "Trying BLE connection to " + currentDevice.getDisplayName());
-            connection = new BLEConnection(currentDevice, this);
-            connection.addObserver(this);
-            connection.openConnection();
-        } else { // GLM 50 C, GLM 100 C or PLR device
-            Log.d(TAG, "Trying Classic connection to " + currentDevice.getDisplayName());
-            connection = new BluetoothConnection(mtDevice.getDevice());
-            connection.addObserver(this);
-            connection.openConnection();
+        return connectionManager.connect(mtDevice);
+    }
+
+    /**
+     * Connects a device connected before directly by its address, without scan.
+     * The device must be in range and advertising; the link parameters of the last connect are reused
+     * @param device device from {@link #getRememberedDevices(int)}
+     * @return true if successful, false otherwise (e.g. already connected or invalid address)
+     * @throws BluetoothNotSupportedException if Bluetooth not supported
+     */
+    public boolean connectRemembered(GLMDevice device) throws BluetoothNotSupportedException {
+        if (device.getMacAddress() == null || !BluetoothAdapter.checkBluetoothAddress(device.getMacAddress())) {
+            AppLog.w(TAG, "Invalid address of remembered device %s", device.getName());
+            return false;
+        }
+        if (btAdapter == null) { // initialize, if necessary
+            btAdapter = getBluetoothAdapter();
         }
+        DeviceFamily family = null;
+        if (device.getFamily() != null) {
+            try {
+                family = DeviceFamily.valueOf(device.getFamily());
+            } catch (IllegalArgumentException e) {
+                AppLog.w(TAG, "Unknown family %s: resolved from name", device.getFamily());
+            }
+        }
+        rememberedDevices.put(device.getMacAddress(), device);
+        return connect(new MTBluetoothDevice(btAdapter.getRemoteDevice(device.getMacAddress()), device.getName(), family));
+    }
 
-        return true;
+    /**
+     * Returns the devices connected before, to be connected again by {@link #connectRemembered(GLMDevice)}
+     * Performs I/O, do not call on the main thread
+     * @param limit maximum number of devices
+     * @return devices, last connected first; empty if the storage could not be opened
+     */
+    public List<GLMDevice> getRememberedDevices(int limit) throws InterruptedException {
+        if (measurementStore == null) {
+            return new ArrayList<>();
+        }
+        return measurementStore.getRecentDevices(limit);
     }
 
     /**
-     * Close an existing connection
+     * Close the connection to the last selected device
      */
     public void disconnect() {
-        if (connection != null) {
-            connection.closeConnection();
-            synchronized (this) {
-                if(connection!=null)
-                    connection.removeObserver(this);
-            }
-            if (connection instanceof BluetoothConnection) {
-                connection = null; // set to null only, if not BLEConnetcion
-            }
+        if (currentDevice != null) {
+            disconnect(currentDevice);
             currentDevice = null;
         }
     }
 
+    /**
+     * Close the connection to the device
+     * @param mtDevice connected device
+     */
+    public void disconnect(MTBluetoothDevice mtDevice) {
+        connectionManager.disconnect(mtDevice.getDevice().getAddress());
+    }
+
+    /**
+     * Close the connections to all devices
+     */
+    public void disconnectAll() {
+        connectionManager.disconnectAll();
+        currentDevice = null;
+    }
+
+    /**
+     * Sets how many connects may run at the same time. Further connects wait
+     * @param maxConcurrentConnects maximum number of simultaneous connects, at least 1
+     */
+    public void setMaxConcurrentConnects(int maxConcurrentConnects) {
+        connectionManager.setMaxConcurrentConnects(maxConcurrentConnects);
+    }
+
     /**
      * Get currently discovered Bluetooth devices
      * @return set of visible Bluetooth devices
@@ -163,6 +318,56 @@ public class BLEService extends Service implements MtAsyncConnection.MTAsyncConn
         return visibleDevices;
     }
 
+    /**
+     * Add a handler for changes of the visible device list
+     * Remove the handler using {@link #removeOnDeviceListChangedHandler(OnDeviceListChangedHandler)}
+     *
+     * @param handler The handler to attach
+     */
+    public void addOnDeviceListChangedHandler(OnDeviceListChangedHandler handler) {
+        deviceListUpdates.addHandler(handler);
+    }
+
+    /**
+     * Remove a handler for changes of the visible device list
+     *
+     * @param handler The handler to remove
+     */
+    public void removeOnDeviceListChangedHandler(OnDeviceListChangedHandler handler) {
+        deviceListUpdates.removeHandler(handler);
+    }
+
+    /* (non-Javadoc)
+     * @see android.app.Service#onCreate()
+     */
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        deviceListUpdates.addHandler(deviceListBroadcaster);
+        // opened and recovered on its writer thread
+        measurementStore = new MeasurementStore(getApplicationContext());
+        MeasurementBus.getDefault().subscribe(measurementStore);
+    }
+
+    /* (non-Javadoc)
+     * @see android.app.Service#onDestroy()
+     */
+    @Override
+    public void onDestroy() {
+        if (scanScheduler != null) {
+            scanScheduler.stop();
+        }
+        connectionManager.disconnectAll();
+        deviceListUpdates.removeHandler(deviceListBroadcaster);
+        deviceListUpdates.cancel();
+        if (measurementStore != null) {
+            MeasurementBus.getDefault().unsubscribe(measurementStore);
+            measurementStore.close(); // remaining measurements are written by its writer thread
+            measurementStore = null;
+        }
+        super.onDestroy();
+    }
+
     /* (non-Javadoc)
      * @see android.app.Service#onStartCommand(android.content.Intent, int, int)
      */
@@ -183,7 +388,7 @@ public class BLEService extends Service implements MtAsyncConnection.MTAsyncConn
         try {
             startDiscovery();
         } catch (BluetoothNotSupportedException e) {
-            Log.e(TAG, "Bluetooth not supported");
+            AppLog.e(TAG, "Bluetooth not supported");
             e.printStackTrace();
         }
 
@@ -212,99 +417,165 @@ public class BLEService extends Service implements MtAsyncConnection.MTAsyncConn
         return mBinder;
     }
 
+    /* (non-Javadoc)
+     * @see com.bosch.glm100c.easy_connect.bluetooth.IBleDeviceScanner#onDeviceDiscovered
+     */
+    @Override
+    public void onDeviceDiscovered(IScanResult result) {
+        onDevicesDiscovered(Collections.singletonList(result));
+    }
+
     /**
-     * Callback that handles connection state changes
-     * @param connection connection, which state changed
+     * Checks all devices of a batch in one pass: only the newest advertisement of every device is checked,
+     * the changes of the device list are published in one update
      */
     @Override
-    public void onConnectionStateChanged(MtAsyncConnection connection) {
-        Intent intent = new Intent(ACTION_CONNECTION_STATUS_UPDATE);
-        intent.putExtra(EXTRA_CONNECTION_STATUS, connection.getState());
-        intent.putExtra(EXTRA_DEVICE, currentDevice.getDisplayName());
-        sendBroadcast(intent);
+    public void onDevicesDiscovered(List<IScanResult> results) {
+        if (scanScheduler != null) {
+            for (int i = 0; i < results.size(); i++) {
+                scanScheduler.onScanResult();
+            }
+        }
+        if (results.size() > 1) {
+            scanBatches++;
+            scanBatchResults += results.size();
+        }
+        if (connectionManager.isConnecting()) {
+            return;
+        }
 
+        long now = SystemClock.elapsedRealtime();
+        if (now - lastDiscoveryCacheSweep > DISCOVERY_CACHE_SWEEP_PERIOD_IN_MS) {
+            lastDiscoveryCacheSweep = now;
+            discoveryCache.evictExpired(now);
+        }
 
-        if(connection.getState() == MtAsyncConnection.STATE_NONE){
-            if(this.connection != null){
-                this.connection.removeObserver(this);
-                this.connection.closeConnection();
-            }
+        if (results.size() == 1) {
+            checkDiscoveredDevice(results.get(0).getDevice(), results.get(0).getRawScanRecord(), now);
+            return;
         }
-        if (connection.getState() == MtAsyncConnection.STATE_TIMEOUT) { // retry on timeout (error 133)
-            Log.w(TAG, "Timeout -> retry");
-            if (currentDevice != null) {
-                try {
-                    connect(currentDevice);
-                } catch (BluetoothNotSupportedException be) {
-                    Log.e(TAG, "Bluetooth not supported");
-                    be.printStackTrace();
-                }
+        batchAddresses.clear();
+        for (int i = results.size() - 1; i >= 0; i--) {
+            IScanResult result = results.get(i);
+            if (batchAddresses.add(result.getDevice().getAddress())) {
+                checkDiscoveredDevice(result.getDevice(), result.getRawScanRecord(), now);
             }
         }
     }
 
-    /* (non-Javadoc)
-     * @see com.bosch.glm100c.easy_connect.bluetooth.IBleDeviceScanner#onDeviceDiscovered
+    /**
+     * Will check if the last selected device is connected
+     * @return true if service connected, false otherwise
      */
-    @Override
-    public void onDeviceDiscovered(IScanResult result) {
-        checkDiscoveredDevice(result.getDevice(), result.getRawScanRecord());
+    public boolean isConnected(){
+        return currentDevice != null && isConnected(currentDevice);
     }
 
     /**
-     * Will check if service is connected
-     * @return true if service connected, false otherwise
+     * @param mtDevice device to check
+     * @return true if the device is connected
      */
-    public boolean isConnected(){
-        return connection != null && connection.getState() == MtAsyncConnection.STATE_CONNECTED;
+    public boolean isConnected(MTBluetoothDevice mtDevice) {
+        return connectionManager.getState(mtDevice.getDevice().getAddress()) == MtAsyncConnection.STATE_CONNECTED;
     }
 
     /**
      * Checks for every discovered device if it is a valid Bosch GLM device and (if true) adds it to the discovered devices list
+     * Repeated advertisements with unchanged scan record are answered from the discovery cache without parsing
      * @param device discovered Bluetooth device
      * @param scanRecord full scan record of the discovered device
+     * @param now SystemClock.elapsedRealtime() of the scan result or batch
      */
-    private void checkDiscoveredDevice(BluetoothDevice device, byte[] scanRecord) {
-        if (getConnectionState() == STATE_CONNECTING) {
-            return;
+    private void checkDiscoveredDevice(BluetoothDevice device, byte[] scanRecord, long now) {
+        long address = DiscoveryCache.addressToLong(device.getAddress());
+        int recordHash = DiscoveryCache.recordHash(scanRecord);
+        MTBluetoothDevice previousDevice = null;
+        if (address != DiscoveryCache.INVALID_ADDRESS) {
+            DiscoveryCache.Entry cached = discoveryCache.get(address, now);
+            if (cached != null && cached.matches(recordHash, scanRecord)) {
+                if (cached.getDevice() != null && scanScheduler != null) {
+                    scanScheduler.onDeviceReported(address, false);
+                }
+                return; // same advertisement as before -> nothing new
+            }
+            previousDevice = cached != null ? cached.getDevice() : null;
+        }
+
+        if (AppLog.VERBOSE_ENABLED && AppLog.isLoggable(AppLog.VERBOSE)) {
+            AppLog.v(TAG, "BLE Device found: " + device.getName() + "; address = " + device.getAddress()
+                    + "; scan record = " + (scanRecord == null ? "NULL" : MTScanRecordParser.toHex(scanRecord)));
         }
-        Log.i(TAG, "BLE Device found: " + (device.getName() == null ? "NULL" : device.getName())
-                + "; address = " + (device.getAddress() == null ? "NULL" : device.getAddress())
-                + "; scan record = " + (scanRecord == null ? "NULL" : MTDeviceParserImpl.bytesToHex(scanRecord)));
 
         MTBluetoothDevice foundDevice = null;
+        MTDeviceParser parsedDev = null;
 
         // Process to identify, if MirX based device is visible
-        MTDeviceParser parsedDev = new MTDeviceParserImpl(device.getName(), scanRecord);
-        //Log.i(TAG, parsedDev.toString());
-        if (parsedDev.isConnectable() && parsedDev.getDisplayName() != null && BluetoothUtils.validateDeviceName(parsedDev.getDisplayName())) {
-            foundDevice = new MTBluetoothDevice(device, parsedDev.getDisplayName());
-            Log.i(TAG, "BLE Device found: " + (foundDevice.getDisplayName() + " x" + parsedDev.getSerialNr()));
+        MTScanRecordParser parser = scanRecordParser.parse(device.getName(), scanRecord);
+        //Log.i(TAG, parser.toString());
+        if (parser.isConnectable() && parser.getDisplayName() != null && BluetoothUtils.validateDeviceName(parser.getDisplayName())) {
+            foundDevice = new MTBluetoothDevice(device, parser.getDisplayName(), DeviceFamily.fromBareToolNr(parser.getBareToolNr()));
+            parsedDev = parser.copy();
+            AppLog.d(TAG, "BLE Device found: %s x%s", foundDevice.getDisplayName(), parser.getSerialNr());
         }
 
         // Process to identify, if PAN 1026 based device is visible
         if (device.getName() != null && BluetoothUtils.validateDeviceName(device.getName())) {
             foundDevice = new MTBluetoothDevice(device, device.getName());
-            Log.i(TAG, "BLE Device found: " + (foundDevice.getDisplayName()));
+            AppLog.d(TAG, "BLE Device found: %s", foundDevice.getDisplayName());
         }
 
-        if (foundDevice != null && (BluetoothUtils.validateGLM50Name(foundDevice) || BluetoothUtils.validateGLM100Name(foundDevice)
-                || BluetoothUtils.validatePLRName(foundDevice) || BluetoothUtils.validateGISName(foundDevice)
-                || BluetoothUtils.validateGLM120Name(foundDevice) || BluetoothUtils.validateGLM50_2Name(foundDevice))) {
-            boolean isNew = true;
-            for (MTBluetoothDevice dev : visibleDevices) {
-                if (dev.getDevice().getAddress().equals(foundDevice.getDevice().getAddress())) {
-                    isNew = false;
-                }
-            }
-            if (isNew) {
-                visibleDevices.add(foundDevice);
-                Intent i = new Intent(ACTION_DEVICE_LIST_UPDATED);
-                sendBroadcast(i);
-            }
+        if (foundDevice != null && !foundDevice.getFamily().isSupported()) {
+            foundDevice = null; // Bosch device, but not supported
+        }
+
+        if (address != DiscoveryCache.INVALID_ADDRESS) {
+            discoveryCache.put(address, recordHash, scanRecord, parsedDev, foundDevice, now);
+        }
+
+        if (foundDevice == null) {
+            return;
+        }
+        boolean newDevice = visibleDevices.add(foundDevice);
+        if (scanScheduler != null) {
+            scanScheduler.onDeviceReported(address, newDevice);
+        }
+        if (newDevice) {
+            deviceListUpdates.deviceAdded(foundDevice);
+        } else if (previousDevice != null && !foundDevice.getDisplayName().equals(previousDevice.getDisplayName())) {
+            visibleDevices.remove(previousDevice);
+            visibleDevices.add(foundDevice);
+            deviceListUpdates.deviceChanged(foundDevice);
         }
     }
 
+    /**
+     * Enables the high throughput mode for the next BLE connections (larger MTU, write without response)
+     * @param enable true to enable
+     * @see BLEConnection#setHighThroughputMode(boolean)
+     */
+    public void setHighThroughputMode(boolean enable) {
+        this.highThroughputMode = enable;
+    }
+
+    /**
+     * Returns the device information parsed from the last scan record of the device
+     * @param device discovered device
+     * @return parsed device information; null if not available (e.g. PAN 1026 based devices)
+     */
+    public MTDeviceParser getParsedDevice(MTBluetoothDevice device) {
+        long address = DiscoveryCache.addressToLong(device.getDevice().getAddress());
+        DiscoveryCache.Entry cached = discoveryCache.peek(address);
+        return cached != null ? cached.getParsedDevice() : null;
+    }
+
+    /**
+     * Sets the time after which a device, that did not advertise anymore, is removed from the discovery cache
+     * @param ttlInMs time to live in ms
+     */
+    public void setDiscoveryCacheTtl(long ttlInMs) {
+        discoveryCache.setTtl(ttlInMs);
+    }
+
     /**
      * Helper method to initialize the proper BLE scanner depending on Android phone version, as scanner
      * interface changed with API Level 21 and BLE is supported from API Level 18 on.
@@ -317,12 +588,29 @@ public class BLEService extends Service implements MtAsyncConnection.MTAsyncConn
             scanSettingsForDiscovery = new ScanSettings.Builder().setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY).build();
             scanFiltersForDiscovery = new ArrayList<>();
             // Leave filter list empty, as also devices that don't advertise their service UUID must be discovered (e.g. Bosch GLM 50 C)
+            // Filters offloaded to the controller for MirX devices, used by the scan scheduler between the unfiltered sweeps
+            scanFiltersForMtDevices = createMtScanFilters();
         } else {
             // Create scanner
             mBleDeviceScanner = new BleDeviceScanner18(btAdapter);
         }
-        // Bind callback handler
-        mBleDeviceScanner.addOnDeviceDiscoveredHandler(this);
+        scanScheduler = new ScanScheduler(new Handler(Looper.getMainLooper()), new ScanScheduler.Scanner() {
+            @Override
+            public void startScan(int scanMode, boolean filtered) {
+                mBleDeviceScanner.setScanSettings(getScanSettings(scanMode));
+                mBleDeviceScanner.setSystemFilter(filtered ? scanFiltersForMtDevices : scanFiltersForDiscovery);
+                mBleDeviceScanner.startScan();
+            }
+
+            @Override
+            public void stopScan() {
+                mBleDeviceScanner.stopScan();
+            }
+        });
+        // JellyBean scanner ignores the filters
+        scanScheduler.setHybridFiltering(hybridScanFiltering && scanFiltersForMtDevices != null);
+        // Bind callback handler, single results are delivered as batch of one
+        mBleDeviceScanner.addOnDevicesDiscoveredHandler(this);
         // Enable MT filter
         mBleDeviceScanner.enableMtFilter(false);
     }
@@ -330,64 +618,229 @@ public class BLEService extends Service implements MtAsyncConnection.MTAsyncConn
     /**
      * Operating function to start or stop BLE device scan.
      * Triggering scan will start scanning for a period of {@value #PERIOD_TO_SCAN_IN_MS} and quit scan after this period.
-     * Stopping scan will quit scan immediately
+     * Stopping scan will quit scan immediately.
+     * Single low latency scan without duty cycling; {@link #startDiscovery()} keeps discovering with less power
      * @param enable will trigger BLE scanner if true and stop the scanner otherwise
      */
     public void scanLeDevice(final boolean enable) {
         if (enable) {
+            if (scanScheduler != null) {
+                scanScheduler.stop();
+            }
+            mBleDeviceScanner.setScanSettings(scanSettingsForDiscovery);
+            mBleDeviceScanner.setSystemFilter(scanFiltersForDiscovery);
             mHandler.postDelayed(new Runnable() {
                 @Override
                 public void run() {
-                    Log.w(TAG, "STOPPING BLE SCAN");
+                    AppLog.w(TAG, "STOPPING BLE SCAN");
                     scanLeDevice(false);
                 }
             }, PERIOD_TO_SCAN_IN_MS);
-            Log.w(TAG, "BLE SCAN STARTED");
-            visibleDevices.clear();
+            AppLog.w(TAG, "BLE SCAN STARTED");
+            clearVisibleDevices();
             mBleDeviceScanner.startScan();
             isScanning = true;
         } else {
-            Log.w(TAG, "BLE SCAN STOPPED");
+            AppLog.w(TAG, "BLE SCAN STOPPED");
             mBleDeviceScanner.stopScan();
             isScanning = false;
+        }
+    }
 
-            // update device lists
-            Intent i = new Intent(ACTION_DEVICE_LIST_UPDATED);
-            sendBroadcast(i);
+    /**
+     * Remembers name, family and link parameters of a connected device for the next connect
+     */
+    private void rememberDevice(MTBluetoothDevice device, MtAsyncConnection connection) {
+        GLMDevice remembered = new GLMDevice();
+        remembered.setMacAddress(device.getDevice().getAddress());
+        remembered.setName(device.getDisplayName());
+        remembered.setFamily(device.getFamily().name());
+        remembered.setLastConnected(new Date());
+        if (connection instanceof BLEConnection) {
+            BLEConnection bleConnection = (BLEConnection) connection;
+            // MTU only negotiated in high throughput mode
+            remembered.setMtu(bleConnection.isHighThroughputMode() ? bleConnection.getMtu() : 0);
+            remembered.setWriteWithoutResponse(bleConnection.isWriteWithoutResponse());
         }
+        rememberedDevices.put(remembered.getMacAddress(), remembered);
+        if (measurementStore != null) {
+            measurementStore.updateDevice(remembered);
+        }
+    }
+
+    /**
+     * Forgets all visible devices, a new discovery finds them again
+     */
+    private void clearVisibleDevices() {
+        for (MTBluetoothDevice visibleDevice : visibleDevices) {
+            deviceListUpdates.deviceRemoved(visibleDevice); // merged with the rediscovery of the device
+        }
+        visibleDevices.clear();
+        discoveryCache.clear();
     }
 
     /**
-     * @return Currently connected Bluetooth device
+     * Hardware filters matching the advertising package of MirX devices, as parsed by the MTScanRecordParser:
+     * the complete list of 128 bit service UUIDs contains the MirX service.
+     * The manufacturer specific data can not be filtered, as it starts with the MAC address instead of a company id.
+     * @return filters for ScanSettings of Lollipop or higher
+     */
+    private static List<ScanFilter> createMtScanFilters() {
+        List<ScanFilter> filters = new ArrayList<>();
+        filters.add(new ScanFilter.Builder().setServiceUuid(new ParcelUuid(BLEConnection.MIRX_SERVICE_UUID_GENERIC)).build());
+        return filters;
+    }
+
+    /**
+     * Enables the hybrid scan filtering of the discovery: hardware filtered scans for MirX devices, merged with
+     * short unfiltered sweeps for PAN1026 devices. Enabled by default from Lollipop on
+     * @param enable false to run every discovery scan without filters
+     */
+    public void setHybridScanFiltering(boolean enable) {
+        hybridScanFiltering = enable;
+        if (scanScheduler != null) {
+            scanScheduler.setHybridFiltering(enable && scanFiltersForMtDevices != null);
+        }
+    }
+
+    /**
+     * Enables batched scan results for the balanced and low power windows of the discovery: the controller
+     * queues the results and wakes the app once per report delay, applied from the next scan window
+     * @param reportDelayInMs delay of the batched results, 0 to report every result immediately;
+     *                        capped to {@value ScanScheduler#MAX_REPORT_DELAY_IN_MS} ms, below the scan windows
+     * @return false if the controller can not batch scan results; every result is reported immediately then
+     * @throws BluetoothNotSupportedException if Bluetooth not supported
+     */
+    public boolean setScanReportDelay(long reportDelayInMs) throws BluetoothNotSupportedException {
+        boolean supported = reportDelayInMs <= 0 || (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                && getBluetoothAdapter().isOffloadedScanBatchingSupported());
+        scanReportDelayInMs = supported ? Math.max(0, Math.min(reportDelayInMs, ScanScheduler.MAX_REPORT_DELAY_IN_MS)) : 0;
+        scanSettingsByMode.clear();
+        if (!supported) {
+            AppLog.w(TAG, "Batched scan results not supported");
+        }
+        return supported;
+    }
+
+    /**
+     * @param scanMode one of ScanSettings.SCAN_MODE_*
+     * @return settings of the discovery with the scan mode; null below Lollipop
+     */
+    private ScanSettings getScanSettings(int scanMode) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return null;
+        }
+        ScanSettings settings = scanSettingsByMode.get(scanMode);
+        if (settings == null) {
+            // the burst stays unbatched, its results are needed at once
+            long reportDelay = scanMode == ScanSettings.SCAN_MODE_LOW_LATENCY ? 0 : scanReportDelayInMs;
+            settings = new ScanSettings.Builder().setScanMode(scanMode).setReportDelay(reportDelay).build();
+            scanSettingsByMode.put(scanMode, settings);
+        }
+        return settings;
+    }
+
+    /**
+     * @return time from the start of a scan window until a device is first reported in it; null before the first discovery
+     */
+    public LatencyHistogram getDiscoveryLatency() {
+        return scanScheduler != null ? scanScheduler.getDiscoveryLatency() : null;
+    }
+
+    /**
+     * @return share of the discovery time the radio was scanning, 0..1
+     */
+    public double getScanDutyCycle() {
+        return scanScheduler != null ? scanScheduler.getDutyCycle() : 0;
+    }
+
+    /**
+     * @return last device selected for connection
      */
     public MTBluetoothDevice getCurrentDevice() {
         return currentDevice;
     }
 
     /**
-     * Will return the current Connection
+     * @return store of all received measurements; null if the storage could not be opened
+     */
+    public MeasurementStore getMeasurementStore() {
+        return measurementStore;
+    }
+
+    /**
+     * @param mtDevice device
+     * @return connect, service discovery and round trip latencies and counters of the device over all its connections
+     */
+    public ConnectionMetrics getConnectionMetrics(MTBluetoothDevice mtDevice) {
+        return MetricsRegistry.getDefault().getConnectionMetrics(mtDevice.getDevice().getAddress());
+    }
+
+    /**
+     * Prints discovery state, connections and their metrics:
+     * adb shell dumpsys activity service com.example.t4/.bluetooth.BLEService
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("Discovery: visible devices=" + visibleDevices.size());
+        if (scanScheduler != null) {
+            scanScheduler.dump(writer, "  ");
+        }
+        writer.println(String.format(Locale.ROOT, "  report delay=%d ms, batches=%d, results per batch=%.1f",
+                scanReportDelayInMs, scanBatches, scanBatches == 0 ? 0 : (double) scanBatchResults / scanBatches));
+        writer.println("Connections:");
+        connectionManager.dump(writer, "  ");
+        writer.println("Metrics:");
+        MetricsRegistry.getDefault().dump(writer, "  ");
+    }
+
+    /**
+     * @return devices with open connection
+     */
+    public List<MTBluetoothDevice> getConnectedDevices() {
+        return connectionManager.getConnectedDevices();
+    }
+
+    /**
+     * Will return the connection of the last selected device
      * @return the connection
      */
     public MtConnection getConnection() {
-        return connection;
+        return currentDevice != null ? getConnection(currentDevice) : null;
+    }
+
+    /**
+     * @param mtDevice device
+     * @return the connection of the device; null if not connected
+     */
+    public MtConnection getConnection(MTBluetoothDevice mtDevice) {
+        return connectionManager.getConnection(mtDevice.getDevice().getAddress());
     }
 
     /**
-     * Will return current connection state
+     * Will return connection state of the last selected device
      * @return connection state as integer from MTAsyncConnection state list
      */
     public int getConnectionState() {
         if (!isBluetoothEnabled()) {
             return BluetoothAdapter.STATE_OFF;
         } else {
-            if (this.connection != null) {
-                return this.connection.getState();
+            if (currentDevice != null) {
+                return getConnectionState(currentDevice);
             } else {
                 return BluetoothAdapter.STATE_ON;
             }
         }
     }
 
+    /**
+     * @param mtDevice device
+     * @return connection state of the device as integer from MTAsyncConnection state list
+     */
+    public int getConnectionState(MTBluetoothDevice mtDevice) {
+        return connectionManager.getState(mtDevice.getDevice().getAddress());
+    }
+
     /**
      * Checks if Bluetooth is enabled (switched on) on the Android device
      * @return true if adapter is enabled, false otherwise
@@ -396,7 +849,7 @@ public class BLEService extends Service implements MtAsyncConnection.MTAsyncConn
         try {
             return this.getBluetoothAdapter().isEnabled();
         } catch (final BluetoothNotSupportedException e) {
-            Log.e(TAG, "BluetoothNotSupportedException ", e);
+            AppLog.e(TAG, "BluetoothNotSupportedException ", e);
         }
         return false;
     }
@@ -434,7 +887,7 @@ public class BLEService extends Service implements MtAsyncConnection.MTAsyncConn
                 btAdapter = this.getBluetoothAdapter();
             }
         } catch (BluetoothNotSupportedException be) {
-            Log.e(TAG, "BluetoothNotSupportedException ", be);
+            AppLog.e(TAG, "BluetoothNotSupportedException ", be);
             return false;
         }
         if (!btAdapter.isEnabled()) {
@@ -2,17 +2,17 @@ package com.example.t4.bluetooth;
 
 import java.io.IOException;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.UUID;
 
 import com.bosch.mtprotocol.glm100C.connection.MtAsyncConnection;
+import com.example.t4.logging.AppLog;
 
 import android.annotation.SuppressLint;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothSocket;
 import android.os.Build;
-import android.util.Log;
 
 public class BluetoothConnection implements MtAsyncConnection {
 	private static final String TAG = "BluetoothConnection";
@@ -24,7 +24,8 @@ public class BluetoothConnection implements MtAsyncConnection {
 	// connection thread
 	private ConnectThread connectThread;
 	
-	private List<MTAsyncConnectionObserver> observers = new ArrayList<MTAsyncConnectionObserver>();
+	// observers may remove themselves while being notified
+	private List<MTAsyncConnectionObserver> observers = new CopyOnWriteArrayList<MTAsyncConnectionObserver>();
 	
 	/**
 	 * @param bluetoothDevice
@@ -44,7 +45,7 @@ public class BluetoothConnection implements MtAsyncConnection {
 	
 	private synchronized void setState(int connectionState) {
 		if(this.connectionState != connectionState){
-			Log.d(TAG, "setState() " + this.connectionState + " -> " + connectionState);
+			AppLog.d(TAG, "setState() %d -> %d", this.connectionState, connectionState);
 			this.connectionState = connectionState;
 			notifyObservers();
 		}
@@ -63,7 +64,7 @@ public class BluetoothConnection implements MtAsyncConnection {
 	public void openConnection() {
 		
 		synchronized (this) {
-			Log.d(TAG, "open connectection to: " + bluetoothDevice.getName());
+			AppLog.d(TAG, "open connectection to: %s", bluetoothDevice.getName());
 
 			// Cancel any thread attempting to make a connection
 			if (connectThread != null) {
@@ -109,7 +110,7 @@ public class BluetoothConnection implements MtAsyncConnection {
 					bluetoothSocket.close();
 					
 				} catch (IOException e) {
-					Log.e(TAG, "close() of connect socket failed", e);
+					AppLog.e(TAG, "close() of connect socket failed", e);
 				}finally{
 					bluetoothSocket = null;
 				}
@@ -155,7 +156,7 @@ public class BluetoothConnection implements MtAsyncConnection {
 	 */
 	private synchronized void connected(BluetoothSocket socket,
 			BluetoothDevice device) {
-		Log.d(TAG, "connected");
+		AppLog.d(TAG, "connected");
 		
 		// Cancel the thread that completed the connection
 		if (connectThread != null) {
@@ -213,14 +214,14 @@ public class BluetoothConnection implements MtAsyncConnection {
 				}
 
 			} catch (Exception e) {
-				Log.e(TAG, "create() failed", e);
+				AppLog.e(TAG, "create() failed", e);
 			}
 			mSocket = tmp;
 		}
 
 		@Override
 		public void run() {
-			Log.i(TAG, "BEGIN ConnectThread");
+			AppLog.i(TAG, "BEGIN ConnectThread");
 			setName("ConnectThread");
 
 			if(mSocket == null){
@@ -234,14 +235,14 @@ public class BluetoothConnection implements MtAsyncConnection {
 				// successful connection or an exception
 				mSocket.connect();
 			} catch (IOException e) {
-				Log.e(TAG, "Unable to connect", e);
+				AppLog.e(TAG, "Unable to connect", e);
 				connectionFailed();
 				try {
 					// Close the socket
 					mSocket.close();
 				} catch (IOException e2) {
 					e2.printStackTrace();
-					Log.e(TAG, "unable to close() socket during connection failure", e2);
+					AppLog.e(TAG, "unable to close() socket during connection failure", e2);
 				}
 
 				return;
@@ -257,7 +258,7 @@ public class BluetoothConnection implements MtAsyncConnection {
 		}
 
 		protected void cancel() {
-			Log.i(TAG, "ConnectThread CANCEL");
+			AppLog.i(TAG, "ConnectThread CANCEL");
 
 			try {
 				if(mSocket != null){
@@ -265,9 +266,9 @@ public class BluetoothConnection implements MtAsyncConnection {
 					mSocket.getOutputStream().close();
 					mSocket.close();
 				}
-				Log.i(TAG, "ConnectThread CLOSED");
+				AppLog.i(TAG, "ConnectThread CLOSED");
 			} catch (IOException e) {
-				Log.e(TAG, "close() of connect socket failed", e);
+				AppLog.e(TAG, "close() of connect socket failed", e);
 			}
 		}
 	}
@@ -12,6 +12,13 @@ import java.util.Map;
 
 public class BluetoothUtils {
 
+    /**
+     * Returned by {@link #addressToLong(String)} for invalid addresses
+     */
+    public static final long INVALID_ADDRESS = -1;
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
     /**
      * Static map for GLM 120 family devices. Bare tool number is key. Device name is value.
      */
@@ -87,10 +94,7 @@ public class BluetoothUtils {
      * @return true if validation successful
      */
     public static boolean validateGLM100Name(MTBluetoothDevice device) {
-        return device!=null && device.getDisplayName() != null
-                && device.getDisplayName().toLowerCase(Locale.getDefault()).contains("bosch")
-                && device.getDisplayName().toLowerCase(Locale.getDefault()).contains("glm1") //updated the name with postfix 1 to validate only for GLM100 devices. T
-                && device.getDisplayName().toLowerCase(Locale.getDefault()).contains("100");
+        return device != null && device.getFamily() == DeviceFamily.GLM_100;
     }
 
     /**
@@ -100,11 +104,7 @@ public class BluetoothUtils {
      * @return true if validation successful
      */
     public static boolean validateGLM50Name(MTBluetoothDevice device) {
-        return device!=null && device.getDisplayName() != null
-                && device.getDisplayName().toLowerCase(Locale.getDefault()).contains("bosch")
-                && device.getDisplayName().toLowerCase(Locale.getDefault()).contains("glm5") //updated the name with postfix 5 to validate only for GLM50 devices.
-                && device.getDisplayName().toLowerCase(Locale.getDefault()).contains("50")
-                && !device.getDisplayName().toLowerCase(Locale.getDefault()).contains("-2");
+        return device != null && device.getFamily() == DeviceFamily.GLM_50;
     }
 
     /**
@@ -114,11 +114,7 @@ public class BluetoothUtils {
      * @return true if validation successful
      */
     public static boolean validateGISName(MTBluetoothDevice device) {
-        return device.getDisplayName() != null
-                && device.getDisplayName().toLowerCase(Locale.getDefault()).contains("bosch")
-                && device.getDisplayName().toLowerCase(Locale.getDefault()).contains("gis")
-                && device.getDisplayName().toLowerCase(Locale.getDefault()).contains("1000");
-
+        return device != null && device.getFamily() == DeviceFamily.GIS;
     }
 
     /**
@@ -128,12 +124,7 @@ public class BluetoothUtils {
      * @return true if validation successful
      */
     public static boolean validatePLRName(MTBluetoothDevice device) {
-        return device!=null && device.getDisplayName() != null
-                && device.getDisplayName().toLowerCase(Locale.getDefault()).contains("bosch")
-                && device.getDisplayName().toLowerCase(Locale.getDefault()).contains("plr")
-                && (device.getDisplayName().toLowerCase(Locale.getDefault()).contains("30")
-                || device.getDisplayName().toLowerCase(Locale.getDefault()).contains("40")
-                || device.getDisplayName().toLowerCase(Locale.getDefault()).contains("50"));
+        return device != null && device.getFamily() == DeviceFamily.PLR;
     }
 
     /**
@@ -143,24 +134,17 @@ public class BluetoothUtils {
      * @return true if validation successful
      */
     public static boolean validateGLM120Name(MTBluetoothDevice device) {
-        String deviceName = device != null ? device.getDisplayName() : null;
-        if (deviceName != null && deviceName.contains("x")) {
-            String toolName = deviceName.substring(0, deviceName.indexOf("x") -1);
-            return GLM_120_DEV_TYPES.containsValue(toolName)
-                    || GLM_100_DEV_TYPES.containsValue(toolName)
-                    || GLM_150_DEV_TYPES.containsValue(toolName);
-        }
-        return false;
+        return device != null && device.getFamily() == DeviceFamily.GLM_120;
     }
 
     /**
-     * Validates if the paired device is a GLM 120 device
+     * Validates if the paired device is a GLM 50-2 device
      *
      * @param device device to be validated
      * @return true if validation successful
      */
     public static boolean validateGLM50_2Name(MTBluetoothDevice device) {
-        return device!=null && device.getDisplayName() != null && GLM_50_2_DEV_TYPES.containsValue(device.getDisplayName().substring(0, device.getDisplayName().indexOf("x") - 1));
+        return device != null && device.getFamily() == DeviceFamily.GLM_50_2;
     }
 
     /**
@@ -170,7 +154,7 @@ public class BluetoothUtils {
      * @return true if validation successful
      */
     public static boolean validateEDCDevice(MTBluetoothDevice device) {
-        return validateGLM50Name(device) || validateGLM120Name(device) || validateGLM50_2Name(device) || validatePLRName(device);
+        return device != null && device.getFamily().isEdc();
     }
 
     /**
@@ -182,4 +166,51 @@ public class BluetoothUtils {
     public static boolean validateDeviceName(String deviceName) {
         return deviceName != null && deviceName.toLowerCase(Locale.getDefault()).contains("bosch");
     }
+
+    /**
+     * Converts a Bluetooth address String ("00:11:22:AA:BB:CC") to a 48 bit value
+     *
+     * @param address Bluetooth address
+     * @return address as 48 bit value; {@value #INVALID_ADDRESS} if address is invalid
+     */
+    public static long addressToLong(String address) {
+        if (address == null || address.length() != 17) {
+            return INVALID_ADDRESS;
+        }
+        long value = 0;
+        for (int i = 0; i < 17; i++) {
+            char c = address.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':') {
+                    return INVALID_ADDRESS;
+                }
+                continue;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                return INVALID_ADDRESS;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * Converts a 48 bit value to a Bluetooth address String in the format of BluetoothDevice.getAddress()
+     *
+     * @param address address as 48 bit value
+     * @return Bluetooth address, e.g. "00:11:22:AA:BB:CC"
+     */
+    public static String longToAddress(long address) {
+        char[] chars = new char[17];
+        for (int i = 0; i < 6; i++) {
+            int b = (int) (address >>> ((5 - i) * 8)) & 0xFF;
+            chars[i * 3] = HEX_DIGITS[b >>> 4];
+            chars[i * 3 + 1] = HEX_DIGITS[b & 0x0F];
+            if (i < 5) {
+                chars[i * 3 + 2] = ':';
+            }
+        }
+        return new String(chars);
+    }
 }
@@ -0,0 +1,397 @@
+package com.example.t4.bluetooth;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.bosch.mtprotocol.glm100C.connection.MtAsyncConnection;
+import com.example.t4.logging.AppLog;
+import com.example.t4.metrics.ConnectionMetrics;
+import com.example.t4.metrics.MetricsRegistry;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Keeps concurrent connections to several MT devices, keyed by Bluetooth address
+ *
+ * Connects are started in parallel up to a cap of simultaneous connection attempts, further
+ * connects wait until an attempt finished. A connection that timed out (e.g. GATT error 133)
+ * is queued again after a jittered exponential backoff and given up after
+ * {@value Reconnection#DEFAULT_MAX_ATTEMPTS} failed attempts in a row, see {@link Reconnection}.
+ *
+ * Thread safe. Connections inform their observers holding their own lock, so the manager never
+ * calls a connection or the listener holding its lock: the calls are collected and made after
+ * the lock is released.
+ */
+final class ConnectionManager {
+
+    private static final String TAG = "ConnectionManager";
+
+    /**
+     * Android handles only few parallel GATT connects reliably
+     */
+    static final int DEFAULT_MAX_CONCURRENT_CONNECTS = 2;
+
+    /**
+     * Creates the connection for a device
+     */
+    interface ConnectionFactory {
+        MtAsyncConnection createConnection(MTBluetoothDevice device);
+    }
+
+    /**
+     * Informed about state changes of every managed connection
+     */
+    interface Listener {
+        void onConnectionStateChanged(MTBluetoothDevice device, MtAsyncConnection connection);
+
+        /**
+         * Called after the last failed connect attempt, the device is not managed anymore
+         */
+        void onReconnectGivenUp(MTBluetoothDevice device);
+    }
+
+    private final class ManagedConnection implements MtAsyncConnection.MTAsyncConnectionObserver {
+        private final MTBluetoothDevice device;
+        private final ConnectionMetrics metrics;
+        private final Reconnection reconnection;
+        private MtAsyncConnection connection;
+        private boolean closedByApp;
+        private long connectStartedAt;
+
+        private final Runnable retry = new Runnable() {
+            @Override
+            public void run() {
+                onBackoffExpired(ManagedConnection.this);
+            }
+        };
+
+        private ManagedConnection(MTBluetoothDevice device) {
+            this.device = device;
+            this.metrics = MetricsRegistry.getDefault().getConnectionMetrics(device.getAddress());
+            this.reconnection = new Reconnection(Reconnection.DEFAULT_BASE_DELAY_IN_MS, Reconnection.DEFAULT_MAX_DELAY_IN_MS,
+                    Reconnection.DEFAULT_MAX_ATTEMPTS, random);
+        }
+
+        @Override
+        public void onConnectionStateChanged(MtAsyncConnection connection) {
+            ConnectionManager.this.onConnectionStateChanged(this, connection);
+        }
+    }
+
+    private final Handler handler;
+    private final ConnectionFactory factory;
+    private final Listener listener;
+    private final Random random = new Random();
+    private int maxConcurrentConnects = DEFAULT_MAX_CONCURRENT_CONNECTS;
+
+    private final Map<String, ManagedConnection> connections = new LinkedHashMap<>();
+    private final ArrayDeque<ManagedConnection> waiting = new ArrayDeque<>();
+
+    /**
+     * @param handler handler of the thread the backoff expires on; null to keep timed out connects in backoff, e.g. in tests
+     */
+    ConnectionManager(Handler handler, ConnectionFactory factory, Listener listener) {
+        this.handler = handler;
+        this.factory = factory;
+        this.listener = listener;
+    }
+
+    void setMaxConcurrentConnects(int maxConcurrentConnects) {
+        List<Runnable> calls = new ArrayList<>();
+        synchronized (this) {
+            this.maxConcurrentConnects = Math.max(1, maxConcurrentConnects);
+            startWaiting(calls);
+        }
+        run(calls);
+    }
+
+    /**
+     * Connects the device, in addition to the already connected devices
+     *
+     * @param device device to connect
+     * @return false if the device is already connected or connecting
+     */
+    boolean connect(MTBluetoothDevice device) {
+        List<Runnable> calls = new ArrayList<>();
+        synchronized (this) {
+            String address = device.getAddress();
+            if (connections.containsKey(address)) {
+                AppLog.w(TAG, "Already connected or connecting to %s: Ignore", device.getDisplayName());
+                return false;
+            }
+            ManagedConnection managed = new ManagedConnection(device);
+            connections.put(address, managed);
+            waiting.addLast(managed);
+            startWaiting(calls);
+        }
+        run(calls);
+        return true;
+    }
+
+    /**
+     * Closes the connection to the device
+     *
+     * @param address Bluetooth address of the device
+     */
+    void disconnect(String address) {
+        List<Runnable> calls = new ArrayList<>();
+        synchronized (this) {
+            disconnect(address, calls);
+            startWaiting(calls);
+        }
+        run(calls);
+    }
+
+    void disconnectAll() {
+        List<Runnable> calls = new ArrayList<>();
+        synchronized (this) {
+            for (String address : new ArrayList<>(connections.keySet())) {
+                disconnect(address, calls);
+            }
+        }
+        run(calls);
+    }
+
+    /**
+     * @param address Bluetooth address of the device
+     * @return connection of the device; null if not connected or still waiting to connect
+     */
+    synchronized MtAsyncConnection getConnection(String address) {
+        ManagedConnection managed = connections.get(address);
+        return managed != null ? managed.connection : null;
+    }
+
+    /**
+     * @param address Bluetooth address of the device
+     * @return connection state, waiting connects are reported as STATE_CONNECTING; STATE_NONE if not managed
+     */
+    synchronized int getState(String address) {
+        ManagedConnection managed = connections.get(address);
+        if (managed == null) {
+            return MtAsyncConnection.STATE_NONE;
+        }
+        return managed.connection != null ? managed.connection.getState() : MtAsyncConnection.STATE_CONNECTING;
+    }
+
+    /**
+     * @return devices with open connection
+     */
+    synchronized List<MTBluetoothDevice> getConnectedDevices() {
+        List<MTBluetoothDevice> devices = new ArrayList<>();
+        for (ManagedConnection managed : connections.values()) {
+            if (managed.connection != null && managed.connection.getState() == MtAsyncConnection.STATE_CONNECTED) {
+                devices.add(managed.device);
+            }
+        }
+        return devices;
+    }
+
+    /**
+     * @return true if a connect is running or waiting; devices in backoff are not counted
+     */
+    synchronized boolean isConnecting() {
+        return !waiting.isEmpty() || countConnecting() > 0;
+    }
+
+    /**
+     * Prints state and GATT statistics of every managed connection
+     *
+     * @param writer writer to print to
+     * @param prefix prefix of every line, e.g. indentation
+     */
+    synchronized void dump(PrintWriter writer, String prefix) {
+        writer.println(prefix + connections.size() + " connections, " + waiting.size() + " waiting, max " + maxConcurrentConnects + " concurrent connects");
+        for (ManagedConnection managed : connections.values()) {
+            MtAsyncConnection connection = managed.connection;
+            writer.println(prefix + managed.device.getDisplayName() + " (" + managed.device.getAddress() + "): state "
+                    + (connection != null ? connection.getState() : "waiting"));
+            managed.reconnection.dump(writer, prefix + "  ", SystemClock.elapsedRealtime());
+            if (connection instanceof BLEConnection) {
+                ((BLEConnection) connection).dump(writer, prefix + "  ");
+            }
+        }
+    }
+
+    // ##### Helper & private methods #####
+
+    /**
+     * Called by the connection holding its lock: connections and listener are called after the manager lock is released
+     */
+    private void onConnectionStateChanged(ManagedConnection managed, MtAsyncConnection connection) {
+        listener.onConnectionStateChanged(managed.device, connection);
+
+        List<Runnable> calls = new ArrayList<>();
+        synchronized (this) {
+            onConnectionStateChanged(managed, connection, calls);
+        }
+        run(calls);
+    }
+
+    private void onConnectionStateChanged(final ManagedConnection managed, final MtAsyncConnection connection, List<Runnable> calls) {
+        if (managed.closedByApp || managed.connection != connection) {
+            return; // disconnected by the app or old connection
+        }
+
+        String address = managed.device.getAddress();
+        long now = SystemClock.elapsedRealtime();
+        switch (connection.getState()) {
+            case MtAsyncConnection.STATE_CONNECTED:
+                if (managed.connectStartedAt != 0) {
+                    managed.metrics.recordConnected(managed.connectStartedAt);
+                    managed.connectStartedAt = 0;
+                }
+                managed.reconnection.onConnected(now);
+                break;
+            case MtAsyncConnection.STATE_CONNECTING:
+                if (managed.reconnection.getState() == Reconnection.STATE_CONNECTED) {
+                    managed.reconnection.onConnecting(now); // fast reconnect of the connection itself
+                }
+                break;
+            case MtAsyncConnection.STATE_NONE:
+                // stay observer: a connection giving up is closed first and reports STATE_TIMEOUT afterwards
+                recordConnectFailure(managed);
+                connections.remove(address);
+                managed.reconnection.onClosed(now);
+                calls.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        connection.closeConnection();
+                    }
+                });
+                break;
+            case MtAsyncConnection.STATE_TIMEOUT: // retry on timeout (error 133) after the backoff
+                connection.removeObserver(managed);
+                managed.connection = null;
+                recordConnectFailure(managed);
+                if (connections.containsKey(address) && connections.get(address) != managed) {
+                    break; // connected again by the app in the meantime
+                }
+                long delay = managed.reconnection.onAttemptFailed(now);
+                if (delay < 0) {
+                    AppLog.w(TAG, "Timeout %s -> given up after %d attempts", managed.device.getDisplayName(),
+                            managed.reconnection.getFailedAttempts());
+                    connections.remove(address);
+                    managed.metrics.recordReconnectGivenUp();
+                    calls.add(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onReconnectGivenUp(managed.device);
+                        }
+                    });
+                    break;
+                }
+                AppLog.w(TAG, "Timeout %s -> retry in %d ms", managed.device.getDisplayName(), delay);
+                connections.put(address, managed);
+                if (handler != null) {
+                    handler.postDelayed(managed.retry, delay);
+                }
+                break;
+            default:
+                break;
+        }
+        startWaiting(calls);
+    }
+
+    private void onBackoffExpired(ManagedConnection managed) {
+        List<Runnable> calls = new ArrayList<>();
+        synchronized (this) {
+            if (managed.closedByApp || connections.get(managed.device.getAddress()) != managed
+                    || !managed.reconnection.onBackoffExpired(SystemClock.elapsedRealtime())) {
+                return;
+            }
+            waiting.addLast(managed);
+            startWaiting(calls);
+        }
+        run(calls);
+    }
+
+    /**
+     * Removes the device; the connection is closed by the collected calls
+     */
+    private void disconnect(String address, List<Runnable> calls) {
+        final ManagedConnection managed = connections.remove(address);
+        if (managed == null) {
+            return;
+        }
+        waiting.remove(managed);
+        if (handler != null) {
+            handler.removeCallbacks(managed.retry);
+        }
+        managed.reconnection.cancel(SystemClock.elapsedRealtime());
+        managed.closedByApp = true;
+        final MtAsyncConnection connection = managed.connection;
+        if (connection != null) {
+            calls.add(new Runnable() {
+                @Override
+                public void run() {
+                    connection.closeConnection(); // observer still informed about STATE_NONE
+                    connection.removeObserver(managed);
+                }
+            });
+        }
+    }
+
+    /**
+     * Creates the connections of waiting devices up to the cap; they are opened by the collected calls
+     */
+    private void startWaiting(List<Runnable> calls) {
+        while (!waiting.isEmpty() && countConnecting() < maxConcurrentConnects) {
+            final ManagedConnection managed = waiting.pollFirst();
+            AppLog.d(TAG, "Connecting %s; %d of %d started", managed.device.getDisplayName(), connections.size() - waiting.size(), connections.size());
+            final MtAsyncConnection connection = factory.createConnection(managed.device);
+            managed.connection = connection;
+            connection.addObserver(managed);
+            managed.connectStartedAt = System.nanoTime();
+            managed.reconnection.onConnecting(SystemClock.elapsedRealtime());
+            calls.add(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (ConnectionManager.this) {
+                        if (managed.closedByApp || managed.connection != connection) {
+                            return; // disconnected before it was opened
+                        }
+                    }
+                    connection.openConnection();
+                }
+            });
+        }
+    }
+
+    /**
+     * Makes the calls collected under the lock; must not hold the lock
+     */
+    private static void run(List<Runnable> calls) {
+        for (Runnable call : calls) {
+            call.run();
+        }
+    }
+
+    /**
+     * Counts the failure once per connect attempt, a connection giving up reports STATE_NONE and STATE_TIMEOUT
+     */
+    private static void recordConnectFailure(ManagedConnection managed) {
+        if (managed.connectStartedAt != 0) {
+            managed.metrics.recordConnectFailure();
+            managed.connectStartedAt = 0;
+        }
+    }
+
+    /**
+     * Connect attempts started, opened or not yet, and fast reconnects of the connections themselves
+     */
+    private int countConnecting() {
+        int connecting = 0;
+        for (ManagedConnection managed : connections.values()) {
+            if (managed.connection != null && (managed.connectStartedAt != 0 || managed.connection.getState() == MtAsyncConnection.STATE_CONNECTING)) {
+                connecting++;
+            }
+        }
+        return connecting;
+    }
+}
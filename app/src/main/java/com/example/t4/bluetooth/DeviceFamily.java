@@ -0,0 +1,150 @@
+package com.example.t4.bluetooth;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Family of a Bosch MT device. Decides about connection type (classic or BLE) and the
+ * message container used for measurement sync.
+ *
+ * The family is resolved once per device, either from the bare tool number (MirX based devices)
+ * or from the display name (PAN1026 based devices), and cached on the {@link MTBluetoothDevice}.
+ */
+public enum DeviceFamily {
+
+    /** GLM 100 C: PAN1026 based, classic connection, sync container */
+    GLM_100(Protocol.SYNC, false),
+    /** GLM 50 C: PAN1026 based, classic connection, exchange data container */
+    GLM_50(Protocol.EDC, false),
+    /** PLR 30 C, PLR 40 C, PLR 50 C: classic connection, exchange data container */
+    PLR(Protocol.EDC, false),
+    /** GIS 1000 C: classic connection, exchange data container for thermal devices */
+    GIS(Protocol.EDCT, false),
+    /** GLM 120 C family incl. GLM 100-25 C and GLM 150-27 C: MirX based, BLE only */
+    GLM_120(Protocol.EDC, true),
+    /** GLM 50-27 C family: MirX based, BLE only */
+    GLM_50_2(Protocol.EDC, true),
+    /** Not supported device */
+    UNKNOWN(Protocol.NONE, false);
+
+    /**
+     * Message container used to sync measurements with the device
+     */
+    public enum Protocol {
+        SYNC, EDC, EDCT, NONE
+    }
+
+    private static final String DEVICE_NAME_SERIAL_SEPARATOR = " x";
+
+    /**
+     * Reverse index of the GLM_*_DEV_TYPES maps: bare tool number -> family
+     */
+    private static final Map<String, DeviceFamily> BY_BARE_TOOL_NR = new HashMap<>();
+
+    /**
+     * Reverse index of the GLM_*_DEV_TYPES maps: product name -> family
+     */
+    private static final Map<String, DeviceFamily> BY_PRODUCT_NAME = new HashMap<>();
+
+    static {
+        index(BluetoothUtils.GLM_120_DEV_TYPES, GLM_120);
+        index(BluetoothUtils.GLM_100_DEV_TYPES, GLM_120);
+        index(BluetoothUtils.GLM_150_DEV_TYPES, GLM_120);
+        index(BluetoothUtils.GLM_50_2_DEV_TYPES, GLM_50_2);
+    }
+
+    private final Protocol protocol;
+    private final boolean bleOnly;
+
+    DeviceFamily(Protocol protocol, boolean bleOnly) {
+        this.protocol = protocol;
+        this.bleOnly = bleOnly;
+    }
+
+    /**
+     * @return message container used to sync measurements
+     */
+    public Protocol getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * @return true if the device supports BLE only (MirX based), false if classic connection is used
+     */
+    public boolean isBleOnly() {
+        return bleOnly;
+    }
+
+    /**
+     * @return true if the device uses the exchange data container (EDC)
+     */
+    public boolean isEdc() {
+        return protocol == Protocol.EDC;
+    }
+
+    /**
+     * @return true if the device is supported by the app
+     */
+    public boolean isSupported() {
+        return this != UNKNOWN;
+    }
+
+    /**
+     * Resolves the family of a MirX based device
+     *
+     * @param bareToolNr bare tool number from the scan record
+     * @return family of the device, {@link #UNKNOWN} if bare tool number is not known
+     */
+    public static DeviceFamily fromBareToolNr(String bareToolNr) {
+        DeviceFamily family = bareToolNr != null ? BY_BARE_TOOL_NR.get(bareToolNr) : null;
+        return family != null ? family : UNKNOWN;
+    }
+
+    /**
+     * Resolves the family from the display name of a device
+     *
+     * @param displayName display name, e.g. "Bosch GLM 120 C x1234" or "Bosch GLM50 C"
+     * @return family of the device, {@link #UNKNOWN} if not supported
+     */
+    public static DeviceFamily fromDisplayName(String displayName) {
+        if (displayName == null) {
+            return UNKNOWN;
+        }
+
+        // MirX based devices: product name followed by serial number
+        int separator = displayName.lastIndexOf(DEVICE_NAME_SERIAL_SEPARATOR);
+        if (separator > 0) {
+            DeviceFamily family = BY_PRODUCT_NAME.get(displayName.substring(0, separator));
+            if (family != null) {
+                return family;
+            }
+        }
+
+        // PAN1026 based devices
+        String name = displayName.toLowerCase(Locale.ROOT);
+        if (!name.contains("bosch")) {
+            return UNKNOWN;
+        }
+        if (name.contains("glm1") && name.contains("100")) {
+            return GLM_100;
+        }
+        if (name.contains("glm5") && name.contains("50") && !name.contains("-2")) {
+            return GLM_50;
+        }
+        if (name.contains("plr") && (name.contains("30") || name.contains("40") || name.contains("50"))) {
+            return PLR;
+        }
+        if (name.contains("gis") && name.contains("1000")) {
+            return GIS;
+        }
+        return UNKNOWN;
+    }
+
+    private static void index(Map<String, String> devTypes, DeviceFamily family) {
+        for (Map.Entry<String, String> devType : devTypes.entrySet()) {
+            BY_BARE_TOOL_NR.put(devType.getKey(), family);
+            BY_PRODUCT_NAME.put(devType.getValue(), family);
+        }
+    }
+}
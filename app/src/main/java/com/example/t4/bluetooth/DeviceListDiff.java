@@ -0,0 +1,79 @@
+package com.example.t4.bluetooth;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Changes of the visible device list since the last update, keyed by Bluetooth address
+ *
+ * Several changes of the same device within one update window are merged, e.g. a device that
+ * was added and removed again before the update was delivered does not appear at all.
+ */
+public final class DeviceListDiff {
+
+    private final Map<String, MTBluetoothDevice> added = new LinkedHashMap<>();
+    private final Map<String, MTBluetoothDevice> removed = new LinkedHashMap<>();
+    private final Map<String, MTBluetoothDevice> changed = new LinkedHashMap<>();
+
+    DeviceListDiff() {
+    }
+
+    /**
+     * @return devices that are visible now, but were not in the last update
+     */
+    public Collection<MTBluetoothDevice> getAdded() {
+        return Collections.unmodifiableCollection(added.values());
+    }
+
+    /**
+     * @return devices that were visible in the last update, but are not anymore
+     */
+    public Collection<MTBluetoothDevice> getRemoved() {
+        return Collections.unmodifiableCollection(removed.values());
+    }
+
+    /**
+     * @return devices that are still visible, but with changed device information (e.g. display name)
+     */
+    public Collection<MTBluetoothDevice> getChanged() {
+        return Collections.unmodifiableCollection(changed.values());
+    }
+
+    /**
+     * @return true if the diff contains no changes
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    void deviceAdded(String address, MTBluetoothDevice device) {
+        if (removed.remove(address) != null) {
+            changed.put(address, device); // removed and found again -> only the device information may differ
+        } else if (!changed.containsKey(address)) {
+            added.put(address, device);
+        }
+    }
+
+    void deviceRemoved(String address, MTBluetoothDevice device) {
+        if (added.remove(address) != null) {
+            return; // added and removed within one update -> nothing to tell
+        }
+        changed.remove(address);
+        removed.put(address, device);
+    }
+
+    void deviceChanged(String address, MTBluetoothDevice device) {
+        if (added.containsKey(address)) {
+            added.put(address, device); // still new for the receiver
+        } else if (!removed.containsKey(address)) {
+            changed.put(address, device);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceListDiff{added=" + added.size() + ", removed=" + removed.size() + ", changed=" + changed.size() + "}";
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.t4.bluetooth;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Collects changes of the visible device list and delivers them as one {@link DeviceListDiff}
+ * per update window on the main thread
+ *
+ * The first change after an update schedules the next update, all further changes until then
+ * are merged into the same diff. So a burst of discovered devices costs one list update.
+ */
+final class DeviceListUpdateCoalescer {
+
+    /**
+     * One frame at 60 Hz
+     */
+    static final long DEFAULT_WINDOW_IN_MS = 16;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final CopyOnWriteArrayList<BLEService.OnDeviceListChangedHandler> handlers = new CopyOnWriteArrayList<>();
+    private final long windowInMs;
+
+    private DeviceListDiff pending = new DeviceListDiff();
+    private boolean scheduled = false;
+
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            DeviceListDiff diff;
+            synchronized (DeviceListUpdateCoalescer.this) {
+                diff = pending;
+                pending = new DeviceListDiff();
+                scheduled = false;
+            }
+            if (diff.isEmpty()) {
+                return;
+            }
+            for (BLEService.OnDeviceListChangedHandler handler : handlers) {
+                handler.onDeviceListChanged(diff);
+            }
+        }
+    };
+
+    DeviceListUpdateCoalescer(long windowInMs) {
+        this.windowInMs = windowInMs;
+    }
+
+    void addHandler(BLEService.OnDeviceListChangedHandler handler) {
+        handlers.addIfAbsent(handler);
+    }
+
+    void removeHandler(BLEService.OnDeviceListChangedHandler handler) {
+        handlers.remove(handler);
+    }
+
+    synchronized void deviceAdded(MTBluetoothDevice device) {
+        pending.deviceAdded(device.getDevice().getAddress(), device);
+        schedule();
+    }
+
+    synchronized void deviceRemoved(MTBluetoothDevice device) {
+        pending.deviceRemoved(device.getDevice().getAddress(), device);
+        schedule();
+    }
+
+    synchronized void deviceChanged(MTBluetoothDevice device) {
+        pending.deviceChanged(device.getDevice().getAddress(), device);
+        schedule();
+    }
+
+    /**
+     * Drops pending changes, e.g. if the service is destroyed
+     */
+    synchronized void cancel() {
+        mainHandler.removeCallbacks(flush);
+        pending = new DeviceListDiff();
+        scheduled = false;
+    }
+
+    private void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            mainHandler.postDelayed(flush, windowInMs);
+        }
+    }
+}
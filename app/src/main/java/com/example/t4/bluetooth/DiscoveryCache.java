@@ -0,0 +1,259 @@
+package com.example.t4.bluetooth;
+
+import java.util.Arrays;
+
+/**
+ * Cache for discovered devices, keyed by the Bluetooth address as 48 bit value
+ *
+ * Every entry remembers the hash of the last received scan record together with the parse result,
+ * so that a repeated advertisement of the same device costs one lookup and one hash compare.
+ * Entries not seen for longer than the time to live are evicted.
+ *
+ * Not thread safe, use from the thread delivering the scan results only.
+ */
+final class DiscoveryCache {
+
+    static final long DEFAULT_TTL_IN_MS = 30000;
+
+    static final long INVALID_ADDRESS = BluetoothUtils.INVALID_ADDRESS;
+
+    private static final int INITIAL_CAPACITY = 64; // must be a power of two
+
+    /**
+     * Cached discovery state of one device
+     */
+    static final class Entry {
+        private final long address;
+        private int recordHash;
+        private int recordLength;
+        private long lastSeen;
+        private MTDeviceParser parsedDevice;
+        private MTBluetoothDevice device;
+
+        private Entry(long address) {
+            this.address = address;
+        }
+
+        /**
+         * @param hash hash of the scan record, see {@link #recordHash(byte[])}
+         * @param scanRecord received scan record
+         * @return true if the scan record is the same as the one cached
+         */
+        boolean matches(int hash, byte[] scanRecord) {
+            return recordHash == hash && recordLength == (scanRecord == null ? -1 : scanRecord.length);
+        }
+
+        long getAddress() {
+            return address;
+        }
+
+        long getLastSeen() {
+            return lastSeen;
+        }
+
+        /**
+         * @return parse result of the cached scan record; null for devices that are no MT devices
+         */
+        MTDeviceParser getParsedDevice() {
+            return parsedDevice;
+        }
+
+        /**
+         * @return discovered MT device; null if the device is no valid MT device
+         */
+        MTBluetoothDevice getDevice() {
+            return device;
+        }
+    }
+
+    private long ttlInMs;
+    private long[] keys;
+    private Entry[] entries;
+    private int size;
+
+    DiscoveryCache(long ttlInMs) {
+        this.ttlInMs = ttlInMs;
+        this.keys = new long[INITIAL_CAPACITY];
+        this.entries = new Entry[INITIAL_CAPACITY];
+    }
+
+    void setTtl(long ttlInMs) {
+        this.ttlInMs = ttlInMs;
+    }
+
+    long getTtl() {
+        return ttlInMs;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the cached entry of the device and marks it as seen
+     *
+     * @param address Bluetooth address as 48 bit value
+     * @param now current time in ms
+     * @return cached entry; null if not cached or expired
+     */
+    Entry get(long address, long now) {
+        int slot = find(address);
+        if (slot < 0) {
+            return null;
+        }
+        Entry entry = entries[slot];
+        if (now - entry.lastSeen > ttlInMs) {
+            removeSlot(slot);
+            return null;
+        }
+        entry.lastSeen = now;
+        return entry;
+    }
+
+    /**
+     * Returns the cached entry of the device without marking it as seen
+     *
+     * @param address Bluetooth address as 48 bit value
+     * @return cached entry; null if not cached
+     */
+    Entry peek(long address) {
+        int slot = find(address);
+        return slot < 0 ? null : entries[slot];
+    }
+
+    /**
+     * Stores the parse result of a scan record, replacing the previous one of the device
+     *
+     * @param address Bluetooth address as 48 bit value
+     * @param recordHash hash of the scan record, see {@link #recordHash(byte[])}
+     * @param scanRecord the scan record
+     * @param parsedDevice parse result, must not be changed afterwards; null if no MT device
+     * @param device discovered MT device; null if no valid MT device
+     * @param now current time in ms
+     * @return the cache entry
+     */
+    Entry put(long address, int recordHash, byte[] scanRecord, MTDeviceParser parsedDevice, MTBluetoothDevice device, long now) {
+        int slot = find(address);
+        Entry entry;
+        if (slot >= 0) {
+            entry = entries[slot];
+        } else {
+            if ((size + 1) * 4 > keys.length * 3) {
+                resize(keys.length * 2);
+            }
+            entry = new Entry(address);
+            slot = emptySlot(address);
+            keys[slot] = address;
+            entries[slot] = entry;
+            size++;
+        }
+        entry.recordHash = recordHash;
+        entry.recordLength = scanRecord == null ? -1 : scanRecord.length;
+        entry.parsedDevice = parsedDevice;
+        entry.device = device;
+        entry.lastSeen = now;
+        return entry;
+    }
+
+    /**
+     * Removes all entries not seen within the time to live
+     *
+     * @param now current time in ms
+     * @return number of evicted entries
+     */
+    int evictExpired(long now) {
+        int evicted = 0;
+        int slot = 0;
+        while (slot < entries.length) {
+            Entry entry = entries[slot];
+            if (entry != null && now - entry.lastSeen > ttlInMs) {
+                removeSlot(slot); // moves a following entry into this slot -> check slot again
+                evicted++;
+            } else {
+                slot++;
+            }
+        }
+        return evicted;
+    }
+
+    void clear() {
+        Arrays.fill(entries, null);
+        size = 0;
+    }
+
+    /**
+     * @see BluetoothUtils#addressToLong(String)
+     */
+    static long addressToLong(String address) {
+        return BluetoothUtils.addressToLong(address);
+    }
+
+    /**
+     * @param scanRecord scan record
+     * @return hash of the scan record content
+     */
+    static int recordHash(byte[] scanRecord) {
+        return Arrays.hashCode(scanRecord);
+    }
+
+    // ##### Helper & private methods #####
+
+    private int indexFor(long address) {
+        return (int) ((address * 0x9E3779B97F4A7C15L) >>> 32) & (keys.length - 1);
+    }
+
+    private int find(long address) {
+        int mask = keys.length - 1;
+        for (int slot = indexFor(address); entries[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == address) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private int emptySlot(long address) {
+        int mask = keys.length - 1;
+        int slot = indexFor(address);
+        while (entries[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Removes the entry in the slot and shifts following entries of the probe sequence back
+     */
+    private void removeSlot(int slot) {
+        int mask = keys.length - 1;
+        entries[slot] = null;
+        size--;
+        int next = (slot + 1) & mask;
+        while (entries[next] != null) {
+            int home = indexFor(keys[next]);
+            // move the entry, if its home slot is not between the free slot and its current slot
+            boolean move = slot <= next ? (home <= slot || home > next) : (home <= slot && home > next);
+            if (move) {
+                keys[slot] = keys[next];
+                entries[slot] = entries[next];
+                entries[next] = null;
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Entry[] oldEntries = entries;
+        keys = new long[capacity];
+        entries = new Entry[capacity];
+        for (int i = 0; i < oldEntries.length; i++) {
+            if (oldEntries[i] != null) {
+                int slot = emptySlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                entries[slot] = oldEntries[i];
+            }
+        }
+    }
+}
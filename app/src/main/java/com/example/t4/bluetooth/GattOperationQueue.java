@@ -0,0 +1,236 @@
+package com.example.t4.bluetooth;
+
+import android.os.Handler;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * Serializes GATT operations of one connection
+ *
+ * Android allows only one outstanding GATT operation per connection, a second one is rejected.
+ * Operations are queued here and started one after the other; an operation is finished by the
+ * matching GATT callback ({@link #complete(int, int)}) or by its timeout.
+ *
+ * Thread safe: operations may be queued from any thread; BLEConnection queues them and delivers
+ * the callbacks on its I/O thread.
+ */
+final class GattOperationQueue {
+
+    static final long DEFAULT_TIMEOUT_IN_MS = 5000;
+
+    static final int TYPE_READ = 1;
+    static final int TYPE_WRITE = 2;
+    static final int TYPE_WRITE_DESCRIPTOR = 3;
+    static final int TYPE_REQUEST_MTU = 4;
+
+    /**
+     * Status passed to {@link Operation#onCompleted(int)}, if no callback arrived within the timeout
+     */
+    static final int STATUS_TIMEOUT = -1;
+
+    /**
+     * Status passed to {@link Operation#onCompleted(int)}, if the GATT operation could not be started
+     */
+    static final int STATUS_REJECTED = -2;
+
+    /**
+     * One GATT operation
+     */
+    abstract static class Operation {
+        private final int type;
+        private final long timeoutInMs;
+        private long enqueuedAt;
+
+        /**
+         * @param type one of {@link #TYPE_READ}, {@link #TYPE_WRITE}, {@link #TYPE_WRITE_DESCRIPTOR}, {@link #TYPE_REQUEST_MTU}
+         * @param timeoutInMs time to wait for the GATT callback
+         */
+        Operation(int type, long timeoutInMs) {
+            this.type = type;
+            this.timeoutInMs = timeoutInMs;
+        }
+
+        /**
+         * Starts the GATT operation
+         *
+         * @return true if the operation was started, false if rejected by the Bluetooth stack
+         */
+        abstract boolean execute();
+
+        /**
+         * Called once, when the operation is finished
+         *
+         * @param status GATT status of the callback, {@link #STATUS_TIMEOUT} or {@link #STATUS_REJECTED}
+         */
+        void onCompleted(int status) {
+        }
+    }
+
+    private final Handler timeoutHandler;
+    private final ArrayDeque<Operation> pending = new ArrayDeque<>();
+    private Operation current;
+    private Runnable currentTimeout;
+
+    // metrics
+    private int maxDepth;
+    private long startedCount;
+    private long completedCount;
+    private long timeoutCount;
+    private long rejectedCount;
+    private long totalWaitInNs;
+    private long maxWaitInNs;
+
+    /**
+     * @param timeoutHandler handler to run the operation timeouts on; null to disable timeouts
+     */
+    GattOperationQueue(Handler timeoutHandler) {
+        this.timeoutHandler = timeoutHandler;
+    }
+
+    /**
+     * Queues the operation and starts it, if no other operation is running
+     *
+     * @param operation operation to queue
+     */
+    void enqueue(Operation operation) {
+        synchronized (this) {
+            operation.enqueuedAt = System.nanoTime();
+            pending.addLast(operation);
+            maxDepth = Math.max(maxDepth, getDepth());
+            if (current != null) {
+                return;
+            }
+        }
+        startNext();
+    }
+
+    /**
+     * Finishes the running operation, call from the GATT callbacks
+     *
+     * @param type type of the finished operation
+     * @param status GATT status of the callback
+     */
+    void complete(int type, int status) {
+        Operation finished;
+        synchronized (this) {
+            if (current == null || current.type != type) {
+                return; // not started by the queue, e.g. late callback after timeout
+            }
+            finished = finishCurrent();
+            completedCount++;
+        }
+        finished.onCompleted(status);
+        startNext();
+    }
+
+    /**
+     * Drops all queued operations without calling them back, e.g. when the connection is closed
+     *
+     * @return number of dropped operations, including the running one
+     */
+    synchronized int clear() {
+        int dropped = getDepth();
+        if (current != null) {
+            finishCurrent();
+        }
+        pending.clear();
+        return dropped;
+    }
+
+    /**
+     * @return number of queued operations, including the running one
+     */
+    synchronized int getDepth() {
+        return pending.size() + (current != null ? 1 : 0);
+    }
+
+    synchronized int getMaxDepth() {
+        return maxDepth;
+    }
+
+    synchronized long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    /**
+     * @return average time in ms an operation waited in the queue before it was started
+     */
+    synchronized double getAverageWaitInMs() {
+        return startedCount == 0 ? 0 : totalWaitInNs / 1e6 / startedCount;
+    }
+
+    synchronized double getMaxWaitInMs() {
+        return maxWaitInNs / 1e6;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ROOT, "GattOperationQueue{depth=%d, maxDepth=%d, started=%d, completed=%d, timeouts=%d, rejected=%d, avgWait=%.2fms, maxWait=%.2fms}",
+                getDepth(), maxDepth, startedCount, completedCount, timeoutCount, rejectedCount, getAverageWaitInMs(), getMaxWaitInMs());
+    }
+
+    // ##### Helper & private methods #####
+
+    private void startNext() {
+        while (true) {
+            final Operation operation;
+            synchronized (this) {
+                if (current != null || pending.isEmpty()) {
+                    return;
+                }
+                operation = pending.pollFirst();
+                current = operation;
+                long waitInNs = System.nanoTime() - operation.enqueuedAt;
+                totalWaitInNs += waitInNs;
+                maxWaitInNs = Math.max(maxWaitInNs, waitInNs);
+                startedCount++;
+                if (timeoutHandler != null) {
+                    currentTimeout = new Runnable() {
+                        @Override
+                        public void run() {
+                            onTimeout(operation);
+                        }
+                    };
+                    timeoutHandler.postDelayed(currentTimeout, operation.timeoutInMs);
+                }
+            }
+
+            // the callback may arrive on another thread before execute() returns
+            if (operation.execute()) {
+                return;
+            }
+
+            synchronized (this) {
+                if (current != operation) {
+                    continue;
+                }
+                finishCurrent();
+                rejectedCount++;
+            }
+            operation.onCompleted(STATUS_REJECTED);
+        }
+    }
+
+    private void onTimeout(Operation operation) {
+        synchronized (this) {
+            if (current != operation) {
+                return;
+            }
+            finishCurrent();
+            timeoutCount++;
+        }
+        operation.onCompleted(STATUS_TIMEOUT);
+        startNext();
+    }
+
+    private Operation finishCurrent() {
+        Operation finished = current;
+        current = null;
+        if (currentTimeout != null) {
+            timeoutHandler.removeCallbacks(currentTimeout);
+            currentTimeout = null;
+        }
+        return finished;
+    }
+}
@@ -73,6 +73,26 @@ public interface IBleDeviceScanner {
      */
     void removeOnDeviceDiscoveredHandler(OnDeviceDiscoveredHandler handler);
 
+    /**
+     * Add a handler for the discovery of several devices at once.
+     *
+     * Batched scan results are delivered to this handler as one list, single results as list of
+     * one result. Results are passed through the same filters as for a
+     * {@link OnDeviceDiscoveredHandler}, that still receives every result on its own.
+     *
+     * @param handler The handler to attach
+     * @see #removeOnDevicesDiscoveredHandler(OnDevicesDiscoveredHandler)
+     */
+    void addOnDevicesDiscoveredHandler(OnDevicesDiscoveredHandler handler);
+
+    /**
+     * Remove a handler for the discovery of several devices at once.
+     *
+     * @param handler The handler to remove
+     * @see #addOnDevicesDiscoveredHandler(OnDevicesDiscoveredHandler)
+     */
+    void removeOnDevicesDiscoveredHandler(OnDevicesDiscoveredHandler handler);
+
     interface OnDeviceDiscoveredHandler {
 
         /**
@@ -82,4 +102,14 @@ public interface IBleDeviceScanner {
          */
         void onDeviceDiscovered(IScanResult result);
     }
+
+    interface OnDevicesDiscoveredHandler {
+
+        /**
+         * Called with all devices found in a batch of scan results
+         *
+         * @param results the scan results, oldest first; a device may be contained more than once
+         */
+        void onDevicesDiscovered(List<IScanResult> results);
+    }
 }
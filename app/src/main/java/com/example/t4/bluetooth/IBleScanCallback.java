@@ -1,5 +1,7 @@
 package com.example.t4.bluetooth;
 
+import java.util.List;
+
 /**
  * Abstract BLE Scan Callback used to deliver Scan Results
  *
@@ -14,4 +16,11 @@ public interface IBleScanCallback {
      * @param result scan result
      */
     void onScanResult(final IScanResult result);
+
+    /**
+     * Callback when the batched scan results are delivered, see ScanSettings.Builder#setReportDelay
+     *
+     * @param results scan results in the order received, a device may be contained more than once
+     */
+    void onBatchScanResults(final List<IScanResult> results);
 }
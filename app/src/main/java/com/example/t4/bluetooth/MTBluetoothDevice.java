@@ -14,12 +14,24 @@ public class MTBluetoothDevice implements Serializable{
 
     private BluetoothDevice device;
     private String displayName;
+    private DeviceFamily family;
 
     public MTBluetoothDevice(BluetoothDevice btDevice, String displayName) {
         this.device = btDevice;
         this.displayName = displayName;
     }
 
+    /**
+     * @param btDevice Android Bluetooth device
+     * @param displayName display name of the device
+     * @param family device family, if already known (e.g. from the bare tool number)
+     */
+    public MTBluetoothDevice(BluetoothDevice btDevice, String displayName, DeviceFamily family) {
+        this.device = btDevice;
+        this.displayName = displayName;
+        this.family = family;
+    }
+
     public BluetoothDevice getDevice() {
         return device;
     }
@@ -28,12 +40,32 @@ public class MTBluetoothDevice implements Serializable{
         this.device = device;
     }
 
+    /**
+     * @return Bluetooth address of the device
+     */
+    public String getAddress() {
+        return device.getAddress();
+    }
+
     public String getDisplayName() {
         return displayName;
     }
 
     public void setDisplayName(String displayName) {
         this.displayName = displayName;
+        this.family = null;
+    }
+
+    /**
+     * Returns the device family. Resolved from the display name on first call, if not set on creation
+     *
+     * @return family of the device
+     */
+    public DeviceFamily getFamily() {
+        if (family == null) {
+            family = DeviceFamily.fromDisplayName(displayName);
+        }
+        return family;
     }
 
     @Override
@@ -53,4 +85,10 @@ public class MTBluetoothDevice implements Serializable{
         // Compare
         return otherDev.getDevice().getAddress().equals(this.getDevice().getAddress());
     }
+
+    @Override
+    public int hashCode() {
+        // Consistent with equals: devices are identified by their address
+        return device.getAddress().hashCode();
+    }
 }
@@ -0,0 +1,356 @@
+package com.example.t4.bluetooth;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Allocation free implementation of the MTDeviceParser
+ *
+ * Reads the MT device information directly from the raw scan record (byte[] or ByteBuffer) and keeps
+ * it in primitive fields. One instance is meant to be reused for every scan result (flyweight): call
+ * {@link #parse(String, byte[])} for each advertisement. String and UUID values are only built when the
+ * corresponding getter is called. Use {@link #copy()} to keep the result of a parse run.
+ *
+ * Not thread safe.
+ */
+final class MTScanRecordParser implements MTDeviceParser {
+
+    // Advertising package -> if shorter, than no PT-MT device
+    private static final int ADVERTISING_MIN_LENGTH = 30;
+    // Advertising + scan response package
+    private static final int SCAN_RESPONSE_MIN_LENGTH = 48;
+
+    private static final int MAC_ADDRESS_OFFSET = 5;
+    private static final int MAC_ADDRESS_LENGTH = 6;
+    private static final int FLAGS_OFFSET = 11;
+    private static final int SERVICE_UUID_OFFSET = 14;
+    private static final int BARE_TOOL_NR_OFFSET = 33;
+    private static final int BARE_TOOL_NR_LENGTH = 10;
+    private static final int MAIN_SUPPLY_CHARGE_OFFSET = 43;
+    private static final int SERIAL_NR_OFFSET = 44;
+    private static final int SERIAL_NR_LENGTH = 4;
+
+    /**
+     * Two lower case hex digits for every byte value
+     */
+    private static final char[] HEX_PAIRS = new char[512];
+    static {
+        final char[] digits = "0123456789abcdef".toCharArray();
+        for (int i = 0; i < 256; i++) {
+            HEX_PAIRS[i << 1] = digits[i >>> 4];
+            HEX_PAIRS[(i << 1) + 1] = digits[i & 0x0F];
+        }
+    }
+
+    // source of the current parse run
+    private byte[] recordArray;
+    private ByteBuffer recordBuffer;
+    private int recordOffset;
+
+    // parsed values
+    private String devAdvName;
+    private boolean isPan1026;
+    private boolean hasAdvertising;
+    private boolean hasScanResponse;
+    private boolean isConnectable;
+    private boolean isBackupSupplyLow;
+    private boolean isToolLocked;
+    private boolean isELOWakeUpAllowed;
+    private long macAddressBits;
+    private long serviceUUIDMsb;
+    private long serviceUUIDLsb;
+    private int mainSupplyCharge;
+    private final byte[] bareToolNrBytes = new byte[BARE_TOOL_NR_LENGTH];
+    private final byte[] serialNrBytes = new byte[SERIAL_NR_LENGTH];
+
+    // lazily created values
+    private String macAddress;
+    private UUID serviceUUID;
+    private String bareToolNr;
+    private String serialNr;
+    private String devDisplayName;
+    private boolean displayNameResolved;
+
+    /**
+     * Parses the scan record of a device and replaces the result of the previous run
+     *
+     * @param devName Advertising name of the device
+     * @param scanRecord Scan record of the device; null for PAN1026 devices
+     * @return this parser
+     */
+    public MTScanRecordParser parse(String devName, byte[] scanRecord) {
+        reset(devName);
+        if (scanRecord != null) {
+            recordArray = scanRecord;
+            parseRecord(scanRecord.length);
+            recordArray = null;
+        } else {
+            // PAN1026 device: only display name and connectable status (always true) provided
+            isPan1026 = true;
+            isConnectable = true;
+        }
+        return this;
+    }
+
+    /**
+     * Parses the scan record of a device between position and limit of the buffer and replaces
+     * the result of the previous run. The position of the buffer is not changed.
+     *
+     * @param devName Advertising name of the device
+     * @param scanRecord Scan record of the device; null for PAN1026 devices
+     * @return this parser
+     */
+    public MTScanRecordParser parse(String devName, ByteBuffer scanRecord) {
+        reset(devName);
+        if (scanRecord != null) {
+            recordBuffer = scanRecord;
+            recordOffset = scanRecord.position();
+            parseRecord(scanRecord.remaining());
+            recordBuffer = null;
+        } else {
+            // PAN1026 device: only display name and connectable status (always true) provided
+            isPan1026 = true;
+            isConnectable = true;
+        }
+        return this;
+    }
+
+    /**
+     * Creates an independent parser holding the result of the last parse run
+     *
+     * @return copy of this parser
+     */
+    public MTScanRecordParser copy() {
+        MTScanRecordParser copy = new MTScanRecordParser();
+        copy.devAdvName = devAdvName;
+        copy.isPan1026 = isPan1026;
+        copy.hasAdvertising = hasAdvertising;
+        copy.hasScanResponse = hasScanResponse;
+        copy.isConnectable = isConnectable;
+        copy.isBackupSupplyLow = isBackupSupplyLow;
+        copy.isToolLocked = isToolLocked;
+        copy.isELOWakeUpAllowed = isELOWakeUpAllowed;
+        copy.macAddressBits = macAddressBits;
+        copy.serviceUUIDMsb = serviceUUIDMsb;
+        copy.serviceUUIDLsb = serviceUUIDLsb;
+        copy.mainSupplyCharge = mainSupplyCharge;
+        System.arraycopy(bareToolNrBytes, 0, copy.bareToolNrBytes, 0, BARE_TOOL_NR_LENGTH);
+        System.arraycopy(serialNrBytes, 0, copy.serialNrBytes, 0, SERIAL_NR_LENGTH);
+        copy.macAddress = macAddress;
+        copy.serviceUUID = serviceUUID;
+        copy.bareToolNr = bareToolNr;
+        copy.serialNr = serialNr;
+        copy.devDisplayName = devDisplayName;
+        copy.displayNameResolved = displayNameResolved;
+        return copy;
+    }
+
+    @Override
+    public String getAdvertisingName() {
+        return devAdvName;
+    }
+
+    @Override
+    public String getDisplayName() {
+        if (!displayNameResolved) {
+            displayNameResolved = true;
+            if (isPan1026) {
+                devDisplayName = devAdvName;
+            } else if (hasScanResponse) {
+                devDisplayName = displayNameFromBareToolNr(getBareToolNr()) + " x" + getSerialNr();
+            }
+        }
+        return devDisplayName;
+    }
+
+    @Override
+    public UUID getServiceUUID() {
+        if (serviceUUID == null && hasAdvertising) {
+            serviceUUID = new UUID(serviceUUIDMsb, serviceUUIDLsb);
+        }
+        return serviceUUID;
+    }
+
+    @Override
+    public String getMacAddress() {
+        if (macAddress == null && hasAdvertising) {
+            macAddress = formatMacAddress(macAddressBits);
+        }
+        return macAddress;
+    }
+
+    /**
+     * Returns the MAC address contained in the advertising package
+     *
+     * @return MAC address as 48 bit value, 0 if not available
+     */
+    public long getMacAddressBits() {
+        return macAddressBits;
+    }
+
+    @Override
+    public boolean isConnectable() {
+        return isConnectable;
+    }
+
+    @Override
+    public boolean isBackupSupplyLow() {
+        return isBackupSupplyLow;
+    }
+
+    @Override
+    public boolean isToolLocked() {
+        return isToolLocked;
+    }
+
+    @Override
+    public boolean isELOWakeUpAllowed() {
+        return isELOWakeUpAllowed;
+    }
+
+    @Override
+    public String getBareToolNr() {
+        if (bareToolNr == null && hasScanResponse) {
+            bareToolNr = new String(bareToolNrBytes, StandardCharsets.UTF_8);
+        }
+        return bareToolNr;
+    }
+
+    @Override
+    public String getSerialNr() {
+        if (serialNr == null && hasScanResponse) {
+            serialNr = new String(serialNrBytes, StandardCharsets.UTF_8);
+        }
+        return serialNr;
+    }
+
+    @Override
+    public int getMainSupplyChargeState() {
+        return mainSupplyCharge;
+    }
+
+    public String toString() {
+        return "MT Device: displayName = " + getDisplayName() + "; bareToolNr = " + getBareToolNr() + "; serialNr = " + getSerialNr() + "; connectable = " + isConnectable
+                + "; backupSupply = " + isBackupSupplyLow + "; locked = " + isToolLocked + "; macAddress = " + getMacAddress()
+                + "; UUID = " + (getServiceUUID() == null ? "NULL" : getServiceUUID().toString()) + "; mainSupplyCharge = " + mainSupplyCharge;
+    }
+
+    /**
+     * Formats a 48 bit MAC address as colon separated lower case hex String
+     *
+     * @param address MAC address as 48 bit value
+     * @return formatted MAC address, e.g. "00:11:22:aa:bb:cc"
+     */
+    public static String formatMacAddress(long address) {
+        char[] chars = new char[MAC_ADDRESS_LENGTH * 3 - 1];
+        int pos = 0;
+        for (int shift = (MAC_ADDRESS_LENGTH - 1) * 8; shift >= 0; shift -= 8) {
+            int b = (int) (address >>> shift) & 0xFF;
+            if (pos > 0) {
+                chars[pos++] = ':';
+            }
+            chars[pos++] = HEX_PAIRS[b << 1];
+            chars[pos++] = HEX_PAIRS[(b << 1) + 1];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Transforms byte array to HEX String
+     *
+     * @param in byte array to transform
+     * @return String
+     */
+    public static String toHex(byte[] in) {
+        char[] chars = new char[in.length * 2];
+        for (int i = 0; i < in.length; i++) {
+            int b = in[i] & 0xFF;
+            chars[i << 1] = HEX_PAIRS[b << 1];
+            chars[(i << 1) + 1] = HEX_PAIRS[(b << 1) + 1];
+        }
+        return new String(chars);
+    }
+
+    // ##### Helper & private methods #####
+
+    private void reset(String devName) {
+        devAdvName = devName;
+        isPan1026 = false;
+        hasAdvertising = false;
+        hasScanResponse = false;
+        isConnectable = false;
+        isBackupSupplyLow = false;
+        isToolLocked = false;
+        isELOWakeUpAllowed = false;
+        macAddressBits = 0;
+        serviceUUIDMsb = 0;
+        serviceUUIDLsb = 0;
+        mainSupplyCharge = 0;
+        macAddress = null;
+        serviceUUID = null;
+        bareToolNr = null;
+        serialNr = null;
+        devDisplayName = null;
+        displayNameResolved = false;
+    }
+
+    private void parseRecord(int length) {
+        if (length >= ADVERTISING_MIN_LENGTH) { // Miraculix device
+            hasAdvertising = true;
+            // Flags
+            byte flags = byteAt(FLAGS_OFFSET);
+            isConnectable = ((flags >> 3) & 1) == 1;
+            isELOWakeUpAllowed = ((flags >> 2) & 1) == 1;
+            isToolLocked = ((flags >> 1) & 1) == 1;
+            isBackupSupplyLow = (flags & 1) == 1;
+            // MAC address and UUID are transmitted little endian
+            macAddressBits = readLittleEndian(MAC_ADDRESS_OFFSET, MAC_ADDRESS_LENGTH);
+            serviceUUIDLsb = readLittleEndian(SERVICE_UUID_OFFSET, 8);
+            serviceUUIDMsb = readLittleEndian(SERVICE_UUID_OFFSET + 8, 8);
+        }
+        if (length >= SCAN_RESPONSE_MIN_LENGTH && isConnectable) { // Scan response package
+            hasScanResponse = true;
+            // Bare Tool number is transmitted reversed
+            for (int i = 0; i < BARE_TOOL_NR_LENGTH; i++) {
+                bareToolNrBytes[i] = byteAt(BARE_TOOL_NR_OFFSET + BARE_TOOL_NR_LENGTH - 1 - i);
+            }
+            for (int i = 0; i < SERIAL_NR_LENGTH; i++) {
+                serialNrBytes[i] = byteAt(SERIAL_NR_OFFSET + i);
+            }
+            mainSupplyCharge = byteAt(MAIN_SUPPLY_CHARGE_OFFSET);
+        }
+    }
+
+    private long readLittleEndian(int offset, int length) {
+        long value = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            value = (value << 8) | (byteAt(offset + i) & 0xFF);
+        }
+        return value;
+    }
+
+    private byte byteAt(int index) {
+        return recordArray != null ? recordArray[index] : recordBuffer.get(recordOffset + index);
+    }
+
+    /**
+     * Will assign product name to a known Bare Tool Nr
+     *
+     * @param bareTN Bare Tool Nr (as String)
+     * @return Product name, empty String if not known
+     */
+    private static String displayNameFromBareToolNr(String bareTN) {
+        String displayName = BluetoothUtils.GLM_120_DEV_TYPES.get(bareTN);
+        if (displayName == null) {
+            displayName = BluetoothUtils.GLM_50_2_DEV_TYPES.get(bareTN);
+        }
+        if (displayName == null) {
+            displayName = BluetoothUtils.GLM_150_DEV_TYPES.get(bareTN);
+        }
+        if (displayName == null) {
+            displayName = BluetoothUtils.GLM_100_DEV_TYPES.get(bareTN);
+        }
+        return displayName == null ? "" : displayName;
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.t4.bluetooth;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Reconnection state of one managed device
+ *
+ * A failed connect attempt is retried after a jittered exponential backoff: the delay doubles with
+ * every attempt up to a maximum, half of it is random, so devices dropped at the same time do not
+ * retry in lockstep. After the maximum number of attempts the device is given up. Every transition
+ * is kept in a short history for the dump.
+ *
+ * Not thread safe, guarded by the {@link ConnectionManager}.
+ */
+final class Reconnection {
+
+    static final int STATE_WAITING = 0;
+    static final int STATE_CONNECTING = 1;
+    static final int STATE_CONNECTED = 2;
+    static final int STATE_BACKOFF = 3;
+    static final int STATE_FAILED = 4;
+    static final int STATE_CANCELLED = 5;
+    static final int STATE_CLOSED = 6;
+
+    static final long DEFAULT_BASE_DELAY_IN_MS = 500;
+    static final long DEFAULT_MAX_DELAY_IN_MS = 30_000;
+    static final int DEFAULT_MAX_ATTEMPTS = 6;
+
+    private static final int HISTORY_SIZE = 16;
+
+    private final long baseDelayInMs;
+    private final long maxDelayInMs;
+    private final int maxAttempts;
+    private final Random random;
+
+    private int state = STATE_WAITING;
+    // failed attempts since the last successful connect
+    private int failedAttempts;
+
+    // ring of the last transitions
+    private final long[] historyTimes = new long[HISTORY_SIZE];
+    private final int[] historyStates = new int[HISTORY_SIZE];
+    private final long[] historyDelays = new long[HISTORY_SIZE];
+    private int historyCount;
+
+    /**
+     * @param baseDelayInMs delay before the first retry, without jitter
+     * @param maxDelayInMs upper bound of the delay
+     * @param maxAttempts failed attempts in a row before the device is given up
+     * @param random source of the jitter
+     */
+    Reconnection(long baseDelayInMs, long maxDelayInMs, int maxAttempts, Random random) {
+        if (baseDelayInMs <= 0 || maxDelayInMs < baseDelayInMs) {
+            throw new IllegalArgumentException("invalid delays: " + baseDelayInMs + ", " + maxDelayInMs);
+        }
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts < 1: " + maxAttempts);
+        }
+        this.baseDelayInMs = baseDelayInMs;
+        this.maxDelayInMs = maxDelayInMs;
+        this.maxAttempts = maxAttempts;
+        this.random = random;
+    }
+
+    int getState() {
+        return state;
+    }
+
+    int getFailedAttempts() {
+        return failedAttempts;
+    }
+
+    void onConnecting(long now) {
+        transition(STATE_CONNECTING, now, 0);
+    }
+
+    void onConnected(long now) {
+        failedAttempts = 0;
+        transition(STATE_CONNECTED, now, 0);
+    }
+
+    /**
+     * @return delay before the next attempt; -1 if the maximum number of attempts is reached
+     */
+    long onAttemptFailed(long now) {
+        failedAttempts++;
+        if (failedAttempts >= maxAttempts) {
+            transition(STATE_FAILED, now, 0);
+            return -1;
+        }
+        long delay = getDelay(failedAttempts);
+        transition(STATE_BACKOFF, now, delay);
+        return delay;
+    }
+
+    /**
+     * Backoff expired, the device waits for a free connect slot
+     *
+     * @return false if the backoff was cancelled in the meantime
+     */
+    boolean onBackoffExpired(long now) {
+        if (state != STATE_BACKOFF) {
+            return false;
+        }
+        transition(STATE_WAITING, now, 0);
+        return true;
+    }
+
+    /**
+     * Disconnected by the app
+     */
+    void cancel(long now) {
+        transition(STATE_CANCELLED, now, 0);
+    }
+
+    /**
+     * Connection closed, without retry
+     */
+    void onClosed(long now) {
+        transition(STATE_CLOSED, now, 0);
+    }
+
+    /**
+     * Prints state and the transition history, oldest first
+     *
+     * @param now current time, to print the age of the transitions
+     */
+    void dump(PrintWriter writer, String prefix, long now) {
+        writer.println(prefix + "reconnection: " + stateToString(state) + ", failed attempts=" + failedAttempts + " of " + maxAttempts);
+        int first = Math.max(0, historyCount - HISTORY_SIZE);
+        for (int i = first; i < historyCount; i++) {
+            int index = i % HISTORY_SIZE;
+            writer.println(String.format(Locale.ROOT, "%s  -%d ms: %s%s", prefix, now - historyTimes[index],
+                    stateToString(historyStates[index]), historyDelays[index] > 0 ? " " + historyDelays[index] + " ms" : ""));
+        }
+    }
+
+    static String stateToString(int state) {
+        switch (state) {
+            case STATE_WAITING:
+                return "WAITING";
+            case STATE_CONNECTING:
+                return "CONNECTING";
+            case STATE_CONNECTED:
+                return "CONNECTED";
+            case STATE_BACKOFF:
+                return "BACKOFF";
+            case STATE_FAILED:
+                return "FAILED";
+            case STATE_CANCELLED:
+                return "CANCELLED";
+            case STATE_CLOSED:
+                return "CLOSED";
+            default:
+                return "UNKNOWN(" + state + ")";
+        }
+    }
+
+    /**
+     * @param attempt failed attempts so far, 1 for the first retry
+     * @return exponential delay of the attempt, the upper half jittered
+     */
+    long getDelay(int attempt) {
+        long delay = Math.min(maxDelayInMs, baseDelayInMs << Math.min(attempt - 1, 30)); // shift capped against overflow
+        long half = delay / 2;
+        return delay - half + (long) (random.nextDouble() * half);
+    }
+
+    // ##### Helper & private methods #####
+
+    private void transition(int state, long now, long delay) {
+        int index = historyCount % HISTORY_SIZE;
+        historyTimes[index] = now;
+        historyStates[index] = state;
+        historyDelays[index] = delay;
+        historyCount++;
+        this.state = state;
+    }
+}
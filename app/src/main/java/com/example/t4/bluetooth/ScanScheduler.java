@@ -0,0 +1,349 @@
+package com.example.t4.bluetooth;
+
+import android.bluetooth.le.ScanSettings;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.example.t4.logging.AppLog;
+import com.example.t4.metrics.LatencyHistogram;
+
+import java.io.PrintWriter;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Duty cycles the BLE discovery scan
+ *
+ * Discovery starts with a continuous low latency burst, then backs off to short balanced windows
+ * and, if no new device showed up for a while, to rare low power windows. A new Bosch device
+ * switches back to the burst, as more devices are likely to be powered on. Scan starts are kept
+ * below the limit of Android by a {@link ScanStartLimiter}.
+ *
+ * Hybrid filtering: most windows run with the hardware scan filters for MirX devices, so the
+ * controller drops foreign advertisements without waking the app. PAN1026 devices only advertise
+ * their name, which can not be filtered in hardware; they are found by short unfiltered sweeps at
+ * the start of every burst and every {@value #LEGACY_SWEEP_EVERY_N_WINDOWS}th window afterwards.
+ *
+ * Metrics: the discovery latency (time from the start of a scan window until a device is first
+ * reported in it), the radio duty cycle (share of time the scan is running) and the scan result
+ * rate with and without filters.
+ *
+ * Not thread safe, call on the thread of the handler (main thread).
+ */
+final class ScanScheduler {
+
+    private static final String TAG = "ScanScheduler";
+
+    static final int PHASE_IDLE = 0;
+    static final int PHASE_BURST = 1;
+    static final int PHASE_BALANCED = 2;
+    static final int PHASE_LOW_POWER = 3;
+
+    private static final long BURST_DURATION_IN_MS = 10_000;
+
+    private static final long BALANCED_WINDOW_IN_MS = 4_000;
+    private static final long BALANCED_PERIOD_IN_MS = 15_000;
+
+    // back off to low power, if no new device showed up for this period
+    private static final long BALANCED_PHASE_DURATION_IN_MS = 120_000;
+
+    private static final long LOW_POWER_WINDOW_IN_MS = 5_000;
+    private static final long LOW_POWER_PERIOD_IN_MS = 60_000;
+
+    // longest report delay of batched scan results: a regular batch arrives in every balanced and low power
+    // window, not only the flush at its end
+    static final long MAX_REPORT_DELAY_IN_MS = BALANCED_WINDOW_IN_MS / 2;
+
+    // unfiltered sweep at the start of a burst, the rest of the burst is filtered
+    private static final long LEGACY_SWEEP_IN_MS = 3_000;
+    // unfiltered sweep every n-th balanced or low power window
+    static final int LEGACY_SWEEP_EVERY_N_WINDOWS = 4;
+
+    /**
+     * Runs the scan
+     */
+    interface Scanner {
+        /**
+         * @param scanMode one of ScanSettings.SCAN_MODE_LOW_LATENCY, SCAN_MODE_BALANCED, SCAN_MODE_LOW_POWER
+         * @param filtered true to apply the hardware scan filters for MirX devices
+         */
+        void startScan(int scanMode, boolean filtered);
+
+        void stopScan();
+    }
+
+    private final Handler handler;
+    private final Scanner scanner;
+    private final ScanStartLimiter startLimiter = new ScanStartLimiter(ScanStartLimiter.DEFAULT_MAX_STARTS, ScanStartLimiter.DEFAULT_WINDOW_IN_MS);
+
+    private int phase = PHASE_IDLE;
+    private boolean scanning;
+    private long lastNewDeviceAt;
+
+    private boolean hybridFiltering = true;
+    private boolean windowFiltered;
+    private boolean burstSweepDone;
+    private int windowsSinceSweep;
+
+    // devices reported in the current scan window
+    private final Set<Long> seenInWindow = new HashSet<>();
+    private long windowStartedAt;
+
+    // metrics
+    private final LatencyHistogram discoveryLatency = new LatencyHistogram();
+    private long runningSince;
+    private long runningTimeInMs;
+    private long scanTimeInMs;
+    private int scanStarts;
+    private int delayedStarts;
+    private long filteredScanTimeInMs;
+    private long filteredResults;
+    private long unfilteredResults;
+
+    private final Runnable startWindow = new Runnable() {
+        @Override
+        public void run() {
+            startWindow();
+        }
+    };
+
+    private final Runnable endWindow = new Runnable() {
+        @Override
+        public void run() {
+            endWindow();
+        }
+    };
+
+    ScanScheduler(Handler handler, Scanner scanner) {
+        this.handler = handler;
+        this.scanner = scanner;
+    }
+
+    /**
+     * Starts the discovery with a burst
+     */
+    void start() {
+        if (phase != PHASE_IDLE) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        runningSince = now;
+        lastNewDeviceAt = now;
+        setPhase(PHASE_BURST);
+        startWindow();
+    }
+
+    /**
+     * Stops the discovery and the running scan
+     */
+    void stop() {
+        if (phase == PHASE_IDLE) {
+            return;
+        }
+        handler.removeCallbacks(startWindow);
+        handler.removeCallbacks(endWindow);
+        stopScan();
+        runningTimeInMs += SystemClock.elapsedRealtime() - runningSince;
+        setPhase(PHASE_IDLE);
+    }
+
+    boolean isRunning() {
+        return phase != PHASE_IDLE;
+    }
+
+    boolean isScanning() {
+        return scanning;
+    }
+
+    int getPhase() {
+        return phase;
+    }
+
+    /**
+     * Enables the hybrid filtering, applied from the next scan window
+     *
+     * @param enable false to scan without hardware filters only, e.g. if not supported by the scanner
+     */
+    void setHybridFiltering(boolean enable) {
+        this.hybridFiltering = enable;
+    }
+
+    /**
+     * Called for every scan result delivered to the app, Bosch device or not
+     */
+    void onScanResult() {
+        if (!scanning) {
+            return;
+        }
+        if (windowFiltered) {
+            filteredResults++;
+        } else {
+            unfilteredResults++;
+        }
+    }
+
+    /**
+     * Called for every reported supported device
+     *
+     * @param address device address as 48 bit value
+     * @param newDevice true if the device was not visible before in this discovery
+     */
+    void onDeviceReported(long address, boolean newDevice) {
+        if (!scanning) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (seenInWindow.add(address)) {
+            discoveryLatency.record((now - windowStartedAt) * 1000);
+        }
+        if (!newDevice) {
+            return;
+        }
+        lastNewDeviceAt = now;
+        if (phase != PHASE_BURST) {
+            AppLog.d(TAG, "New device -> burst");
+            handler.removeCallbacks(endWindow);
+            stopScan();
+            setPhase(PHASE_BURST);
+            startWindow();
+        }
+    }
+
+    /**
+     * @return time from the start of a scan window until a device is first reported in it
+     */
+    LatencyHistogram getDiscoveryLatency() {
+        return discoveryLatency;
+    }
+
+    /**
+     * @return share of the discovery time the scan was running, 0..1
+     */
+    double getDutyCycle() {
+        long now = SystemClock.elapsedRealtime();
+        long running = runningTimeInMs + (phase != PHASE_IDLE ? now - runningSince : 0);
+        long scan = scanTimeInMs + (scanning ? now - windowStartedAt : 0);
+        return running == 0 ? 0 : (double) scan / running;
+    }
+
+    void dump(PrintWriter writer, String prefix) {
+        writer.println(String.format(Locale.ROOT, "%sphase=%d, scanning=%b, duty cycle=%.1f%%, starts=%d (%d delayed by the start limit)",
+                prefix, phase, scanning, getDutyCycle() * 100, scanStarts, delayedStarts));
+        long filteredTime = filteredScanTimeInMs + (scanning && windowFiltered ? SystemClock.elapsedRealtime() - windowStartedAt : 0);
+        long unfilteredTime = scanTimeInMs - filteredScanTimeInMs + (scanning && !windowFiltered ? SystemClock.elapsedRealtime() - windowStartedAt : 0);
+        writer.println(String.format(Locale.ROOT, "%shybrid filtering=%b, scan results/s: filtered=%.1f (%d s), unfiltered=%.1f (%d s)",
+                prefix, hybridFiltering, ratePerSecond(filteredResults, filteredTime), filteredTime / 1000,
+                ratePerSecond(unfilteredResults, unfilteredTime), unfilteredTime / 1000));
+        writer.println(prefix + "discovery latency: " + discoveryLatency);
+    }
+
+    // ##### Helper & private methods #####
+
+    private void startWindow() {
+        long now = SystemClock.elapsedRealtime();
+        long delay = startLimiter.getDelay(now);
+        if (delay > 0) {
+            AppLog.d(TAG, "Scan start delayed by %d ms: start limit", delay);
+            delayedStarts++;
+            handler.postDelayed(startWindow, delay);
+            return;
+        }
+        startLimiter.recordStart(now);
+        scanStarts++;
+        windowStartedAt = now;
+        seenInWindow.clear();
+        windowFiltered = hybridFiltering && !isLegacySweepDue();
+        if (!windowFiltered) {
+            windowsSinceSweep = 0;
+            if (phase == PHASE_BURST) {
+                burstSweepDone = true;
+            }
+        } else {
+            windowsSinceSweep++;
+        }
+        scanning = true;
+        scanner.startScan(getScanMode(), windowFiltered);
+        handler.postDelayed(endWindow, getWindowInMs());
+    }
+
+    private void endWindow() {
+        stopScan();
+        long now = SystemClock.elapsedRealtime();
+        if (phase == PHASE_BURST && hybridFiltering && !windowFiltered) {
+            startWindow(); // sweep done, rest of the burst filtered
+            return;
+        }
+        if (phase == PHASE_BURST) {
+            setPhase(PHASE_BALANCED);
+        } else if (phase == PHASE_BALANCED && now - lastNewDeviceAt >= BALANCED_PHASE_DURATION_IN_MS) {
+            setPhase(PHASE_LOW_POWER);
+        }
+        handler.postDelayed(startWindow, getPeriodInMs() - getWindowInMs());
+    }
+
+    private void stopScan() {
+        if (!scanning) {
+            return;
+        }
+        scanner.stopScan();
+        scanning = false;
+        long windowTime = SystemClock.elapsedRealtime() - windowStartedAt;
+        scanTimeInMs += windowTime;
+        if (windowFiltered) {
+            filteredScanTimeInMs += windowTime;
+        }
+    }
+
+    private void setPhase(int phase) {
+        AppLog.d(TAG, "Phase %d -> %d", this.phase, phase);
+        this.phase = phase;
+        if (phase == PHASE_BURST) {
+            burstSweepDone = false;
+        }
+    }
+
+    private boolean isLegacySweepDue() {
+        return phase == PHASE_BURST ? !burstSweepDone : windowsSinceSweep >= LEGACY_SWEEP_EVERY_N_WINDOWS;
+    }
+
+    private static double ratePerSecond(long count, long timeInMs) {
+        return timeInMs == 0 ? 0 : count * 1000.0 / timeInMs;
+    }
+
+    private int getScanMode() {
+        switch (phase) {
+            case PHASE_BALANCED:
+                return ScanSettings.SCAN_MODE_BALANCED;
+            case PHASE_LOW_POWER:
+                return ScanSettings.SCAN_MODE_LOW_POWER;
+            default:
+                return ScanSettings.SCAN_MODE_LOW_LATENCY;
+        }
+    }
+
+    private long getWindowInMs() {
+        switch (phase) {
+            case PHASE_BALANCED:
+                return BALANCED_WINDOW_IN_MS;
+            case PHASE_LOW_POWER:
+                return LOW_POWER_WINDOW_IN_MS;
+            default:
+                if (!hybridFiltering) {
+                    return BURST_DURATION_IN_MS;
+                }
+                return windowFiltered ? BURST_DURATION_IN_MS - LEGACY_SWEEP_IN_MS : LEGACY_SWEEP_IN_MS;
+        }
+    }
+
+    private long getPeriodInMs() {
+        switch (phase) {
+            case PHASE_BALANCED:
+                return BALANCED_PERIOD_IN_MS;
+            case PHASE_LOW_POWER:
+                return LOW_POWER_PERIOD_IN_MS;
+            default:
+                return BURST_DURATION_IN_MS;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.t4.bluetooth;
+
+/**
+ * Keeps scan starts below the limit of Android: an app starting more than 5 scans within 30 s
+ * gets no scan results until the window passed, without any error reported
+ *
+ * Not thread safe, used on the main thread.
+ */
+final class ScanStartLimiter {
+
+    static final int DEFAULT_MAX_STARTS = 5;
+
+    /**
+     * 30 s of Android plus a margin for the clock of the Bluetooth stack
+     */
+    static final long DEFAULT_WINDOW_IN_MS = 31_000;
+
+    private final long windowInMs;
+    private final long[] starts; // ring of the last start times, oldest at next when full
+    private int next;
+    private int count;
+
+    /**
+     * @param maxStarts scan starts allowed within the window
+     * @param windowInMs length of the window
+     */
+    ScanStartLimiter(int maxStarts, long windowInMs) {
+        if (maxStarts < 1) {
+            throw new IllegalArgumentException("maxStarts < 1: " + maxStarts);
+        }
+        this.starts = new long[maxStarts];
+        this.windowInMs = windowInMs;
+    }
+
+    /**
+     * @param now current time in ms
+     * @return time in ms until a scan may be started; 0 if allowed now
+     */
+    long getDelay(long now) {
+        if (count < starts.length) {
+            return 0;
+        }
+        return Math.max(0, starts[next] + windowInMs - now);
+    }
+
+    /**
+     * @param now time of the scan start in ms
+     */
+    void recordStart(long now) {
+        starts[next] = now;
+        next = (next + 1) % starts.length;
+        count = Math.min(count + 1, starts.length);
+    }
+}
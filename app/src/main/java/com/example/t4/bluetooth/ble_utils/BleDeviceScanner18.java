@@ -12,6 +12,7 @@ import com.example.t4.bluetooth.IBleScanCallback;
 import com.example.t4.bluetooth.IScanResult;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -30,6 +31,7 @@ public class BleDeviceScanner18 implements IBleDeviceScanner, IBleScanCallback {
     private BluetoothAdapter mBtAdapter;
 
     private List<IBleDeviceScanner.OnDeviceDiscoveredHandler> mHandlers = new ArrayList<>();
+    private List<IBleDeviceScanner.OnDevicesDiscoveredHandler> mBatchHandlers = new ArrayList<>();
 
     public BleDeviceScanner18(BluetoothAdapter btAdapter) {
         // initialize scanner
@@ -70,6 +72,26 @@ public class BleDeviceScanner18 implements IBleDeviceScanner, IBleScanCallback {
             for (OnDeviceDiscoveredHandler handler : mHandlers) {
                 handler.onDeviceDiscovered(result);
             }
+            if (!mBatchHandlers.isEmpty()) {
+                List<IScanResult> results = Collections.singletonList(result);
+                for (OnDevicesDiscoveredHandler handler : mBatchHandlers) {
+                    handler.onDevicesDiscovered(results);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onBatchScanResults(List<IScanResult> results) {
+        if (!mMtFilterEnabled) {
+            for (IScanResult result : results) {
+                for (OnDeviceDiscoveredHandler handler : mHandlers) {
+                    handler.onDeviceDiscovered(result);
+                }
+            }
+            for (OnDevicesDiscoveredHandler handler : mBatchHandlers) {
+                handler.onDevicesDiscovered(results);
+            }
         }
     }
 
@@ -84,4 +106,16 @@ public class BleDeviceScanner18 implements IBleDeviceScanner, IBleScanCallback {
     public void removeOnDeviceDiscoveredHandler(OnDeviceDiscoveredHandler handler) {
         mHandlers.remove(handler);
     }
+
+    @Override
+    public void addOnDevicesDiscoveredHandler(OnDevicesDiscoveredHandler handler) {
+        if (!mBatchHandlers.contains(handler)) {
+            mBatchHandlers.add(handler);
+        }
+    }
+
+    @Override
+    public void removeOnDevicesDiscoveredHandler(OnDevicesDiscoveredHandler handler) {
+        mBatchHandlers.remove(handler);
+    }
 }
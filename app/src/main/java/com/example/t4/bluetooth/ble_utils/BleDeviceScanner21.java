@@ -6,6 +6,9 @@ import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanSettings;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 
 
 import com.example.t4.bluetooth.IBleDeviceScanner;
@@ -13,6 +16,7 @@ import com.example.t4.bluetooth.IBleScanCallback;
 import com.example.t4.bluetooth.IScanResult;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -25,13 +29,30 @@ public class BleDeviceScanner21 implements IBleDeviceScanner, IBleScanCallback {
 
     private static final String TAG = "bluetooth.impl.BleDeviceScanner21";
 
+    // upper bound for the batch requested by stopScan(), the stack does not report an empty flush on every version
+    private static final long FLUSH_TIMEOUT_IN_MS = 500;
+    // a batch this close to the report delay after the previous one may be a regular batch instead of the flushed one
+    private static final long REGULAR_BATCH_JITTER_IN_MS = 200;
+
     private boolean mMtFilterEnabled;
     private ScanSettings mScanSettings;
     private List<ScanFilter> mScanFilters;
     private BleScanCallback21 mScanCallback;
     private BluetoothLeScanner mBtScanner;
 
+    // scan callbacks and the deferred stop run on the main thread, like the calls of this scanner
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private boolean mStopPending;
+    private long mLastBatchAtInMs;
+    private final Runnable mPendingStop = new Runnable() {
+        @Override
+        public void run() {
+            completePendingStop();
+        }
+    };
+
     private List<IBleDeviceScanner.OnDeviceDiscoveredHandler> mHandlers = new ArrayList<>();
+    private List<IBleDeviceScanner.OnDevicesDiscoveredHandler> mBatchHandlers = new ArrayList<>();
 
     public BleDeviceScanner21(BluetoothAdapter btAdapter) {
         // initialize scanner
@@ -61,14 +82,25 @@ public class BleDeviceScanner21 implements IBleDeviceScanner, IBleScanCallback {
 
     @Override
     public void startScan() {
+        completePendingStop();
         if (mBtScanner != null) {
+            mLastBatchAtInMs = SystemClock.elapsedRealtime();
             mBtScanner.startScan(mScanFilters, mScanSettings, mScanCallback);
         }
     }
 
     @Override
     public void stopScan() {
-        if(mBtScanner!=null) {
+        if (mBtScanner == null || mStopPending) {
+            return;
+        }
+        if (mScanSettings.getReportDelayMillis() > 0) {
+            // the results still queued in the controller are dropped by stopScan(): request them and
+            // stop when they arrived, flushPendingScanResults() returns before
+            mStopPending = true;
+            mBtScanner.flushPendingScanResults(mScanCallback);
+            mMainHandler.postDelayed(mPendingStop, FLUSH_TIMEOUT_IN_MS);
+        } else {
             mBtScanner.stopScan(mScanCallback);
         }
     }
@@ -79,7 +111,34 @@ public class BleDeviceScanner21 implements IBleDeviceScanner, IBleScanCallback {
             for (OnDeviceDiscoveredHandler handler : mHandlers) {
                 handler.onDeviceDiscovered(result);
             }
+            if (!mBatchHandlers.isEmpty()) {
+                List<IScanResult> results = Collections.singletonList(result);
+                for (OnDevicesDiscoveredHandler handler : mBatchHandlers) {
+                    handler.onDevicesDiscovered(results);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onBatchScanResults(List<IScanResult> results) {
+        if (!mMtFilterEnabled) {
+            for (IScanResult result : results) {
+                for (OnDeviceDiscoveredHandler handler : mHandlers) {
+                    handler.onDeviceDiscovered(result);
+                }
+            }
+            for (OnDevicesDiscoveredHandler handler : mBatchHandlers) {
+                handler.onDevicesDiscovered(results);
+            }
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (mStopPending && !isRegularBatch(now)) {
+            // the flushed batch, nothing is queued anymore
+            completePendingStop();
         }
+        // a regular batch delivered during the flush: the flushed batch still follows, or the timeout stops the scan
+        mLastBatchAtInMs = now;
     }
 
     @Override
@@ -93,4 +152,35 @@ public class BleDeviceScanner21 implements IBleDeviceScanner, IBleScanCallback {
     public void removeOnDeviceDiscoveredHandler(OnDeviceDiscoveredHandler handler) {
         mHandlers.remove(handler);
     }
+
+    @Override
+    public void addOnDevicesDiscoveredHandler(OnDevicesDiscoveredHandler handler) {
+        if (!mBatchHandlers.contains(handler)) {
+            mBatchHandlers.add(handler);
+        }
+    }
+
+    @Override
+    public void removeOnDevicesDiscoveredHandler(OnDevicesDiscoveredHandler handler) {
+        mBatchHandlers.remove(handler);
+    }
+
+    // ##### Helper & private methods #####
+
+    /**
+     * The controller reports a regular batch once per report delay, the flushed batch arrives at any time
+     * @param now time of the batch, SystemClock.elapsedRealtime()
+     * @return true if a regular batch is due at this time
+     */
+    private boolean isRegularBatch(long now) {
+        return now - mLastBatchAtInMs >= mScanSettings.getReportDelayMillis() - REGULAR_BATCH_JITTER_IN_MS;
+    }
+
+    private void completePendingStop() {
+        if (mStopPending) {
+            mStopPending = false;
+            mMainHandler.removeCallbacks(mPendingStop);
+            mBtScanner.stopScan(mScanCallback);
+        }
+    }
 }
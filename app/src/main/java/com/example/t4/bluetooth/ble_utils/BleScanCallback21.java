@@ -3,12 +3,13 @@ package com.example.t4.bluetooth.ble_utils;
 import android.annotation.TargetApi;
 import android.bluetooth.le.ScanCallback;
 import android.os.Build;
-import android.util.Log;
 
 
 import com.example.t4.bluetooth.IBleScanCallback;
 import com.example.t4.bluetooth.IScanResult;
+import com.example.t4.logging.AppLog;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -39,14 +40,16 @@ public class BleScanCallback21 extends ScanCallback {
 
     @Override
     public void onBatchScanResults(final List<android.bluetooth.le.ScanResult> results) {
+        final List<IScanResult> batch = new ArrayList<>(results.size());
         for (final android.bluetooth.le.ScanResult result : results) {
-            onScanResult(new ScanResultImpl21(result));
+            batch.add(new ScanResultImpl21(result));
         }
+        mBleScanCallback.onBatchScanResults(batch);
     }
 
     @Override
     public void onScanFailed(final int errorCode) {
-        Log.e(TAG, "Scan failed with error Code: " + errorCode);
+        AppLog.e(TAG, "Scan failed with error Code: %d", errorCode);
     }
 
     private void onScanResult(final IScanResult result) {
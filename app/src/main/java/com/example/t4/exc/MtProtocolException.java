@@ -0,0 +1,12 @@
+package com.example.t4.exc;
+
+/**
+ * Command failed by an error of the MT protocol
+ */
+public class MtProtocolException extends Exception {
+	private static final long serialVersionUID = 1L;
+
+	public MtProtocolException(String message) {
+		super(message);
+	}
+}
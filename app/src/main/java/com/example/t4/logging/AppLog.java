@@ -0,0 +1,160 @@
+package com.example.t4.logging;
+
+import android.util.Log;
+
+import com.example.t4.BuildConfig;
+
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * Logging facade of the app: checks the level before a message is built
+ *
+ * Messages are passed as format string and arguments or as Supplier, so they are only formatted if
+ * the level is enabled. Levels below {@link #MIN_LEVEL} (release: verbose and debug) are disabled
+ * at compile time; guarding a call with {@link #VERBOSE_ENABLED} or {@link #DEBUG_ENABLED} removes it
+ * including the evaluation of its arguments:
+ * <pre>
+ * if (AppLog.DEBUG_ENABLED) {
+ *     AppLog.d(TAG, "Received %s", message);
+ * }
+ * </pre>
+ * For high rate traces, e.g. every GATT notification, use a {@link SampledLog}.
+ */
+public final class AppLog {
+
+    public static final int VERBOSE = Log.VERBOSE;
+    public static final int DEBUG = Log.DEBUG;
+    public static final int INFO = Log.INFO;
+    public static final int WARN = Log.WARN;
+    public static final int ERROR = Log.ERROR;
+
+    /**
+     * Lowest level compiled into this build, set per build type in build.gradle
+     */
+    public static final int MIN_LEVEL = BuildConfig.MIN_LOG_LEVEL;
+
+    public static final boolean VERBOSE_ENABLED = MIN_LEVEL <= VERBOSE;
+    public static final boolean DEBUG_ENABLED = MIN_LEVEL <= DEBUG;
+
+    private static volatile int level = MIN_LEVEL;
+
+    private AppLog() {
+    }
+
+    /**
+     * Sets the lowest level logged at runtime; levels below {@link #MIN_LEVEL} stay disabled
+     *
+     * @param level one of VERBOSE, DEBUG, INFO, WARN, ERROR
+     */
+    public static void setLevel(int level) {
+        AppLog.level = Math.max(level, MIN_LEVEL);
+    }
+
+    public static int getLevel() {
+        return level;
+    }
+
+    /**
+     * @param priority one of VERBOSE, DEBUG, INFO, WARN, ERROR
+     * @return true if messages of this level are logged
+     */
+    public static boolean isLoggable(int priority) {
+        return priority >= level;
+    }
+
+    public static void v(String tag, String msg) {
+        if (VERBOSE_ENABLED && isLoggable(VERBOSE)) {
+            Log.v(tag, msg);
+        }
+    }
+
+    public static void v(String tag, String format, Object... args) {
+        if (VERBOSE_ENABLED && isLoggable(VERBOSE)) {
+            Log.v(tag, format(format, args));
+        }
+    }
+
+    public static void v(String tag, Supplier<String> msg) {
+        if (VERBOSE_ENABLED && isLoggable(VERBOSE)) {
+            Log.v(tag, msg.get());
+        }
+    }
+
+    public static void d(String tag, String msg) {
+        if (DEBUG_ENABLED && isLoggable(DEBUG)) {
+            Log.d(tag, msg);
+        }
+    }
+
+    public static void d(String tag, String format, Object... args) {
+        if (DEBUG_ENABLED && isLoggable(DEBUG)) {
+            Log.d(tag, format(format, args));
+        }
+    }
+
+    public static void d(String tag, Supplier<String> msg) {
+        if (DEBUG_ENABLED && isLoggable(DEBUG)) {
+            Log.d(tag, msg.get());
+        }
+    }
+
+    public static void i(String tag, String msg) {
+        if (isLoggable(INFO)) {
+            Log.i(tag, msg);
+        }
+    }
+
+    public static void i(String tag, String format, Object... args) {
+        if (isLoggable(INFO)) {
+            Log.i(tag, format(format, args));
+        }
+    }
+
+    public static void w(String tag, String msg) {
+        if (isLoggable(WARN)) {
+            Log.w(tag, msg);
+        }
+    }
+
+    public static void w(String tag, String format, Object... args) {
+        if (isLoggable(WARN)) {
+            Log.w(tag, format(format, args));
+        }
+    }
+
+    public static void w(String tag, String msg, Throwable tr) {
+        if (isLoggable(WARN)) {
+            Log.w(tag, msg, tr);
+        }
+    }
+
+    public static void e(String tag, String msg) {
+        if (isLoggable(ERROR)) {
+            Log.e(tag, msg);
+        }
+    }
+
+    public static void e(String tag, String format, Object... args) {
+        if (isLoggable(ERROR)) {
+            Log.e(tag, format(format, args));
+        }
+    }
+
+    public static void e(String tag, String msg, Throwable tr) {
+        if (isLoggable(ERROR)) {
+            Log.e(tag, msg, tr);
+        }
+    }
+
+    /**
+     * Logs without level check, for callers that checked the level themselves
+     */
+    static void println(int priority, String tag, String msg) {
+        Log.println(priority, tag, msg);
+    }
+
+    private static String format(String format, Object... args) {
+        return String.format(Locale.ROOT, format, args);
+    }
+}
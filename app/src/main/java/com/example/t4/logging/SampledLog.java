@@ -0,0 +1,71 @@
+package com.example.t4.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Log for high rate traces: at most one message per interval, with the number of suppressed ones
+ *
+ * Check {@link #sample()} before building the message; a suppressed trace costs a level check,
+ * a clock read and a counter increment, without allocation:
+ * <pre>
+ * if (AppLog.VERBOSE_ENABLED &amp;&amp; trace.sample()) {
+ *     trace.log("Notification " + bytesToHex(data));
+ * }
+ * </pre>
+ * Thread safe.
+ */
+public final class SampledLog {
+
+    public static final long DEFAULT_INTERVAL_IN_MS = 1000;
+
+    private final String tag;
+    private final int priority;
+    private final long intervalInNs;
+    // the first trace is always logged
+    private final AtomicLong nextSampleAt = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicLong suppressed = new AtomicLong();
+
+    /**
+     * @param tag log tag
+     * @param priority level of the traces, one of AppLog.VERBOSE, DEBUG, INFO, WARN, ERROR
+     * @param intervalInMs minimum time between two logged traces
+     */
+    public SampledLog(String tag, int priority, long intervalInMs) {
+        this.tag = tag;
+        this.priority = priority;
+        this.intervalInNs = intervalInMs * 1_000_000;
+    }
+
+    /**
+     * @return true if the current trace is to be logged with {@link #log(String)}
+     */
+    public boolean sample() {
+        return AppLog.isLoggable(priority) && sample(System.nanoTime());
+    }
+
+    /**
+     * Logs the sampled trace, followed by the number of traces suppressed since the last one
+     *
+     * @param msg message
+     */
+    public void log(String msg) {
+        long count = suppressed.getAndSet(0);
+        AppLog.println(priority, tag, count > 0 ? msg + " (" + count + " suppressed)" : msg);
+    }
+
+    /**
+     * @return number of traces suppressed since the last logged one
+     */
+    public long getSuppressedCount() {
+        return suppressed.get();
+    }
+
+    boolean sample(long nowInNs) {
+        long next = nextSampleAt.get();
+        if ((next == Long.MIN_VALUE || nowInNs - next >= 0) && nextSampleAt.compareAndSet(next, nowInNs + intervalInNs)) {
+            return true;
+        }
+        suppressed.incrementAndGet();
+        return false;
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.t4.measurement;
+
+import java.util.Locale;
+
+/**
+ * Distance measurements triggered back to back by the app, result of GLMDeviceController.measureBurst()
+ *
+ * Every sample keeps its time of reception; samples rejected as outliers are kept as well, but not
+ * taken into account by the statistics.
+ */
+public final class BurstResult {
+
+    private final String deviceAddress;
+    private final String family;
+    private final float[] values;
+    private final long[] timestamps;
+    private final boolean[] outliers;
+    private final RunningStatistics statistics;
+    private final long durationInMs;
+
+    /**
+     * @param deviceAddress Bluetooth address of the measuring device
+     * @param family device family, e.g. GLM_120
+     * @param values measured distances in meter
+     * @param timestamps time of reception of every sample in ms, SystemClock.elapsedRealtime() base
+     * @param outliers true for every sample rejected by the statistics
+     * @param statistics statistics of the accepted samples
+     * @param durationInMs time from the start of the burst to the last sample
+     */
+    public BurstResult(String deviceAddress, String family, float[] values, long[] timestamps, boolean[] outliers,
+                       RunningStatistics statistics, long durationInMs) {
+        this.deviceAddress = deviceAddress;
+        this.family = family;
+        this.values = values;
+        this.timestamps = timestamps;
+        this.outliers = outliers;
+        this.statistics = statistics;
+        this.durationInMs = durationInMs;
+    }
+
+    public String getDeviceAddress() {
+        return deviceAddress;
+    }
+
+    public String getFamily() {
+        return family;
+    }
+
+    /**
+     * @return number of samples, outliers included
+     */
+    public int getCount() {
+        return values.length;
+    }
+
+    public float getValue(int index) {
+        return values[index];
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    public boolean isOutlier(int index) {
+        return outliers[index];
+    }
+
+    /**
+     * @return mean, standard deviation and rejected outliers; do not add samples
+     */
+    public RunningStatistics getStatistics() {
+        return statistics;
+    }
+
+    public long getDurationInMs() {
+        return durationInMs;
+    }
+
+    /**
+     * @return samples per second reached by the device
+     */
+    public double getSamplesPerSecond() {
+        return values.length * 1000.0 / Math.max(1, durationInMs);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "BurstResult [deviceAddress=%s, family=%s, samples=%d in %d ms (%.1f/s), %s]",
+                deviceAddress, family, values.length, durationInMs, getSamplesPerSecond(), statistics);
+    }
+}
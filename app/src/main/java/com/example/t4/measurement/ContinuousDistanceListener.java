@@ -0,0 +1,30 @@
+package com.example.t4.measurement;
+
+/**
+ * Receiver of continuous distance samples from a {@link ContinuousDistanceStream}
+ */
+public interface ContinuousDistanceListener {
+
+    /**
+     * Called for a single sample, in {@link ContinuousDistanceStream#DELIVERY_LATEST} and
+     * {@link ContinuousDistanceStream#DELIVERY_EVERY_SAMPLE} mode
+     *
+     * @param deviceAddress Bluetooth address of the measuring device
+     * @param value distance in meter
+     * @param timestamp time of reception in ms, SystemClock.elapsedRealtime() base
+     */
+    void onDistance(String deviceAddress, float value, long timestamp);
+
+    /**
+     * Called once per window in {@link ContinuousDistanceStream#DELIVERY_DECIMATED} mode
+     *
+     * @param deviceAddress Bluetooth address of the measuring device
+     * @param firstTimestamp reception time of the first sample in the window
+     * @param lastTimestamp reception time of the last sample in the window
+     * @param count number of samples in the window, at least 1
+     * @param min smallest distance in meter
+     * @param max largest distance in meter
+     * @param average average distance in meter
+     */
+    void onDistanceWindow(String deviceAddress, long firstTimestamp, long lastTimestamp, int count, float min, float max, float average);
+}
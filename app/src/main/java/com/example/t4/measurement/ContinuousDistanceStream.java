@@ -0,0 +1,250 @@
+package com.example.t4.measurement;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.bosch.mtprotocol.glm100C.message.edc.EDCInputMessage;
+
+/**
+ * Stream of the continuous distance samples of one device
+ *
+ * The stream subscribes directly on the publishing (protocol) thread and only copies the sample
+ * into a bounded buffer there; the listener is called on the thread of a Looper at the rate the
+ * consumer chose:
+ * <ul>
+ * <li>{@link #DELIVERY_LATEST}: only the newest sample, older ones not yet delivered are skipped</li>
+ * <li>{@link #DELIVERY_EVERY_SAMPLE}: all samples in order; a consumer falling behind by more than the
+ * buffer capacity loses the oldest samples, see {@link #getDroppedCount()}</li>
+ * <li>{@link #DELIVERY_DECIMATED}: min, max and average of all samples per time window</li>
+ * </ul>
+ * At most one delivery is pending on the Looper, so a slow consumer never backs up the publisher.
+ */
+public final class ContinuousDistanceStream implements MeasurementListener {
+
+    public static final int DELIVERY_LATEST = 0;
+    public static final int DELIVERY_EVERY_SAMPLE = 1;
+    public static final int DELIVERY_DECIMATED = 2;
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final MeasurementBus measurementBus;
+    private final String deviceAddress;
+    private final int delivery;
+    private final long windowInMs;
+    private final ContinuousDistanceListener listener;
+    private final Handler handler;
+
+    private final Object lock = new Object();
+    private final DistanceRingBuffer samples;
+    private boolean deliveryPending;
+    // set by stop(): a delivery already posted or running delivers nothing more
+    private volatile boolean stopped = true;
+
+    // DELIVERY_DECIMATED: aggregate of the current window
+    private int windowCount;
+    private float windowMin;
+    private float windowMax;
+    private double windowSum;
+    private long windowFirstTimestamp;
+    private long windowLastTimestamp;
+
+    // consumer side copies, used on the Looper thread only
+    private final float[] drainedValues;
+    private final long[] drainedTimestamps;
+
+    private final Runnable deliverRunnable = new Runnable() {
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+
+    private ContinuousDistanceStream(MeasurementBus measurementBus, String deviceAddress, int delivery, int capacity,
+                                     long windowInMs, ContinuousDistanceListener listener, Looper looper) {
+        this.measurementBus = measurementBus;
+        this.deviceAddress = deviceAddress;
+        this.delivery = delivery;
+        this.windowInMs = windowInMs;
+        this.listener = listener;
+        this.handler = new Handler(looper);
+        this.samples = new DistanceRingBuffer(capacity);
+        this.drainedValues = new float[capacity];
+        this.drainedTimestamps = new long[capacity];
+    }
+
+    /**
+     * Creates a stream delivering only the newest sample
+     *
+     * @param measurementBus bus the device controller publishes on
+     * @param deviceAddress Bluetooth address of the device
+     * @param listener listener to be called
+     * @param looper looper of the thread to deliver on, e.g. Looper.getMainLooper()
+     * @return stream, not yet started
+     */
+    public static ContinuousDistanceStream latest(MeasurementBus measurementBus, String deviceAddress,
+                                                  ContinuousDistanceListener listener, Looper looper) {
+        return new ContinuousDistanceStream(measurementBus, deviceAddress, DELIVERY_LATEST, 1, 0, listener, looper);
+    }
+
+    /**
+     * Creates a stream delivering every sample
+     *
+     * @param capacity samples buffered while the consumer is busy, e.g. {@link #DEFAULT_CAPACITY}
+     * @see #latest(MeasurementBus, String, ContinuousDistanceListener, Looper)
+     */
+    public static ContinuousDistanceStream everySample(MeasurementBus measurementBus, String deviceAddress, int capacity,
+                                                       ContinuousDistanceListener listener, Looper looper) {
+        return new ContinuousDistanceStream(measurementBus, deviceAddress, DELIVERY_EVERY_SAMPLE, capacity, 0, listener, looper);
+    }
+
+    /**
+     * Creates a stream delivering min, max and average per window.
+     * A window starts with its first sample, windows without samples are not delivered
+     *
+     * @param windowInMs length of a window
+     * @see #latest(MeasurementBus, String, ContinuousDistanceListener, Looper)
+     */
+    public static ContinuousDistanceStream decimated(MeasurementBus measurementBus, String deviceAddress, long windowInMs,
+                                                     ContinuousDistanceListener listener, Looper looper) {
+        if (windowInMs <= 0) {
+            throw new IllegalArgumentException("windowInMs <= 0: " + windowInMs);
+        }
+        return new ContinuousDistanceStream(measurementBus, deviceAddress, DELIVERY_DECIMATED, 1, windowInMs, listener, looper);
+    }
+
+    /**
+     * Subscribes the stream on the measurement bus
+     */
+    public void start() {
+        synchronized (lock) {
+            stopped = false;
+        }
+        measurementBus.subscribe(this);
+    }
+
+    /**
+     * Unsubscribes the stream; samples not yet delivered are discarded. Called on the Looper thread,
+     * no delivery follows; called on another thread, the sample being passed to the listener at the
+     * moment may still arrive
+     */
+    public void stop() {
+        measurementBus.unsubscribe(this);
+        synchronized (lock) {
+            stopped = true;
+            handler.removeCallbacks(deliverRunnable);
+            samples.clear();
+            windowCount = 0;
+            deliveryPending = false;
+        }
+    }
+
+    /**
+     * @return delivery mode, one of DELIVERY_*
+     */
+    public int getDelivery() {
+        return delivery;
+    }
+
+    /**
+     * @return number of samples not delivered, because the consumer did not keep up.
+     * Skipped samples in {@link #DELIVERY_LATEST} mode are not counted
+     */
+    public long getDroppedCount() {
+        synchronized (lock) {
+            return delivery == DELIVERY_EVERY_SAMPLE ? samples.getOverwrittenCount() : 0;
+        }
+    }
+
+    /**
+     * Called on the publishing thread, copies the sample and schedules its delivery
+     */
+    @Override
+    public void onMeasurement(String deviceAddress, int type, int mode, float value, long timestamp) {
+        if (type != MeasurementBus.TYPE_DISTANCE || mode != EDCInputMessage.MODE_CONTINUOUS_DISTANCE
+                || !this.deviceAddress.equals(deviceAddress)) {
+            return;
+        }
+        boolean schedule;
+        synchronized (lock) {
+            if (stopped) {
+                return; // published concurrently to stop()
+            }
+            if (delivery == DELIVERY_DECIMATED) {
+                addToWindow(value, timestamp);
+            } else {
+                samples.add(value, timestamp);
+            }
+            schedule = !deliveryPending;
+            deliveryPending = true;
+        }
+        if (schedule) {
+            if (delivery == DELIVERY_DECIMATED) {
+                handler.postDelayed(deliverRunnable, windowInMs);
+            } else {
+                handler.post(deliverRunnable);
+            }
+        }
+    }
+
+    // ##### Helper & private methods #####
+
+    private void addToWindow(float value, long timestamp) {
+        if (windowCount == 0) {
+            windowMin = value;
+            windowMax = value;
+            windowSum = 0;
+            windowFirstTimestamp = timestamp;
+        } else {
+            windowMin = Math.min(windowMin, value);
+            windowMax = Math.max(windowMax, value);
+        }
+        windowSum += value;
+        windowLastTimestamp = timestamp;
+        windowCount++;
+    }
+
+    private void deliver() {
+        if (delivery == DELIVERY_DECIMATED) {
+            int count;
+            float min;
+            float max;
+            float average;
+            long first;
+            long last;
+            synchronized (lock) {
+                deliveryPending = false;
+                count = windowCount;
+                if (stopped || count == 0) {
+                    return;
+                }
+                min = windowMin;
+                max = windowMax;
+                average = (float) (windowSum / count);
+                first = windowFirstTimestamp;
+                last = windowLastTimestamp;
+                windowCount = 0;
+            }
+            listener.onDistanceWindow(deviceAddress, first, last, count, min, max, average);
+            return;
+        }
+
+        int count;
+        synchronized (lock) {
+            deliveryPending = false;
+            if (stopped) {
+                return;
+            }
+            count = samples.drainTo(drainedValues, drainedTimestamps);
+        }
+        if (count == 0) {
+            return;
+        }
+        if (delivery == DELIVERY_LATEST) {
+            listener.onDistance(deviceAddress, drainedValues[count - 1], drainedTimestamps[count - 1]);
+        } else {
+            for (int i = 0; i < count && !stopped; i++) { // the listener may stop the stream
+                listener.onDistance(deviceAddress, drainedValues[i], drainedTimestamps[i]);
+            }
+        }
+    }
+}
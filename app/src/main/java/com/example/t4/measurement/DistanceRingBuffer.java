@@ -0,0 +1,79 @@
+package com.example.t4.measurement;
+
+/**
+ * Bounded ring of distance samples
+ *
+ * When full, the oldest sample is overwritten, so the producer never waits for the consumer.
+ * Not thread safe, guarded by the owning {@link ContinuousDistanceStream}.
+ */
+final class DistanceRingBuffer {
+
+    private final float[] values;
+    private final long[] timestamps;
+    private int head; // index of the oldest sample
+    private int size;
+    private long overwrittenCount;
+
+    DistanceRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity < 1: " + capacity);
+        }
+        values = new float[capacity];
+        timestamps = new long[capacity];
+    }
+
+    /**
+     * Adds a sample, overwrites the oldest one if full
+     */
+    void add(float value, long timestamp) {
+        int index;
+        if (size == values.length) {
+            index = head;
+            head = (head + 1) % values.length;
+            overwrittenCount++;
+        } else {
+            index = (head + size) % values.length;
+            size++;
+        }
+        values[index] = value;
+        timestamps[index] = timestamp;
+    }
+
+    /**
+     * Moves all samples, oldest first, into the arrays
+     *
+     * @param valuesOut receives the values, at least {@link #capacity()} long
+     * @param timestampsOut receives the timestamps, at least {@link #capacity()} long
+     * @return number of samples moved
+     */
+    int drainTo(float[] valuesOut, long[] timestampsOut) {
+        int count = size;
+        for (int i = 0; i < count; i++) {
+            int index = (head + i) % values.length;
+            valuesOut[i] = values[index];
+            timestampsOut[i] = timestamps[index];
+        }
+        clear();
+        return count;
+    }
+
+    void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return values.length;
+    }
+
+    /**
+     * @return number of samples lost, because the consumer did not drain in time
+     */
+    long getOverwrittenCount() {
+        return overwrittenCount;
+    }
+}
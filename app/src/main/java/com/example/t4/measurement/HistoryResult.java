@@ -0,0 +1,61 @@
+package com.example.t4.measurement;
+
+/**
+ * Summary of a download of the measurement list stored on a device, result of GLMDeviceController.downloadHistory()
+ */
+public final class HistoryResult {
+
+    private final String deviceAddress;
+    private final int startIndex;
+    private final int received;
+    private final int imported;
+    private final long durationInMs;
+
+    /**
+     * @param deviceAddress Bluetooth address of the device
+     * @param startIndex list index the download started at; greater than 0 if an interrupted download was resumed
+     * @param received records received from the device
+     * @param imported records stored; the others were imported before or are no distance measurements
+     * @param durationInMs duration of the download
+     */
+    public HistoryResult(String deviceAddress, int startIndex, int received, int imported, long durationInMs) {
+        this.deviceAddress = deviceAddress;
+        this.startIndex = startIndex;
+        this.received = received;
+        this.imported = imported;
+        this.durationInMs = durationInMs;
+    }
+
+    public String getDeviceAddress() {
+        return deviceAddress;
+    }
+
+    public int getStartIndex() {
+        return startIndex;
+    }
+
+    public int getReceived() {
+        return received;
+    }
+
+    public int getImported() {
+        return imported;
+    }
+
+    /**
+     * @return records received but not stored
+     */
+    public int getSkipped() {
+        return received - imported;
+    }
+
+    public long getDurationInMs() {
+        return durationInMs;
+    }
+
+    @Override
+    public String toString() {
+        return "HistoryResult [deviceAddress=" + deviceAddress + ", startIndex=" + startIndex + ", received=" + received
+                + ", imported=" + imported + ", durationInMs=" + durationInMs + "]";
+    }
+}
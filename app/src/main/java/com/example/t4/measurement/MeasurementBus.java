@@ -0,0 +1,152 @@
+package com.example.t4.measurement;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * In-process publish/subscribe bus for measurements
+ *
+ * Replaces the system broadcasts for measurement data inside the app. Subscribers are kept in a
+ * copy-on-write array swapped by compare-and-set, so publishing takes no lock and iterates a
+ * stable snapshot. Every subscriber chooses where it is called: directly on the publishing thread,
+ * on an executor or on the thread of a Looper.
+ */
+public final class MeasurementBus {
+
+    public static final int TYPE_DISTANCE = 1;
+    public static final int TYPE_TEMPERATURE = 2;
+
+    private static final Subscription[] NO_SUBSCRIPTIONS = new Subscription[0];
+
+    private static final MeasurementBus DEFAULT = new MeasurementBus();
+
+    private final AtomicReference<Subscription[]> subscriptions = new AtomicReference<>(NO_SUBSCRIPTIONS);
+
+    /**
+     * @return bus shared by the app
+     */
+    public static MeasurementBus getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Subscribe for measurements, called on the publishing thread
+     *
+     * @param listener listener to be called
+     */
+    public void subscribe(MeasurementListener listener) {
+        subscribe(listener, (Executor) null);
+    }
+
+    /**
+     * Subscribe for measurements, called on the thread of the looper
+     *
+     * @param listener listener to be called
+     * @param looper looper of the thread to deliver on, e.g. Looper.getMainLooper()
+     */
+    public void subscribe(MeasurementListener listener, Looper looper) {
+        final Handler handler = new Handler(looper);
+        subscribe(listener, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        });
+    }
+
+    /**
+     * Subscribe for measurements, called on the executor
+     *
+     * @param listener listener to be called
+     * @param executor executor to deliver on; null to call the listener on the publishing thread
+     */
+    public void subscribe(MeasurementListener listener, Executor executor) {
+        Subscription subscription = new Subscription(listener, executor);
+        Subscription[] current;
+        Subscription[] updated;
+        do {
+            current = subscriptions.get();
+            if (indexOf(current, listener) >= 0) {
+                return; // already subscribed
+            }
+            updated = new Subscription[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = subscription;
+        } while (!subscriptions.compareAndSet(current, updated));
+    }
+
+    /**
+     * @param listener listener to be removed; measurements already handed to its executor are still delivered
+     */
+    public void unsubscribe(MeasurementListener listener) {
+        Subscription[] current;
+        Subscription[] updated;
+        do {
+            current = subscriptions.get();
+            int index = indexOf(current, listener);
+            if (index < 0) {
+                return;
+            }
+            if (current.length == 1) {
+                updated = NO_SUBSCRIPTIONS;
+            } else {
+                updated = new Subscription[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, index);
+                System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+            }
+        } while (!subscriptions.compareAndSet(current, updated));
+    }
+
+    /**
+     * @return true if at least one listener is subscribed
+     */
+    public boolean hasSubscribers() {
+        return subscriptions.get().length > 0;
+    }
+
+    /**
+     * Publishes a measurement to all subscribed listeners
+     *
+     * @see MeasurementListener#onMeasurement(String, int, int, float, long)
+     */
+    public void publish(String deviceAddress, int type, int mode, float value, long timestamp) {
+        for (Subscription subscription : subscriptions.get()) {
+            subscription.deliver(deviceAddress, type, mode, value, timestamp);
+        }
+    }
+
+    private static int indexOf(Subscription[] subscriptions, MeasurementListener listener) {
+        for (int i = 0; i < subscriptions.length; i++) {
+            if (subscriptions[i].listener == listener) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static final class Subscription {
+        private final MeasurementListener listener;
+        private final Executor executor;
+
+        private Subscription(MeasurementListener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+
+        private void deliver(final String deviceAddress, final int type, final int mode, final float value, final long timestamp) {
+            if (executor == null) {
+                listener.onMeasurement(deviceAddress, type, mode, value, timestamp);
+                return;
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onMeasurement(deviceAddress, type, mode, value, timestamp);
+                }
+            });
+        }
+    }
+}
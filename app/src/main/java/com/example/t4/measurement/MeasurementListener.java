@@ -0,0 +1,20 @@
+package com.example.t4.measurement;
+
+/**
+ * Receiver of measurements published on the {@link MeasurementBus}
+ *
+ * The measurement is passed as primitive values, so publishing does not allocate on direct delivery.
+ */
+public interface MeasurementListener {
+
+    /**
+     * Called for every measurement received from a connected device
+     *
+     * @param deviceAddress Bluetooth address of the measuring device
+     * @param type measurement type, one of {@link MeasurementBus#TYPE_DISTANCE}, {@link MeasurementBus#TYPE_TEMPERATURE}
+     * @param mode measurement mode reported by the device (e.g. EDCInputMessage.MODE_CONTINUOUS_DISTANCE)
+     * @param value measured value in meter (distance) or degree Celsius (temperature)
+     * @param timestamp time of reception in ms, SystemClock.elapsedRealtime() base
+     */
+    void onMeasurement(String deviceAddress, int type, int mode, float value, long timestamp);
+}
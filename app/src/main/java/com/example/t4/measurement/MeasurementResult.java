@@ -0,0 +1,57 @@
+package com.example.t4.measurement;
+
+/**
+ * Measurement requested by the app, result of GLMDeviceController.measureOnce()
+ *
+ * Carries the values a {@link MeasurementListener} receives; the measurement is published on the
+ * {@link MeasurementBus} as well.
+ */
+public final class MeasurementResult {
+
+    private final String deviceAddress;
+    private final int type;
+    private final int mode;
+    private final float value;
+    private final long timestamp;
+
+    /**
+     * @param deviceAddress Bluetooth address of the measuring device
+     * @param type measurement type, one of MeasurementBus.TYPE_*
+     * @param mode measurement mode reported by the device
+     * @param value measured value in meter (distance) or degree Celsius (temperature)
+     * @param timestamp time of reception in ms, SystemClock.elapsedRealtime() base
+     */
+    public MeasurementResult(String deviceAddress, int type, int mode, float value, long timestamp) {
+        this.deviceAddress = deviceAddress;
+        this.type = type;
+        this.mode = mode;
+        this.value = value;
+        this.timestamp = timestamp;
+    }
+
+    public String getDeviceAddress() {
+        return deviceAddress;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    public float getValue() {
+        return value;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "MeasurementResult [deviceAddress=" + deviceAddress + ", type=" + type + ", mode=" + mode
+                + ", value=" + value + ", timestamp=" + timestamp + "]";
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.t4.measurement;
+
+import java.util.Locale;
+
+/**
+ * Mean and standard deviation of a series of samples, updated with every sample (Welford's method)
+ *
+ * Optionally rejects outliers as they arrive: once enough samples are collected, a sample further
+ * from the mean than the threshold times the standard deviation is not taken into account. The
+ * tolerance is the smallest deviation ever rejected, so identical samples (stdev 0) do not reject
+ * the next sample off by the resolution of the device.
+ *
+ * Not thread safe.
+ */
+public final class RunningStatistics {
+
+    private final double outlierThreshold;
+    private final int minSamplesForRejection;
+    private final double tolerance;
+
+    private long count;
+    private double mean;
+    // sum of squared differences from the mean
+    private double m2;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+    private long rejected;
+
+    /**
+     * Statistics without outlier rejection
+     */
+    public RunningStatistics() {
+        this(0, 0, 0);
+    }
+
+    /**
+     * @param outlierThreshold distance from the mean in standard deviations, above which a sample is rejected; 0 to reject none
+     * @param minSamplesForRejection samples accepted before rejection starts
+     * @param tolerance deviation from the mean always accepted, e.g. the resolution of the device
+     */
+    public RunningStatistics(double outlierThreshold, int minSamplesForRejection, double tolerance) {
+        if (outlierThreshold < 0 || minSamplesForRejection < 0 || tolerance < 0) {
+            throw new IllegalArgumentException("negative parameter: " + outlierThreshold + ", " + minSamplesForRejection + ", " + tolerance);
+        }
+        this.outlierThreshold = outlierThreshold;
+        this.minSamplesForRejection = minSamplesForRejection;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * @param value sample
+     * @return true if taken into account, false if rejected as outlier
+     */
+    public boolean add(double value) {
+        if (isOutlier(value)) {
+            rejected++;
+            return false;
+        }
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+        if (count == 1) {
+            min = value;
+            max = value;
+        } else {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        return true;
+    }
+
+    /**
+     * @return samples taken into account
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return samples rejected as outliers
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return mean of the accepted samples; 0 if none
+     */
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * @return sample variance of the accepted samples; 0 for less than two samples
+     */
+    public double getVariance() {
+        return count > 1 ? m2 / (count - 1) : 0;
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * @return smallest accepted sample; NaN if none
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * @return largest accepted sample; NaN if none
+     */
+    public double getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "n=%d, mean=%.4f, stdev=%.4f, min=%.4f, max=%.4f, rejected=%d",
+                count, mean, getStandardDeviation(), min, max, rejected);
+    }
+
+    // ##### Helper & private methods #####
+
+    private boolean isOutlier(double value) {
+        if (outlierThreshold <= 0 || count < minSamplesForRejection) {
+            return false;
+        }
+        double deviation = Math.abs(value - mean);
+        return deviation > tolerance && deviation > outlierThreshold * getStandardDeviation();
+    }
+}
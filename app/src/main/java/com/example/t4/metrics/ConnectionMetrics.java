@@ -0,0 +1,244 @@
+package com.example.t4.metrics;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and counters of the connection to one device, kept over all reconnects
+ *
+ * Recorded on the hot path of the Bluetooth callbacks and the MT protocol, so all methods are
+ * lock free and allocation free.
+ */
+public final class ConnectionMetrics {
+
+    private final String deviceAddress;
+
+    private final LatencyHistogram connectTime = new LatencyHistogram();
+    private final LatencyHistogram reconnectTime = new LatencyHistogram();
+    private final LatencyHistogram serviceDiscoveryTime = new LatencyHistogram();
+    private final LatencyHistogram roundTripTime = new LatencyHistogram();
+
+    private final LongAdder connects = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+    private final LongAdder retries133 = new LongAdder();
+    private final LongAdder reconnectsGivenUp = new LongAdder();
+    private final LongAdder protocolTimeouts = new LongAdder();
+    private final LongAdder notifications = new LongAdder();
+    private final LongAdder notificationBytes = new LongAdder();
+    private final LongAdder notificationBytesCopied = new LongAdder();
+    private final RateMeter notificationRate = new RateMeter(RateMeter.DEFAULT_WINDOW_IN_MS);
+    private final LongAdder bursts = new LongAdder();
+    // written by one burst at a time
+    private volatile double lastBurstRate;
+    private volatile double bestBurstRate;
+
+    /**
+     * @param deviceAddress Bluetooth address of the device; null if not known (e.g. simulated devices)
+     */
+    public ConnectionMetrics(String deviceAddress) {
+        this.deviceAddress = deviceAddress;
+    }
+
+    public String getDeviceAddress() {
+        return deviceAddress;
+    }
+
+    /**
+     * @param startInNs System.nanoTime() of openConnection()
+     */
+    public void recordConnected(long startInNs) {
+        connects.increment();
+        connectTime.recordSince(startInNs);
+    }
+
+    /**
+     * @param startInNs System.nanoTime() of the lost link, reconnected without service discovery
+     */
+    public void recordReconnected(long startInNs) {
+        reconnectTime.recordSince(startInNs);
+    }
+
+    /**
+     * Connect attempt given up, e.g. timeout or GATT error
+     */
+    public void recordConnectFailure() {
+        connectFailures.increment();
+    }
+
+    /**
+     * Connect retried after GATT error 133
+     */
+    public void recordRetry133() {
+        retries133.increment();
+    }
+
+    /**
+     * Device given up after the maximum number of failed connect attempts in a row
+     */
+    public void recordReconnectGivenUp() {
+        reconnectsGivenUp.increment();
+    }
+
+    /**
+     * @param startInNs System.nanoTime() of the discoverServices() call
+     */
+    public void recordServicesDiscovered(long startInNs) {
+        serviceDiscoveryTime.recordSince(startInNs);
+    }
+
+    /**
+     * @param startInNs System.nanoTime() of the sent request
+     */
+    public void recordRoundTrip(long startInNs) {
+        roundTripTime.recordSince(startInNs);
+    }
+
+    /**
+     * Request of the MT protocol not answered within the protocol timeout
+     */
+    public void recordProtocolTimeout() {
+        protocolTimeouts.increment();
+    }
+
+    /**
+     * @param bytes length of the received notification
+     */
+    public void recordNotification(int bytes) {
+        notifications.increment();
+        notificationBytes.add(bytes);
+        notificationRate.record(1, System.nanoTime() / 1_000_000);
+    }
+
+    /**
+     * Notification payload copied on the way to the MT protocol, e.g. into a broadcast or a trace line
+     *
+     * @param bytes number of bytes copied
+     */
+    public void recordNotificationCopy(int bytes) {
+        notificationBytesCopied.add(bytes);
+    }
+
+    /**
+     * @param samplesPerSecond throughput of a completed burst of measurements
+     */
+    public void recordBurst(double samplesPerSecond) {
+        bursts.increment();
+        lastBurstRate = samplesPerSecond;
+        if (samplesPerSecond > bestBurstRate) {
+            bestBurstRate = samplesPerSecond;
+        }
+    }
+
+    /**
+     * @return time from openConnection() to STATE_CONNECTED
+     */
+    public LatencyHistogram getConnectTime() {
+        return connectTime;
+    }
+
+    /**
+     * @return time from a lost link to STATE_CONNECTED again, for fast reconnects without service discovery
+     */
+    public LatencyHistogram getReconnectTime() {
+        return reconnectTime;
+    }
+
+    /**
+     * @return time from discoverServices() to onServicesDiscovered()
+     */
+    public LatencyHistogram getServiceDiscoveryTime() {
+        return serviceDiscoveryTime;
+    }
+
+    /**
+     * @return time from sending an MT request to receiving its response
+     */
+    public LatencyHistogram getRoundTripTime() {
+        return roundTripTime;
+    }
+
+    public long getConnects() {
+        return connects.sum();
+    }
+
+    public long getConnectFailures() {
+        return connectFailures.sum();
+    }
+
+    public long getRetries133() {
+        return retries133.sum();
+    }
+
+    public long getReconnectsGivenUp() {
+        return reconnectsGivenUp.sum();
+    }
+
+    public long getProtocolTimeouts() {
+        return protocolTimeouts.sum();
+    }
+
+    public long getNotifications() {
+        return notifications.sum();
+    }
+
+    public long getNotificationBytes() {
+        return notificationBytes.sum();
+    }
+
+    public long getNotificationBytesCopied() {
+        return notificationBytesCopied.sum();
+    }
+
+    /**
+     * @return bytes copied per received notification; 0 on the zero copy path
+     */
+    public double getBytesCopiedPerNotification() {
+        long count = getNotifications();
+        return count > 0 ? (double) getNotificationBytesCopied() / count : 0;
+    }
+
+    public long getBursts() {
+        return bursts.sum();
+    }
+
+    /**
+     * @return samples per second of the last completed burst; 0 if none
+     */
+    public double getLastBurstSamplesPerSecond() {
+        return lastBurstRate;
+    }
+
+    /**
+     * @return highest samples per second of all completed bursts; 0 if none
+     */
+    public double getBestBurstSamplesPerSecond() {
+        return bestBurstRate;
+    }
+
+    /**
+     * @return notifications per second, averaged over the last {@value RateMeter#DEFAULT_WINDOW_IN_MS} ms
+     */
+    public double getNotificationsPerSecond() {
+        return notificationRate.getRatePerSecond(System.nanoTime() / 1_000_000);
+    }
+
+    /**
+     * Prints all metrics, one per line
+     *
+     * @param writer writer to print to
+     * @param prefix prefix of every line, e.g. indentation
+     */
+    public void dump(PrintWriter writer, String prefix) {
+        writer.println(prefix + "connect: " + connectTime);
+        writer.println(prefix + "fast reconnect: " + reconnectTime);
+        writer.println(prefix + "service discovery: " + serviceDiscoveryTime);
+        writer.println(prefix + "round trip: " + roundTripTime);
+        writer.println(String.format(Locale.ROOT, "%sconnects=%d, connect failures=%d, retries 133=%d, given up=%d, protocol timeouts=%d",
+                prefix, getConnects(), getConnectFailures(), getRetries133(), getReconnectsGivenUp(), getProtocolTimeouts()));
+        writer.println(String.format(Locale.ROOT, "%snotifications=%d (%d bytes, %.1f copied per notification), %.1f/s",
+                prefix, getNotifications(), getNotificationBytes(), getBytesCopiedPerNotification(), getNotificationsPerSecond()));
+        writer.println(String.format(Locale.ROOT, "%sbursts=%d, last %.1f samples/s, best %.1f samples/s",
+                prefix, getBursts(), getLastBurstSamplesPerSecond(), getBestBurstSamplesPerSecond()));
+    }
+}
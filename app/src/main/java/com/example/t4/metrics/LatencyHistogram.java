@@ -0,0 +1,138 @@
+package com.example.t4.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with log-linear buckets, like an HDR histogram with fixed precision
+ *
+ * Every power of two is split into {@value #SUB_BUCKET_COUNT} linear buckets, so a percentile is
+ * reported with a relative error below 1/{@value #SUB_BUCKET_COUNT}. Values are latencies in us;
+ * values above 2^{@value #MAX_EXPONENT} us are counted in the last bucket.
+ *
+ * Lock free: recording is safe from any thread and never blocks. A read concurrent to recording
+ * may miss the latest values.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray((MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param latencyInUs latency in us, negative values are recorded as 0
+     */
+    public void record(long latencyInUs) {
+        long value = Math.min(Math.max(0, latencyInUs), MAX_VALUE);
+        counts.incrementAndGet(indexOf(value));
+        count.increment();
+        sum.add(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @param startInNs start of the measured interval, from System.nanoTime()
+     */
+    public void recordSince(long startInNs) {
+        record((System.nanoTime() - startInNs) / 1000);
+    }
+
+    /**
+     * @return number of recorded values
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return average in us; 0 if empty
+     */
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * @return largest recorded value in us
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile 0..100, e.g. 99 for the 99th percentile
+     * @return upper bound in us of the bucket holding the percentile; 0 if empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Removes all values. Values recorded concurrently may be partly kept
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    /**
+     * @return count, mean, 50th, 90th and 99th percentile and max in ms
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "n=%d, mean=%.2fms, p50=%.2fms, p90=%.2fms, p99=%.2fms, max=%.2fms",
+                getCount(), getMean() / 1000, getValueAtPercentile(50) / 1000.0, getValueAtPercentile(90) / 1000.0,
+                getValueAtPercentile(99) / 1000.0, getMax() / 1000.0);
+    }
+
+    // ##### Helper & private methods #####
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) (value >> shift) - SUB_BUCKET_COUNT;
+    }
+
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long lowest = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
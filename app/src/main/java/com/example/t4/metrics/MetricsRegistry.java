@@ -0,0 +1,65 @@
+package com.example.t4.metrics;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Connection metrics of all devices, keyed by Bluetooth address
+ *
+ * Metrics of a device are kept while the app runs, so they cover all its reconnects.
+ */
+public final class MetricsRegistry {
+
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private final Map<String, ConnectionMetrics> connections = new ConcurrentHashMap<>();
+
+    /**
+     * @return registry shared by the app
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param deviceAddress Bluetooth address of the device; null for connections without a device
+     * @return metrics of the device, created on first use. Metrics of a null address are not registered
+     */
+    public ConnectionMetrics getConnectionMetrics(String deviceAddress) {
+        if (deviceAddress == null) {
+            return new ConnectionMetrics(null);
+        }
+        ConnectionMetrics metrics = connections.get(deviceAddress);
+        if (metrics == null) {
+            ConnectionMetrics created = new ConnectionMetrics(deviceAddress);
+            metrics = connections.putIfAbsent(deviceAddress, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @return metrics of all devices
+     */
+    public List<ConnectionMetrics> getAllConnectionMetrics() {
+        return new ArrayList<>(connections.values());
+    }
+
+    /**
+     * Prints the metrics of all devices
+     *
+     * @param writer writer to print to
+     * @param prefix prefix of every line, e.g. indentation
+     */
+    public void dump(PrintWriter writer, String prefix) {
+        for (ConnectionMetrics metrics : connections.values()) {
+            writer.println(prefix + metrics.getDeviceAddress() + ":");
+            metrics.dump(writer, prefix + "  ");
+        }
+    }
+}
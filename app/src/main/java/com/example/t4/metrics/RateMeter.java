@@ -0,0 +1,60 @@
+package com.example.t4.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Measures a rate, e.g. events or bytes per second, over a sliding window of fixed time buckets
+ *
+ * Lock free. Amounts recorded concurrently to the start of a new bucket may be lost, so the rate is
+ * approximate under contention; sufficient for the traffic of one connection.
+ */
+public final class RateMeter {
+
+    public static final long DEFAULT_WINDOW_IN_MS = 2000;
+
+    private static final int BUCKETS = 8;
+
+    private final long bucketInMs;
+    private final AtomicLongArray bucketIds = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray bucketAmounts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * @param windowInMs length of the sliding window
+     */
+    public RateMeter(long windowInMs) {
+        this.bucketInMs = Math.max(1, windowInMs / BUCKETS);
+        for (int i = 0; i < BUCKETS; i++) {
+            bucketIds.set(i, -1);
+        }
+    }
+
+    /**
+     * @param amount e.g. 1 for an event or the number of transferred bytes
+     * @param nowInMs current time in ms, from a monotonic clock
+     */
+    public void record(long amount, long nowInMs) {
+        long id = Math.floorDiv(nowInMs, bucketInMs);
+        int index = (int) Math.floorMod(id, (long) BUCKETS);
+        long seen = bucketIds.get(index);
+        if (seen != id && bucketIds.compareAndSet(index, seen, id)) {
+            bucketAmounts.set(index, 0);
+        }
+        bucketAmounts.addAndGet(index, amount);
+    }
+
+    /**
+     * @param nowInMs current time in ms, from the clock passed to record()
+     * @return recorded amount per second within the sliding window
+     */
+    public double getRatePerSecond(long nowInMs) {
+        long id = Math.floorDiv(nowInMs, bucketInMs);
+        long amount = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long bucketId = bucketIds.get(i);
+            if (bucketId > id - BUCKETS && bucketId <= id) {
+                amount += bucketAmounts.get(i);
+            }
+        }
+        return amount * 1000.0 / (bucketInMs * BUCKETS);
+    }
+}
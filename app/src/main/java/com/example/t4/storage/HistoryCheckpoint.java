@@ -0,0 +1,37 @@
+package com.example.t4.storage;
+
+import java.util.Set;
+
+/**
+ * Stored progress of the history download of one device: where to resume and what to skip
+ */
+public final class HistoryCheckpoint {
+
+    private final int nextIndex;
+    private final Set<Long> keys;
+
+    /**
+     * @param nextIndex list index to resume the download at; 0 to start from the beginning
+     * @param keys keys of all {@link HistoryRecord}s imported from the device
+     */
+    public HistoryCheckpoint(int nextIndex, Set<Long> keys) {
+        this.nextIndex = nextIndex;
+        this.keys = keys;
+    }
+
+    public int getNextIndex() {
+        return nextIndex;
+    }
+
+    /**
+     * @return keys of the imported records, modifiable
+     */
+    public Set<Long> getKeys() {
+        return keys;
+    }
+
+    @Override
+    public String toString() {
+        return "HistoryCheckpoint [nextIndex=" + nextIndex + ", keys=" + keys.size() + "]";
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.t4.storage;
+
+/**
+ * Measurement of the list stored on a device, imported by a history download
+ *
+ * The key identifies the record on its device, e.g. device timestamp and value, so a record
+ * downloaded twice is imported once only. The device timestamp comes from the clock of the device,
+ * with an origin that is not known to the app: it orders the records of one device, it is no wall
+ * clock time. History records are therefore stored apart from the received measurements.
+ */
+public final class HistoryRecord {
+
+    private final long key;
+    private final int deviceTimestamp;
+    private final int type;
+    private final int mode;
+    private final int unit;
+    private final float value;
+
+    /**
+     * @param key identifies the record among all records of the device
+     * @param deviceTimestamp time of the measurement on the clock of the device
+     * @param type measurement type, see MeasurementBus.TYPE_*
+     * @param mode measurement mode reported by the device
+     * @param unit unit of the value, see MeasurementStore.UNIT_*
+     * @param value measured value
+     */
+    public HistoryRecord(long key, int deviceTimestamp, int type, int mode, int unit, float value) {
+        this.key = key;
+        this.deviceTimestamp = deviceTimestamp;
+        this.type = type;
+        this.mode = mode;
+        this.unit = unit;
+        this.value = value;
+    }
+
+    public long getKey() {
+        return key;
+    }
+
+    public int getDeviceTimestamp() {
+        return deviceTimestamp;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    public int getUnit() {
+        return unit;
+    }
+
+    public float getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "HistoryRecord [key=" + key + ", deviceTimestamp=" + deviceTimestamp + ", type=" + type + ", mode=" + mode + ", unit=" + unit + ", value=" + value + "]";
+    }
+}
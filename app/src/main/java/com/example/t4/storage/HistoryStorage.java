@@ -0,0 +1,28 @@
+package com.example.t4.storage;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Destination of history downloads, implemented by {@link MeasurementStore}
+ *
+ * Neither method may block on I/O: both are called on the protocol threads.
+ */
+public interface HistoryStorage {
+
+    /**
+     * @param deviceAddress Bluetooth address of the device
+     * @return completed with where the download resumes and which records it skips
+     */
+    CompletableFuture<HistoryCheckpoint> readHistoryCheckpoint(String deviceAddress);
+
+    /**
+     * Stores a page of the download, with the index to resume at
+     *
+     * @param deviceAddress Bluetooth address of the device
+     * @param records records not imported before
+     * @param nextIndex list index to resume the download at; 0 if complete
+     * @return false if the page cannot be stored; the download stops
+     */
+    boolean importHistory(String deviceAddress, List<HistoryRecord> records, int nextIndex);
+}
@@ -0,0 +1,77 @@
+package com.example.t4.storage;
+
+/**
+ * Stored measurement, as returned by queries of the {@link MeasurementStore}
+ */
+public final class Measurement {
+
+    private final long sequence;
+    private final String deviceAddress;
+    private final long timestamp;
+    private final int type;
+    private final int mode;
+    private final int unit;
+    private final float value;
+
+    Measurement(long sequence, String deviceAddress, long timestamp, int type, int mode, int unit, float value) {
+        this.sequence = sequence;
+        this.deviceAddress = deviceAddress;
+        this.timestamp = timestamp;
+        this.type = type;
+        this.mode = mode;
+        this.unit = unit;
+        this.value = value;
+    }
+
+    /**
+     * @return number of the measurement, increasing in order of reception
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return Bluetooth address of the measuring device
+     */
+    public String getDeviceAddress() {
+        return deviceAddress;
+    }
+
+    /**
+     * @return time of reception in ms since epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return measurement type, see MeasurementBus.TYPE_*
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return measurement mode reported by the device
+     */
+    public int getMode() {
+        return mode;
+    }
+
+    /**
+     * @return unit of the value, see MeasurementStore.UNIT_*
+     */
+    public int getUnit() {
+        return unit;
+    }
+
+    public float getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "Measurement [sequence=" + sequence + ", deviceAddress=" + deviceAddress + ", timestamp=" + timestamp
+                + ", type=" + type + ", mode=" + mode + ", unit=" + unit + ", value=" + value + "]";
+    }
+}
@@ -0,0 +1,312 @@
+package com.example.t4.storage;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.t4.GLMDevice;
+import com.example.t4.bluetooth.BluetoothUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Indexed store of the compacted measurement log
+ *
+ * Tables: devices ({@link GLMDevice}) and measurements, indexed by device and time.
+ * Version 2 remembers family and link parameters of connected devices, for the reconnect without scan.
+ * Version 3 keeps the history downloads: the next list index and the imported records with their device
+ * timestamp, apart from the measurements.
+ */
+final class MeasurementDatabase extends SQLiteOpenHelper {
+
+    private static final String DATABASE_NAME = "measurements.db";
+    private static final int DATABASE_VERSION = 3;
+
+    // records per transaction during compaction
+    private static final int BATCH_SIZE = 512;
+
+    private static final String DEVICE_COLUMNS = "id, name, mac_address, first_seen, family, last_connected, mtu, write_no_response";
+
+    private static final String INSERT_MEASUREMENT = "INSERT OR IGNORE INTO measurements (seq, device_id, timestamp, type, mode, unit, value) VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String INSERT_HISTORY_RECORD = "INSERT OR IGNORE INTO history_records (device_id, record_key, device_timestamp, imported_at, type, mode, unit, value)"
+            + " VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // device address -> row id
+    private final Map<Long, Long> deviceIds = new HashMap<>();
+
+    MeasurementDatabase(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE devices (id INTEGER PRIMARY KEY AUTOINCREMENT, mac_address TEXT NOT NULL UNIQUE, name TEXT, first_seen INTEGER NOT NULL,"
+                + " family TEXT, last_connected INTEGER, mtu INTEGER, write_no_response INTEGER)");
+        db.execSQL("CREATE TABLE measurements (seq INTEGER PRIMARY KEY, device_id INTEGER NOT NULL REFERENCES devices(id), timestamp INTEGER NOT NULL, type INTEGER NOT NULL, mode INTEGER NOT NULL, unit INTEGER NOT NULL, value REAL NOT NULL)");
+        db.execSQL("CREATE INDEX measurements_device_time ON measurements (device_id, timestamp)");
+        db.execSQL("CREATE INDEX measurements_time ON measurements (timestamp)");
+        createHistoryTables(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            db.execSQL("ALTER TABLE devices ADD COLUMN family TEXT");
+            db.execSQL("ALTER TABLE devices ADD COLUMN last_connected INTEGER");
+            db.execSQL("ALTER TABLE devices ADD COLUMN mtu INTEGER");
+            db.execSQL("ALTER TABLE devices ADD COLUMN write_no_response INTEGER");
+        }
+        if (oldVersion < 3) {
+            createHistoryTables(db);
+        }
+    }
+
+    /**
+     * @return highest stored sequence number; 0 if empty
+     */
+    long getMaxSequence() {
+        SQLiteStatement statement = getReadableDatabase().compileStatement("SELECT IFNULL(MAX(seq), 0) FROM measurements");
+        try {
+            return statement.simpleQueryForLong();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Copies all records of the log, committing every {@value #BATCH_SIZE} records.
+     * Records already stored (same sequence number) are skipped, so an interrupted compaction can be repeated
+     *
+     * @param log log to compact
+     * @return number of records read from the log
+     */
+    long compact(MeasurementLog log) throws IOException {
+        final SQLiteDatabase db = getWritableDatabase();
+        final SQLiteStatement insert = db.compileStatement(INSERT_MEASUREMENT);
+        final int[] inTransaction = {0};
+        try {
+            db.beginTransactionNonExclusive();
+            long count = log.read(new MeasurementLog.RecordVisitor() {
+                @Override
+                public void onRecord(long sequence, long timestamp, long deviceAddress, int type, int mode, int unit, float value) {
+                    insert.bindLong(1, sequence);
+                    insert.bindLong(2, getDeviceId(db, deviceAddress, timestamp));
+                    insert.bindLong(3, timestamp);
+                    insert.bindLong(4, type);
+                    insert.bindLong(5, mode);
+                    insert.bindLong(6, unit);
+                    insert.bindDouble(7, value);
+                    insert.executeInsert();
+                    if (++inTransaction[0] == BATCH_SIZE) {
+                        db.setTransactionSuccessful();
+                        db.endTransaction();
+                        db.beginTransactionNonExclusive();
+                        inTransaction[0] = 0;
+                    }
+                }
+            });
+            db.setTransactionSuccessful();
+            return count;
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+
+    /**
+     * Stores name and connect information of a device; null values and a MTU of 0 keep the stored value
+     *
+     * @param device device, identified by its MAC address
+     */
+    void updateDevice(GLMDevice device) {
+        SQLiteDatabase db = getWritableDatabase();
+        long id = getDeviceId(db, BluetoothUtils.addressToLong(device.getMacAddress()), System.currentTimeMillis());
+        Long lastConnected = device.getLastConnected() != null ? device.getLastConnected().getTime() : null;
+        Integer mtu = device.getMtu() > 0 ? device.getMtu() : null;
+        Integer writeNoResponse = mtu != null ? (device.isWriteWithoutResponse() ? 1 : 0) : null;
+        db.execSQL("UPDATE devices SET name = IFNULL(?, name), family = IFNULL(?, family), last_connected = IFNULL(?, last_connected),"
+                        + " mtu = IFNULL(?, mtu), write_no_response = IFNULL(?, write_no_response) WHERE id = ?",
+                new Object[]{device.getName(), device.getFamily(), lastConnected, mtu, writeNoResponse, id});
+    }
+
+    /**
+     * Stores records and progress of a history download in one transaction
+     *
+     * @param address Bluetooth address
+     * @param nextIndex list index to resume the download at; 0 if complete
+     * @param records records imported since the last update
+     * @param importedAt time of the import in ms since epoch
+     */
+    void updateHistory(long address, int nextIndex, List<HistoryRecord> records, long importedAt) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransactionNonExclusive();
+        try {
+            long id = getDeviceId(db, address, importedAt);
+            db.execSQL("INSERT OR REPLACE INTO history_checkpoints (device_id, next_index) VALUES (?, ?)", new Object[]{id, nextIndex});
+            SQLiteStatement insert = db.compileStatement(INSERT_HISTORY_RECORD);
+            try {
+                for (HistoryRecord record : records) {
+                    insert.bindLong(1, id);
+                    insert.bindLong(2, record.getKey());
+                    insert.bindLong(3, record.getDeviceTimestamp());
+                    insert.bindLong(4, importedAt);
+                    insert.bindLong(5, record.getType());
+                    insert.bindLong(6, record.getMode());
+                    insert.bindLong(7, record.getUnit());
+                    insert.bindDouble(8, record.getValue());
+                    insert.executeInsert();
+                }
+            } finally {
+                insert.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Reads checkpoint and keys with one query
+     *
+     * @param address Bluetooth address
+     * @return progress of the history download of the device; index 0 and no keys if none was started
+     */
+    HistoryCheckpoint getHistoryCheckpoint(String address) {
+        int nextIndex = 0;
+        Set<Long> keys = new HashSet<>();
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT c.next_index, h.record_key FROM devices d"
+                + " LEFT JOIN history_checkpoints c ON c.device_id = d.id LEFT JOIN history_records h ON h.device_id = d.id"
+                + " WHERE d.mac_address = ?", new String[]{address});
+        try {
+            while (cursor.moveToNext()) {
+                nextIndex = cursor.isNull(0) ? 0 : cursor.getInt(0);
+                if (!cursor.isNull(1)) {
+                    keys.add(cursor.getLong(1));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return new HistoryCheckpoint(nextIndex, keys);
+    }
+
+    /**
+     * @param address Bluetooth address
+     * @param limit maximum number of records
+     * @return history records imported from the device, newest device timestamp first
+     */
+    List<HistoryRecord> getHistoryRecords(String address, int limit) {
+        List<HistoryRecord> records = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT h.record_key, h.device_timestamp, h.type, h.mode, h.unit, h.value FROM history_records h"
+                + " JOIN devices d ON d.id = h.device_id WHERE d.mac_address = ? ORDER BY h.device_timestamp DESC LIMIT " + limit,
+                new String[]{address});
+        try {
+            while (cursor.moveToNext()) {
+                records.add(new HistoryRecord(cursor.getLong(0), cursor.getInt(1), cursor.getInt(2), cursor.getInt(3), cursor.getInt(4), cursor.getFloat(5)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return records;
+    }
+
+    /**
+     * @return all devices that ever delivered a measurement or were connected; birth date is the first measurement
+     */
+    List<GLMDevice> getDevices() {
+        return queryDevices("SELECT " + DEVICE_COLUMNS + " FROM devices ORDER BY first_seen");
+    }
+
+    /**
+     * @param limit maximum number of devices
+     * @return connected devices, last connected first
+     */
+    List<GLMDevice> getRecentDevices(int limit) {
+        return queryDevices("SELECT " + DEVICE_COLUMNS + " FROM devices WHERE last_connected IS NOT NULL ORDER BY last_connected DESC LIMIT " + limit);
+    }
+
+    /**
+     * @param address Bluetooth address; null for all devices
+     * @param fromTime start of the time range in ms since epoch, inclusive
+     * @param toTime end of the time range in ms since epoch, exclusive
+     * @param limit maximum number of measurements
+     * @return measurements of the range, newest first
+     */
+    List<Measurement> getMeasurements(String address, long fromTime, long toTime, int limit) {
+        String sql = "SELECT m.seq, d.mac_address, m.timestamp, m.type, m.mode, m.unit, m.value FROM measurements m JOIN devices d ON d.id = m.device_id"
+                + " WHERE m.timestamp >= ? AND m.timestamp < ?" + (address != null ? " AND d.mac_address = ?" : "")
+                + " ORDER BY m.timestamp DESC, m.seq DESC LIMIT " + limit;
+        String[] args = address != null
+                ? new String[]{Long.toString(fromTime), Long.toString(toTime), address}
+                : new String[]{Long.toString(fromTime), Long.toString(toTime)};
+        List<Measurement> measurements = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().rawQuery(sql, args);
+        try {
+            while (cursor.moveToNext()) {
+                measurements.add(new Measurement(cursor.getLong(0), cursor.getString(1), cursor.getLong(2),
+                        cursor.getInt(3), cursor.getInt(4), cursor.getInt(5), cursor.getFloat(6)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return measurements;
+    }
+
+    private static void createHistoryTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE history_checkpoints (device_id INTEGER PRIMARY KEY REFERENCES devices(id), next_index INTEGER NOT NULL)");
+        db.execSQL("CREATE TABLE history_records (device_id INTEGER NOT NULL REFERENCES devices(id), record_key INTEGER NOT NULL,"
+                + " device_timestamp INTEGER NOT NULL, imported_at INTEGER NOT NULL, type INTEGER NOT NULL, mode INTEGER NOT NULL, unit INTEGER NOT NULL,"
+                + " value REAL NOT NULL, PRIMARY KEY (device_id, record_key))");
+    }
+
+    private List<GLMDevice> queryDevices(String sql) {
+        List<GLMDevice> devices = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().rawQuery(sql, null);
+        try {
+            while (cursor.moveToNext()) {
+                GLMDevice device = new GLMDevice();
+                device.setId(cursor.getLong(0));
+                device.setName(cursor.isNull(1) ? null : cursor.getString(1));
+                device.setMacAddress(cursor.getString(2));
+                device.setBirthDate(new Date(cursor.getLong(3)));
+                device.setFamily(cursor.isNull(4) ? null : cursor.getString(4));
+                device.setLastConnected(cursor.isNull(5) ? null : new Date(cursor.getLong(5)));
+                device.setMtu(cursor.isNull(6) ? 0 : cursor.getInt(6));
+                device.setWriteWithoutResponse(!cursor.isNull(7) && cursor.getInt(7) != 0);
+                devices.add(device);
+            }
+        } finally {
+            cursor.close();
+        }
+        return devices;
+    }
+
+    private synchronized long getDeviceId(SQLiteDatabase db, long address, long firstSeen) {
+        Long id = deviceIds.get(address);
+        if (id != null) {
+            return id;
+        }
+        String macAddress = BluetoothUtils.longToAddress(address);
+        db.execSQL("INSERT OR IGNORE INTO devices (mac_address, first_seen) VALUES (?, ?)", new Object[]{macAddress, firstSeen});
+        SQLiteStatement query = db.compileStatement("SELECT id FROM devices WHERE mac_address = ?");
+        try {
+            query.bindString(1, macAddress);
+            id = query.simpleQueryForLong();
+        } finally {
+            query.close();
+        }
+        deviceIds.put(address, id);
+        return id;
+    }
+}
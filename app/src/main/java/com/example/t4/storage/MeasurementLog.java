@@ -0,0 +1,170 @@
+package com.example.t4.storage;
+
+import com.example.t4.bluetooth.BluetoothUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary log of measurements
+ *
+ * Every measurement is one fixed size record protected by a CRC, so a record torn by a crash
+ * or power loss is detected and dropped on the next read:
+ * <pre>
+ * sequence (8) | timestamp (8) | device address (8) | type (4) | mode (4) | unit (4) | value (4) | crc32 (4)
+ * </pre>
+ * Not thread safe, used by the writer thread of the {@link MeasurementStore} only.
+ */
+final class MeasurementLog implements Closeable {
+
+    static final int RECORD_SIZE = 44;
+
+    private static final int CRC_OFFSET = RECORD_SIZE - 4;
+    private static final int READ_BUFFER_RECORDS = 1024;
+
+    /**
+     * Receives the records read from the log
+     */
+    interface RecordVisitor {
+        void onRecord(long sequence, long timestamp, long deviceAddress, int type, int mode, int unit, float value) throws IOException;
+    }
+
+    private final File file;
+    private final FileChannel channel;
+
+    /**
+     * Opens the log for appending. An incomplete record at the end is cut off
+     *
+     * @param file log file, created if not existing
+     * @throws IOException if the file can not be opened
+     */
+    MeasurementLog(File file) throws IOException {
+        this.file = file;
+        // not FileChannel.open(): java.nio.file needs API 26
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        long size = channel.size();
+        long complete = size - size % RECORD_SIZE;
+        if (complete != size) {
+            channel.truncate(complete);
+        }
+        channel.position(complete);
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * @return number of records in the log
+     */
+    long getRecordCount() throws IOException {
+        return channel.size() / RECORD_SIZE;
+    }
+
+    /**
+     * Appends encoded records
+     *
+     * @param records buffer between position and limit, see {@link #encode}
+     */
+    void append(ByteBuffer records) throws IOException {
+        while (records.hasRemaining()) {
+            channel.write(records);
+        }
+    }
+
+    /**
+     * Forces the appended records to the storage device
+     */
+    void sync() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Reads all records from the beginning, stops at the first damaged record
+     *
+     * @param visitor receives the records
+     * @return number of records read
+     */
+    long read(RecordVisitor visitor) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_RECORDS * RECORD_SIZE);
+        CRC32 crc = new CRC32();
+        long position = 0;
+        long count = 0;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read < RECORD_SIZE) {
+                return count;
+            }
+            buffer.flip();
+            while (buffer.remaining() >= RECORD_SIZE) {
+                int start = buffer.position();
+                crc.reset();
+                crc.update(buffer.array(), buffer.arrayOffset() + start, CRC_OFFSET);
+                if ((int) crc.getValue() != buffer.getInt(start + CRC_OFFSET)) {
+                    return count; // damaged record: everything behind it is not trusted
+                }
+                visitor.onRecord(buffer.getLong(), buffer.getLong(), buffer.getLong(),
+                        buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getFloat());
+                buffer.getInt(); // crc
+                count++;
+            }
+            position += buffer.position();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Replaces the sequence number of an encoded record and updates its CRC
+     *
+     * @param buffer heap buffer with encoded records
+     * @param start position of the record in the buffer
+     * @param crc reused checksum
+     */
+    static void setSequence(ByteBuffer buffer, int start, long sequence, CRC32 crc) {
+        buffer.putLong(start, sequence);
+        crc.reset();
+        crc.update(buffer.array(), buffer.arrayOffset() + start, CRC_OFFSET);
+        buffer.putInt(start + CRC_OFFSET, (int) crc.getValue());
+    }
+
+    /**
+     * Decodes one record of a buffer written by {@link #encode}, without checking its CRC
+     *
+     * @param buffer buffer with encoded records
+     * @param start position of the record in the buffer
+     */
+    static Measurement decode(ByteBuffer buffer, int start) {
+        return new Measurement(buffer.getLong(start), BluetoothUtils.longToAddress(buffer.getLong(start + 16)), buffer.getLong(start + 8),
+                buffer.getInt(start + 24), buffer.getInt(start + 28), buffer.getInt(start + 32), buffer.getFloat(start + 36));
+    }
+
+    /**
+     * Encodes one record into a heap buffer
+     *
+     * @param buffer heap buffer with at least {@value #RECORD_SIZE} bytes remaining
+     * @param crc reused checksum
+     */
+    static void encode(ByteBuffer buffer, CRC32 crc, long sequence, long timestamp, long deviceAddress, int type, int mode, int unit, float value) {
+        int start = buffer.position();
+        buffer.putLong(sequence)
+                .putLong(timestamp)
+                .putLong(deviceAddress)
+                .putInt(type)
+                .putInt(mode)
+                .putInt(unit)
+                .putFloat(value);
+        crc.reset();
+        crc.update(buffer.array(), buffer.arrayOffset() + start, CRC_OFFSET);
+        buffer.putInt((int) crc.getValue());
+    }
+}
@@ -0,0 +1,610 @@
+package com.example.t4.storage;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.t4.GLMDevice;
+import com.example.t4.bluetooth.BluetoothUtils;
+import com.example.t4.measurement.MeasurementBus;
+import com.example.t4.measurement.MeasurementListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent store of all received measurements
+ *
+ * Subscribe the store to the {@link MeasurementBus}. Received measurements are copied into a
+ * memory buffer; a writer thread appends the buffer to the {@link MeasurementLog} and syncs it
+ * once per group commit interval, so the publishing thread never waits for the storage.
+ * The log is compacted into the indexed {@link MeasurementDatabase} periodically and on close;
+ * queries wait for the buffered measurements to reach the log and merge the records not compacted yet.
+ * The writer thread numbers the records and does all I/O, recovery of the last run included, so
+ * neither opening nor closing the store blocks the calling thread.
+ *
+ * Measurements downloaded from the history of a device are stored apart from the received ones,
+ * with the timestamp of the device clock: see {@link HistoryRecord}. The writer thread stores them
+ * in one transaction with the progress of the download, so an interrupted download resumes without
+ * losing or duplicating records.
+ */
+public final class MeasurementStore implements MeasurementListener, HistoryStorage {
+
+    private static final String TAG = "MeasurementStore";
+
+    // order of the query results, like the database query
+    private static final Comparator<Measurement> NEWEST_FIRST = new Comparator<Measurement>() {
+        @Override
+        public int compare(Measurement a, Measurement b) {
+            int byTime = Long.compare(b.getTimestamp(), a.getTimestamp());
+            return byTime != 0 ? byTime : Long.compare(b.getSequence(), a.getSequence());
+        }
+    };
+
+    public static final int UNIT_METER = 1;
+    public static final int UNIT_DEGREE_CELSIUS = 2;
+
+    private static final String LOG_FILE_NAME = "measurements.log";
+    private static final String COMPACTING_FILE_NAME = "measurements.log.compacting";
+
+    // collect measurements for this period before writing them with one sync
+    private static final long GROUP_COMMIT_INTERVAL_IN_MS = 50;
+    private static final int GROUP_COMMIT_RECORDS = 256;
+
+    // measurements buffered while the writer is busy; more are dropped
+    private static final int BUFFER_RECORDS = 8192;
+
+    private static final long COMPACTION_THRESHOLD_RECORDS = 4096;
+    private static final long COMPACTION_INTERVAL_IN_MS = 60000;
+
+    private final File directory;
+    private final MeasurementDatabase database;
+    // used by the writer thread only
+    private MeasurementLog log;
+    private long nextSequence;
+    private final CRC32 writerCrc = new CRC32();
+
+    private final Object lock = new Object();
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer pending = ByteBuffer.allocate(BUFFER_RECORDS * MeasurementLog.RECORD_SIZE);
+    private ByteBuffer spare = ByteBuffer.allocate(BUFFER_RECORDS * MeasurementLog.RECORD_SIZE);
+    // device address -> name and connect information, stored by the writer thread
+    private Map<String, GLMDevice> pendingDevices = new HashMap<>();
+    // device address -> records and progress of a history download, stored by the writer thread
+    private Map<String, HistoryProgress> pendingHistory = new HashMap<>();
+    // checkpoint reads of history downloads, answered by the writer thread after the pending history
+    private List<CheckpointRead> pendingCheckpointReads = new ArrayList<>();
+    private long droppedCount;
+    // measurements written to the log since the last compaction, merged into the query results
+    private final List<Measurement> logTail = new ArrayList<>();
+    private long writeRequested;
+    private long writeCompleted;
+    private boolean closed;
+
+    private final Thread writer = new Thread(new Runnable() {
+        @Override
+        public void run() {
+            try {
+                open();
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Opening measurement store failed", e);
+                List<CheckpointRead> reads;
+                synchronized (lock) {
+                    closed = true; // later measurements are dropped, queries read the database
+                    reads = pendingCheckpointReads;
+                    pendingCheckpointReads = new ArrayList<>();
+                    lock.notifyAll();
+                }
+                for (CheckpointRead read : reads) {
+                    read.future.completeExceptionally(e);
+                }
+                database.close();
+                return;
+            }
+            writeLoop();
+        }
+    }, TAG);
+
+    /**
+     * Opens the store. Measurements left in the log by the last run are compacted by the writer
+     * thread, before it writes new ones; queries wait for it. Returns at once
+     *
+     * @param context application context
+     */
+    public MeasurementStore(Context context) {
+        this.directory = context.getFilesDir();
+        this.database = new MeasurementDatabase(context);
+        writer.setPriority(Thread.NORM_PRIORITY - 1);
+        writer.start();
+    }
+
+    /**
+     * Buffers the measurement for the writer thread. Never blocks on I/O
+     */
+    @Override
+    public void onMeasurement(String deviceAddress, int type, int mode, float value, long timestamp) {
+        long address = BluetoothUtils.addressToLong(deviceAddress);
+        if (address == BluetoothUtils.INVALID_ADDRESS) {
+            return;
+        }
+        // elapsed realtime is not meaningful after a reboot -> store wall clock time
+        long wallTime = System.currentTimeMillis() - (SystemClock.elapsedRealtime() - timestamp);
+        int unit = type == MeasurementBus.TYPE_TEMPERATURE ? UNIT_DEGREE_CELSIUS : UNIT_METER;
+
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            if (pending.remaining() < MeasurementLog.RECORD_SIZE) {
+                droppedCount++;
+                return;
+            }
+            MeasurementLog.encode(pending, crc, 0, wallTime, address, type, mode, unit, value); // numbered by the writer
+            if (pending.position() == GROUP_COMMIT_RECORDS * MeasurementLog.RECORD_SIZE) {
+                lock.notifyAll(); // enough for a group commit, don't wait for the interval
+            }
+        }
+    }
+
+    /**
+     * Buffers a page of a history download for the writer thread. Never blocks on I/O
+     *
+     * @param deviceAddress Bluetooth address of the device
+     * @param records records not imported before
+     * @param nextIndex list index to resume the download at, stored with the records; 0 if complete
+     * @return false if the store is closed
+     */
+    @Override
+    public boolean importHistory(String deviceAddress, List<HistoryRecord> records, int nextIndex) {
+        long address = BluetoothUtils.addressToLong(deviceAddress);
+        if (address == BluetoothUtils.INVALID_ADDRESS) {
+            return false;
+        }
+
+        synchronized (lock) {
+            if (closed) {
+                return false;
+            }
+            HistoryProgress progress = pendingHistory.get(deviceAddress);
+            if (progress == null) {
+                progress = new HistoryProgress(address);
+                pendingHistory.put(deviceAddress, progress);
+            }
+            progress.records.addAll(records);
+            progress.nextIndex = nextIndex;
+            lock.notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Reads where the history download of the device resumes and which records it skips. The writer
+     * thread reads it after storing the pages buffered before, without compacting the log. Returns at once
+     *
+     * @param address Bluetooth address of the device
+     * @return completed on the writer thread with the checkpoint; failed if the store is closed or the read fails
+     */
+    @Override
+    public CompletableFuture<HistoryCheckpoint> readHistoryCheckpoint(String address) {
+        CheckpointRead read = new CheckpointRead(address);
+        synchronized (lock) {
+            if (closed) {
+                read.future.completeExceptionally(new IOException("Measurement store closed"));
+            } else {
+                pendingCheckpointReads.add(read);
+                lock.notifyAll();
+            }
+        }
+        return read.future;
+    }
+
+    /**
+     * Returns the history records imported from the device
+     * Performs I/O and waits for the writer thread, do not call on the main thread
+     *
+     * @param address Bluetooth address of the device
+     * @param limit maximum number of records
+     * @return records, newest device timestamp first
+     */
+    public List<HistoryRecord> getHistoryRecords(String address, int limit) throws InterruptedException {
+        flush();
+        return database.getHistoryRecords(address, limit);
+    }
+
+    /**
+     * Stores the display name of a device, e.g. when it was connected. Written by the writer thread
+     *
+     * @param address Bluetooth address
+     * @param name display name
+     */
+    public void updateDevice(String address, String name) {
+        GLMDevice device = new GLMDevice();
+        device.setMacAddress(address);
+        device.setName(name);
+        updateDevice(device);
+    }
+
+    /**
+     * Stores name and connect information of a device, e.g. when it was connected. Written by the writer thread
+     *
+     * @param device device, identified by its MAC address; null values keep the stored value
+     */
+    public void updateDevice(GLMDevice device) {
+        synchronized (lock) {
+            GLMDevice pendingDevice = pendingDevices.get(device.getMacAddress());
+            if (pendingDevice != null) {
+                merge(device, pendingDevice);
+            }
+            pendingDevices.put(device.getMacAddress(), device);
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Returns the stored measurements of a time range, including the ones not yet compacted
+     * Performs I/O and waits for the writer thread, do not call on the main thread
+     *
+     * @param address Bluetooth address of the device; null for all devices
+     * @param fromTime start of the time range in ms since epoch, inclusive
+     * @param toTime end of the time range in ms since epoch, exclusive
+     * @param limit maximum number of measurements
+     * @return measurements, newest first
+     */
+    public List<Measurement> getMeasurements(String address, long fromTime, long toTime, int limit) throws InterruptedException {
+        flush();
+        List<Measurement> measurements = database.getMeasurements(address, fromTime, toTime, limit);
+        List<Measurement> tail = new ArrayList<>();
+        synchronized (lock) {
+            for (Measurement measurement : logTail) {
+                if ((address == null || address.equals(measurement.getDeviceAddress()))
+                        && measurement.getTimestamp() >= fromTime && measurement.getTimestamp() < toTime) {
+                    tail.add(measurement);
+                }
+            }
+        }
+        if (tail.isEmpty()) {
+            return measurements;
+        }
+        // a record compacted while the database was read is in both
+        Set<Long> sequences = new HashSet<>();
+        for (Measurement measurement : measurements) {
+            sequences.add(measurement.getSequence());
+        }
+        for (Measurement measurement : tail) {
+            if (sequences.add(measurement.getSequence())) {
+                measurements.add(measurement);
+            }
+        }
+        Collections.sort(measurements, NEWEST_FIRST);
+        return measurements.size() > limit ? new ArrayList<>(measurements.subList(0, limit)) : measurements;
+    }
+
+    /**
+     * Returns all devices that delivered measurements
+     * Performs I/O, do not call on the main thread
+     *
+     * @return devices, birth date is the time of the first stored measurement
+     */
+    public List<GLMDevice> getDevices() throws InterruptedException {
+        flush();
+        List<GLMDevice> devices = database.getDevices();
+        Map<String, GLMDevice> known = new HashMap<>();
+        for (GLMDevice device : devices) {
+            known.put(device.getMacAddress(), device);
+        }
+        synchronized (lock) {
+            // devices are added to the database with their first compacted measurement
+            for (Measurement measurement : logTail) {
+                if (!known.containsKey(measurement.getDeviceAddress())) {
+                    GLMDevice device = new GLMDevice();
+                    device.setMacAddress(measurement.getDeviceAddress());
+                    device.setBirthDate(new Date(measurement.getTimestamp()));
+                    known.put(device.getMacAddress(), device);
+                    devices.add(device);
+                }
+            }
+        }
+        return devices;
+    }
+
+    /**
+     * Returns the devices connected before, to connect them again without scan
+     * Performs I/O, do not call on the main thread
+     *
+     * @param limit maximum number of devices
+     * @return devices, last connected first
+     */
+    public List<GLMDevice> getRecentDevices(int limit) throws InterruptedException {
+        flush();
+        return database.getRecentDevices(limit);
+    }
+
+    /**
+     * Writes the buffered measurements to the log, devices and history pages to the database; waits
+     * until done. Does not compact the log
+     */
+    public void flush() throws InterruptedException {
+        synchronized (lock) {
+            long request = ++writeRequested;
+            lock.notifyAll();
+            while (writeCompleted < request && writer.isAlive()) {
+                lock.wait();
+            }
+        }
+    }
+
+    /**
+     * @return number of measurements dropped, because the writer could not keep up
+     */
+    public long getDroppedCount() {
+        synchronized (lock) {
+            return droppedCount;
+        }
+    }
+
+    /**
+     * Closes the store; later measurements are dropped. The writer thread writes and compacts the
+     * remaining measurements and closes the database afterwards. Returns at once
+     */
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until the writer thread finished after {@link #close()}
+     *
+     * @param timeoutInMs maximum time to wait
+     * @return true if finished
+     */
+    boolean awaitClosed(long timeoutInMs) throws InterruptedException {
+        writer.join(timeoutInMs);
+        return !writer.isAlive();
+    }
+
+    // ##### Helper & private methods #####
+
+    /**
+     * Keeps the values of the older update, that the newer one does not set
+     */
+    private static void merge(GLMDevice newer, GLMDevice older) {
+        if (newer.getName() == null) {
+            newer.setName(older.getName());
+        }
+        if (newer.getFamily() == null) {
+            newer.setFamily(older.getFamily());
+        }
+        if (newer.getLastConnected() == null) {
+            newer.setLastConnected(older.getLastConnected());
+        }
+        if (newer.getMtu() == 0) {
+            newer.setMtu(older.getMtu());
+            newer.setWriteWithoutResponse(older.isWriteWithoutResponse());
+        }
+    }
+
+    private void writeLoop() {
+        long lastCompaction = SystemClock.elapsedRealtime();
+        long recordsSinceCompaction = 0;
+        while (true) {
+            ByteBuffer batch;
+            boolean compact;
+            boolean last;
+            long writeRequest;
+            Map<String, GLMDevice> devices = null;
+            Map<String, HistoryProgress> history = null;
+            List<CheckpointRead> reads = null;
+            synchronized (lock) {
+                try {
+                    while (!closed && pending.position() == 0 && writeRequested == writeCompleted && pendingDevices.isEmpty()
+                            && pendingHistory.isEmpty() && pendingCheckpointReads.isEmpty()) {
+                        lock.wait(COMPACTION_INTERVAL_IN_MS);
+                        if (SystemClock.elapsedRealtime() - lastCompaction >= COMPACTION_INTERVAL_IN_MS && recordsSinceCompaction > 0) {
+                            break;
+                        }
+                    }
+                    if (!closed && writeRequested == writeCompleted && pending.position() < GROUP_COMMIT_RECORDS * MeasurementLog.RECORD_SIZE
+                            && pendingCheckpointReads.isEmpty()) {
+                        lock.wait(GROUP_COMMIT_INTERVAL_IN_MS); // group commit: collect more measurements
+                    }
+                } catch (InterruptedException e) {
+                    closed = true;
+                }
+                batch = pending;
+                pending = spare;
+                spare = null;
+                last = closed;
+                writeRequest = writeRequested;
+                if (!pendingDevices.isEmpty()) {
+                    devices = pendingDevices;
+                    pendingDevices = new HashMap<>();
+                }
+                if (!pendingHistory.isEmpty()) {
+                    history = pendingHistory;
+                    pendingHistory = new HashMap<>();
+                }
+                if (!pendingCheckpointReads.isEmpty()) {
+                    reads = pendingCheckpointReads;
+                    pendingCheckpointReads = new ArrayList<>();
+                }
+            }
+
+            if (devices != null) {
+                try {
+                    for (GLMDevice device : devices.values()) {
+                        database.updateDevice(device);
+                    }
+                } catch (RuntimeException e) { // e.g. SQLiteException, the measurements are written anyway
+                    Log.e(TAG, "Storing devices failed", e);
+                }
+            }
+
+            if (history != null) {
+                try {
+                    for (HistoryProgress progress : history.values()) {
+                        database.updateHistory(progress.address, progress.nextIndex, progress.records, System.currentTimeMillis());
+                    }
+                } catch (RuntimeException e) { // the next download resumes at the last stored progress
+                    Log.e(TAG, "Storing history failed", e);
+                }
+            }
+            if (reads != null) {
+                for (CheckpointRead read : reads) {
+                    try {
+                        read.future.complete(database.getHistoryCheckpoint(read.address));
+                    } catch (RuntimeException e) {
+                        read.future.completeExceptionally(e);
+                    }
+                }
+            }
+
+            int records = batch.position() / MeasurementLog.RECORD_SIZE;
+            try {
+                if (records > 0) {
+                    for (int start = 0; start < batch.position(); start += MeasurementLog.RECORD_SIZE) {
+                        MeasurementLog.setSequence(batch, start, nextSequence++, writerCrc);
+                    }
+                    batch.flip();
+                    log.append(batch);
+                    log.sync();
+                    recordsSinceCompaction += records;
+                    List<Measurement> written = new ArrayList<>(records);
+                    for (int start = 0; start < batch.limit(); start += MeasurementLog.RECORD_SIZE) {
+                        written.add(MeasurementLog.decode(batch, start));
+                    }
+                    synchronized (lock) {
+                        logTail.addAll(written);
+                    }
+                }
+                compact = last || recordsSinceCompaction >= COMPACTION_THRESHOLD_RECORDS
+                        || (recordsSinceCompaction > 0 && SystemClock.elapsedRealtime() - lastCompaction >= COMPACTION_INTERVAL_IN_MS);
+                if (compact) {
+                    compactLog();
+                    synchronized (lock) {
+                        logTail.clear();
+                    }
+                    recordsSinceCompaction = 0;
+                    lastCompaction = SystemClock.elapsedRealtime();
+                }
+            } catch (IOException | RuntimeException e) {
+                // e.g. storage full or SQLiteException: keep the loop running, the next batch tries again
+                Log.e(TAG, "Writing measurements failed", e);
+            }
+            batch.clear();
+
+            synchronized (lock) {
+                spare = batch;
+                if (writeRequest > writeCompleted) {
+                    writeCompleted = writeRequest;
+                }
+                lock.notifyAll();
+                if (last) {
+                    break;
+                }
+            }
+        }
+        try {
+            log.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Closing measurement log failed", e);
+        }
+        database.close();
+    }
+
+    /**
+     * Compacts the logs of the last run, numbers new records after the stored ones and opens the log
+     */
+    private void open() throws IOException {
+        recover();
+        nextSequence = database.getMaxSequence() + 1;
+        log = new MeasurementLog(new File(directory, LOG_FILE_NAME));
+    }
+
+    /**
+     * Moves the log aside, starts a new one and copies the old one into the database
+     */
+    private void compactLog() throws IOException {
+        File compacting = new File(directory, COMPACTING_FILE_NAME);
+        if (compacting.exists()) {
+            compactFile(compacting); // left by a failed compaction, don't overwrite it
+        }
+        if (log.getRecordCount() == 0) {
+            return;
+        }
+        log.close();
+        boolean renamed = log.getFile().renameTo(compacting);
+        log = new MeasurementLog(new File(directory, LOG_FILE_NAME)); // reopened in any case, the writer goes on
+        if (!renamed) {
+            throw new IOException("Renaming " + log.getFile() + " failed");
+        }
+        compactFile(compacting);
+    }
+
+    /**
+     * Compacts logs left by the last run, e.g. after a crash
+     */
+    private void recover() throws IOException {
+        File compacting = new File(directory, COMPACTING_FILE_NAME);
+        if (compacting.exists()) {
+            compactFile(compacting);
+        }
+        File active = new File(directory, LOG_FILE_NAME);
+        if (active.exists() && active.length() > 0) {
+            if (!active.renameTo(compacting)) {
+                throw new IOException("Renaming " + active + " failed");
+            }
+            compactFile(compacting);
+        }
+    }
+
+    private void compactFile(File file) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        MeasurementLog compactingLog = new MeasurementLog(file);
+        long count;
+        try {
+            count = database.compact(compactingLog);
+        } finally {
+            compactingLog.close();
+        }
+        if (!file.delete()) {
+            Log.w(TAG, "Deleting " + file + " failed");
+        }
+        Log.d(TAG, "Compacted " + count + " measurements in " + (SystemClock.elapsedRealtime() - start) + " ms");
+    }
+
+    private static final class CheckpointRead {
+        final String address;
+        final CompletableFuture<HistoryCheckpoint> future = new CompletableFuture<>();
+
+        CheckpointRead(String address) {
+            this.address = address;
+        }
+    }
+
+    /**
+     * Progress of a history download, collected until the writer thread stores it
+     */
+    private static final class HistoryProgress {
+        final long address;
+        final List<HistoryRecord> records = new ArrayList<>();
+        int nextIndex;
+
+        HistoryProgress(long address) {
+            this.address = address;
+        }
+    }
+}
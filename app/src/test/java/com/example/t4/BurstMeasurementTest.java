@@ -0,0 +1,190 @@
+package com.example.t4;
+
+import com.bosch.mtprotocol.MtMessage;
+import com.bosch.mtprotocol.glm100C.event.MtProtocolReceiveMessageEvent;
+import com.bosch.mtprotocol.glm100C.message.SimpleMessage;
+import com.bosch.mtprotocol.glm100C.message.edc.EDCDoRemoteTriggerButtonMessage;
+import com.bosch.mtprotocol.glm100C.message.edc.EDCInputMessage;
+import com.bosch.mtprotocol.glm100C.message.single.SingleDistOutputMessage;
+import com.example.t4.bluetooth.DeviceFamily;
+import com.example.t4.bluetooth.MTBluetoothDevice;
+import com.example.t4.measurement.BurstResult;
+import com.example.t4.measurement.MeasurementBus;
+import com.example.t4.measurement.MeasurementResult;
+import com.example.t4.measurement.RunningStatistics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.example.t4.FutureAssert.assertFailedWith;
+import static org.junit.Assert.*;
+
+public class BurstMeasurementTest {
+
+    private final FakeProtocol protocol = new FakeProtocol();
+    private final GLMDeviceController controller = new GLMDeviceController(null, new MeasurementBus());
+
+    @Before
+    public void setUp() {
+        controller.init(protocol, null, new MTBluetoothDevice(null, "Bosch GLM 120 C", DeviceFamily.GLM_120));
+        controller.onEvent(new MtProtocolReceiveMessageEvent(new EDCInputMessage())); // answer of the auto sync request
+    }
+
+    @After
+    public void tearDown() {
+        controller.destroy();
+    }
+
+    @Test
+    public void add_completesBurstAfterCountSamples() throws Exception {
+        BurstMeasurement burst = new BurstMeasurement("A", "GLM_120", 3, new RunningStatistics(), 1_000);
+
+        assertTrue(burst.add(1.5f, 1_100));
+        assertTrue(burst.add(1.6f, 1_200));
+        assertFalse(burst.add(1.7f, 1_300));
+        assertFalse(burst.add(1.8f, 1_400));
+
+        BurstResult result = burst.getFuture().get();
+        assertEquals(3, result.getCount());
+        assertEquals(1.7f, result.getValue(2), 0);
+        assertEquals(300, result.getDurationInMs());
+        assertEquals(3, burst.getReceived());
+    }
+
+    @Test
+    public void add_ignoresSamplesAfterFailOrCancel() {
+        BurstMeasurement failed = new BurstMeasurement("A", "GLM_120", 2, new RunningStatistics(), 0);
+        failed.fail(new TimeoutException());
+        BurstMeasurement cancelled = new BurstMeasurement("A", "GLM_120", 2, new RunningStatistics(), 0);
+        cancelled.getFuture().cancel(false);
+
+        assertFalse(failed.add(1f, 1));
+        assertFalse(cancelled.add(1f, 1));
+        assertEquals(0, failed.getReceived());
+        assertEquals(0, cancelled.getReceived());
+    }
+
+    @Test
+    public void setSampleTimeout_cancelsTimeoutOfPreviousSampleAndOfFinishedBurst() {
+        BurstMeasurement burst = new BurstMeasurement("A", "GLM_120", 1, new RunningStatistics(), 0);
+        ScheduledFuture<?> first = schedule();
+        ScheduledFuture<?> second = schedule();
+        burst.setSampleTimeout(first);
+        burst.setSampleTimeout(second);
+        assertTrue(first.isCancelled());
+        assertFalse(second.isCancelled());
+
+        burst.add(1f, 1);
+        ScheduledFuture<?> late = schedule();
+        burst.setSampleTimeout(late);
+
+        assertTrue(late.isCancelled());
+        burst.cancelSampleTimeout();
+        assertTrue(second.isCancelled());
+    }
+
+    @Test
+    public void measureBurst_triggersEdcDeviceAgainAfterEverySample() throws Exception {
+        CompletableFuture<BurstResult> future = controller.measureBurst(3);
+
+        for (int i = 1; i <= 3; i++) {
+            assertEquals(i, countTriggers());
+            acknowledgeTrigger();
+            assertFalse(future.isDone());
+            receiveDistance(2 + i / 1000f);
+        }
+
+        assertEquals(3, countTriggers());
+        BurstResult result = future.get();
+        assertEquals(3, result.getCount());
+        assertEquals(2.003f, result.getValue(2), 0);
+        assertEquals(3, result.getStatistics().getCount());
+    }
+
+    @Test
+    public void measureBurst_failsIfSampleDoesNotArrive() {
+        controller.setCommandTimeout(50);
+        CompletableFuture<BurstResult> future = controller.measureBurst(2);
+        acknowledgeTrigger();
+        receiveDistance(2f);
+        acknowledgeTrigger();
+
+        assertFailedWith(TimeoutException.class, future);
+        assertEquals(2, countTriggers());
+    }
+
+    @Test
+    public void measureBurst_ignoresSampleAfterCancel() {
+        CompletableFuture<BurstResult> future = controller.measureBurst(2);
+        acknowledgeTrigger();
+
+        future.cancel(false);
+        receiveDistance(2f);
+
+        assertEquals(1, countTriggers());
+        assertFalse(controller.measureBurst(2).isDone()); // the cancelled burst is no longer active
+        assertEquals(2, countTriggers());
+    }
+
+    @Test
+    public void measureOnce_triggersEdcDeviceRemotely() throws Exception {
+        CompletableFuture<MeasurementResult> future = controller.measureOnce();
+
+        assertEquals(1, countTriggers());
+        acknowledgeTrigger();
+        receiveDistance(4.2f);
+
+        MeasurementResult result = future.get();
+        assertEquals(4.2f, result.getValue(), 0);
+        assertEquals(EDCInputMessage.MODE_SINGLE_DISTANCE, result.getMode());
+        for (MtMessage message : protocol.sent) {
+            assertFalse(message instanceof SingleDistOutputMessage);
+        }
+    }
+
+    @Test
+    public void measureOnce_failsOnThermalDevice() {
+        GLMDeviceController thermal = new GLMDeviceController(null, new MeasurementBus());
+        thermal.init(new FakeProtocol(), null, new MTBluetoothDevice(null, "Bosch GIS 1000 C", DeviceFamily.GIS));
+        try {
+            assertFailedWith(UnsupportedOperationException.class, thermal.measureOnce());
+        } finally {
+            thermal.destroy();
+        }
+    }
+
+    private int countTriggers() {
+        int triggers = 0;
+        for (MtMessage message : protocol.sent) {
+            if (message instanceof EDCDoRemoteTriggerButtonMessage) {
+                triggers++;
+            }
+        }
+        return triggers;
+    }
+
+    private void acknowledgeTrigger() {
+        controller.onEvent(new MtProtocolReceiveMessageEvent(new SimpleMessage((byte) 86)));
+    }
+
+    private void receiveDistance(float distance) {
+        EDCInputMessage message = new EDCInputMessage();
+        message.setDevMode(EDCInputMessage.MODE_SINGLE_DISTANCE);
+        message.setResult(distance);
+        controller.onEvent(new MtProtocolReceiveMessageEvent(message));
+    }
+
+    private static ScheduledFuture<?> schedule() {
+        return CommandScheduler.sharedWatchdog().schedule(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, 1, TimeUnit.HOURS);
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.t4;
+
+import com.bosch.mtprotocol.MtMessage;
+import com.bosch.mtprotocol.glm100C.event.MtProtocolFatalErrorEvent;
+import com.bosch.mtprotocol.glm100C.event.MtProtocolReceiveMessageEvent;
+import com.bosch.mtprotocol.glm100C.event.MtProtocolRequestTimeoutEvent;
+import com.bosch.mtprotocol.glm100C.message.SimpleMessage;
+import com.example.t4.exc.MtProtocolException;
+import com.example.t4.metrics.ConnectionMetrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+import static com.example.t4.FutureAssert.assertFailedWith;
+import static org.junit.Assert.*;
+
+public class CommandSchedulerTest {
+
+    private final FakeProtocol protocol = new FakeProtocol();
+    private final CommandScheduler scheduler = new CommandScheduler(protocol, 5000, new ConnectionMetrics(null), null);
+
+    @Test
+    public void submit_sendsBackToBackCommandsInOrder() throws Exception {
+        CompletableFuture<MtMessage> first = submit(1);
+        CompletableFuture<MtMessage> second = submit(2);
+        CompletableFuture<MtMessage> third = submit(3);
+        assertEquals(CommandScheduler.DEFAULT_MAX_IN_FLIGHT, protocol.sent.size());
+
+        assertTrue(scheduler.onEvent(response(1)));
+        assertEquals(1, ((SimpleMessage) first.get()).getCommand());
+        assertEquals(3, protocol.sent.size());
+
+        assertTrue(scheduler.onEvent(response(2)));
+        assertTrue(scheduler.onEvent(response(3)));
+        assertTrue(second.isDone() && third.isDone());
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    @Test
+    public void onEvent_passesOnMessagesOfTheDevice() {
+        CompletableFuture<MtMessage> command = submit(1);
+
+        assertFalse(scheduler.onEvent(response(85))); // e.g. a measurement in auto sync mode
+        assertFalse(command.isDone());
+        assertTrue(scheduler.onEvent(response(1)));
+        assertTrue(command.isDone());
+        assertFalse(scheduler.onEvent(response(1)));
+    }
+
+    @Test
+    public void onEvent_timeoutFailsOldestCommandAndSendsNext() throws Exception {
+        CompletableFuture<MtMessage> first = submit(1);
+        CompletableFuture<MtMessage> second = submit(2);
+        CompletableFuture<MtMessage> third = submit(3);
+
+        assertFalse(scheduler.onEvent(new MtProtocolRequestTimeoutEvent()));
+
+        assertFailedWith(TimeoutException.class, first);
+        assertFalse(second.isDone());
+        assertEquals(3, protocol.sent.size());
+        scheduler.onEvent(response(2));
+        scheduler.onEvent(response(3));
+        assertTrue(third.get() instanceof SimpleMessage);
+    }
+
+    @Test
+    public void onEvent_fatalErrorFailsCommandsInFlightAndResendsQueued() {
+        CompletableFuture<MtMessage> first = submit(1);
+        CompletableFuture<MtMessage> second = submit(2);
+        CompletableFuture<MtMessage> third = submit(3);
+
+        assertFalse(scheduler.onEvent(new MtProtocolFatalErrorEvent()));
+
+        assertEquals(1, protocol.resets);
+        assertFailedWith(MtProtocolException.class, first);
+        assertFailedWith(MtProtocolException.class, second);
+        assertFalse(third.isDone());
+        assertEquals(3, protocol.sent.size());
+        assertTrue(scheduler.onEvent(response(3)));
+    }
+
+    @Test
+    public void cancel_dropsQueuedCommandButKeepsCommandInFlight() {
+        CompletableFuture<MtMessage> first = submit(1);
+        submit(2);
+        CompletableFuture<MtMessage> queued = submit(3);
+        CompletableFuture<MtMessage> last = submit(4);
+
+        first.cancel(false);
+        queued.cancel(false);
+
+        assertTrue(scheduler.onEvent(response(1))); // still matched, the future stays cancelled
+        assertTrue(first.isCancelled());
+        assertEquals(3, protocol.sent.size());
+        assertTrue(scheduler.onEvent(response(2)));
+        assertTrue(scheduler.onEvent(response(4)));
+        assertTrue(last.isDone());
+    }
+
+    @Test
+    public void submit_deadlineFailsQueuedCommand() throws Exception {
+        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor();
+        try {
+            CommandScheduler timed = new CommandScheduler(protocol, 5000, new ConnectionMetrics(null), watchdog);
+            SimpleMessage request = new SimpleMessage((byte) 1);
+            timed.submit(request, CommandScheduler.sameCommand(request));
+            timed.submit(request, CommandScheduler.sameCommand(request));
+            CompletableFuture<MtMessage> queued = timed.submit(request, CommandScheduler.sameCommand(request), 10);
+
+            assertFailedWith(TimeoutException.class, queued);
+            watchdog.submit(new Runnable() { // the queue is cleaned up on the watchdog thread after completion
+                @Override
+                public void run() {
+                }
+            }).get(1, TimeUnit.SECONDS);
+            assertEquals(2, timed.getPendingCount());
+        } finally {
+            watchdog.shutdownNow();
+        }
+    }
+
+    @Test
+    public void onEvent_commandRefusedByProtocolFailsOutsideTheLock() throws Exception {
+        submit(1);
+        CompletableFuture<MtMessage> second = submit(2);
+        CompletableFuture<MtMessage> refused = submit(3);
+        final boolean[] completedUnderLock = new boolean[1];
+        refused.whenComplete(new BiConsumer<MtMessage, Throwable>() {
+            @Override
+            public void accept(MtMessage response, Throwable error) {
+                completedUnderLock[0] = Thread.holdsLock(scheduler);
+            }
+        });
+        protocol.refuse = true;
+
+        assertTrue(scheduler.onEvent(response(1))); // the queued command is sent and refused
+
+        assertFailedWith(IllegalStateException.class, refused);
+        assertFalse(completedUnderLock[0]);
+        assertTrue(scheduler.onEvent(response(2)));
+        assertTrue(second.get() instanceof SimpleMessage);
+    }
+
+    @Test
+    public void close_cancelsAllCommands() {
+        CompletableFuture<MtMessage> first = submit(1);
+        CompletableFuture<MtMessage> second = submit(2);
+        CompletableFuture<MtMessage> queued = submit(3);
+
+        scheduler.close();
+
+        assertTrue(first.isCancelled() && second.isCancelled());
+        assertTrue(queued.isCancelled());
+        assertTrue(submit(4).isCancelled());
+        assertEquals(2, protocol.sent.size());
+    }
+
+    private CompletableFuture<MtMessage> submit(int command) {
+        SimpleMessage request = new SimpleMessage((byte) command);
+        return scheduler.submit(request, CommandScheduler.sameCommand(request));
+    }
+
+    private static MtProtocolReceiveMessageEvent response(int command) {
+        return new MtProtocolReceiveMessageEvent(new SimpleMessage((byte) command));
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.t4;
+
+import com.bosch.mtprotocol.MtConnection;
+import com.bosch.mtprotocol.MtMessage;
+import com.bosch.mtprotocol.MtProtocol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Protocol of the unit tests: keeps the sent messages, the test answers them through the events
+ */
+final class FakeProtocol implements MtProtocol {
+    final List<MtMessage> sent = new ArrayList<>();
+    int resets;
+    // sendMessage throws like the protocol with a full outgoing queue
+    boolean refuse;
+
+    @Override
+    public void initialize(MtConnection connection) {
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    @Override
+    public void sendMessage(MtMessage message) {
+        if (refuse) {
+            throw new IllegalStateException("Outgoing queue full");
+        }
+        sent.add(message);
+    }
+
+    @Override
+    public void addObserver(MTProtocolEventObserver observer) {
+    }
+
+    @Override
+    public void removeObserver(MTProtocolEventObserver observer) {
+    }
+
+    @Override
+    public void reset() {
+        resets++;
+    }
+
+    @Override
+    public void setTimeout(int timeout) {
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.t4;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Assertions on the futures of commands
+ */
+final class FutureAssert {
+
+    private static final long WAIT_IN_S = 5;
+
+    private FutureAssert() {
+    }
+
+    /**
+     * Waits for the future, also if it is completed on the watchdog thread
+     */
+    static void assertFailedWith(Class<? extends Throwable> type, CompletableFuture<?> future) {
+        try {
+            future.get(WAIT_IN_S, TimeUnit.SECONDS);
+            fail("not failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().toString(), type.isInstance(e.getCause()));
+        } catch (InterruptedException | TimeoutException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
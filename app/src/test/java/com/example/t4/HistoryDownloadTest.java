@@ -0,0 +1,189 @@
+package com.example.t4;
+
+import com.bosch.mtprotocol.glm100C.event.MtProtocolReceiveMessageEvent;
+import com.bosch.mtprotocol.glm100C.event.MtProtocolRequestTimeoutEvent;
+import com.bosch.mtprotocol.glm100C.message.sync.SyncInputMessage;
+import com.bosch.mtprotocol.glm100C.message.sync.list.SyncListInputMessage;
+import com.bosch.mtprotocol.glm100C.message.sync.list.SyncListOutputMessage;
+import com.example.t4.exc.MtProtocolException;
+import com.example.t4.measurement.HistoryResult;
+import com.example.t4.metrics.ConnectionMetrics;
+import com.example.t4.storage.HistoryCheckpoint;
+import com.example.t4.storage.HistoryRecord;
+import com.example.t4.storage.HistoryStorage;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+import static com.example.t4.FutureAssert.assertFailedWith;
+import static org.junit.Assert.*;
+
+public class HistoryDownloadTest {
+
+    private static final String ADDRESS = "00:11:22:AA:BB:CC";
+
+    private final FakeProtocol protocol = new FakeProtocol();
+    private final CommandScheduler scheduler = new CommandScheduler(protocol, 5000, new ConnectionMetrics(null), null);
+    private final FakeStorage storage = new FakeStorage();
+
+    @Test
+    public void start_resumesAtCheckpointAndEndsWithShortPage() throws Exception {
+        storage.nextIndex = 14;
+        CompletableFuture<HistoryResult> future = new HistoryDownload(scheduler, storage, ADDRESS, 0).start();
+
+        assertEquals(CommandScheduler.DEFAULT_MAX_IN_FLIGHT, protocol.sent.size());
+        assertEquals(14, request(0).getIndexFrom());
+        assertEquals(20, request(0).getIndexTo());
+        assertEquals(21, request(1).getIndexFrom());
+
+        respond(14, HistoryDownload.PAGE_SIZE);
+        assertEquals(21, storage.nextIndex);
+        assertFalse(future.isDone());
+        respond(21, 3);
+
+        HistoryResult result = future.get();
+        assertEquals(14, result.getStartIndex());
+        assertEquals(HistoryDownload.PAGE_SIZE + 3, result.getReceived());
+        assertEquals(HistoryDownload.PAGE_SIZE + 3, storage.records.size());
+        assertEquals(0, storage.nextIndex); // complete, the next download starts from the beginning
+        assertEquals(23, storage.records.get(storage.records.size() - 1).getDeviceTimestamp());
+    }
+
+    @Test
+    public void onPage_failedPageStopsDownloadThatResumesAtItsStart() {
+        CompletableFuture<HistoryResult> future = new HistoryDownload(scheduler, storage, ADDRESS, 0).start();
+        respond(0, HistoryDownload.PAGE_SIZE);
+
+        scheduler.onEvent(new MtProtocolRequestTimeoutEvent()); // second page lost
+
+        assertFailedWith(TimeoutException.class, future);
+        assertEquals(HistoryDownload.PAGE_SIZE, storage.nextIndex);
+        protocol.sent.clear();
+        new HistoryDownload(new CommandScheduler(protocol, 5000, new ConnectionMetrics(null), null), storage, ADDRESS, 0).start();
+        assertEquals(HistoryDownload.PAGE_SIZE, request(0).getIndexFrom());
+    }
+
+    @Test
+    public void onPage_skipsRecordsImportedBefore() throws Exception {
+        storage.keys.add(HistoryDownload.keyOf(container(1)));
+        storage.keys.add(HistoryDownload.keyOf(container(2)));
+        CompletableFuture<HistoryResult> future = new HistoryDownload(scheduler, storage, ADDRESS, 0).start();
+
+        respond(0, 4);
+
+        HistoryResult result = future.get();
+        assertEquals(4, result.getReceived());
+        assertEquals(2, result.getImported());
+        assertEquals(2, storage.records.size());
+        assertEquals(0, storage.records.get(0).getDeviceTimestamp());
+        assertEquals(3, storage.records.get(1).getDeviceTimestamp());
+    }
+
+    @Test
+    public void cancel_dropsPagesNotSentAndIgnoresPagesInFlight() {
+        CompletableFuture<HistoryResult> future = new HistoryDownload(scheduler, storage, ADDRESS, 0).start();
+        assertEquals(HistoryDownload.PIPELINED_PAGES, scheduler.getPendingCount());
+
+        future.cancel(false);
+        respond(0, HistoryDownload.PAGE_SIZE);
+        respond(7, HistoryDownload.PAGE_SIZE);
+
+        assertEquals(CommandScheduler.DEFAULT_MAX_IN_FLIGHT, protocol.sent.size());
+        assertEquals(0, scheduler.getPendingCount());
+        assertTrue(storage.records.isEmpty());
+    }
+
+    @Test
+    public void onPage_storageRefusingPageFailsDownload() {
+        storage.refuse = true;
+        CompletableFuture<HistoryResult> future = new HistoryDownload(scheduler, storage, ADDRESS, 0).start();
+
+        respond(0, HistoryDownload.PAGE_SIZE);
+
+        assertFailedWith(IOException.class, future);
+        assertEquals(0, storage.nextIndex);
+    }
+
+    @Test
+    public void onPage_pageOfOtherIndexesFailsDownloadOutsideTheLock() {
+        final HistoryDownload download = new HistoryDownload(scheduler, storage, ADDRESS, 0);
+        CompletableFuture<HistoryResult> future = download.start();
+        final boolean[] completedUnderLock = new boolean[1];
+        future.whenComplete(new BiConsumer<HistoryResult, Throwable>() {
+            @Override
+            public void accept(HistoryResult result, Throwable error) {
+                completedUnderLock[0] = Thread.holdsLock(download);
+            }
+        });
+
+        respond(7, HistoryDownload.PAGE_SIZE); // answer of the second request to the first one
+
+        assertFailedWith(MtProtocolException.class, future);
+        assertFalse(completedUnderLock[0]);
+        assertTrue(storage.records.isEmpty());
+        assertEquals(0, storage.nextIndex);
+    }
+
+    private SyncListOutputMessage request(int index) {
+        return (SyncListOutputMessage) protocol.sent.get(index);
+    }
+
+    /**
+     * Answers the oldest page request with count records, timestamps from the list index
+     */
+    private void respond(int from, int count) {
+        List<SyncInputMessage> containers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            containers.add(container(from + i));
+        }
+        SyncListInputMessage page = new SyncListInputMessage();
+        page.setIndexFrom(from);
+        page.setIndexTo(from + count - 1);
+        page.setSyncContainers(containers);
+        assertTrue(scheduler.onEvent(new MtProtocolReceiveMessageEvent(page)));
+    }
+
+    private static SyncInputMessage container(int index) {
+        SyncInputMessage container = new SyncInputMessage();
+        container.setMode(SyncInputMessage.MEAS_MODE_SINGLE);
+        container.setTimestamp(index);
+        container.setResult(1 + index / 100f);
+        return container;
+    }
+
+    /**
+     * Keeps the checkpoint like MeasurementStore, answers at once
+     */
+    private static final class FakeStorage implements HistoryStorage {
+        final List<HistoryRecord> records = new ArrayList<>();
+        final Set<Long> keys = new HashSet<>();
+        int nextIndex;
+        boolean refuse;
+
+        @Override
+        public CompletableFuture<HistoryCheckpoint> readHistoryCheckpoint(String deviceAddress) {
+            return CompletableFuture.completedFuture(new HistoryCheckpoint(nextIndex, new HashSet<>(keys)));
+        }
+
+        @Override
+        public boolean importHistory(String deviceAddress, List<HistoryRecord> records, int nextIndex) {
+            if (refuse) {
+                return false;
+            }
+            for (HistoryRecord record : records) {
+                this.records.add(record);
+                keys.add(record.getKey());
+            }
+            this.nextIndex = nextIndex;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.t4.bluetooth;
+
+import com.bosch.mtprotocol.glm100C.connection.MtAsyncConnection;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class ConnectionManagerTest {
+
+    private final List<FakeConnection> created = new ArrayList<>();
+    private final List<String> events = new ArrayList<>();
+    // set if a connection or the listener is called holding the manager lock
+    private boolean calledUnderManagerLock;
+
+    private final ConnectionManager manager = new ConnectionManager(null, new ConnectionManager.ConnectionFactory() {
+        @Override
+        public MtAsyncConnection createConnection(MTBluetoothDevice device) {
+            FakeConnection connection = new FakeConnection(device.getAddress());
+            created.add(connection);
+            return connection;
+        }
+    }, new ConnectionManager.Listener() {
+        @Override
+        public void onConnectionStateChanged(MTBluetoothDevice device, MtAsyncConnection connection) {
+            checkManagerLock();
+            events.add(device.getAddress() + " " + connection.getState());
+        }
+
+        @Override
+        public void onReconnectGivenUp(MTBluetoothDevice device) {
+            checkManagerLock();
+            events.add(device.getAddress() + " given up");
+        }
+    });
+
+    @Test
+    public void connect_opensUpToMaxConcurrentConnects() {
+        manager.setMaxConcurrentConnects(2);
+        assertTrue(manager.connect(device("A")));
+        assertTrue(manager.connect(device("B")));
+        assertTrue(manager.connect(device("C")));
+        assertFalse(manager.connect(device("A")));
+
+        assertEquals(2, created.size());
+        assertEquals(1, created.get(0).opened);
+        assertTrue(manager.isConnecting());
+
+        created.get(0).setState(MtAsyncConnection.STATE_CONNECTED);
+
+        assertEquals(3, created.size());
+        assertEquals("C", created.get(2).address);
+        assertEquals(1, created.get(2).opened);
+        assertEquals(1, manager.getConnectedDevices().size());
+        assertFalse(calledUnderManagerLock);
+    }
+
+    @Test
+    public void disconnect_closesConnectionOutsideManagerLock() {
+        manager.connect(device("A"));
+        FakeConnection connection = created.get(0);
+        connection.setState(MtAsyncConnection.STATE_CONNECTED);
+
+        manager.disconnect("A");
+
+        assertEquals(1, connection.closed);
+        assertEquals(MtAsyncConnection.STATE_NONE, manager.getState("A"));
+        assertEquals(List.of("A " + MtAsyncConnection.STATE_CONNECTING, "A " + MtAsyncConnection.STATE_CONNECTED,
+                "A " + MtAsyncConnection.STATE_NONE), events);
+        assertTrue(connection.observers.isEmpty());
+        assertFalse(calledUnderManagerLock);
+    }
+
+    @Test
+    public void onConnectionStateChanged_closedByDeviceIsClosedOutsideManagerLock() {
+        manager.setMaxConcurrentConnects(1);
+        manager.connect(device("A"));
+        manager.connect(device("B"));
+        FakeConnection connection = created.get(0);
+        connection.setState(MtAsyncConnection.STATE_CONNECTED);
+        assertEquals(2, created.size());
+
+        connection.setState(MtAsyncConnection.STATE_NONE); // link lost, e.g. device switched off
+
+        assertEquals(1, connection.closed);
+        assertEquals(MtAsyncConnection.STATE_NONE, manager.getState("A"));
+        assertEquals(MtAsyncConnection.STATE_CONNECTING, manager.getState("B"));
+        assertFalse(calledUnderManagerLock);
+    }
+
+    @Test
+    public void onConnectionStateChanged_timeoutStaysInBackoffAndFreesConnectSlot() {
+        manager.setMaxConcurrentConnects(1);
+        manager.connect(device("A"));
+        manager.connect(device("B"));
+        FakeConnection connection = created.get(0);
+
+        connection.setState(MtAsyncConnection.STATE_TIMEOUT);
+
+        assertTrue(connection.observers.isEmpty());
+        assertNull(manager.getConnection("A"));
+        assertEquals(2, created.size());
+        assertEquals("B", created.get(1).address);
+        manager.disconnectAll();
+        assertEquals(1, created.get(1).closed);
+        assertEquals(MtAsyncConnection.STATE_NONE, manager.getState("A"));
+        assertFalse(calledUnderManagerLock);
+    }
+
+    @Test
+    public void disconnectAll_closesEveryConnection() {
+        manager.connect(device("A"));
+        manager.connect(device("B"));
+
+        manager.disconnectAll();
+
+        for (FakeConnection connection : created) {
+            assertEquals(1, connection.closed);
+        }
+        assertFalse(manager.isConnecting());
+        assertFalse(calledUnderManagerLock);
+    }
+
+    private void checkManagerLock() {
+        calledUnderManagerLock |= Thread.holdsLock(manager);
+    }
+
+    private static MTBluetoothDevice device(final String address) {
+        return new MTBluetoothDevice(null, "Bosch GLM 120 C " + address) {
+            @Override
+            public String getAddress() {
+                return address;
+            }
+        };
+    }
+
+    /**
+     * Informs its observers holding its own lock, like BLEConnection and BluetoothConnection
+     */
+    private final class FakeConnection implements MtAsyncConnection {
+        final String address;
+        final List<MTAsyncConnectionObserver> observers = new CopyOnWriteArrayList<>();
+        int state = STATE_NONE;
+        int opened;
+        int closed;
+
+        FakeConnection(String address) {
+            this.address = address;
+        }
+
+        @Override
+        public int getState() {
+            return state;
+        }
+
+        @Override
+        public void addObserver(MTAsyncConnectionObserver observer) {
+            observers.add(observer);
+        }
+
+        @Override
+        public void removeObserver(MTAsyncConnectionObserver observer) {
+            observers.remove(observer);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return state == STATE_CONNECTED;
+        }
+
+        @Override
+        public synchronized void openConnection() {
+            checkManagerLock();
+            opened++;
+            setState(STATE_CONNECTING);
+        }
+
+        @Override
+        public synchronized void closeConnection() {
+            checkManagerLock();
+            closed++;
+            setState(STATE_NONE);
+        }
+
+        @Override
+        public int read(byte[] buffer) {
+            return 0;
+        }
+
+        @Override
+        public void write(byte[] data) {
+        }
+
+        synchronized void setState(int state) {
+            if (this.state != state) {
+                this.state = state;
+                for (MTAsyncConnectionObserver observer : observers) {
+                    observer.onConnectionStateChanged(this);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.t4.bluetooth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the device family classification of bare tool numbers and display names
+ */
+public class DeviceFamilyTest {
+
+    @Test
+    public void fromBareToolNr_mirxDevices() {
+        assertEquals(DeviceFamily.GLM_120, DeviceFamily.fromBareToolNr("3601K72F00"));
+        assertEquals(DeviceFamily.GLM_50_2, DeviceFamily.fromBareToolNr("3601K72T00"));
+        assertEquals(DeviceFamily.UNKNOWN, DeviceFamily.fromBareToolNr("0000000000"));
+        assertEquals(DeviceFamily.UNKNOWN, DeviceFamily.fromBareToolNr(null));
+    }
+
+    @Test
+    public void fromDisplayName_mirxDevices() {
+        assertEquals(DeviceFamily.GLM_120, DeviceFamily.fromDisplayName("Bosch GLM 120 C x1234"));
+        assertEquals(DeviceFamily.GLM_50_2, DeviceFamily.fromDisplayName("Bosch GLM50-27 C x0042"));
+        assertTrue(DeviceFamily.fromDisplayName("Bosch GLM 120 C x1234").isBleOnly());
+    }
+
+    @Test
+    public void fromDisplayName_panDevices() {
+        assertEquals(DeviceFamily.GLM_100, DeviceFamily.fromDisplayName("Bosch GLM100 C"));
+        assertEquals(DeviceFamily.GLM_50, DeviceFamily.fromDisplayName("Bosch GLM50 C"));
+        assertEquals(DeviceFamily.PLR, DeviceFamily.fromDisplayName("Bosch PLR 40 C"));
+        assertEquals(DeviceFamily.GIS, DeviceFamily.fromDisplayName("Bosch GIS 1000 C"));
+        assertEquals(DeviceFamily.UNKNOWN, DeviceFamily.fromDisplayName("Some Headset"));
+        assertEquals(DeviceFamily.UNKNOWN, DeviceFamily.fromDisplayName(null));
+        assertEquals(DeviceFamily.Protocol.SYNC, DeviceFamily.GLM_100.getProtocol());
+        assertFalse(DeviceFamily.UNKNOWN.isSupported());
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.t4.bluetooth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks how changes of the same device within one update window are merged
+ */
+public class DeviceListDiffTest {
+
+    private static final String ADDRESS = "00:11:22:AA:BB:CC";
+
+    @Test
+    public void addedAndRemoved_cancelOut() {
+        DeviceListDiff diff = new DeviceListDiff();
+        diff.deviceAdded(ADDRESS, device("Bosch GLM50 C"));
+        diff.deviceRemoved(ADDRESS, device("Bosch GLM50 C"));
+
+        assertTrue(diff.isEmpty());
+    }
+
+    @Test
+    public void removedAndAddedAgain_isChange() {
+        DeviceListDiff diff = new DeviceListDiff();
+        diff.deviceRemoved(ADDRESS, device("Bosch GLM50 C"));
+        MTBluetoothDevice rediscovered = device("Bosch GLM50 C");
+        diff.deviceAdded(ADDRESS, rediscovered);
+
+        assertTrue(diff.getAdded().isEmpty());
+        assertTrue(diff.getRemoved().isEmpty());
+        assertSame(rediscovered, diff.getChanged().iterator().next());
+    }
+
+    @Test
+    public void changedAfterAdded_staysAdded() {
+        DeviceListDiff diff = new DeviceListDiff();
+        diff.deviceAdded(ADDRESS, device("Bosch GLM 120 C x0001"));
+        MTBluetoothDevice renamed = device("Bosch GLM 120 C x0002");
+        diff.deviceChanged(ADDRESS, renamed);
+        diff.deviceAdded("00:11:22:AA:BB:CD", device("Bosch PLR 40 C"));
+
+        assertEquals(2, diff.getAdded().size());
+        assertSame(renamed, diff.getAdded().iterator().next());
+        assertTrue(diff.getChanged().isEmpty());
+    }
+
+    private static MTBluetoothDevice device(String displayName) {
+        return new MTBluetoothDevice(null, displayName);
+    }
+}
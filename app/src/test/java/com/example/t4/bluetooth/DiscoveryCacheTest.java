@@ -0,0 +1,52 @@
+package com.example.t4.bluetooth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DiscoveryCacheTest {
+
+    private static final byte[] RECORD = {2, 1, 6, 3, 3, 0x0F, 0x18};
+
+    @Test
+    public void addressToLong_parsesColonSeparatedAddress() {
+        assertEquals(0xC92D051E6B31L, DiscoveryCache.addressToLong("C9:2D:05:1E:6B:31"));
+        assertEquals(0xC92D051E6B31L, DiscoveryCache.addressToLong("c9:2d:05:1e:6b:31"));
+        assertEquals(DiscoveryCache.INVALID_ADDRESS, DiscoveryCache.addressToLong("C9-2D-05-1E-6B-31"));
+        assertEquals(DiscoveryCache.INVALID_ADDRESS, DiscoveryCache.addressToLong(null));
+    }
+
+    @Test
+    public void get_returnsEntryUntilRecordChanges() {
+        DiscoveryCache cache = new DiscoveryCache(1000);
+        int hash = DiscoveryCache.recordHash(RECORD);
+        cache.put(42L, hash, RECORD, null, null, 0);
+
+        DiscoveryCache.Entry entry = cache.get(42L, 10);
+        assertNotNull(entry);
+        assertTrue(entry.matches(hash, RECORD.clone()));
+
+        byte[] changed = RECORD.clone();
+        changed[6] = 0x19;
+        assertFalse(entry.matches(DiscoveryCache.recordHash(changed), changed));
+    }
+
+    @Test
+    public void evictExpired_removesOnlyStaleEntries() {
+        DiscoveryCache cache = new DiscoveryCache(1000);
+        int hash = DiscoveryCache.recordHash(RECORD);
+        // enough entries to force resizing and colliding probe sequences
+        for (long address = 1; address <= 500; address++) {
+            cache.put(address, hash, RECORD, null, null, address % 2 == 0 ? 0 : 900);
+        }
+        assertEquals(500, cache.size());
+
+        assertEquals(250, cache.evictExpired(1500));
+        assertEquals(250, cache.size());
+        for (long address = 1; address <= 500; address++) {
+            assertEquals(address % 2 != 0, cache.peek(address) != null);
+        }
+        assertNull(cache.get(1L, 2000)); // expired on access
+        assertEquals(249, cache.size());
+    }
+}
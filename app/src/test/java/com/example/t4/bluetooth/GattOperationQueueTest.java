@@ -0,0 +1,70 @@
+package com.example.t4.bluetooth;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GattOperationQueueTest {
+
+    private final List<String> log = new ArrayList<>();
+
+    @Test
+    public void enqueue_startsNextOperationOnlyAfterCallback() {
+        GattOperationQueue queue = new GattOperationQueue(null);
+        queue.enqueue(new RecordingOperation("descriptor", GattOperationQueue.TYPE_WRITE_DESCRIPTOR, true));
+        queue.enqueue(new RecordingOperation("frame1", GattOperationQueue.TYPE_WRITE, true));
+        queue.enqueue(new RecordingOperation("frame2", GattOperationQueue.TYPE_WRITE, true));
+
+        assertEquals(3, queue.getDepth());
+        assertEquals(List.of("start descriptor"), log);
+
+        queue.complete(GattOperationQueue.TYPE_WRITE, 0); // unexpected callback -> ignored
+        assertEquals(3, queue.getDepth());
+
+        queue.complete(GattOperationQueue.TYPE_WRITE_DESCRIPTOR, 0);
+        queue.complete(GattOperationQueue.TYPE_WRITE, 0);
+        queue.complete(GattOperationQueue.TYPE_WRITE, 0);
+
+        assertEquals(List.of("start descriptor", "done descriptor 0", "start frame1", "done frame1 0",
+                "start frame2", "done frame2 0"), log);
+        assertEquals(0, queue.getDepth());
+        assertEquals(3, queue.getMaxDepth());
+    }
+
+    @Test
+    public void enqueue_rejectedOperationDoesNotBlockQueue() {
+        GattOperationQueue queue = new GattOperationQueue(null);
+        queue.enqueue(new RecordingOperation("busy", GattOperationQueue.TYPE_WRITE, false));
+        queue.enqueue(new RecordingOperation("frame", GattOperationQueue.TYPE_WRITE, true));
+
+        assertEquals(List.of("start busy", "done busy " + GattOperationQueue.STATUS_REJECTED, "start frame"), log);
+        assertEquals(1, queue.getDepth());
+        assertEquals(1, queue.clear());
+        assertEquals(0, queue.getDepth());
+    }
+
+    private class RecordingOperation extends GattOperationQueue.Operation {
+        private final String name;
+        private final boolean accepted;
+
+        RecordingOperation(String name, int type, boolean accepted) {
+            super(type, GattOperationQueue.DEFAULT_TIMEOUT_IN_MS);
+            this.name = name;
+            this.accepted = accepted;
+        }
+
+        @Override
+        boolean execute() {
+            log.add("start " + name);
+            return accepted;
+        }
+
+        @Override
+        void onCompleted(int status) {
+            log.add("done " + name + " " + status);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.t4.bluetooth;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that MTScanRecordParser delivers the same device information as MTDeviceParserImpl
+ */
+public class MTScanRecordParserTest {
+
+    private static final UUID MIRX_SERVICE_UUID = UUID.fromString("02a6c0d0-0451-4000-b000-fb3210111989");
+
+    @Test
+    public void parse_matchesLegacyParser() {
+        byte[] record = scanRecord("00F27K1063", "1234", (byte) 0x08);
+
+        MTDeviceParser legacy = new MTDeviceParserImpl(null, record.clone());
+        MTScanRecordParser parser = new MTScanRecordParser().parse(null, record);
+
+        assertEquals("Bosch GLM 120 C x1234", parser.getDisplayName());
+        assertEquals(legacy.getDisplayName(), parser.getDisplayName());
+        assertEquals(legacy.getMacAddress(), parser.getMacAddress());
+        assertEquals(legacy.getBareToolNr(), parser.getBareToolNr());
+        assertEquals(legacy.getSerialNr(), parser.getSerialNr());
+        assertEquals(legacy.getMainSupplyChargeState(), parser.getMainSupplyChargeState());
+        assertEquals(legacy.isConnectable(), parser.isConnectable());
+        assertEquals(legacy.isELOWakeUpAllowed(), parser.isELOWakeUpAllowed());
+        assertEquals(legacy.isToolLocked(), parser.isToolLocked());
+        assertEquals(legacy.isBackupSupplyLow(), parser.isBackupSupplyLow());
+        assertEquals(MIRX_SERVICE_UUID, parser.getServiceUUID());
+    }
+
+    @Test
+    public void parse_byteBufferWithOffset() {
+        byte[] record = scanRecord("00T27K1063", "0042", (byte) 0x0F);
+        ByteBuffer buffer = ByteBuffer.allocate(record.length + 7);
+        buffer.position(7);
+        buffer.put(record);
+        buffer.position(7);
+
+        MTScanRecordParser parser = new MTScanRecordParser().parse("ignored", buffer);
+
+        assertEquals(7, buffer.position());
+        assertEquals("Bosch GLM50-27 C x0042", parser.getDisplayName());
+        assertEquals("aa:bb:cc:dd:ee:ff", parser.getMacAddress());
+        assertEquals(0xAABBCCDDEEFFL, parser.getMacAddressBits());
+        assertTrue(parser.isBackupSupplyLow());
+        assertTrue(parser.isToolLocked());
+    }
+
+    @Test
+    public void parse_reuseDoesNotLeakPreviousResult() {
+        MTScanRecordParser parser = new MTScanRecordParser();
+        parser.parse(null, scanRecord("00F27K1063", "1234", (byte) 0x08));
+        MTScanRecordParser copy = parser.copy();
+
+        // not connectable -> no scan response data
+        parser.parse(null, scanRecord("00F27K1063", "1234", (byte) 0x00));
+        assertNull(parser.getDisplayName());
+        assertNull(parser.getBareToolNr());
+        assertEquals("Bosch GLM 120 C x1234", copy.getDisplayName());
+
+        // PAN1026 device
+        parser.parse("Bosch GLM50 C", (byte[]) null);
+        assertEquals("Bosch GLM50 C", parser.getDisplayName());
+        assertTrue(parser.isConnectable());
+        assertNull(parser.getMacAddress());
+    }
+
+    /**
+     * Builds advertising and scan response package of a MirX based device
+     */
+    private static byte[] scanRecord(String rawBareToolNr, String serialNr, byte flags) {
+        byte[] record = new byte[62];
+        byte[] mac = {(byte) 0xFF, (byte) 0xEE, (byte) 0xDD, (byte) 0xCC, (byte) 0xBB, (byte) 0xAA};
+        System.arraycopy(mac, 0, record, 5, mac.length);
+        record[11] = flags;
+        ByteBuffer uuid = ByteBuffer.allocate(16);
+        uuid.putLong(MIRX_SERVICE_UUID.getMostSignificantBits()).putLong(MIRX_SERVICE_UUID.getLeastSignificantBits());
+        for (int i = 0; i < 16; i++) {
+            record[14 + i] = uuid.get(15 - i);
+        }
+        System.arraycopy(rawBareToolNr.getBytes(StandardCharsets.US_ASCII), 0, record, 33, 10);
+        record[43] = 80;
+        System.arraycopy(serialNr.getBytes(StandardCharsets.US_ASCII), 0, record, 44, 4);
+        return record;
+    }
+}
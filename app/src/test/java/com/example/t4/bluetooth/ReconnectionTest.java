@@ -0,0 +1,60 @@
+package com.example.t4.bluetooth;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReconnectionTest {
+
+    @Test
+    public void getDelay_doublesWithJitterUpToMax() {
+        Reconnection reconnection = new Reconnection(500, 4000, 10, new Random(1));
+        long[] expected = {500, 1000, 2000, 4000, 4000, 4000};
+        for (int attempt = 1; attempt <= expected.length; attempt++) {
+            long delay = reconnection.getDelay(attempt);
+            assertTrue("attempt " + attempt + ": " + delay, delay >= expected[attempt - 1] / 2 && delay <= expected[attempt - 1]);
+        }
+        assertTrue(reconnection.getDelay(100) <= 4000);
+    }
+
+    @Test
+    public void onAttemptFailed_givesUpAfterMaxAttempts() {
+        Reconnection reconnection = new Reconnection(500, 4000, 3, new Random(1));
+        reconnection.onConnecting(0);
+
+        assertTrue(reconnection.onAttemptFailed(10) > 0);
+        assertEquals(Reconnection.STATE_BACKOFF, reconnection.getState());
+        assertTrue(reconnection.onBackoffExpired(1000));
+        reconnection.onConnecting(1000);
+        assertTrue(reconnection.onAttemptFailed(1010) > 0);
+
+        assertEquals(-1, reconnection.onAttemptFailed(3000));
+        assertEquals(Reconnection.STATE_FAILED, reconnection.getState());
+    }
+
+    @Test
+    public void onConnected_resetsFailedAttempts() {
+        Reconnection reconnection = new Reconnection(500, 4000, 2, new Random(1));
+        reconnection.onConnecting(0);
+        reconnection.onAttemptFailed(10);
+        reconnection.onBackoffExpired(1000);
+        reconnection.onConnecting(1000);
+        reconnection.onConnected(1100);
+
+        assertEquals(0, reconnection.getFailedAttempts());
+        assertTrue(reconnection.onAttemptFailed(2000) > 0);
+    }
+
+    @Test
+    public void onBackoffExpired_ignoredAfterCancel() {
+        Reconnection reconnection = new Reconnection(500, 4000, 3, new Random(1));
+        reconnection.onConnecting(0);
+        reconnection.onAttemptFailed(10);
+        reconnection.cancel(20);
+
+        assertFalse(reconnection.onBackoffExpired(1000));
+        assertEquals(Reconnection.STATE_CANCELLED, reconnection.getState());
+    }
+}
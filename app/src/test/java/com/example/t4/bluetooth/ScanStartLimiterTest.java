@@ -0,0 +1,33 @@
+package com.example.t4.bluetooth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ScanStartLimiterTest {
+
+    @Test
+    public void getDelay_allowsMaxStartsWithinWindow() {
+        ScanStartLimiter limiter = new ScanStartLimiter(5, 30_000);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.getDelay(1000 + i));
+            limiter.recordStart(1000 + i);
+        }
+
+        assertEquals(30_000 - 5, limiter.getDelay(1005));
+    }
+
+    @Test
+    public void getDelay_oldestStartLeavesWindow() {
+        ScanStartLimiter limiter = new ScanStartLimiter(2, 30_000);
+        limiter.recordStart(0);
+        limiter.recordStart(10_000);
+
+        assertEquals(10_000, limiter.getDelay(20_000));
+        assertEquals(0, limiter.getDelay(30_000));
+
+        limiter.recordStart(30_000);
+        assertEquals(10_000, limiter.getDelay(30_000));
+        assertEquals(0, limiter.getDelay(40_000));
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.t4.logging;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SampledLogTest {
+
+    private static final long MS = 1_000_000;
+
+    @Test
+    public void sample_onePerInterval() {
+        long start = System.nanoTime();
+        SampledLog log = new SampledLog("Test", AppLog.INFO, 100);
+
+        assertTrue(log.sample(start));
+        assertFalse(log.sample(start + 10 * MS));
+        assertFalse(log.sample(start + 99 * MS));
+        assertTrue(log.sample(start + 100 * MS));
+        assertFalse(log.sample(start + 150 * MS));
+    }
+
+    @Test
+    public void sample_countsSuppressedTraces() {
+        long start = System.nanoTime();
+        SampledLog log = new SampledLog("Test", AppLog.INFO, 100);
+
+        log.sample(start);
+        for (int i = 1; i <= 5; i++) {
+            log.sample(start + i * MS);
+        }
+
+        assertEquals(5, log.getSuppressedCount());
+    }
+}
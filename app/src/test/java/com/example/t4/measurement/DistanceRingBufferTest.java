@@ -0,0 +1,52 @@
+package com.example.t4.measurement;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DistanceRingBufferTest {
+
+    @Test
+    public void drainTo_returnsSamplesOldestFirst() {
+        DistanceRingBuffer buffer = new DistanceRingBuffer(4);
+        buffer.add(1.0f, 10);
+        buffer.add(2.0f, 20);
+
+        float[] values = new float[4];
+        long[] timestamps = new long[4];
+        assertEquals(2, buffer.drainTo(values, timestamps));
+        assertEquals(1.0f, values[0], 0);
+        assertEquals(20, timestamps[1]);
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void add_overwritesOldestWhenFull() {
+        DistanceRingBuffer buffer = new DistanceRingBuffer(3);
+        for (int i = 1; i <= 5; i++) {
+            buffer.add(i, i * 10);
+        }
+
+        float[] values = new float[3];
+        long[] timestamps = new long[3];
+        assertEquals(3, buffer.drainTo(values, timestamps));
+        assertEquals(3.0f, values[0], 0);
+        assertEquals(5.0f, values[2], 0);
+        assertEquals(50, timestamps[2]);
+        assertEquals(2, buffer.getOverwrittenCount());
+    }
+
+    @Test
+    public void add_afterDrainStartsEmpty() {
+        DistanceRingBuffer buffer = new DistanceRingBuffer(2);
+        buffer.add(1.0f, 10);
+        buffer.add(2.0f, 20);
+        buffer.add(3.0f, 30);
+        buffer.drainTo(new float[2], new long[2]);
+        buffer.add(4.0f, 40);
+
+        float[] values = new float[2];
+        assertEquals(1, buffer.drainTo(values, new long[2]));
+        assertEquals(4.0f, values[0], 0);
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.t4.measurement;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class MeasurementBusTest {
+
+    @Test
+    public void publish_deliversToAllSubscribers() {
+        MeasurementBus bus = new MeasurementBus();
+        RecordingListener direct = new RecordingListener();
+        RecordingListener queued = new RecordingListener();
+        final List<Runnable> queue = new ArrayList<>();
+        bus.subscribe(direct);
+        bus.subscribe(queued, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queue.add(command);
+            }
+        });
+
+        bus.publish("00:11:22:AA:BB:CC", MeasurementBus.TYPE_DISTANCE, 1, 1.25f, 100);
+
+        assertEquals(1, direct.values.size());
+        assertEquals(1.25f, direct.values.get(0), 0f);
+        assertTrue(queued.values.isEmpty());
+        queue.get(0).run();
+        assertEquals(1.25f, queued.values.get(0), 0f);
+    }
+
+    @Test
+    public void unsubscribe_stopsDelivery() {
+        MeasurementBus bus = new MeasurementBus();
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        bus.subscribe(first);
+        bus.subscribe(first); // subscribed once only
+        bus.subscribe(second);
+
+        bus.publish(null, MeasurementBus.TYPE_TEMPERATURE, 0, 21.5f, 0);
+        bus.unsubscribe(first);
+        bus.publish(null, MeasurementBus.TYPE_TEMPERATURE, 0, 22.0f, 0);
+
+        assertEquals(1, first.values.size());
+        assertEquals(2, second.values.size());
+        bus.unsubscribe(second);
+        assertFalse(bus.hasSubscribers());
+    }
+
+    private static class RecordingListener implements MeasurementListener {
+        final List<Float> values = new ArrayList<>();
+
+        @Override
+        public void onMeasurement(String deviceAddress, int type, int mode, float value, long timestamp) {
+            values.add(value);
+        }
+    }
+}
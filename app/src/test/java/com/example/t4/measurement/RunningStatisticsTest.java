@@ -0,0 +1,81 @@
+package com.example.t4.measurement;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RunningStatisticsTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void add_matchesTwoPassMeanAndStandardDeviation() {
+        double[] samples = {12.503, 12.501, 12.504, 12.502, 12.500, 12.505};
+        RunningStatistics statistics = new RunningStatistics();
+        for (double sample : samples) {
+            assertTrue(statistics.add(sample));
+        }
+
+        double mean = 0;
+        for (double sample : samples) {
+            mean += sample;
+        }
+        mean /= samples.length;
+        double squares = 0;
+        for (double sample : samples) {
+            squares += (sample - mean) * (sample - mean);
+        }
+        assertEquals(samples.length, statistics.getCount());
+        assertEquals(mean, statistics.getMean(), DELTA);
+        assertEquals(Math.sqrt(squares / (samples.length - 1)), statistics.getStandardDeviation(), DELTA);
+        assertEquals(12.500, statistics.getMin(), DELTA);
+        assertEquals(12.505, statistics.getMax(), DELTA);
+    }
+
+    @Test
+    public void add_rejectsOutlierAfterMinSamples() {
+        RunningStatistics statistics = new RunningStatistics(3, 5, 0);
+        double[] samples = {2.000, 2.002, 1.999, 2.001, 2.000, 2.003, 1.998};
+        for (double sample : samples) {
+            assertTrue(statistics.add(sample));
+        }
+        double mean = statistics.getMean();
+
+        assertFalse(statistics.add(2.5)); // e.g. a person walking through the beam
+        assertEquals(1, statistics.getRejected());
+        assertEquals(samples.length, statistics.getCount());
+        assertEquals(mean, statistics.getMean(), DELTA);
+        assertTrue(statistics.add(2.001));
+    }
+
+    @Test
+    public void add_acceptsEverySampleBeforeMinSamples() {
+        RunningStatistics statistics = new RunningStatistics(3, 5, 0);
+        assertTrue(statistics.add(1.0));
+        assertTrue(statistics.add(1.0));
+        assertTrue(statistics.add(5.0));
+        assertEquals(0, statistics.getRejected());
+    }
+
+    @Test
+    public void add_toleranceKeepsSampleOfIdenticalSeries() {
+        RunningStatistics statistics = new RunningStatistics(3, 5, 0.002);
+        for (int i = 0; i < 10; i++) {
+            statistics.add(3.141);
+        }
+        assertEquals(0, statistics.getStandardDeviation(), DELTA);
+
+        assertTrue(statistics.add(3.142)); // one step of the device resolution
+        assertFalse(statistics.add(3.150));
+    }
+
+    @Test
+    public void getVariance_zeroForLessThanTwoSamples() {
+        RunningStatistics statistics = new RunningStatistics();
+        assertEquals(0, statistics.getVariance(), DELTA);
+        assertTrue(Double.isNaN(statistics.getMin()));
+        statistics.add(4.2);
+        assertEquals(0, statistics.getVariance(), DELTA);
+        assertEquals(4.2, statistics.getMean(), DELTA);
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.t4.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void indexOf_bucketsAreContiguous() {
+        for (int index = 0; index < 400; index++) {
+            long highest = LatencyHistogram.highestValueOf(index);
+            assertEquals(index, LatencyHistogram.indexOf(highest));
+            assertEquals(index + 1, LatencyHistogram.indexOf(highest + 1));
+        }
+    }
+
+    @Test
+    public void getValueAtPercentile_withinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(10_000, histogram.getCount());
+        assertEquals(5000.5, histogram.getMean(), 0.001);
+        assertEquals(10_000, histogram.getMax());
+        assertEquals(5000, histogram.getValueAtPercentile(50), 5000 / 16.0);
+        assertEquals(9900, histogram.getValueAtPercentile(99), 9900 / 16.0);
+        assertEquals(10_000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void record_clampsNegativeAndHugeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertTrue(histogram.getValueAtPercentile(100) > 0);
+    }
+
+    @Test
+    public void reset_removesAllValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(42);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.t4.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RateMeterTest {
+
+    @Test
+    public void getRatePerSecond_averagesOverWindow() {
+        RateMeter meter = new RateMeter(2000);
+        for (long now = 10_000; now < 12_000; now += 100) {
+            meter.record(244, now);
+        }
+
+        assertEquals(20 * 244 / 2, meter.getRatePerSecond(11_999), 0);
+    }
+
+    @Test
+    public void getRatePerSecond_forgetsOldAmounts() {
+        RateMeter meter = new RateMeter(2000);
+        meter.record(1000, 0);
+
+        assertEquals(500, meter.getRatePerSecond(100), 0);
+        assertEquals(0, meter.getRatePerSecond(5000), 0);
+    }
+
+    @Test
+    public void getRatePerSecond_countsEvents() {
+        RateMeter meter = new RateMeter(RateMeter.DEFAULT_WINDOW_IN_MS);
+        for (int i = 0; i < 10; i++) {
+            meter.record(1, 1_000 + i);
+        }
+
+        assertEquals(5, meter.getRatePerSecond(1_500), 0);
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.t4.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class MeasurementLogTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("measurements", ".log");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void read_returnsAppendedRecords() throws IOException {
+        MeasurementLog log = new MeasurementLog(file);
+        log.append(encode(1, 2, 3));
+        log.sync();
+
+        List<Long> sequences = readSequences(log);
+        log.close();
+
+        assertEquals(3, sequences.size());
+        assertEquals(Long.valueOf(1), sequences.get(0));
+        assertEquals(Long.valueOf(3), sequences.get(2));
+    }
+
+    @Test
+    public void read_decodesAllFields() throws IOException {
+        MeasurementLog log = new MeasurementLog(file);
+        ByteBuffer buffer = ByteBuffer.allocate(MeasurementLog.RECORD_SIZE);
+        MeasurementLog.encode(buffer, new CRC32(), 7, 1_600_000_000_000L, 0x001122AABBCCL, 1, 4, MeasurementStore.UNIT_METER, 1.234f);
+        buffer.flip();
+        log.append(buffer);
+
+        final Object[] fields = new Object[7];
+        log.read(new MeasurementLog.RecordVisitor() {
+            @Override
+            public void onRecord(long sequence, long timestamp, long deviceAddress, int type, int mode, int unit, float value) {
+                fields[0] = sequence;
+                fields[1] = timestamp;
+                fields[2] = deviceAddress;
+                fields[3] = type;
+                fields[4] = mode;
+                fields[5] = unit;
+                fields[6] = value;
+            }
+        });
+        log.close();
+
+        assertEquals(7L, fields[0]);
+        assertEquals(1_600_000_000_000L, fields[1]);
+        assertEquals(0x001122AABBCCL, fields[2]);
+        assertEquals(1, fields[3]);
+        assertEquals(4, fields[4]);
+        assertEquals(MeasurementStore.UNIT_METER, fields[5]);
+        assertEquals(1.234f, fields[6]);
+    }
+
+    @Test
+    public void open_cutsOffTornRecord() throws IOException {
+        MeasurementLog log = new MeasurementLog(file);
+        log.append(encode(1, 2));
+        log.close();
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.setLength(raw.length() - 10);
+        raw.close();
+
+        log = new MeasurementLog(file);
+        assertEquals(1, log.getRecordCount());
+        log.append(encode(3));
+
+        List<Long> sequences = readSequences(log);
+        log.close();
+
+        assertEquals(2, sequences.size());
+        assertEquals(Long.valueOf(3), sequences.get(1));
+    }
+
+    @Test
+    public void read_stopsAtDamagedRecord() throws IOException {
+        MeasurementLog log = new MeasurementLog(file);
+        log.append(encode(1, 2, 3));
+        log.close();
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.seek(MeasurementLog.RECORD_SIZE + 20);
+        raw.write(0xFF);
+        raw.close();
+
+        log = new MeasurementLog(file);
+        List<Long> sequences = readSequences(log);
+        log.close();
+
+        assertEquals(1, sequences.size());
+    }
+
+    private static ByteBuffer encode(long... sequences) {
+        ByteBuffer buffer = ByteBuffer.allocate(sequences.length * MeasurementLog.RECORD_SIZE);
+        CRC32 crc = new CRC32();
+        for (long sequence : sequences) {
+            MeasurementLog.encode(buffer, crc, sequence, 1000 + sequence, 0x001122AABBCCL, 1, 0, MeasurementStore.UNIT_METER, sequence / 10f);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static List<Long> readSequences(MeasurementLog log) throws IOException {
+        final List<Long> sequences = new ArrayList<>();
+        log.read(new MeasurementLog.RecordVisitor() {
+            @Override
+            public void onRecord(long sequence, long timestamp, long deviceAddress, int type, int mode, int unit, float value) {
+                sequences.add(sequence);
+            }
+        });
+        return sequences;
+    }
+}
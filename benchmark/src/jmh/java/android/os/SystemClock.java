@@ -0,0 +1,22 @@
+package android.os;
+
+/**
+ * Host JVM replacement of android.os.SystemClock for the benchmarks: the android.jar stubs throw on every call.
+ */
+public final class SystemClock {
+
+    private SystemClock() {
+    }
+
+    public static long elapsedRealtime() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    public static long elapsedRealtimeNanos() {
+        return System.nanoTime();
+    }
+
+    public static long uptimeMillis() {
+        return System.nanoTime() / 1_000_000;
+    }
+}
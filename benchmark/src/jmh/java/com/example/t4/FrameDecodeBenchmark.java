@@ -0,0 +1,85 @@
+package com.example.t4;
+
+import com.bosch.mtprotocol.MtFrame;
+import com.bosch.mtprotocol.MtMessage;
+import com.bosch.mtprotocol.glm100C.frame.MtFrameByteReader;
+import com.bosch.mtprotocol.glm100C.message.MessageFactoryImpl;
+import com.bosch.mtprotocol.glm100C.message.edc.EDCInputMessage;
+import com.bosch.mtprotocol.glm100C.message.sync.SyncInputMessage;
+import com.example.t4.simulator.SimulatedFrames;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of received measurement frames: byte wise frame reading and message creation,
+ * as done by the MT protocol for every frame of a device.
+ *
+ * Frames are encoded with the simulator, so they match what a real device sends.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameDecodeBenchmark {
+
+    // large enough for Sync frames (37 byte)
+    private static final int FRAME_BUFFER_SIZE = 64;
+
+    private byte[] edcFrame;
+    private byte[] syncFrame;
+    private byte[] edctFrame;
+    private final MessageFactoryImpl messageFactory = new MessageFactoryImpl();
+
+    @Setup
+    public void setup() {
+        edcFrame = SimulatedFrames.edc(EDCInputMessage.MODE_CONTINUOUS_DISTANCE, 42, 3.215f, true);
+        syncFrame = SimulatedFrames.sync(SyncInputMessage.MEAS_MODE_SINGLE, 3.215f, 7, false);
+        edctFrame = SimulatedFrames.edct(0, 42, 21.5f);
+    }
+
+    @Benchmark
+    public MtMessage decodeEdc() {
+        return decode(edcFrame);
+    }
+
+    @Benchmark
+    public MtMessage decodeSync() {
+        return decode(syncFrame);
+    }
+
+    @Benchmark
+    public MtMessage decodeEdct() {
+        return decode(edctFrame);
+    }
+
+    /**
+     * Frame reading only, without message creation
+     */
+    @Benchmark
+    public MtFrame readEdcFrame() {
+        return read(edcFrame).getFrame();
+    }
+
+    private MtMessage decode(byte[] frame) {
+        MtFrameByteReader reader = read(frame);
+        return messageFactory.createMessage(reader.getFrame());
+    }
+
+    private static MtFrameByteReader read(byte[] frame) {
+        MtFrameByteReader reader = new MtFrameByteReader(new byte[FRAME_BUFFER_SIZE], FRAME_BUFFER_SIZE);
+        for (byte b : frame) {
+            reader.append(b);
+        }
+        if (!reader.isFrameRcvComplete()) {
+            throw new IllegalStateException("Incomplete frame");
+        }
+        return reader;
+    }
+}
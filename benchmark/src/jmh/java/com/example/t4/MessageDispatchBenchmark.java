@@ -0,0 +1,145 @@
+package com.example.t4;
+
+import com.bosch.mtprotocol.MtConnection;
+import com.bosch.mtprotocol.MtMessage;
+import com.bosch.mtprotocol.MtProtocol;
+import com.bosch.mtprotocol.glm100C.frame.MtFrameByteReader;
+import com.bosch.mtprotocol.glm100C.event.MtProtocolReceiveMessageEvent;
+import com.bosch.mtprotocol.glm100C.message.MessageFactoryImpl;
+import com.bosch.mtprotocol.glm100C.message.SimpleMessage;
+import com.bosch.mtprotocol.glm100C.message.edc.EDCInputMessage;
+import com.bosch.mtprotocol.thermo.message.edct.EDCTInputMessage;
+import com.example.t4.measurement.MeasurementBus;
+import com.example.t4.measurement.MeasurementListener;
+import com.example.t4.metrics.ConnectionMetrics;
+import com.example.t4.simulator.SimulatedFrames;
+
+import android.os.SystemClock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatch of a received measurement the way GLMDeviceController.onEvent does it: the event
+ * passes the CommandScheduler, with a command waiting for its response, and is published on the
+ * MeasurementBus to its subscribers.
+ *
+ * Benchmarks the units, not the controller, so the benchmark compiles only the scheduler, the bus
+ * and the metrics. Runs on the host JVM with the android.util.Log and android.os.SystemClock
+ * replacements of this source set.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageDispatchBenchmark {
+
+    private static final String DEVICE_ADDRESS = "00:11:22:AA:BB:CC";
+
+    /**
+     * Number of listeners subscribed on the bus
+     */
+    @Param({"0", "1", "4"})
+    public int listenerCount;
+
+    private CommandScheduler scheduler;
+    private MeasurementBus measurementBus;
+    private MtProtocolReceiveMessageEvent continuousDistanceEvent;
+    private MtProtocolReceiveMessageEvent temperatureEvent;
+
+    @Setup(Level.Trial)
+    public void setup(final Blackhole blackhole) {
+        measurementBus = new MeasurementBus();
+        for (int i = 0; i < listenerCount; i++) {
+            measurementBus.subscribe(new MeasurementListener() {
+                @Override
+                public void onMeasurement(String deviceAddress, int type, int mode, float value, long timestamp) {
+                    blackhole.consume(value);
+                }
+            });
+        }
+        scheduler = new CommandScheduler(new NoProtocol(), 5000, new ConnectionMetrics(DEVICE_ADDRESS), null);
+        // a laser command in flight: every received message is checked against its response
+        SimpleMessage laserOn = new SimpleMessage((byte) 65);
+        scheduler.submit(laserOn, CommandScheduler.sameCommand(laserOn));
+
+        continuousDistanceEvent = event(SimulatedFrames.edc(EDCInputMessage.MODE_CONTINUOUS_DISTANCE, 1, 3.215f, true));
+        temperatureEvent = event(SimulatedFrames.edct(0, 3, 21.5f));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.close();
+    }
+
+    @Benchmark
+    public void continuousDistance() {
+        if (!scheduler.onEvent(continuousDistanceEvent)) {
+            EDCInputMessage message = (EDCInputMessage) continuousDistanceEvent.getMessage();
+            measurementBus.publish(DEVICE_ADDRESS, MeasurementBus.TYPE_DISTANCE, message.getDevMode(), message.getResult(),
+                    SystemClock.elapsedRealtime());
+        }
+    }
+
+    @Benchmark
+    public void temperature() {
+        if (!scheduler.onEvent(temperatureEvent)) {
+            EDCTInputMessage message = (EDCTInputMessage) temperatureEvent.getMessage();
+            measurementBus.publish(DEVICE_ADDRESS, MeasurementBus.TYPE_TEMPERATURE, message.getDevMode(), message.getResult(),
+                    SystemClock.elapsedRealtime());
+        }
+    }
+
+    private static MtProtocolReceiveMessageEvent event(byte[] frame) {
+        MtFrameByteReader reader = new MtFrameByteReader(new byte[64], 64);
+        for (byte b : frame) {
+            reader.append(b);
+        }
+        MtMessage message = new MessageFactoryImpl().createMessage(reader.getFrame());
+        return new MtProtocolReceiveMessageEvent(message);
+    }
+
+    /**
+     * Drops the sent commands, the benchmark answers nothing
+     */
+    private static final class NoProtocol implements MtProtocol {
+
+        @Override
+        public void initialize(MtConnection connection) {
+        }
+
+        @Override
+        public void destroy() {
+        }
+
+        @Override
+        public void sendMessage(MtMessage message) {
+        }
+
+        @Override
+        public void addObserver(MTProtocolEventObserver observer) {
+        }
+
+        @Override
+        public void removeObserver(MTProtocolEventObserver observer) {
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void setTimeout(int timeout) {
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.t4.bluetooth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Device classification by display name, as done for every discovered and every connected device.
+ *
+ * The "resolve" benchmarks include the family lookup of DeviceFamily.fromDisplayName,
+ * the "cached" benchmark the validate* chain on a device whose family is already known.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DeviceClassificationBenchmark {
+
+    private static final int NAME_COUNT = 8;
+
+    // MirX based names (product name and serial number), PAN1026 based names and a foreign device
+    private static final String[] NAMES = {
+            "Bosch GLM 120 C x1234",
+            "Bosch GLM50-27 C x0042",
+            "Bosch GLM 100-25 C x7781",
+            "Bosch GLM100C",
+            "Bosch GLM50C",
+            "Bosch PLR 50 C",
+            "Bosch GIS 1000 C",
+            "Watch"
+    };
+
+    private MTBluetoothDevice[] devices;
+
+    @Setup
+    public void setup() {
+        devices = new MTBluetoothDevice[NAMES.length];
+        for (int i = 0; i < NAMES.length; i++) {
+            devices[i] = new MTBluetoothDevice(null, NAMES[i]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NAME_COUNT)
+    public void resolveFamily(Blackhole blackhole) {
+        for (String name : NAMES) {
+            blackhole.consume(DeviceFamily.fromDisplayName(name));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NAME_COUNT)
+    public void resolveAndValidate(Blackhole blackhole) {
+        for (int i = 0; i < devices.length; i++) {
+            // resets the cached family, like a device renamed by a new scan result
+            devices[i].setDisplayName(NAMES[i]);
+            blackhole.consume(validate(devices[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NAME_COUNT)
+    public void validateCached(Blackhole blackhole) {
+        for (MTBluetoothDevice device : devices) {
+            blackhole.consume(validate(device));
+        }
+    }
+
+    /**
+     * Name check and family chain in the order of the connect path
+     */
+    private static int validate(MTBluetoothDevice device) {
+        if (!BluetoothUtils.validateDeviceName(device.getDisplayName())) {
+            return 0;
+        }
+        if (BluetoothUtils.validateGLM100Name(device)) {
+            return 1;
+        }
+        if (BluetoothUtils.validateGLM50Name(device)) {
+            return 2;
+        }
+        if (BluetoothUtils.validatePLRName(device)) {
+            return 3;
+        }
+        if (BluetoothUtils.validateGISName(device)) {
+            return 4;
+        }
+        if (BluetoothUtils.validateGLM120Name(device)) {
+            return 5;
+        }
+        if (BluetoothUtils.validateGLM50_2Name(device)) {
+            return 6;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.t4.bluetooth;
+
+/**
+ * Scan records as delivered by ScanRecord.getBytes() during a discovery on a job site:
+ * MirX based GLM devices (advertising + scan response), a non connectable MirX device
+ * and foreign BLE devices advertising in range.
+ */
+final class RecordedScanRecords {
+
+    static final String GLM_120_C = "02010608ff316b1e052dc90811078919111032fb00b000405104d0c0a6020010ff30304632374b3130363350313233340000000000000000000000000000";
+    static final String GLM_50_27_C = "02010608ff9012f47e0ad10811078919111032fb00b000405104d0c0a6020010ff30305432374b3130363350303034320000000000000000000000000000";
+    static final String GLM_100_25_C = "02010608ff05443a216bc40c11078919111032fb00b000405104d0c0a6020010ff30305932374b3130363350373738310000000000000000000000000000";
+    static final String GLM_NOT_CONNECTABLE = "02010608ffa05513022dc90011078919111032fb00b000405104d0c0a6020000000000000000000000000000000000000000000000000000000000000000";
+    static final String FOREIGN_BEACON = "0201061aff4c000215000102030405060708090a0b0c0d0e0f00010002c50000000000000000000000000000000000000000000000000000000000000000";
+    static final String FOREIGN_SHORT = "0201060609576174636803030f18";
+
+    private RecordedScanRecords() {
+    }
+
+    /**
+     * @return all recorded scan records in the order they were received
+     */
+    static byte[][] all() {
+        String[] hex = {GLM_120_C, FOREIGN_BEACON, GLM_50_27_C, FOREIGN_SHORT, GLM_100_25_C, GLM_NOT_CONNECTABLE};
+        byte[][] records = new byte[hex.length][];
+        for (int i = 0; i < hex.length; i++) {
+            records[i] = fromHex(hex[i]);
+        }
+        return records;
+    }
+
+    static byte[] fromHex(String hex) {
+        byte[] out = new byte[hex.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return out;
+    }
+}
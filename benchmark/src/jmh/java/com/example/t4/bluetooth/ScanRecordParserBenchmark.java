@@ -0,0 +1,109 @@
+package com.example.t4.bluetooth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares MTDeviceParserImpl with the flyweight MTScanRecordParser on recorded scan records.
+ *
+ * The "discovery" benchmarks use the values BLEService needs for every scan result,
+ * the "full" benchmarks read all parsed values.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ScanRecordParserBenchmark {
+
+    private static final int RECORD_COUNT = 6;
+
+    private byte[][] records;
+    private ByteBuffer[] buffers;
+    private final MTScanRecordParser parser = new MTScanRecordParser();
+
+    @Setup
+    public void setup() {
+        records = RecordedScanRecords.all();
+        buffers = new ByteBuffer[records.length];
+        for (int i = 0; i < records.length; i++) {
+            buffers[i] = ByteBuffer.wrap(records[i]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORD_COUNT)
+    public void legacyDiscovery(Blackhole bh) {
+        for (byte[] record : records) {
+            MTDeviceParser parsed = new MTDeviceParserImpl(null, record);
+            bh.consume(parsed.isConnectable());
+            bh.consume(parsed.getDisplayName());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORD_COUNT)
+    public void flyweightDiscovery(Blackhole bh) {
+        for (byte[] record : records) {
+            MTDeviceParser parsed = parser.parse(null, record);
+            bh.consume(parsed.isConnectable());
+            if (parsed.isConnectable()) {
+                bh.consume(parsed.getDisplayName());
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORD_COUNT)
+    public void flyweightByteBufferDiscovery(Blackhole bh) {
+        for (ByteBuffer record : buffers) {
+            MTDeviceParser parsed = parser.parse(null, record);
+            bh.consume(parsed.isConnectable());
+            if (parsed.isConnectable()) {
+                bh.consume(parsed.getDisplayName());
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORD_COUNT)
+    public void legacyFull(Blackhole bh) {
+        for (byte[] record : records) {
+            consumeAll(new MTDeviceParserImpl(null, record), bh);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORD_COUNT)
+    public void flyweightFull(Blackhole bh) {
+        for (byte[] record : records) {
+            consumeAll(parser.parse(null, record), bh);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORD_COUNT)
+    public void flyweightParseOnly(Blackhole bh) {
+        for (byte[] record : records) {
+            bh.consume(parser.parse(null, record).getMacAddressBits());
+        }
+    }
+
+    private static void consumeAll(MTDeviceParser parsed, Blackhole bh) {
+        bh.consume(parsed.getDisplayName());
+        bh.consume(parsed.getMacAddress());
+        bh.consume(parsed.getServiceUUID());
+        bh.consume(parsed.getBareToolNr());
+        bh.consume(parsed.getSerialNr());
+        bh.consume(parsed.getMainSupplyChargeState());
+        bh.consume(parsed.isToolLocked());
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.t4;
+
+/**
+ * Stands in for the BuildConfig generated for the app, with the values of the release build
+ */
+public final class BuildConfig {
+
+    // android.util.Log.INFO, like the release build
+    public static final int MIN_LOG_LEVEL = 4;
+
+    private BuildConfig() {
+    }
+}
@@ -0,0 +1,302 @@
+package com.example.t4.simulator;
+
+import com.bosch.mtprotocol.glm100C.connection.MtAsyncConnection;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Device side of a simulated connection: connect, measurement frames and answers to the app
+ *
+ * All device activity runs on one simulator thread per connection. Frames are delivered in order,
+ * each after the configured latency; the transport specific delivery is up to the subclass.
+ */
+abstract class AbstractSimulatedConnection implements MtAsyncConnection {
+
+    private final FrameSource frameSource;
+    protected final SimulationConfig config;
+    private final Random random;
+
+    private final List<MTAsyncConnectionObserver> observers = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> emitter;
+    private volatile int state = STATE_NONE;
+    private int frameIndex;
+    private long lastDeliveryInNs;
+
+    // bytes written by the app, not yet a complete request frame
+    private byte[] received = new byte[64];
+    private int receivedLength;
+
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong framesLost = new AtomicLong();
+    private final AtomicLong requestsReceived = new AtomicLong();
+    private final AtomicLong connectFailures = new AtomicLong();
+
+    AbstractSimulatedConnection(FrameSource frameSource, SimulationConfig config, final String name) {
+        this.frameSource = frameSource;
+        this.config = config;
+        this.random = new Random(config.getSeed());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void openConnection() {
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (state == STATE_CONNECTING || state == STATE_CONNECTED) {
+                    return;
+                }
+                setState(STATE_CONNECTING);
+                scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        finishConnect();
+                    }
+                }, config.getConnectTimeInMs(), TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    @Override
+    public void closeConnection() {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                stopEmitting();
+                if (state != STATE_NONE) {
+                    setState(STATE_NONE);
+                }
+                onClosed();
+            }
+        });
+    }
+
+    @Override
+    public boolean isOpen() {
+        return state == STATE_CONNECTED;
+    }
+
+    @Override
+    public int getState() {
+        return state;
+    }
+
+    @Override
+    public void addObserver(MTAsyncConnectionObserver observer) {
+        observers.add(observer);
+    }
+
+    @Override
+    public void removeObserver(MTAsyncConnectionObserver observer) {
+        observers.remove(observer);
+    }
+
+    /**
+     * Receives a frame of the app; every complete request frame is answered after the latency
+     */
+    @Override
+    public void write(byte[] data) throws IOException {
+        if (state != STATE_CONNECTED) {
+            throw new IOException("Not connected");
+        }
+        synchronized (this) {
+            if (receivedLength + data.length > received.length) {
+                received = Arrays.copyOf(received, Math.max(received.length * 2, receivedLength + data.length));
+            }
+            System.arraycopy(data, 0, received, receivedLength, data.length);
+            receivedLength += data.length;
+
+            int offset = 0;
+            while (offset < receivedLength) {
+                int length = SimulatedFrames.requestLength(received, offset, receivedLength - offset);
+                if (length == 0) {
+                    break; // wait for the rest of the frame
+                }
+                if (length < 0) {
+                    offset++; // answer of the app or garbage
+                    continue;
+                }
+                requestsReceived.incrementAndGet();
+                deliverLater(SimulatedFrames.idleResponse(received[offset + 1]));
+                offset += length;
+            }
+            System.arraycopy(received, offset, received, 0, receivedLength - offset);
+            receivedLength -= offset;
+        }
+        onWritten(data);
+    }
+
+    /**
+     * Stops the simulator thread; the connection can not be opened again
+     */
+    public void shutdown() {
+        closeConnection();
+        scheduler.shutdown();
+    }
+
+    /**
+     * @return measurement frames delivered to the app
+     */
+    public long getFramesSent() {
+        return framesSent.get();
+    }
+
+    /**
+     * @return measurement frames dropped by the injected loss
+     */
+    public long getFramesLost() {
+        return framesLost.get();
+    }
+
+    /**
+     * @return request frames received from the app
+     */
+    public long getRequestsReceived() {
+        return requestsReceived.get();
+    }
+
+    /**
+     * @return connects failed by the injected error 133
+     */
+    public long getConnectFailures() {
+        return connectFailures.get();
+    }
+
+    // ##### Transport specific #####
+
+    /**
+     * Hands bytes of the device to the app, called on the simulator thread
+     */
+    protected abstract void deliver(byte[] frame);
+
+    /**
+     * Called after the app wrote data, on the writing thread
+     */
+    protected void onWritten(byte[] data) {
+    }
+
+    /**
+     * Called on the simulator thread after the connection was closed
+     */
+    protected void onClosed() {
+    }
+
+    /**
+     * Schedules a task on the simulator thread
+     */
+    protected void schedule(Runnable task, long delayInMs) {
+        if (!scheduler.isShutdown()) {
+            scheduler.schedule(task, delayInMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return latency plus random jitter
+     */
+    protected synchronized long nextLatency() {
+        long jitter = config.getLatencyJitterInMs();
+        return config.getLatencyInMs() + (jitter > 0 ? (long) (random.nextDouble() * jitter) : 0);
+    }
+
+    // ##### Helper & private methods #####
+
+    private void finishConnect() {
+        if (state != STATE_CONNECTING) {
+            return; // closed in the meantime
+        }
+        if (nextRandom() < config.getConnectFailureRate()) {
+            // like BLEConnection on GATT error 133: closed first, timeout afterwards
+            connectFailures.incrementAndGet();
+            setState(STATE_NONE);
+            setState(STATE_TIMEOUT);
+            return;
+        }
+        setState(STATE_CONNECTED);
+        startEmitting();
+    }
+
+    private void startEmitting() {
+        if (config.getFramesPerSecond() <= 0) {
+            return;
+        }
+        long periodInUs = Math.max(1, (long) (1_000_000 / config.getFramesPerSecond()));
+        emitter = scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                emit();
+            }
+        }, periodInUs, periodInUs, TimeUnit.MICROSECONDS);
+    }
+
+    private void stopEmitting() {
+        if (emitter != null) {
+            emitter.cancel(false);
+            emitter = null;
+        }
+    }
+
+    private void emit() {
+        byte[] frame = frameSource.nextFrame(frameIndex++);
+        if (frame == null) {
+            return;
+        }
+        if (nextRandom() < config.getLossRate()) {
+            framesLost.incrementAndGet();
+            return;
+        }
+        framesSent.incrementAndGet();
+        deliverLater(frame);
+    }
+
+    /**
+     * Delivers after the latency, but never before a frame scheduled earlier
+     */
+    private synchronized void deliverLater(final byte[] frame) {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+        long now = System.nanoTime();
+        long deliveryInNs = Math.max(now + TimeUnit.MILLISECONDS.toNanos(nextLatency()), lastDeliveryInNs);
+        lastDeliveryInNs = deliveryInNs;
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (state == STATE_CONNECTED) {
+                    deliver(frame);
+                }
+            }
+        }, deliveryInNs - now, TimeUnit.NANOSECONDS);
+    }
+
+    private synchronized double nextRandom() {
+        return random.nextDouble();
+    }
+
+    private void setState(int state) {
+        this.state = state;
+        for (MTAsyncConnectionObserver observer : observers) {
+            observer.onConnectionStateChanged(this);
+        }
+    }
+}
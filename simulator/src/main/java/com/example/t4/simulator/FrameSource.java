@@ -0,0 +1,17 @@
+package com.example.t4.simulator;
+
+/**
+ * Produces the measurement frames a simulated device sends
+ *
+ * @see FrameSources
+ */
+public interface FrameSource {
+
+    /**
+     * Called on the simulator thread for every frame to send
+     *
+     * @param index running number of the frame, starting at 0
+     * @return encoded frame, see {@link SimulatedFrames}; null to send nothing this time
+     */
+    byte[] nextFrame(int index);
+}
@@ -0,0 +1,96 @@
+package com.example.t4.simulator;
+
+import com.bosch.mtprotocol.glm100C.message.edc.EDCInputMessage;
+import com.bosch.mtprotocol.glm100C.message.sync.SyncInputMessage;
+import com.bosch.mtprotocol.thermo.message.edct.EDCTInputMessage;
+
+import java.util.Random;
+
+/**
+ * Scripted and randomised {@link FrameSource}s
+ */
+public final class FrameSources {
+
+    private FrameSources() {
+    }
+
+    /**
+     * Sends the given frames in order, repeating them
+     *
+     * @param frames encoded frames, see {@link SimulatedFrames}
+     */
+    public static FrameSource scripted(final byte[]... frames) {
+        if (frames.length == 0) {
+            throw new IllegalArgumentException("No frames");
+        }
+        return new FrameSource() {
+            @Override
+            public byte[] nextFrame(int index) {
+                return frames[index % frames.length];
+            }
+        };
+    }
+
+    /**
+     * Continuous distance measurement (EDC) around a distance with random noise
+     *
+     * @param seed random seed, for reproducible runs
+     * @param distance mean distance in meter
+     * @param noise maximum deviation in meter
+     */
+    public static FrameSource randomContinuousDistance(long seed, final float distance, final float noise) {
+        final Random random = new Random(seed);
+        return new FrameSource() {
+            @Override
+            public byte[] nextFrame(int index) {
+                float value = distance + (random.nextFloat() * 2 - 1) * noise;
+                return SimulatedFrames.edc(EDCInputMessage.MODE_CONTINUOUS_DISTANCE, index & 0xFFFF, value, true);
+            }
+        };
+    }
+
+    /**
+     * Single distance measurements (EDC) between 0.05 and 50 m
+     *
+     * @param seed random seed, for reproducible runs
+     */
+    public static FrameSource randomSingleDistance(long seed) {
+        final Random random = new Random(seed);
+        return new FrameSource() {
+            @Override
+            public byte[] nextFrame(int index) {
+                return SimulatedFrames.edc(EDCInputMessage.MODE_SINGLE_DISTANCE, index & 0xFFFF, 0.05f + random.nextFloat() * 49.95f, false);
+            }
+        };
+    }
+
+    /**
+     * Single distance measurements of a GLM 100 C (sync) between 0.05 and 100 m
+     *
+     * @param seed random seed, for reproducible runs
+     */
+    public static FrameSource randomSync(long seed) {
+        final Random random = new Random(seed);
+        return new FrameSource() {
+            @Override
+            public byte[] nextFrame(int index) {
+                return SimulatedFrames.sync(SyncInputMessage.MEAS_MODE_SINGLE, 0.05f + random.nextFloat() * 99.95f, index & 0xFF, false);
+            }
+        };
+    }
+
+    /**
+     * Surface temperatures of a GIS 1000 C (EDCT) between -10 and 60 degree Celsius
+     *
+     * @param seed random seed, for reproducible runs
+     */
+    public static FrameSource randomTemperature(long seed) {
+        final Random random = new Random(seed);
+        return new FrameSource() {
+            @Override
+            public byte[] nextFrame(int index) {
+                return SimulatedFrames.edct(EDCTInputMessage.MODE_SURFACE_TEMPERATURE, index & 0xFFFF, -10f + random.nextFloat() * 70f);
+            }
+        };
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.t4.simulator;
+
+import com.bosch.mtprotocol.MtMessage;
+import com.bosch.mtprotocol.MtProtocol;
+import com.bosch.mtprotocol.glm100C.MtProtocolBLEImpl;
+import com.bosch.mtprotocol.glm100C.connection.MtAsyncConnection;
+import com.bosch.mtprotocol.glm100C.event.MtProtocolReceiveMessageEvent;
+import com.bosch.mtprotocol.glm100C.message.edc.EDCInputMessage;
+import com.bosch.mtprotocol.glm100C.message.edc.EDCOutputMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Load test of the MT protocol with several simulated BLE devices sending continuous distances
+ *
+ * Connects every device like the app does (retry on error 133), enables auto sync and counts the
+ * measurements the protocol delivers. Options: --devices, --rate (frames/s per device), --seconds,
+ * --latency (ms), --jitter (ms), --loss (0..1), --fail (connect failure rate 0..1), --mtu.
+ */
+public final class LoadTest {
+
+    private static final class Device implements MtAsyncConnection.MTAsyncConnectionObserver, MtProtocol.MTProtocolEventObserver {
+        private final SimulatedBLEConnection connection;
+        private MtProtocolBLEImpl protocol;
+        private final AtomicLong received = new AtomicLong();
+        private final AtomicLong firstReceivedInNs = new AtomicLong();
+
+        private Device(SimulatedBLEConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void onConnectionStateChanged(MtAsyncConnection connection) {
+            switch (connection.getState()) {
+                case MtAsyncConnection.STATE_CONNECTED:
+                    protocol = new MtProtocolBLEImpl();
+                    protocol.addObserver(this);
+                    protocol.setTimeout(5000);
+                    protocol.initialize(connection);
+                    EDCOutputMessage autoSync = new EDCOutputMessage();
+                    autoSync.setSyncControl(EDCOutputMessage.MODE_AUTOSYNC_CONTROL_ON);
+                    autoSync.setDevMode(EDCOutputMessage.READ_ONLY_MODE);
+                    protocol.sendMessage(autoSync);
+                    break;
+                case MtAsyncConnection.STATE_TIMEOUT: // error 133 -> retry
+                    connection.openConnection();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void onEvent(MtProtocol.MTProtocolEvent event) {
+            if (event instanceof MtProtocolReceiveMessageEvent) {
+                MtMessage message = ((MtProtocolReceiveMessageEvent) event).getMessage();
+                if (message instanceof EDCInputMessage
+                        && ((EDCInputMessage) message).getDevMode() == EDCInputMessage.MODE_CONTINUOUS_DISTANCE) {
+                    firstReceivedInNs.compareAndSet(0, System.nanoTime());
+                    received.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int devices = 4;
+        long seconds = 10;
+        SimulationConfig config = new SimulationConfig();
+        config.setFramesPerSecond(20);
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--devices": devices = Integer.parseInt(value); break;
+                case "--seconds": seconds = Long.parseLong(value); break;
+                case "--rate": config.setFramesPerSecond(Double.parseDouble(value)); break;
+                case "--latency": config.setLatencyInMs(Long.parseLong(value)); break;
+                case "--jitter": config.setLatencyJitterInMs(Long.parseLong(value)); break;
+                case "--loss": config.setLossRate(Double.parseDouble(value)); break;
+                case "--fail": config.setConnectFailureRate(Double.parseDouble(value)); break;
+                case "--mtu": config.setMtu(Integer.parseInt(value)); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        // the protocol logs every frame as warning
+        Logger.getLogger("").setLevel(Level.SEVERE);
+        for (java.util.logging.Handler handler : Logger.getLogger("").getHandlers()) {
+            handler.setLevel(Level.SEVERE);
+        }
+
+        List<Device> simulated = new ArrayList<>();
+        for (int i = 0; i < devices; i++) {
+            SimulationConfig deviceConfig = copy(config, i + 1);
+            Device device = new Device(new SimulatedBLEConnection(FrameSources.randomContinuousDistance(i, 2.5f, 0.01f), deviceConfig));
+            device.connection.addObserver(device);
+            simulated.add(device);
+        }
+        long start = System.nanoTime();
+        for (Device device : simulated) {
+            device.connection.openConnection();
+        }
+        Thread.sleep(seconds * 1000);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        long totalSent = 0;
+        long totalReceived = 0;
+        for (int i = 0; i < simulated.size(); i++) {
+            Device device = simulated.get(i);
+            device.connection.shutdown();
+            if (device.protocol != null) {
+                device.protocol.destroy();
+            }
+            totalSent += device.connection.getFramesSent();
+            totalReceived += device.received.get();
+            System.out.println(String.format(Locale.ROOT, "device %d: sent %d, lost %d, received %d, connect failures %d",
+                    i, device.connection.getFramesSent(), device.connection.getFramesLost(), device.received.get(),
+                    device.connection.getConnectFailures()));
+        }
+        System.out.println(String.format(Locale.ROOT, "total: %d of %d frames received in %.1f s, %.1f measurements/s",
+                totalReceived, totalSent, elapsed, totalReceived / elapsed));
+    }
+
+    private static SimulationConfig copy(SimulationConfig config, long seed) {
+        SimulationConfig copy = new SimulationConfig();
+        copy.setFramesPerSecond(config.getFramesPerSecond());
+        copy.setLatencyInMs(config.getLatencyInMs());
+        copy.setLatencyJitterInMs(config.getLatencyJitterInMs());
+        copy.setLossRate(config.getLossRate());
+        copy.setConnectFailureRate(config.getConnectFailureRate());
+        copy.setConnectTimeInMs(config.getConnectTimeInMs());
+        copy.setMtu(config.getMtu());
+        copy.setSeed(seed);
+        return copy;
+    }
+}
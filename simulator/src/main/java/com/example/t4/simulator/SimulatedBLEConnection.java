@@ -0,0 +1,69 @@
+package com.example.t4.simulator;
+
+import com.bosch.mtprotocol.glm100C.connection.MtAsyncBLEConnection;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Simulated MirX based device (GLM 120 C, GLM 50-2 family), stand-in for BLEConnection
+ *
+ * Frames reach the app as characteristic notifications of at most MTU - 3 bytes, writes of the
+ * app are confirmed with onBLEWriteFinished after the latency. Use with MtProtocolBLEImpl.
+ */
+public class SimulatedBLEConnection extends AbstractSimulatedConnection implements MtAsyncBLEConnection {
+
+    private static final int GATT_SUCCESS = 0;
+
+    private final List<MTAsyncBLEConnectionCallbackRecipient> recipients = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param frameSource measurement frames to send
+     * @param config timing and fault injection
+     */
+    public SimulatedBLEConnection(FrameSource frameSource, SimulationConfig config) {
+        super(frameSource, config, "SimulatedBLEConnection");
+    }
+
+    @Override
+    public void addCallbackRecipient(MTAsyncBLEConnectionCallbackRecipient recipient) {
+        recipients.add(recipient);
+    }
+
+    @Override
+    public void removeCallbackRecipient(MTAsyncBLEConnectionCallbackRecipient recipient) {
+        recipients.remove(recipient);
+    }
+
+    /**
+     * Not used over BLE, frames are pushed to the callback recipients
+     */
+    @Override
+    public int read(byte[] buffer) {
+        return 0;
+    }
+
+    @Override
+    protected void deliver(byte[] frame) {
+        int chunkSize = Math.max(1, config.getMtu() - 3);
+        for (int offset = 0; offset < frame.length; offset += chunkSize) {
+            byte[] notification = Arrays.copyOfRange(frame, offset, Math.min(frame.length, offset + chunkSize));
+            for (MTAsyncBLEConnectionCallbackRecipient recipient : recipients) {
+                recipient.onBLECharacteristicChanged(notification);
+            }
+        }
+    }
+
+    @Override
+    protected void onWritten(byte[] data) {
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                for (MTAsyncBLEConnectionCallbackRecipient recipient : recipients) {
+                    recipient.onBLEWriteFinished(GATT_SUCCESS);
+                }
+            }
+        }, nextLatency());
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.t4.simulator;
+
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Simulated PAN 1026 based device (GLM 100 C, GLM 50 C, PLR), stand-in for the RFCOMM BluetoothConnection
+ *
+ * Frames are queued as a byte stream read by the app with the blocking {@link #read(byte[])}.
+ * Use with MtProtocolImpl.
+ */
+public class SimulatedConnection extends AbstractSimulatedConnection {
+
+    // marks the end of the stream after close
+    private static final byte[] CLOSED = new byte[0];
+
+    private final LinkedBlockingQueue<byte[]> stream = new LinkedBlockingQueue<>();
+    private byte[] current;
+    private int currentOffset;
+
+    /**
+     * @param frameSource measurement frames to send
+     * @param config timing and fault injection; the MTU is ignored
+     */
+    public SimulatedConnection(FrameSource frameSource, SimulationConfig config) {
+        super(frameSource, config, "SimulatedConnection");
+    }
+
+    /**
+     * Blocks until bytes of the device are available
+     *
+     * @return number of bytes read
+     * @throws IOException if the connection was closed
+     */
+    @Override
+    public int read(byte[] buffer) throws IOException {
+        try {
+            if (current == null || currentOffset == current.length) {
+                current = stream.take();
+                currentOffset = 0;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+        if (current == CLOSED) {
+            stream.offer(CLOSED); // keep further reads failing
+            throw new IOException("Connection closed");
+        }
+        int length = Math.min(buffer.length, current.length - currentOffset);
+        System.arraycopy(current, currentOffset, buffer, 0, length);
+        currentOffset += length;
+        return length;
+    }
+
+    @Override
+    protected void deliver(byte[] frame) {
+        stream.offer(frame);
+    }
+
+    @Override
+    protected void onClosed() {
+        stream.offer(CLOSED);
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.t4.simulator;
+
+import com.bosch.mtprotocol.glm100C.MtFrameConstants;
+import com.bosch.mtprotocol.glm100C.frame.MtBaseFrame;
+import com.bosch.mtprotocol.glm100C.frame.MtFrameByteWriter;
+import com.bosch.mtprotocol.glm100C.frame.MtRequestFrame;
+import com.bosch.mtprotocol.glm100C.frame.MtResponseFrame;
+import com.bosch.mtprotocol.glm100C.message.edc.EDCInputMessage;
+
+import java.util.Arrays;
+
+/**
+ * Encodes the frames an MT device sends, with the frame writer of the MT protocol library
+ *
+ * Measurements are sent by the device as request frames (device is master), answers to requests
+ * of the app as response frames. The payload layouts match the message factories of the library.
+ */
+public final class SimulatedFrames {
+
+    public static final byte CMD_SYNC = 80;
+    public static final byte CMD_EDC = 85;
+    public static final byte CMD_EDCT = 94;
+
+    private static final int MAX_FRAME_SIZE = 64;
+
+    private SimulatedFrames() {
+    }
+
+    /**
+     * EDC measurement frame, sent by GLM 50 C, PLR, GLM 120 C and GLM 50-2 family devices
+     *
+     * @param devMode measurement mode, EDCInputMessage.MODE_*
+     * @param measId running measurement number
+     * @param result distance in meter
+     * @param laserOn true if the laser is on
+     */
+    public static byte[] edc(int devMode, int measId, float result, boolean laserOn) {
+        return request(CMD_EDC, edcPayload(devMode, measId, result, laserOn));
+    }
+
+    /**
+     * Sync measurement frame, sent by GLM 100 C devices
+     *
+     * @param mode measurement mode, SyncInputMessage.MEAS_MODE_*
+     * @param result distance in meter
+     * @param measListIndex index in the measurement list of the device
+     * @param laserOn true if the laser is on
+     */
+    public static byte[] sync(int mode, float result, int measListIndex, boolean laserOn) {
+        return request(CMD_SYNC, syncPayload(mode, result, measListIndex, laserOn));
+    }
+
+    /**
+     * EDCT measurement frame, sent by GIS 1000 C devices
+     *
+     * @param devMode measurement mode, EDCTInputMessage.MODE_*
+     * @param measId running measurement number
+     * @param result temperature in degree Celsius
+     */
+    public static byte[] edct(int devMode, int measId, float result) {
+        return request(CMD_EDCT, edctPayload(devMode, measId, result));
+    }
+
+    /**
+     * Answer of the device to a request of the app: an idle measurement for the sync commands,
+     * no payload for all other commands
+     *
+     * @param command command of the request
+     */
+    public static byte[] idleResponse(byte command) {
+        switch (command) {
+            case CMD_EDC:
+                return response(command, edcPayload(EDCInputMessage.MODE_NO_ACTION, 0, 0, false));
+            case CMD_SYNC:
+                return response(command, syncPayload(0, 0, 0, false));
+            case CMD_EDCT:
+                return response(command, edctPayload(0, 0, 0));
+            default:
+                return response(command, new byte[0]);
+        }
+    }
+
+    /**
+     * @param frame frame bytes starting at offset
+     * @param offset start of the frame
+     * @param length bytes available
+     * @return length of the request frame at offset; 0 if incomplete, -1 if no request frame starts there
+     */
+    public static int requestLength(byte[] frame, int offset, int length) {
+        if (length < 1) {
+            return 0;
+        }
+        int mode = frame[offset] & 0xFF;
+        if ((mode >> 6) != MtFrameConstants.EN_FRAME_TYPE_REQUEST) {
+            return -1;
+        }
+        switch ((mode >> 2) & 0x03) {
+            case MtFrameConstants.EN_FRAME_FORMAT_SHORT: // mode, command, crc8
+                return length >= 3 ? 3 : 0;
+            case MtFrameConstants.EN_FRAME_FORMAT_LONG: // mode, command, size, payload, crc8
+                return length >= 3 && length >= 4 + (frame[offset + 2] & 0xFF) ? 4 + (frame[offset + 2] & 0xFF) : 0;
+            case MtFrameConstants.EN_FRAME_FORMAT_EXT: // mode, command, size lsb, size msb, payload, crc16
+                if (length < 4) {
+                    return 0;
+                }
+                int size = (frame[offset + 2] & 0xFF) | (frame[offset + 3] & 0xFF) << 8;
+                return length >= 6 + size ? 6 + size : 0;
+            default:
+                return -1;
+        }
+    }
+
+    // ##### Helper & private methods #####
+
+    private static byte[] edcPayload(int devMode, int measId, float result, boolean laserOn) {
+        MtBaseFrame frame = new MtRequestFrame(MAX_FRAME_SIZE);
+        frame.pushUint8ToData((byte) (devMode << 2)); // ref edge (2 bit), dev mode (6 bit)
+        frame.pushUint8ToData((byte) (laserOn ? 1 : 0)); // laser, temp/battery warnings, units, status
+        frame.pushUint16ToData((short) measId);
+        frame.pushUint32ToData(Float.floatToIntBits(result));
+        frame.pushUint32ToData(Float.floatToIntBits(0f)); // comp1
+        frame.pushUint32ToData(Float.floatToIntBits(0f)); // comp2
+        return frame.getPayloadData();
+    }
+
+    private static byte[] syncPayload(int mode, float result, int measListIndex, boolean laserOn) {
+        MtBaseFrame frame = new MtRequestFrame(MAX_FRAME_SIZE);
+        frame.pushUint8ToData((byte) mode); // mode (5 bit), calc indicator (3 bit)
+        frame.pushUint8ToData((byte) 0); // references, units
+        frame.pushUint8ToData((byte) 100); // state of charge
+        frame.pushUint8ToData((byte) 20); // temperature
+        frame.pushUint32ToData(Float.floatToIntBits(result)); // distance 1
+        frame.pushUint32ToData(Float.floatToIntBits(0f)); // distance 2
+        frame.pushUint32ToData(Float.floatToIntBits(0f)); // distance 3
+        frame.pushUint32ToData(Float.floatToIntBits(result));
+        frame.pushUint32ToData(Float.floatToIntBits(0f)); // angle
+        frame.pushUint32ToData(0); // timestamp
+        frame.pushUint8ToData((byte) (laserOn ? 1 : 0)); // laser (1 bit), errors (7 bit)
+        frame.pushUint8ToData((byte) measListIndex);
+        frame.pushUint8ToData((byte) 0); // reserved
+        frame.pushUint8ToData((byte) 0);
+        frame.pushUint8ToData((byte) 0);
+        return frame.getPayloadData();
+    }
+
+    private static byte[] edctPayload(int devMode, int measId, float result) {
+        MtBaseFrame frame = new MtRequestFrame(MAX_FRAME_SIZE);
+        frame.pushUint8ToData((byte) (1 | devMode << 3)); // packet number (3 bit), dev mode (2 bit), reserved
+        frame.pushUint8ToData((byte) 0); // alarms and warnings
+        frame.pushUint16ToData((short) measId);
+        frame.pushUint32ToData(Float.floatToIntBits(result));
+        frame.pushUint32ToData(Float.floatToIntBits(0f)); // comp1
+        frame.pushUint32ToData(Float.floatToIntBits(0f)); // comp2
+        return frame.getPayloadData();
+    }
+
+    private static byte[] request(byte command, byte[] payload) {
+        MtRequestFrame frame = new MtRequestFrame(MAX_FRAME_SIZE);
+        frame.setFrameMode(MtFrameConstants.EN_FRAME_MODE_LONG_REQ_LONG_RESP);
+        frame.setCommand(command);
+        for (byte b : payload) {
+            frame.pushUint8ToData(b);
+        }
+        return write(new MtFrameByteWriter(frame));
+    }
+
+    private static byte[] response(byte command, byte[] payload) {
+        MtResponseFrame frame = new MtResponseFrame(MAX_FRAME_SIZE);
+        frame.setFrameFormat(MtFrameConstants.EN_FRAME_FORMAT_LONG);
+        frame.setCommand(command);
+        for (byte b : payload) {
+            frame.pushUint8ToData(b);
+        }
+        return write(new MtFrameByteWriter(frame));
+    }
+
+    private static byte[] write(MtFrameByteWriter writer) {
+        byte[] buffer = new byte[MAX_FRAME_SIZE];
+        int length = writer.write(buffer);
+        return Arrays.copyOf(buffer, length);
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.t4.simulator;
+
+/**
+ * Timing and fault injection of a simulated device
+ */
+public final class SimulationConfig {
+
+    private double framesPerSecond = 10;
+    private long latencyInMs = 20;
+    private long latencyJitterInMs = 0;
+    private double lossRate = 0;
+    private double connectFailureRate = 0;
+    private long connectTimeInMs = 300;
+    private int mtu = 23;
+    private long seed = 1;
+
+    public double getFramesPerSecond() {
+        return framesPerSecond;
+    }
+
+    /**
+     * @param framesPerSecond measurement frames sent per second; 0 to send none
+     */
+    public void setFramesPerSecond(double framesPerSecond) {
+        this.framesPerSecond = framesPerSecond;
+    }
+
+    public long getLatencyInMs() {
+        return latencyInMs;
+    }
+
+    /**
+     * @param latencyInMs delay of every frame and every answer to the app
+     */
+    public void setLatencyInMs(long latencyInMs) {
+        this.latencyInMs = latencyInMs;
+    }
+
+    public long getLatencyJitterInMs() {
+        return latencyJitterInMs;
+    }
+
+    /**
+     * @param latencyJitterInMs random additional delay, 0 up to this value
+     */
+    public void setLatencyJitterInMs(long latencyJitterInMs) {
+        this.latencyJitterInMs = latencyJitterInMs;
+    }
+
+    public double getLossRate() {
+        return lossRate;
+    }
+
+    /**
+     * @param lossRate probability that a measurement frame is lost, 0..1
+     */
+    public void setLossRate(double lossRate) {
+        this.lossRate = lossRate;
+    }
+
+    public double getConnectFailureRate() {
+        return connectFailureRate;
+    }
+
+    /**
+     * @param connectFailureRate probability that a connect fails like GATT error 133, 0..1
+     */
+    public void setConnectFailureRate(double connectFailureRate) {
+        this.connectFailureRate = connectFailureRate;
+    }
+
+    public long getConnectTimeInMs() {
+        return connectTimeInMs;
+    }
+
+    /**
+     * @param connectTimeInMs time from openConnection() to STATE_CONNECTED or the failure
+     */
+    public void setConnectTimeInMs(long connectTimeInMs) {
+        this.connectTimeInMs = connectTimeInMs;
+    }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    /**
+     * @param mtu ATT MTU of the simulated BLE link; notifications carry at most mtu - 3 bytes
+     */
+    public void setMtu(int mtu) {
+        this.mtu = mtu;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @param seed random seed of latency jitter and faults, for reproducible runs
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.t4.simulator;
+
+import com.bosch.mtprotocol.MtMessage;
+import com.bosch.mtprotocol.MtProtocol;
+import com.bosch.mtprotocol.glm100C.MtProtocolBLEImpl;
+import com.bosch.mtprotocol.glm100C.connection.MtAsyncConnection;
+import com.bosch.mtprotocol.glm100C.event.MtProtocolReceiveMessageEvent;
+import com.bosch.mtprotocol.glm100C.message.edc.EDCInputMessage;
+import com.bosch.mtprotocol.thermo.message.edct.EDCTInputMessage;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SimulatedBLEConnectionTest {
+
+    @Test
+    public void frames_areDecodedByProtocol() throws InterruptedException {
+        SimulationConfig config = new SimulationConfig();
+        config.setConnectTimeInMs(0);
+        config.setLatencyInMs(0);
+        config.setFramesPerSecond(200);
+        SimulatedBLEConnection connection = new SimulatedBLEConnection(FrameSources.scripted(
+                SimulatedFrames.edc(EDCInputMessage.MODE_CONTINUOUS_DISTANCE, 7, 1.5f, true),
+                SimulatedFrames.edct(EDCTInputMessage.MODE_SURFACE_TEMPERATURE, 8, 21.5f)), config);
+
+        List<MtMessage> messages = receive(connection, 2);
+        connection.shutdown();
+
+        assertEquals(2, messages.size());
+        EDCInputMessage edc = (EDCInputMessage) messages.get(0);
+        assertEquals(EDCInputMessage.MODE_CONTINUOUS_DISTANCE, edc.getDevMode());
+        assertEquals(7, edc.getMeasID());
+        assertEquals(1.5f, edc.getResult(), 0);
+        assertEquals(EDCInputMessage.LASER_ON, edc.getLaserOn());
+        EDCTInputMessage edct = (EDCTInputMessage) messages.get(1);
+        assertEquals(21.5f, edct.getResult(), 0);
+    }
+
+    @Test
+    public void frames_areSplitByMtu() throws InterruptedException {
+        SimulationConfig config = new SimulationConfig();
+        config.setConnectTimeInMs(0);
+        config.setLatencyInMs(0);
+        config.setMtu(10);
+        config.setFramesPerSecond(200);
+        SimulatedBLEConnection connection = new SimulatedBLEConnection(FrameSources.randomContinuousDistance(1, 3f, 0f), config);
+
+        List<MtMessage> messages = receive(connection, 3);
+        connection.shutdown();
+
+        assertEquals(3f, ((EDCInputMessage) messages.get(2)).getResult(), 0);
+    }
+
+    @Test
+    public void connectFailure_reportsNoneThenTimeout() throws InterruptedException {
+        SimulationConfig config = new SimulationConfig();
+        config.setConnectTimeInMs(0);
+        config.setConnectFailureRate(1);
+        SimulatedBLEConnection connection = new SimulatedBLEConnection(FrameSources.randomSingleDistance(1), config);
+        final List<Integer> states = new CopyOnWriteArrayList<>();
+        final CountDownLatch timeout = new CountDownLatch(1);
+        connection.addObserver(new MtAsyncConnection.MTAsyncConnectionObserver() {
+            @Override
+            public void onConnectionStateChanged(MtAsyncConnection connection) {
+                states.add(connection.getState());
+                if (connection.getState() == MtAsyncConnection.STATE_TIMEOUT) {
+                    timeout.countDown();
+                }
+            }
+        });
+
+        connection.openConnection();
+        assertTrue(timeout.await(2, TimeUnit.SECONDS));
+        connection.shutdown();
+
+        assertEquals(Integer.valueOf(MtAsyncConnection.STATE_CONNECTING), states.get(0));
+        assertEquals(Integer.valueOf(MtAsyncConnection.STATE_NONE), states.get(1));
+        assertEquals(Integer.valueOf(MtAsyncConnection.STATE_TIMEOUT), states.get(2));
+        assertEquals(1, connection.getConnectFailures());
+    }
+
+    @Test
+    public void requestLength_detectsCompleteRequest() {
+        byte[] frame = SimulatedFrames.edc(EDCInputMessage.MODE_SINGLE_DISTANCE, 1, 1f, false);
+
+        assertEquals(frame.length, SimulatedFrames.requestLength(frame, 0, frame.length));
+        assertEquals(0, SimulatedFrames.requestLength(frame, 0, frame.length - 1));
+        assertEquals(-1, SimulatedFrames.requestLength(SimulatedFrames.idleResponse(SimulatedFrames.CMD_EDC), 0, 3));
+    }
+
+    private static List<MtMessage> receive(SimulatedBLEConnection connection, int count) throws InterruptedException {
+        final List<MtMessage> messages = new CopyOnWriteArrayList<>();
+        final CountDownLatch received = new CountDownLatch(count);
+        final MtProtocolBLEImpl protocol = new MtProtocolBLEImpl();
+        protocol.addObserver(new MtProtocol.MTProtocolEventObserver() {
+            @Override
+            public void onEvent(MtProtocol.MTProtocolEvent event) {
+                if (event instanceof MtProtocolReceiveMessageEvent && received.getCount() > 0) {
+                    messages.add(((MtProtocolReceiveMessageEvent) event).getMessage());
+                    received.countDown();
+                }
+            }
+        });
+        protocol.initialize(connection);
+        connection.openConnection();
+        assertTrue(received.await(2, TimeUnit.SECONDS));
+        protocol.destroy();
+        return messages;
+    }
+}